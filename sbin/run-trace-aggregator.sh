@@ -0,0 +1,3 @@
+#!/usr/bin/env bash
+java -classpath bin/las-vpe-platform-0.0.1-full.jar \
+    org.cripac.isee.vpe.ctrl.TraceAggregator "$@"
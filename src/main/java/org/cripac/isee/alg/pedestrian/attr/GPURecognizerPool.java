@@ -0,0 +1,235 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.attr;
+
+import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
+import org.cripac.isee.vpe.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class GPURecognizerPool recognizes attributes with one recognizer on each of several GPUs.
+ * <p>
+ * Bounding boxes to recognize are put into a shared bounded queue. Each GPU has a worker thread,
+ * which takes as many bounding boxes as available (up to a maximum batch size) from the queue
+ * and recognizes them in one batch. Since a worker only takes work when its GPU is free,
+ * work always goes to the least-loaded GPU, and the throughput scales with the number of GPUs.
+ * When the queue is full, callers block until the workers catch up.
+ */
+public class GPURecognizerPool implements Recognizer, BatchRecognizer {
+
+    /**
+     * Factory creating a recognizer on a GPU.
+     */
+    @FunctionalInterface
+    public interface DeviceRecognizerFactory {
+        /**
+         * @param gpu index of the GPU.
+         * @return a recognizer running on the GPU.
+         * @throws Exception On failure creating the recognizer.
+         */
+        BatchRecognizer produce(int gpu) throws Exception;
+    }
+
+    /**
+     * A bounding box to recognize and the future result.
+     */
+    private static class Job {
+        final Tracklet.BoundingBox bbox;
+        final CompletableFuture<Attributes> result = new CompletableFuture<>();
+
+        Job(Tracklet.BoundingBox bbox) {
+            this.bbox = bbox;
+        }
+    }
+
+    private final BlockingQueue<Job> queue;
+    private final int maxBatchSize;
+    private final Logger logger;
+    private final List<Worker> workers = new ArrayList<>();
+
+    /**
+     * Create a pool with a recognizer on each of the GPUs.
+     * Recognizers are created in the worker threads they are used in.
+     *
+     * @param gpus          indices of GPUs, separated by commas.
+     * @param factory       factory creating a recognizer on a GPU.
+     * @param queueCapacity maximum number of bounding boxes waiting for recognition.
+     * @param maxBatchSize  maximum number of bounding boxes recognized in a batch.
+     * @param logger        logger for reporting.
+     * @throws Exception On failure creating recognizers on all the GPUs.
+     */
+    public GPURecognizerPool(@Nonnull String gpus,
+                             @Nonnull DeviceRecognizerFactory factory,
+                             int queueCapacity,
+                             int maxBatchSize,
+                             @Nonnull Logger logger) throws Exception {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.logger = logger;
+
+        final String[] gpuIDs = gpus.split(",");
+        final CountDownLatch initLatch = new CountDownLatch(gpuIDs.length);
+        for (String gpuID : gpuIDs) {
+            Worker worker = new Worker(Integer.parseInt(gpuID.trim()), factory, initLatch);
+            worker.start();
+            workers.add(worker);
+        }
+        initLatch.await();
+        workers.removeIf(worker -> worker.recognizer == null);
+        if (workers.isEmpty()) {
+            throw new IllegalStateException("Failed to create recognizers on any of the GPUs " + gpus);
+        }
+        logger.info("Recognizing attributes with " + workers.size() + " GPUs.");
+    }
+
+    /**
+     * Put jobs into the queue, blocking when the queue is full.
+     */
+    private List<Job> submit(Collection<Tracklet.BoundingBox> bboxes) throws InterruptedException {
+        List<Job> jobs = new ArrayList<>(bboxes.size());
+        for (Tracklet.BoundingBox bbox : bboxes) {
+            final Job job = new Job(bbox);
+            queue.put(job);
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    private static Attributes getResult(Job job) {
+        try {
+            return job.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for recognition", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("On recognizing attributes", e.getCause());
+        }
+    }
+
+    /**
+     * Recognize attributes from a pedestrian tracklet.
+     * The samples of the tracklet are recognized in parallel on all the GPUs.
+     *
+     * @param tracklet a pedestrian tracklet.
+     * @return attributes of the pedestrian specified by the tracklet.
+     */
+    @Nonnull
+    @Override
+    public Attributes recognize(@Nonnull Tracklet tracklet) {
+        final Collection<Tracklet.BoundingBox> samples = tracklet.getSamples();
+        assert samples.size() >= 1;
+        final List<Job> jobs;
+        try {
+            jobs = submit(samples);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while submitting samples", e);
+        }
+        //noinspection OptionalGetWithoutIsPresent
+        return Attributes.div(
+                jobs.stream().map(GPURecognizerPool::getResult).reduce(Attributes::add).get(),
+                samples.size());
+    }
+
+    /**
+     * Recognize attributes from a batch of pedestrian bounding box images.
+     *
+     * @param bboxes a batch of bounding boxes containing the images.
+     * @return attributes of the pedestrians in the images.
+     */
+    @Nonnull
+    @Override
+    public Attributes[] recognize(@Nonnull Tracklet.BoundingBox[] bboxes) {
+        final List<Job> jobs;
+        try {
+            jobs = submit(Arrays.asList(bboxes));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while submitting bounding boxes", e);
+        }
+        return jobs.stream().map(GPURecognizerPool::getResult).toArray(Attributes[]::new);
+    }
+
+    /**
+     * @return the number of bounding boxes recognized on each GPU so far.
+     */
+    public long[] getNumRecognized() {
+        return workers.stream().mapToLong(worker -> worker.numRecognized.get()).toArray();
+    }
+
+    /**
+     * The worker thread recognizing batches on a GPU.
+     */
+    private class Worker extends Thread {
+        private final int gpu;
+        private final DeviceRecognizerFactory factory;
+        private final CountDownLatch initLatch;
+        private volatile BatchRecognizer recognizer = null;
+        private final AtomicLong numRecognized = new AtomicLong(0);
+
+        Worker(int gpu, DeviceRecognizerFactory factory, CountDownLatch initLatch) {
+            super("attr-recog-gpu-" + gpu);
+            setDaemon(true);
+            this.gpu = gpu;
+            this.factory = factory;
+            this.initLatch = initLatch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                recognizer = factory.produce(gpu);
+            } catch (Exception e) {
+                logger.error("Failed to create recognizer on GPU " + gpu, e);
+                return;
+            } finally {
+                initLatch.countDown();
+            }
+
+            final List<Job> batch = new ArrayList<>(maxBatchSize);
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, maxBatchSize - 1);
+                try {
+                    final Attributes[] results = recognizer.recognize(
+                            batch.stream().map(job -> job.bbox).toArray(Tracklet.BoundingBox[]::new));
+                    for (int i = 0; i < batch.size(); ++i) {
+                        batch.get(i).result.complete(results[i]);
+                    }
+                    numRecognized.addAndGet(batch.size());
+                } catch (Throwable t) {
+                    logger.error("On recognizing a batch of " + batch.size() + " on GPU " + gpu, t);
+                    batch.forEach(job -> job.result.completeExceptionally(t));
+                }
+                batch.clear();
+            }
+        }
+    }
+}
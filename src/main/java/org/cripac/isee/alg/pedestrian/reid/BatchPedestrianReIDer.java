@@ -0,0 +1,37 @@
+/*
+ * This file is part of LaS-VPE-Platform.
+ *
+ * LaS-VPE-Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE-Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE-Platform. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.alg.pedestrian.reid;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * ReIDers supporting batch searching against the gallery should implement this interface.
+ * A batch is searched in one pass, so the cost of scanning the gallery is shared by all the queries.
+ */
+public interface BatchPedestrianReIDer {
+
+    /**
+     * Perform ReID with a batch of target pedestrians.
+     *
+     * @param pedestrians a batch of target pedestrians.
+     * @return ranks of possible IDs of the pedestrians, in the same order as the input.
+     * @throws IOException On error conducting ReID.
+     */
+    @Nonnull
+    int[][] reid(@Nonnull PedestrianInfo[] pedestrians) throws IOException;
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of LaS-VPE-Platform.
+ *
+ * LaS-VPE-Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE-Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE-Platform. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.alg.pedestrian.reid;
+
+import com.google.gson.Gson;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+
+/**
+ * The class IDRank is the result of ReID on a query pedestrian,
+ * containing the IDs of possible matches in descending order of similarity.
+ */
+public class IDRank implements Serializable {
+
+    private static final long serialVersionUID = -2317786452396514937L;
+
+    /**
+     * ID of the query pedestrian.
+     */
+    public final String queryID;
+
+    /**
+     * IDs of the possible matches, the most similar one first.
+     */
+    public final int[] ids;
+
+    /**
+     * Similarities between the query and each match, in the same order as the IDs.
+     */
+    public final float[] similarities;
+
+    /**
+     * Create an ID rank with similarities derived from the ranking,
+     * for ReIDers that only output ranks. The i-th match is given 1 / (i + 1).
+     *
+     * @param queryID ID of the query pedestrian.
+     * @param ids     IDs of the possible matches, the most similar one first.
+     */
+    public IDRank(@Nonnull String queryID,
+                  @Nonnull int[] ids) {
+        this(queryID, ids, rankToSimilarity(ids.length));
+    }
+
+    /**
+     * Create an ID rank with similarities given.
+     *
+     * @param queryID      ID of the query pedestrian.
+     * @param ids          IDs of the possible matches, the most similar one first.
+     * @param similarities similarities between the query and each match.
+     */
+    public IDRank(@Nonnull String queryID,
+                  @Nonnull int[] ids,
+                  @Nonnull float[] similarities) {
+        assert ids.length == similarities.length;
+        this.queryID = queryID;
+        this.ids = ids;
+        this.similarities = similarities;
+    }
+
+    private static float[] rankToSimilarity(int length) {
+        final float[] similarities = new float[length];
+        for (int i = 0; i < length; ++i) {
+            similarities[i] = 1.0f / (i + 1);
+        }
+        return similarities;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return new Gson().toJson(this);
+    }
+}
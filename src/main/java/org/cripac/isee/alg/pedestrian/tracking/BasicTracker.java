@@ -23,12 +23,16 @@ import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
 import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.cripac.isee.alg.pedestrian.attr.DeepMARCaffe2;
+import org.cripac.isee.util.CancellationToken;
 import org.cripac.isee.vpe.util.logging.ConsoleLogger;
 import org.cripac.isee.vpe.util.logging.Logger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 
 import static org.bytedeco.javacpp.avutil.AV_LOG_QUIET;
 import static org.bytedeco.javacpp.avutil.av_log_set_level;
@@ -40,7 +44,7 @@ import static org.bytedeco.javacpp.avutil.av_log_set_level;
  *
  * @author Ken Yu, CRIPAC, 2016
  */
-public class BasicTracker implements Tracker {
+public class BasicTracker implements Tracker, SegmentTracker, RealTimeTracker {
 
     static {
         org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(DeepMARCaffe2.class);
@@ -56,7 +60,9 @@ public class BasicTracker implements Tracker {
     }
 
     private byte[] conf;
+    private DecodeOptions decodeOptions;
     private Logger logger;
+    private CancellationToken cancellation;
 
     public BasicTracker(@Nonnull byte[] conf) {
         this(conf, null);
@@ -70,7 +76,23 @@ public class BasicTracker implements Tracker {
      */
     public BasicTracker(@Nonnull byte[] conf,
                         @Nullable Logger logger) {
+        this(conf, logger, CancellationToken.NONE);
+    }
+
+    /**
+     * Construct a tracker with a configuration, which stops tracking on videos
+     * once the task it serves is cancelled.
+     *
+     * @param conf         The byte data of the configuration file.
+     * @param logger       logger for reporting. A console logger is used if it is null.
+     * @param cancellation token of the task, checked once per frame decoded.
+     */
+    public BasicTracker(@Nonnull byte[] conf,
+                        @Nullable Logger logger,
+                        @Nonnull CancellationToken cancellation) {
+        this.cancellation = cancellation;
         this.conf = conf;
+        this.decodeOptions = DecodeOptions.parse(conf);
         if (logger == null) {
             this.logger = new ConsoleLogger();
         } else {
@@ -87,18 +109,69 @@ public class BasicTracker implements Tracker {
     @Nonnull
     @Override
     public Tracklet[] track(@Nonnull InputStream videoStream) throws FrameGrabber.Exception {
+        return track(videoStream, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Track pedestrians on a segment of a video.
+     * If the stream supports marks (e.g. {@link org.cripac.isee.vpe.util.hdfs.SeekableHDFSInputStream}),
+     * the decoder seeks to the segment. Otherwise, frames before the segment are decoded and skipped.
+     * <p>
+     * The {@link DecodeOptions} in the configuration select which frames are fed into the tracker
+     * and at which resolution. The tracklets are restored to every frame and the resolution of the source.
+     *
+     * @param videoStream the stream of the whole video.
+     * @param startFrame  index of the first frame to track.
+     * @param endFrame    index after the last frame to track. Tracking stops earlier if the video ends.
+     * @return tracklets in the segment, with start frame indices relative to the whole video.
+     * @throws CancellationException if the task is cancelled during tracking.
+     */
+    @Nonnull
+    @Override
+    public Tracklet[] track(@Nonnull InputStream videoStream,
+                            int startFrame,
+                            int endFrame) throws FrameGrabber.Exception {
         FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(videoStream);
         av_log_set_level(AV_LOG_QUIET);
+        if (decodeOptions.keyFrameOnly) {
+            // Let the decoder drop non-key frames before decoding them.
+            frameGrabber.setVideoOption("skip_frame", "nokey");
+        }
         frameGrabber.start();
+        final int srcWidth = frameGrabber.getImageWidth();
+        final int srcHeight = frameGrabber.getImageHeight();
+        final int width = Math.max(1, (int) Math.round(srcWidth * decodeOptions.downScale));
+        final int height = Math.max(1, (int) Math.round(srcHeight * decodeOptions.downScale));
+        if (width != srcWidth || height != srcHeight) {
+            // Frames are scaled by the decoder.
+            frameGrabber.setImageWidth(width);
+            frameGrabber.setImageHeight(height);
+        }
         logger.debug("Initialized video decoder!");
 
-        long trackerPointer = initialize(frameGrabber.getImageWidth(), frameGrabber.getImageHeight(), 3, conf);
+        long trackerPointer = initialize(width, height, 3, conf);
         logger.debug("Initialized tracker!");
 
+        final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+        int frameIndex = 0;
+        if (startFrame > 0 && videoStream.markSupported()) {
+            frameGrabber.setFrameNumber(startFrame);
+            frameIndex = frameGrabber.getFrameNumber();
+            logger.debug("Seeked to frame " + frameIndex + " for segment starting at frame " + startFrame);
+        }
+        // Seeking may overshoot the segment start, in which case tracking starts from the frame seeked to.
+        final int firstFrame = Math.max(startFrame, frameIndex);
+        // Indices in the video of the frames fed into the tracker.
+        int[] fedIndices = new int[1024];
         int cnt = 0;
         // Every time a frame is retrieved during decoding, it is immediately fed into the tracker,
         // so as to save runtime memory.
+        boolean cancelled = false;
         while (true) {
+            if (cancellation.isCancelled()) {
+                cancelled = true;
+                break;
+            }
             Frame frame;
             try {
                 frame = frameGrabber.grabImage();
@@ -109,18 +182,34 @@ public class BasicTracker implements Tracker {
             if (frame == null) {
                 break;
             }
+            // With key frames only, the frames decoded are not consecutive.
+            final int index = decodeOptions.keyFrameOnly ? frameGrabber.getFrameNumber() : frameIndex;
+            ++frameIndex;
+            if (index >= endFrame) {
+                break;
+            }
+            if (index < firstFrame || (index - firstFrame) % decodeOptions.frameStride != 0) {
+                continue;
+            }
             final byte[] buf = new byte[frame.imageHeight * frame.imageWidth * frame.imageChannels];
-            final opencv_core.Mat cvFrame = new OpenCVFrameConverter.ToMat().convert(frame);
-            cvFrame.data().get(buf);
+            converter.convert(frame).data().get(buf);
             int ret = feedFrame(trackerPointer, buf);
             if (ret != 0) {
                 break;
             }
-            ++cnt;
+            if (cnt == fedIndices.length) {
+                fedIndices = Arrays.copyOf(fedIndices, cnt * 2);
+            }
+            fedIndices[cnt++] = index;
             if (cnt % 1000 == 0) {
                 logger.debug("Tracked " + cnt + " frames!");
             }
         }
+        frameGrabber.release();
+        if (cancelled) {
+            free(trackerPointer);
+            throw new CancellationException("Tracking is cancelled after " + cnt + " frames.");
+        }
 
         logger.debug("Totally processed " + cnt + " framed!");
         logger.debug("Getting targets...");
@@ -129,6 +218,7 @@ public class BasicTracker implements Tracker {
         free(trackerPointer);
 
         for (int i = 0; i < targets.length; ++i) {
+            targets[i] = DecodeOptions.restore(targets[i], fedIndices, (double) srcWidth / width, (double) srcHeight / height);
             targets[i].numTracklets = targets.length;
             targets[i].id.serialNumber = i;
         }
@@ -136,6 +226,83 @@ public class BasicTracker implements Tracker {
         return targets;
     }
 
+    /**
+     * Track pedestrians on a live video stream window by window.
+     * A native tracker is created for each window, and freed when the tracklets of the window are retrieved,
+     * while the decoder lives as long as the stream. If decoding fails, the tracklets of the current window
+     * are reported before the failure is thrown.
+     *
+     * @param liveStream the live video stream.
+     * @param windowMs   duration of each window in milliseconds.
+     * @param consumer   receiver of the tracklets in each window.
+     * @param running    checked before each frame. Tracking stops when it returns false.
+     * @throws Exception On failure decoding the stream or tracking.
+     */
+    @Override
+    public void track(@Nonnull InputStream liveStream,
+                      long windowMs,
+                      @Nonnull WindowConsumer consumer,
+                      @Nonnull BooleanSupplier running) throws Exception {
+        FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(liveStream);
+        av_log_set_level(AV_LOG_QUIET);
+        frameGrabber.start();
+        logger.debug("Initialized live video decoder!");
+
+        final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+        int frameIndex = 0;
+        FrameGrabber.Exception failure = null;
+        try {
+            boolean ended = false;
+            while (!ended && running.getAsBoolean()) {
+                final long windowStartTime = System.currentTimeMillis();
+                final int windowStartFrame = frameIndex;
+                long trackerPointer = initialize(frameGrabber.getImageWidth(), frameGrabber.getImageHeight(), 3, conf);
+                try {
+                    while (System.currentTimeMillis() - windowStartTime < windowMs) {
+                        if (!running.getAsBoolean()) {
+                            ended = true;
+                            break;
+                        }
+                        final Frame frame;
+                        try {
+                            frame = frameGrabber.grabImage();
+                        } catch (FrameGrabber.Exception e) {
+                            // Report the tracklets so far before failing.
+                            failure = e;
+                            break;
+                        }
+                        if (frame == null) {
+                            ended = true;
+                            break;
+                        }
+                        final byte[] buf = new byte[frame.imageHeight * frame.imageWidth * frame.imageChannels];
+                        converter.convert(frame).data().get(buf);
+                        if (feedFrame(trackerPointer, buf) != 0) {
+                            ended = true;
+                            break;
+                        }
+                        ++frameIndex;
+                    }
+                    final Tracklet[] targets = getTargets(trackerPointer);
+                    for (int i = 0; i < targets.length; ++i) {
+                        targets[i].numTracklets = targets.length;
+                        targets[i].id.serialNumber = i;
+                    }
+                    logger.debug("Got " + targets.length + " targets in frames ["
+                            + windowStartFrame + ", " + frameIndex + ")");
+                    consumer.accept(windowStartTime, windowStartFrame, targets);
+                } finally {
+                    free(trackerPointer);
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        } finally {
+            frameGrabber.release();
+        }
+    }
+
     /**
      * Initialize a native tracker.
      *
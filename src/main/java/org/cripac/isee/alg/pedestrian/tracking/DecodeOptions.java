@@ -0,0 +1,178 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.tracking;
+
+import org.bytedeco.javacpp.opencv_core;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+
+/**
+ * The DecodeOptions trade the fidelity of tracking for throughput, by feeding fewer and smaller frames
+ * into a tracker. They are read from the [DECODE] section of a tracking configuration (e.g. CAM01_0.conf):
+ * <pre>
+ * [DECODE]
+ * iFrameStride=2
+ * bKeyFrameOnly=0
+ * dDownScale=0.5
+ * </pre>
+ * Without the section, every frame is tracked at full resolution.
+ * Tracklets tracked with these options are restored to every frame and the resolution of the video
+ * by {@link #restore(Tracklet, int[], double, double)}.
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+public class DecodeOptions implements Serializable {
+
+    private static final long serialVersionUID = -2480412063758418062L;
+
+    /**
+     * Track one in every this number of frames.
+     */
+    public int frameStride = 1;
+    /**
+     * Decode and track key frames only. Non-key frames are dropped by the decoder without being decoded.
+     */
+    public boolean keyFrameOnly = false;
+    /**
+     * Ratio the frames are scaled by when decoding, in (0, 1].
+     */
+    public double downScale = 1;
+
+    /**
+     * @return whether every frame is tracked at full resolution.
+     */
+    public boolean isFullFidelity() {
+        return frameStride == 1 && !keyFrameOnly && downScale == 1;
+    }
+
+    /**
+     * Read the options from a tracking configuration.
+     *
+     * @param conf bytes of the configuration.
+     * @return the options, which are the defaults if the configuration has no [DECODE] section.
+     */
+    @Nonnull
+    public static DecodeOptions parse(@Nonnull byte[] conf) {
+        final DecodeOptions options = new DecodeOptions();
+        boolean inSection = false;
+        for (String line : new String(conf, StandardCharsets.UTF_8).split("\r?\n")) {
+            line = line.trim();
+            if (line.startsWith("[")) {
+                inSection = line.equals("[DECODE]");
+                continue;
+            }
+            final int eq = line.indexOf('=');
+            if (!inSection || eq < 0) {
+                continue;
+            }
+            final String value = line.substring(eq + 1).trim();
+            switch (line.substring(0, eq).trim()) {
+                case "iFrameStride":
+                    options.frameStride = Integer.parseInt(value);
+                    break;
+                case "bKeyFrameOnly":
+                    options.keyFrameOnly = Integer.parseInt(value) != 0;
+                    break;
+                case "dDownScale":
+                    options.downScale = Double.parseDouble(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (options.frameStride < 1) {
+            throw new IllegalArgumentException("iFrameStride must be positive: " + options.frameStride);
+        }
+        if (options.downScale <= 0 || options.downScale > 1) {
+            throw new IllegalArgumentException("dDownScale must be in (0, 1]: " + options.downScale);
+        }
+        return options;
+    }
+
+    private static Tracklet.BoundingBox scale(Tracklet.BoundingBox bbox, double scaleX, double scaleY) {
+        if (scaleX == 1 && scaleY == 1) {
+            return bbox;
+        }
+        final Tracklet.BoundingBox scaled = new Tracklet.BoundingBox();
+        scaled.x = (int) Math.round(bbox.x * scaleX);
+        scaled.y = (int) Math.round(bbox.y * scaleY);
+        scaled.width = Math.max(1, (int) Math.round(bbox.width * scaleX));
+        scaled.height = Math.max(1, (int) Math.round(bbox.height * scaleY));
+        if (bbox.patchData != null) {
+            final opencv_core.Mat patch = bbox.getImage();
+            final opencv_core.Mat resized = new opencv_core.Mat();
+            resize(patch, resized, new opencv_core.Size(scaled.width, scaled.height));
+            scaled.patchData = new byte[scaled.width * scaled.height * 3];
+            resized.data().get(scaled.patchData);
+            patch.release();
+            resized.release();
+        }
+        return scaled;
+    }
+
+    /**
+     * Restore a tracklet tracked on selected and scaled frames to every frame and the resolution of the video.
+     * Bounding boxes of the frames not tracked are interpolated linearly, without pixel data.
+     *
+     * @param tracklet   a tracklet, whose start frame index is an index into the frames fed into the tracker.
+     * @param fedIndices indices in the video of the frames fed into the tracker.
+     * @param scaleX     ratio of the width of the video to the width of the fed frames.
+     * @param scaleY     ratio of the height of the video to the height of the fed frames.
+     * @return the restored tracklet, with its start frame index relative to the video.
+     */
+    @Nonnull
+    public static Tracklet restore(@Nonnull Tracklet tracklet,
+                                   @Nonnull int[] fedIndices,
+                                   double scaleX,
+                                   double scaleY) {
+        final Tracklet.BoundingBox[] boxes = tracklet.locationSequence;
+        final int fedStart = tracklet.startFrameIndex;
+        final int start = fedIndices[fedStart];
+        final int length = fedIndices[fedStart + boxes.length - 1] - start + 1;
+        tracklet.startFrameIndex = start;
+        if (length == boxes.length && scaleX == 1 && scaleY == 1) {
+            // Every frame is tracked at full resolution.
+            return tracklet;
+        }
+        final Tracklet.BoundingBox[] restored = new Tracklet.BoundingBox[length];
+        for (int j = 0; j < boxes.length; ++j) {
+            final int pos = fedIndices[fedStart + j] - start;
+            restored[pos] = scale(boxes[j], scaleX, scaleY);
+            if (j > 0) {
+                final int prevPos = fedIndices[fedStart + j - 1] - start;
+                final Tracklet.BoundingBox a = restored[prevPos];
+                final Tracklet.BoundingBox b = restored[pos];
+                for (int k = prevPos + 1; k < pos; ++k) {
+                    final double t = (double) (k - prevPos) / (pos - prevPos);
+                    final Tracklet.BoundingBox interpolated = new Tracklet.BoundingBox();
+                    interpolated.x = (int) Math.round(a.x + (b.x - a.x) * t);
+                    interpolated.y = (int) Math.round(a.y + (b.y - a.y) * t);
+                    interpolated.width = (int) Math.round(a.width + (b.width - a.width) * t);
+                    interpolated.height = (int) Math.round(a.height + (b.height - a.height) * t);
+                    restored[k] = interpolated;
+                }
+            }
+        }
+        tracklet.locationSequence = restored;
+        return tracklet;
+    }
+}
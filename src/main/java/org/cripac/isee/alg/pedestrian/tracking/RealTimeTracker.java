@@ -0,0 +1,64 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.tracking;
+
+import javax.annotation.Nonnull;
+import java.io.InputStream;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The RealTimeTracker interface is for pedestrian trackers able to track on live video streams,
+ * which never end. The stream is cut into windows of a fixed duration,
+ * and the tracklets in each window are reported as soon as the window is closed,
+ * so the latency of the tracklets is bounded by the window duration.
+ * A pedestrian present across the boundary of two windows results in one tracklet in each window.
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+public interface RealTimeTracker {
+
+    /**
+     * Receiver of the tracklets in each window.
+     */
+    @FunctionalInterface
+    interface WindowConsumer {
+        /**
+         * @param windowStartTime time the window started at, in milliseconds since the epoch.
+         * @param startFrameIndex index of the first frame of the window in the stream.
+         * @param tracklets       tracklets in the window,
+         *                        with serial numbers and start frame indices relative to the window.
+         * @throws Exception On failure consuming the tracklets, which stops the tracking.
+         */
+        void accept(long windowStartTime, int startFrameIndex, @Nonnull Tracklet[] tracklets) throws Exception;
+    }
+
+    /**
+     * Track pedestrians on a live video stream, until the stream ends, fails or is stopped.
+     * The tracklets of the last window are reported before returning.
+     *
+     * @param liveStream the live video stream.
+     * @param windowMs   duration of each window in milliseconds.
+     * @param consumer   receiver of the tracklets in each window.
+     * @param running    checked before each frame. Tracking stops when it returns false.
+     * @throws Exception On failure decoding the stream or tracking.
+     */
+    void track(@Nonnull InputStream liveStream,
+               long windowMs,
+               @Nonnull WindowConsumer consumer,
+               @Nonnull BooleanSupplier running) throws Exception;
+}
@@ -0,0 +1,473 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.tracking;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.cripac.isee.util.CancellationToken;
+import org.cripac.isee.vpe.util.logging.ConsoleLogger;
+import org.cripac.isee.vpe.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.bytedeco.javacpp.avutil.AV_LOG_QUIET;
+import static org.bytedeco.javacpp.avutil.av_log_set_level;
+
+/**
+ * The ReferenceTracker is a simple pedestrian tracker written in pure Java, which needs no native tracking library.
+ * It serves as a reference backend to profile and regression-test the tracking pipeline on any machine,
+ * rather than for accuracy on real scenes.
+ * <p>
+ * Each frame is sampled on a coarse grid. A running-average background model marks the cells differing from
+ * the background as foreground, whose connected components are detected as pedestrians. Detections are associated
+ * with the tracks of the previous frames greedily by IoU. A track not associated for several frames ends.
+ * <p>
+ * Parameters are read from the [REFERENCE] section of a tracking configuration, if present:
+ * <pre>
+ * [REFERENCE]
+ * iCellSize=4
+ * dLearnRate=0.05
+ * iFgThresh=30
+ * iMinArea=400
+ * dMinIoU=0.3
+ * iMaxLost=5
+ * iMinLength=5
+ * </pre>
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+public class ReferenceTracker implements Tracker, SegmentTracker, RealTimeTracker {
+
+    private int cellSize = 4;
+    private double learnRate = 0.05;
+    private int fgThresh = 30;
+    private int minArea = 400;
+    private double minIoU = 0.3;
+    private int maxLost = 5;
+    private int minLength = 5;
+    private final Logger logger;
+    private final CancellationToken cancellation;
+
+    /**
+     * Construct a tracker with a configuration.
+     *
+     * @param conf   The byte data of the configuration file.
+     * @param logger logger for reporting. A console logger is used if it is null.
+     */
+    public ReferenceTracker(@Nonnull byte[] conf,
+                            @Nullable Logger logger) {
+        this(conf, logger, CancellationToken.NONE);
+    }
+
+    /**
+     * Construct a tracker with a configuration, which stops tracking on videos
+     * once the task it serves is cancelled.
+     *
+     * @param conf         The byte data of the configuration file.
+     * @param logger       logger for reporting. A console logger is used if it is null.
+     * @param cancellation token of the task, checked once per frame decoded.
+     */
+    public ReferenceTracker(@Nonnull byte[] conf,
+                            @Nullable Logger logger,
+                            @Nonnull CancellationToken cancellation) {
+        this.cancellation = cancellation;
+        this.logger = logger == null ? new ConsoleLogger() : logger;
+        boolean inSection = false;
+        for (String line : new String(conf, StandardCharsets.UTF_8).split("\r?\n")) {
+            line = line.trim();
+            if (line.startsWith("[")) {
+                inSection = line.equals("[REFERENCE]");
+                continue;
+            }
+            final int eq = line.indexOf('=');
+            if (!inSection || eq < 0) {
+                continue;
+            }
+            final String value = line.substring(eq + 1).trim();
+            switch (line.substring(0, eq).trim()) {
+                case "iCellSize":
+                    cellSize = Integer.parseInt(value);
+                    break;
+                case "dLearnRate":
+                    learnRate = Double.parseDouble(value);
+                    break;
+                case "iFgThresh":
+                    fgThresh = Integer.parseInt(value);
+                    break;
+                case "iMinArea":
+                    minArea = Integer.parseInt(value);
+                    break;
+                case "dMinIoU":
+                    minIoU = Double.parseDouble(value);
+                    break;
+                case "iMaxLost":
+                    maxLost = Integer.parseInt(value);
+                    break;
+                case "iMinLength":
+                    minLength = Integer.parseInt(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static double iou(Tracklet.BoundingBox a, Tracklet.BoundingBox b) {
+        final long w = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        final long h = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if (w <= 0 || h <= 0) {
+            return 0;
+        }
+        final long intersection = w * h;
+        return (double) intersection / ((long) a.width * a.height + (long) b.width * b.height - intersection);
+    }
+
+    /**
+     * A pedestrian being tracked.
+     */
+    private static class Track {
+        final int startFrame;
+        final List<Tracklet.BoundingBox> boxes = new ArrayList<>();
+        int lost = 0;
+
+        Track(int startFrame, Tracklet.BoundingBox first) {
+            this.startFrame = startFrame;
+            boxes.add(first);
+        }
+
+        Tracklet.BoundingBox last() {
+            return boxes.get(boxes.size() - 1);
+        }
+    }
+
+    /**
+     * State of tracking on consecutive frames: the background model and the tracks.
+     */
+    class Session {
+        private final int width;
+        private final int height;
+        private final int gridWidth;
+        private final int gridHeight;
+        private final float[] background;
+        private final boolean[] foreground;
+        private final int[] queue;
+        private final List<Track> active = new ArrayList<>();
+        private final List<Track> finished = new ArrayList<>();
+        private int frameIndex = 0;
+
+        Session(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.gridWidth = (width + cellSize - 1) / cellSize;
+            this.gridHeight = (height + cellSize - 1) / cellSize;
+            this.background = new float[gridWidth * gridHeight];
+            this.foreground = new boolean[gridWidth * gridHeight];
+            this.queue = new int[gridWidth * gridHeight];
+        }
+
+        /**
+         * Update the background model and mark foreground cells.
+         */
+        private void segment(byte[] bgr) {
+            for (int gy = 0; gy < gridHeight; ++gy) {
+                for (int gx = 0; gx < gridWidth; ++gx) {
+                    final int p = ((gy * cellSize) * width + gx * cellSize) * 3;
+                    final float gray = (0.114f * (bgr[p] & 0xFF)
+                            + 0.587f * (bgr[p + 1] & 0xFF)
+                            + 0.299f * (bgr[p + 2] & 0xFF));
+                    final int cell = gy * gridWidth + gx;
+                    if (frameIndex == 0) {
+                        background[cell] = gray;
+                    }
+                    final float diff = gray - background[cell];
+                    foreground[cell] = Math.abs(diff) > fgThresh;
+                    // Foreground cells are learned slowly, so that pedestrians do not fade into the background.
+                    background[cell] += (foreground[cell] ? learnRate * 0.1 : learnRate) * diff;
+                }
+            }
+        }
+
+        /**
+         * Detect connected components of foreground cells.
+         */
+        private List<Tracklet.BoundingBox> detect() {
+            final List<Tracklet.BoundingBox> detections = new ArrayList<>();
+            final boolean[] visited = new boolean[foreground.length];
+            for (int seed = 0; seed < foreground.length; ++seed) {
+                if (!foreground[seed] || visited[seed]) {
+                    continue;
+                }
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = seed;
+                visited[seed] = true;
+                int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+                while (head < tail) {
+                    final int cell = queue[head++];
+                    final int cx = cell % gridWidth;
+                    final int cy = cell / gridWidth;
+                    minX = Math.min(minX, cx);
+                    maxX = Math.max(maxX, cx);
+                    minY = Math.min(minY, cy);
+                    maxY = Math.max(maxY, cy);
+                    for (int dy = -1; dy <= 1; ++dy) {
+                        for (int dx = -1; dx <= 1; ++dx) {
+                            final int nx = cx + dx;
+                            final int ny = cy + dy;
+                            if (nx >= 0 && nx < gridWidth && ny >= 0 && ny < gridHeight) {
+                                final int neighbor = ny * gridWidth + nx;
+                                if (foreground[neighbor] && !visited[neighbor]) {
+                                    visited[neighbor] = true;
+                                    queue[tail++] = neighbor;
+                                }
+                            }
+                        }
+                    }
+                }
+                final Tracklet.BoundingBox bbox = new Tracklet.BoundingBox();
+                bbox.x = minX * cellSize;
+                bbox.y = minY * cellSize;
+                bbox.width = Math.min((maxX + 1) * cellSize, width) - bbox.x;
+                bbox.height = Math.min((maxY + 1) * cellSize, height) - bbox.y;
+                if (bbox.width * bbox.height >= minArea) {
+                    detections.add(bbox);
+                }
+            }
+            return detections;
+        }
+
+        private void crop(byte[] bgr, Tracklet.BoundingBox bbox) {
+            bbox.patchData = new byte[bbox.width * bbox.height * 3];
+            for (int row = 0; row < bbox.height; ++row) {
+                System.arraycopy(bgr, ((bbox.y + row) * width + bbox.x) * 3,
+                        bbox.patchData, row * bbox.width * 3, bbox.width * 3);
+            }
+        }
+
+        /**
+         * Track on a frame.
+         *
+         * @param bgr BGR bytes of the frame.
+         */
+        void feed(@Nonnull byte[] bgr) {
+            segment(bgr);
+            final List<Tracklet.BoundingBox> detections = detect();
+
+            // Associate detections with tracks greedily by IoU.
+            final List<double[]> candidates = new ArrayList<>();
+            for (int t = 0; t < active.size(); ++t) {
+                for (int d = 0; d < detections.size(); ++d) {
+                    final double score = iou(active.get(t).last(), detections.get(d));
+                    if (score >= minIoU) {
+                        candidates.add(new double[]{score, t, d});
+                    }
+                }
+            }
+            candidates.sort((a, b) -> Double.compare(b[0], a[0]));
+            final boolean[] trackMatched = new boolean[active.size()];
+            final boolean[] detectionMatched = new boolean[detections.size()];
+            for (double[] candidate : candidates) {
+                final int t = (int) candidate[1];
+                final int d = (int) candidate[2];
+                if (trackMatched[t] || detectionMatched[d]) {
+                    continue;
+                }
+                trackMatched[t] = detectionMatched[d] = true;
+                final Track track = active.get(t);
+                // Keep one bounding box per frame over the frames the track was lost in.
+                for (int k = 0; k < track.lost; ++k) {
+                    final Tracklet.BoundingBox last = track.last();
+                    final Tracklet.BoundingBox copy = new Tracklet.BoundingBox();
+                    copy.x = last.x;
+                    copy.y = last.y;
+                    copy.width = last.width;
+                    copy.height = last.height;
+                    track.boxes.add(copy);
+                }
+                track.lost = 0;
+                final Tracklet.BoundingBox bbox = detections.get(d);
+                crop(bgr, bbox);
+                track.boxes.add(bbox);
+            }
+            for (int t = active.size() - 1; t >= 0; --t) {
+                if (!trackMatched[t] && ++active.get(t).lost > maxLost) {
+                    finished.add(active.remove(t));
+                }
+            }
+            for (int d = 0; d < detections.size(); ++d) {
+                if (!detectionMatched[d]) {
+                    final Tracklet.BoundingBox bbox = detections.get(d);
+                    crop(bgr, bbox);
+                    active.add(new Track(frameIndex, bbox));
+                }
+            }
+            ++frameIndex;
+        }
+
+        /**
+         * End all the tracks.
+         *
+         * @return tracklets long enough, with start frame indices relative to the first frame fed.
+         */
+        @Nonnull
+        Tracklet[] finish() {
+            finished.addAll(active);
+            active.clear();
+            final List<Tracklet> tracklets = new ArrayList<>();
+            for (Track track : finished) {
+                if (track.boxes.size() >= minLength) {
+                    final Tracklet tracklet = new Tracklet();
+                    tracklet.startFrameIndex = track.startFrame;
+                    tracklet.locationSequence = track.boxes.toArray(new Tracklet.BoundingBox[track.boxes.size()]);
+                    tracklets.add(tracklet);
+                }
+            }
+            tracklets.sort((a, b) -> Integer.compare(a.startFrameIndex, b.startFrameIndex));
+            final Tracklet[] targets = tracklets.toArray(new Tracklet[tracklets.size()]);
+            for (int i = 0; i < targets.length; ++i) {
+                targets[i].numTracklets = targets.length;
+                targets[i].id.serialNumber = i;
+            }
+            return targets;
+        }
+    }
+
+    /**
+     * Create a session of tracking on frames of a size, e.g. for feeding synthetic frames directly.
+     *
+     * @param width  width of the frames.
+     * @param height height of the frames.
+     * @return a new session.
+     */
+    @Nonnull
+    Session createSession(int width, int height) {
+        return new Session(width, height);
+    }
+
+    private static byte[] toBGR(OpenCVFrameConverter.ToMat converter, Frame frame) {
+        final byte[] buf = new byte[frame.imageHeight * frame.imageWidth * 3];
+        converter.convert(frame).data().get(buf);
+        return buf;
+    }
+
+    @Nonnull
+    @Override
+    public Tracklet[] track(@Nonnull InputStream videoStream) throws FrameGrabber.Exception {
+        return track(videoStream, 0, Integer.MAX_VALUE);
+    }
+
+    @Nonnull
+    @Override
+    public Tracklet[] track(@Nonnull InputStream videoStream,
+                            int startFrame,
+                            int endFrame) throws FrameGrabber.Exception {
+        final FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(videoStream);
+        av_log_set_level(AV_LOG_QUIET);
+        frameGrabber.start();
+        final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+        int frameIndex = 0;
+        if (startFrame > 0 && videoStream.markSupported()) {
+            frameGrabber.setFrameNumber(startFrame);
+            frameIndex = frameGrabber.getFrameNumber();
+        }
+        final int firstFrame = Math.max(startFrame, frameIndex);
+        final Session session = new Session(frameGrabber.getImageWidth(), frameGrabber.getImageHeight());
+        try {
+            while (frameIndex < endFrame) {
+                cancellation.throwIfCancelled();
+                final Frame frame;
+                try {
+                    frame = frameGrabber.grabImage();
+                } catch (FrameGrabber.Exception e) {
+                    logger.error("On grabImage: " + e);
+                    break;
+                }
+                if (frame == null) {
+                    break;
+                }
+                if (frameIndex++ < firstFrame) {
+                    continue;
+                }
+                session.feed(toBGR(converter, frame));
+            }
+        } finally {
+            frameGrabber.release();
+        }
+        final Tracklet[] targets = session.finish();
+        for (Tracklet target : targets) {
+            target.startFrameIndex += firstFrame;
+        }
+        logger.debug("Got " + targets.length + " targets in frames [" + firstFrame + ", " + frameIndex + ")");
+        return targets;
+    }
+
+    @Override
+    public void track(@Nonnull InputStream liveStream,
+                      long windowMs,
+                      @Nonnull WindowConsumer consumer,
+                      @Nonnull BooleanSupplier running) throws Exception {
+        final FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(liveStream);
+        av_log_set_level(AV_LOG_QUIET);
+        frameGrabber.start();
+        final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+        int frameIndex = 0;
+        FrameGrabber.Exception failure = null;
+        try {
+            boolean ended = false;
+            while (!ended && running.getAsBoolean()) {
+                final long windowStartTime = System.currentTimeMillis();
+                final int windowStartFrame = frameIndex;
+                final Session session = new Session(frameGrabber.getImageWidth(), frameGrabber.getImageHeight());
+                while (System.currentTimeMillis() - windowStartTime < windowMs) {
+                    if (!running.getAsBoolean()) {
+                        ended = true;
+                        break;
+                    }
+                    final Frame frame;
+                    try {
+                        frame = frameGrabber.grabImage();
+                    } catch (FrameGrabber.Exception e) {
+                        // Report the tracklets so far before failing.
+                        failure = e;
+                        break;
+                    }
+                    if (frame == null) {
+                        ended = true;
+                        break;
+                    }
+                    session.feed(toBGR(converter, frame));
+                    ++frameIndex;
+                }
+                consumer.accept(windowStartTime, windowStartFrame, session.finish());
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        } finally {
+            frameGrabber.release();
+        }
+    }
+}
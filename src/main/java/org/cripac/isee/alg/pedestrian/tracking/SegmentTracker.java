@@ -0,0 +1,42 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.tracking;
+
+import javax.annotation.Nonnull;
+import java.io.InputStream;
+
+/**
+ * The SegmentTracker interface is for pedestrian trackers able to track on a segment of a video,
+ * so that segments of a long video can be tracked in parallel and stitched by {@link TrackletStitcher}.
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+public interface SegmentTracker {
+
+    /**
+     * Track pedestrians on the frames of a video in [startFrame, endFrame).
+     *
+     * @param videoStream the stream of the whole video.
+     * @param startFrame  index of the first frame to track.
+     * @param endFrame    index after the last frame to track. Tracking stops earlier if the video ends.
+     * @return tracklets in the segment, with start frame indices relative to the whole video.
+     * @throws Exception On failure decoding the video or tracking.
+     */
+    @Nonnull
+    Tracklet[] track(@Nonnull InputStream videoStream, int startFrame, int endFrame) throws Exception;
+}
@@ -142,6 +142,9 @@ public class Tracklet implements Serializable, Cloneable {
      * Select some bounding boxes as the appearance samples of the pedestrian.
      * Only these bounding boxes retain the patch data, and patch data in other
      * bounding boxes will be cleared, so as the tracklet consumes less memory.
+     * Samples are selected among the bounding boxes carrying patch data only, so
+     * boxes interpolated without pixels (see {@link DecodeOptions#restore}) are never
+     * selected in place of decoded ones.
      *
      * @param numSamples number of samples to be selected.
      */
@@ -157,13 +160,14 @@ public class Tracklet implements Serializable, Cloneable {
                 }
                 break;
             default:
-                // Perform even sampling.
-                if (locationSequence.length > numSamples) {
-                    final int interval = locationSequence.length / (numSamples + 1);
-                    final int start = (locationSequence.length - (numSamples - 1) * interval) / 2;
-                    for (int i = 0; i < locationSequence.length; ++i) {
+                // Perform even sampling among the bounding boxes with pixels.
+                final List<BoundingBox> candidates = new ArrayList<>(getSamples());
+                if (candidates.size() > numSamples) {
+                    final int interval = candidates.size() / (numSamples + 1);
+                    final int start = (candidates.size() - (numSamples - 1) * interval) / 2;
+                    for (int i = 0; i < candidates.size(); ++i) {
                         if (((i - start) % interval) != 0) {
-                            locationSequence[i].patchData = null;
+                            candidates.get(i).patchData = null;
                         }
                     }
                 }
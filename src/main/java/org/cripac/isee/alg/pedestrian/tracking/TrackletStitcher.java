@@ -0,0 +1,221 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.tracking;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The TrackletStitcher joins the tracklets of overlapping segments of a video,
+ * which are tracked separately (e.g. in parallel by a {@link SegmentTracker}), into tracklets of the whole video.
+ * <p>
+ * Consecutive segments overlap by some frames. A tracklet of a segment reaching into the overlap is matched with
+ * a tracklet of the next segment starting in the overlap, by the mean IoU of their bounding boxes
+ * on their common frames and, when both have pixel data on those frames, the similarity of their color histograms.
+ * Matches are made greedily from the best one, and each tracklet is matched at most once.
+ * A matched pair is joined into one tracklet, which takes the bounding boxes of the later tracklet from the frame
+ * it starts at. After stitching, serial numbers are assigned over the whole video in the order of start frames.
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+public class TrackletStitcher implements Serializable {
+
+    private static final long serialVersionUID = 2915482094526537735L;
+
+    /**
+     * Number of bins of the color histogram on each channel.
+     */
+    private static final int NUM_BINS = 4;
+
+    /**
+     * Tracklets tracked on a segment of a video.
+     */
+    public static class Segment implements Serializable {
+        private static final long serialVersionUID = -3160302858843547012L;
+
+        /**
+         * Index of the first frame of the segment in the video.
+         */
+        public final int startFrame;
+        /**
+         * Tracklets of the segment, with start frame indices relative to the whole video.
+         */
+        public final Tracklet[] tracklets;
+
+        public Segment(int startFrame, @Nonnull Tracklet[] tracklets) {
+            this.startFrame = startFrame;
+            this.tracklets = tracklets;
+        }
+    }
+
+    private final double minIoU;
+    private final double minAppearanceSimilarity;
+
+    /**
+     * @param minIoU                  minimum mean IoU on common frames for two tracklets to be joined.
+     * @param minAppearanceSimilarity minimum histogram intersection (in [0, 1]) for two tracklets to be joined,
+     *                                when their appearances can be compared.
+     */
+    public TrackletStitcher(double minIoU, double minAppearanceSimilarity) {
+        this.minIoU = minIoU;
+        this.minAppearanceSimilarity = minAppearanceSimilarity;
+    }
+
+    private static int endFrame(Tracklet tracklet) {
+        return tracklet.startFrameIndex + tracklet.locationSequence.length;
+    }
+
+    private static double iou(Tracklet.BoundingBox a, Tracklet.BoundingBox b) {
+        final long w = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        final long h = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if (w <= 0 || h <= 0) {
+            return 0;
+        }
+        final long intersection = w * h;
+        return (double) intersection / ((long) a.width * a.height + (long) b.width * b.height - intersection);
+    }
+
+    /**
+     * Accumulate a normalized BGR color histogram of a bounding box.
+     */
+    private static void accumulateHistogram(Tracklet.BoundingBox bbox, double[] hist) {
+        final byte[] data = bbox.patchData;
+        final int numPixels = data.length / 3;
+        for (int i = 0; i < numPixels * 3; i += 3) {
+            final int b = (data[i] & 0xFF) * NUM_BINS / 256;
+            final int g = (data[i + 1] & 0xFF) * NUM_BINS / 256;
+            final int r = (data[i + 2] & 0xFF) * NUM_BINS / 256;
+            hist[(b * NUM_BINS + g) * NUM_BINS + r] += 1.0 / numPixels;
+        }
+    }
+
+    /**
+     * Score the match of a tracklet with a later tracklet.
+     *
+     * @return the mean IoU on common frames, or a negative number if they cannot be joined.
+     */
+    double score(Tracklet earlier, Tracklet later) {
+        final int start = Math.max(earlier.startFrameIndex, later.startFrameIndex);
+        final int end = Math.min(endFrame(earlier), endFrame(later));
+        if (start >= end || later.startFrameIndex < earlier.startFrameIndex) {
+            return -1;
+        }
+        double iouSum = 0;
+        final double[] histEarlier = new double[NUM_BINS * NUM_BINS * NUM_BINS];
+        final double[] histLater = new double[histEarlier.length];
+        int numCompared = 0;
+        for (int f = start; f < end; ++f) {
+            final Tracklet.BoundingBox a = earlier.locationSequence[f - earlier.startFrameIndex];
+            final Tracklet.BoundingBox b = later.locationSequence[f - later.startFrameIndex];
+            iouSum += iou(a, b);
+            if (a.patchData != null && b.patchData != null) {
+                accumulateHistogram(a, histEarlier);
+                accumulateHistogram(b, histLater);
+                ++numCompared;
+            }
+        }
+        final double meanIoU = iouSum / (end - start);
+        if (meanIoU < minIoU) {
+            return -1;
+        }
+        if (numCompared > 0) {
+            double intersection = 0;
+            for (int i = 0; i < histEarlier.length; ++i) {
+                intersection += Math.min(histEarlier[i], histLater[i]);
+            }
+            if (intersection / numCompared < minAppearanceSimilarity) {
+                return -1;
+            }
+        }
+        return meanIoU;
+    }
+
+    /**
+     * Join a tracklet with a later one.
+     */
+    private static Tracklet join(Tracklet earlier, Tracklet later) {
+        final int numFromEarlier = later.startFrameIndex - earlier.startFrameIndex;
+        final Tracklet joined = new Tracklet();
+        joined.id.videoID = earlier.id.videoID;
+        joined.startFrameIndex = earlier.startFrameIndex;
+        joined.locationSequence = new Tracklet.BoundingBox[numFromEarlier + later.locationSequence.length];
+        System.arraycopy(earlier.locationSequence, 0, joined.locationSequence, 0, numFromEarlier);
+        System.arraycopy(later.locationSequence, 0, joined.locationSequence, numFromEarlier,
+                later.locationSequence.length);
+        return joined;
+    }
+
+    /**
+     * Stitch the tracklets of the segments of a video.
+     *
+     * @param segments segments of the video. Each segment should overlap with the next one.
+     * @return tracklets of the whole video, with serial numbers assigned in the order of start frames.
+     */
+    @Nonnull
+    public Tracklet[] stitch(@Nonnull List<Segment> segments) {
+        final List<Segment> sorted = new ArrayList<>(segments);
+        sorted.sort(Comparator.comparingInt(segment -> segment.startFrame));
+
+        final List<Tracklet> result = new ArrayList<>();
+        for (Segment segment : sorted) {
+            // Tracklets so far that reach into this segment.
+            final List<Integer> open = new ArrayList<>();
+            for (int i = 0; i < result.size(); ++i) {
+                if (endFrame(result.get(i)) > segment.startFrame) {
+                    open.add(i);
+                }
+            }
+            // Score all the pairs, and match greedily from the best.
+            final List<double[]> candidates = new ArrayList<>();
+            for (int i : open) {
+                for (int j = 0; j < segment.tracklets.length; ++j) {
+                    final double score = score(result.get(i), segment.tracklets[j]);
+                    if (score >= 0) {
+                        candidates.add(new double[]{score, i, j});
+                    }
+                }
+            }
+            candidates.sort((a, b) -> Double.compare(b[0], a[0]));
+            final Set<Integer> matchedEarlier = new HashSet<>();
+            final boolean[] matchedLater = new boolean[segment.tracklets.length];
+            for (double[] candidate : candidates) {
+                final int i = (int) candidate[1];
+                final int j = (int) candidate[2];
+                if (!matchedEarlier.contains(i) && !matchedLater[j]) {
+                    matchedEarlier.add(i);
+                    matchedLater[j] = true;
+                    result.set(i, join(result.get(i), segment.tracklets[j]));
+                }
+            }
+            for (int j = 0; j < segment.tracklets.length; ++j) {
+                if (!matchedLater[j]) {
+                    result.add(segment.tracklets[j]);
+                }
+            }
+        }
+
+        result.sort(Comparator.comparingInt(tracklet -> tracklet.startFrameIndex));
+        final Tracklet[] tracklets = result.toArray(new Tracklet[result.size()]);
+        for (int i = 0; i < tracklets.length; ++i) {
+            tracklets[i].id.serialNumber = i;
+            tracklets[i].numTracklets = tracklets.length;
+        }
+        return tracklets;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.util;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * The CancellationToken interface tells long-running work, e.g. the decoding loop of a video,
+ * whether the task it serves has been cancelled. Checking a token must be cheap,
+ * so that it can be checked once per frame.
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+@FunctionalInterface
+public interface CancellationToken {
+
+    /**
+     * A token that is never cancelled.
+     */
+    CancellationToken NONE = () -> false;
+
+    /**
+     * @return whether the task has been cancelled.
+     */
+    boolean isCancelled();
+
+    /**
+     * @throws CancellationException if the task has been cancelled.
+     */
+    default void throwIfCancelled() throws CancellationException {
+        if (isCancelled()) {
+            throw new CancellationException("The task has been cancelled.");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * The class ConsistentHashRing maps keys to nodes by consistent hashing.
+ * <p>
+ * Each node is placed at several points (virtual nodes) on a ring of hash values,
+ * and a key belongs to the first node at or after its hash on the ring.
+ * When a node joins or leaves, only the keys between it and its predecessors move,
+ * so most keys keep their nodes.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <N> type of the nodes, whose string representations identify them on the ring.
+ */
+public class ConsistentHashRing<N> {
+
+    private final int numVirtualNodes;
+    private final TreeMap<Long, N> ring = new TreeMap<>();
+    private final Set<N> nodes = new HashSet<>();
+
+    /**
+     * @param numVirtualNodes number of points of each node on the ring.
+     *                        More points spread keys more evenly.
+     */
+    public ConsistentHashRing(int numVirtualNodes) {
+        if (numVirtualNodes <= 0) {
+            throw new IllegalArgumentException("Number of virtual nodes must be positive: " + numVirtualNodes);
+        }
+        this.numVirtualNodes = numVirtualNodes;
+    }
+
+    private static long hash(String s) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported", e);
+        }
+        long h = 0;
+        for (int i = 0; i < 8; ++i) {
+            h = (h << 8) | (digest[i] & 0xFF);
+        }
+        return h;
+    }
+
+    /**
+     * Add a node to the ring. Adding an existing node takes no effect.
+     *
+     * @param node the node to add.
+     */
+    public void add(@Nonnull N node) {
+        if (nodes.add(node)) {
+            for (int i = 0; i < numVirtualNodes; ++i) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * Remove a node from the ring. Its keys move to the nodes following its points.
+     *
+     * @param node the node to remove.
+     */
+    public void remove(@Nonnull N node) {
+        if (nodes.remove(node)) {
+            for (int i = 0; i < numVirtualNodes; ++i) {
+                ring.remove(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @param key a key.
+     * @return the node the key belongs to, or null if the ring is empty.
+     */
+    @Nullable
+    public N get(@Nonnull String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        final Map.Entry<Long, N> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * @return nodes on the ring.
+     */
+    @Nonnull
+    public Set<N> getNodes() {
+        return Collections.unmodifiableSet(nodes);
+    }
+}
@@ -19,10 +19,123 @@
 package org.cripac.isee.util;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 
+import javax.annotation.Nonnull;
 import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
+/**
+ * The ResourceManager locates resources (e.g. models) packed in the JAR as files on the local disk,
+ * so that native libraries can load them by path.
+ * <p>
+ * Resources in the JAR are extracted into a cache directory shared by all the JVMs on a host,
+ * under a sub-directory named by the CRC-32 checksum and size of the resource recorded in the JAR.
+ * A resource is thus extracted only once per host and content, no matter how many executors
+ * or restarts load it. Files are written to a temporary name and atomically renamed,
+ * so concurrent executors never see a partially written resource.
+ * The checksum of a cached file is verified the first time a JVM reuses it, and a corrupted or tampered file
+ * is extracted again. Later hits in the JVM only check that its size and modification time are unchanged.
+ * <p>
+ * The cache directory is /tmp/vpe-resource-cache-&lt;user&gt; by default,
+ * and can be changed with the JVM system property {@value #CACHE_DIR_PROPERTY}.
+ * It is created accessible to its owner only, and an existing one accessible to others is refused.
+ */
 public class ResourceManager {
+
+    public static final String CACHE_DIR_PROPERTY = "vpe.resource.cache.dir";
+
+    /**
+     * Modification times of the cached files verified in this JVM, keyed by their paths.
+     */
+    private static final Map<String, Long> verified = new ConcurrentHashMap<>();
+
+    private static File getCacheDir() {
+        final String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir != null) {
+            return new File(dir);
+        }
+        final File defaultTmpDir = new File("/tmp");
+        return new File(defaultTmpDir.canWrite() ? defaultTmpDir.getPath() : System.getProperty("java.io.tmpdir"),
+                "vpe-resource-cache-" + System.getProperty("user.name"));
+    }
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    /**
+     * Create the cache directory accessible to its owner only, or check that an existing one is,
+     * so that other users on the host cannot plant files in it.
+     */
+    private static void prepareCacheDir(File cacheDir) throws IOException {
+        if (!cacheDir.exists()) {
+            try {
+                Files.createDirectories(cacheDir.toPath(), PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system.
+                Files.createDirectories(cacheDir.toPath());
+            } catch (FileAlreadyExistsException ignored) {
+                // Created by another JVM in the meantime, and checked below.
+            }
+        }
+        final Set<PosixFilePermission> permissions;
+        try {
+            if (!Files.getOwner(cacheDir.toPath()).getName().equals(System.getProperty("user.name"))) {
+                throw new IOException("Resource cache directory " + cacheDir + " is owned by another user. "
+                        + "Specify another one with -D" + CACHE_DIR_PROPERTY + ".");
+            }
+            permissions = Files.getPosixFilePermissions(cacheDir.toPath());
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+        if (!OWNER_ONLY.containsAll(permissions)) {
+            throw new IOException("Resource cache directory " + cacheDir + " is accessible to other users: "
+                    + PosixFilePermissions.toString(permissions) + ". "
+                    + "Restrict it to its owner or specify another one with -D" + CACHE_DIR_PROPERTY + ".");
+        }
+    }
+
+    private static long crc32(File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (InputStream in = new CheckedInputStream(new FileInputStream(file), crc)) {
+            IOUtils.copyLarge(in, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return whether a file exists with the content of the checksum and size.
+     * The content is read only if the file has not been verified in this JVM or has been modified since.
+     */
+    private static boolean isIntact(File file, long crc, long size) throws IOException {
+        if (!file.isFile() || file.length() != size) {
+            return false;
+        }
+        final long lastModified = file.lastModified();
+        final Long verifiedLastModified = verified.get(file.getPath());
+        if (verifiedLastModified != null && verifiedLastModified == lastModified) {
+            return true;
+        }
+        if (crc32(file) != crc) {
+            return false;
+        }
+        verified.put(file.getPath(), lastModified);
+        return true;
+    }
+
     /**
      * Find a resource in the JAR file.
      * If failed (e.g. it is not in the JAR file or the program is not run from a JAR),
@@ -33,9 +146,8 @@ public class ResourceManager {
      * @throws IOException on failure locating or opening the resource.
      */
     public static File getResource(String path) throws IOException {
-        // Retrieve the file from JAR and store to temporary files.
-        InputStream in = ResourceManager.class.getResourceAsStream(path);
-        if (in == null) {
+        final URL url = ResourceManager.class.getResource(path);
+        if (url == null) {
             File externalResource = new File(System.getProperty("java.library.path") + path);
             if (!externalResource.exists()) {
                 throw new FileNotFoundException("Cannot locate resource at " + path);
@@ -44,20 +156,94 @@ public class ResourceManager {
             }
         }
 
+        if (url.getProtocol().equals("file")) {
+            // Not run from a JAR. The resource is already a file.
+            try {
+                return new File(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid resource URL " + url, e);
+            }
+        }
+
         int lastSlash = path.replace('\\', '/').lastIndexOf('/');
         String filename = path.substring(lastSlash + 1);
+        return extract(url, filename, getCacheDir());
+    }
 
-        File defaultTmpDir = new File("/tmp");
+    /**
+     * Extract a resource into the cache directory, unless it has been extracted.
+     *
+     * @param url      URL of the resource.
+     * @param filename name of the file to extract to.
+     * @param cacheDir the cache directory.
+     * @return the extracted file.
+     * @throws IOException on failure reading the resource or writing the file.
+     */
+    @Nonnull
+    static File extract(@Nonnull URL url,
+                        @Nonnull String filename,
+                        @Nonnull File cacheDir) throws IOException {
+        prepareCacheDir(cacheDir);
+        final String key;
+        final long size;
+        final long expectedCrc;
+        final URLConnection conn = url.openConnection();
+        if (conn instanceof JarURLConnection) {
+            // The checksum is read from the JAR directory without decompressing the resource.
+            final JarEntry entry = ((JarURLConnection) conn).getJarEntry();
+            size = entry.getSize();
+            expectedCrc = entry.getCrc();
+            key = expectedCrc >= 0 && size >= 0 ? String.format("%08x-%d", expectedCrc, size) : null;
+        } else {
+            size = -1;
+            expectedCrc = -1;
+            key = null;
+        }
+
+        if (key != null) {
+            final File cached = new File(new File(cacheDir, key), filename);
+            if (isIntact(cached, expectedCrc, size)) {
+                return cached;
+            }
+        }
+
+        // Copy to a temporary file in the cache directory, computing the checksum on the way.
+        final File tempFile = File.createTempFile(filename, ".part", cacheDir);
+        final CRC32 crc = new CRC32();
+        final long copied;
+        try (InputStream in = new CheckedInputStream(url.openStream(), crc);
+             OutputStream out = new FileOutputStream(tempFile)) {
+            copied = IOUtils.copyLarge(in, out);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw e;
+        }
+
+        final File dir = new File(cacheDir, String.format("%08x-%d", crc.getValue(), copied));
+        final File cached = new File(dir, filename);
+        if (key != null && !dir.getName().equals(key)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new IOException("Checksum mismatch extracting " + url + ": expected " + key
+                    + ", got " + dir.getName());
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
         try {
-            File tempFile = File.createTempFile(filename, null,
-                    defaultTmpDir.canWrite() ? defaultTmpDir : null);
-            tempFile.deleteOnExit();
-            try (OutputStream out = new FileOutputStream(tempFile)) {
-                IOUtils.copy(in, out);
-                return tempFile;
+            // A corrupted file left at the target is replaced.
+            Files.move(tempFile.toPath(), cached.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // The checksum has been computed on copying.
+            verified.put(cached.getPath(), cached.lastModified());
+        } catch (IOException e) {
+            // Another JVM has extracted the same content in the meantime.
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            if (!isIntact(cached, crc.getValue(), copied)) {
+                throw e;
             }
-        } finally {
-            in.close();
         }
+        return cached;
     }
 }
@@ -18,6 +18,7 @@
 package org.cripac.isee.util;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.*;
 
 /**
@@ -59,6 +60,63 @@ public class SerializationHelper {
         }
     }
 
+    /**
+     * Serialize an object if its serialized size does not exceed a limit.
+     * Serialization is aborted as soon as the limit is exceeded,
+     * so checking an object far larger than the limit costs no more than serializing the limit.
+     *
+     * @param object  The object to serialize.
+     * @param maxSize The maximum size of the serialized bytes.
+     * @return A serialized byte array of the object, or null if its size exceeds the limit.
+     */
+    @Nullable
+    public static <T extends Serializable> byte[] serialize(@Nonnull T object, int maxSize)
+            throws IOException {
+        BoundedByteArrayOutputStream byteArrayOutputStream = new BoundedByteArrayOutputStream(maxSize);
+        try (ObjectOutput objectOutput = new ObjectOutputStream(byteArrayOutputStream)) {
+            objectOutput.writeObject(object);
+            objectOutput.flush();
+            return byteArrayOutputStream.toByteArray();
+        } catch (SizeLimitExceededException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Thrown by {@link BoundedByteArrayOutputStream} when the limit is exceeded.
+     * It is unchecked because {@link ByteArrayOutputStream} declares no exceptions on writing.
+     */
+    private static class SizeLimitExceededException extends RuntimeException {
+        private static final long serialVersionUID = -3525785683640563563L;
+    }
+
+    /**
+     * A ByteArrayOutputStream which refuses to grow beyond a limit.
+     */
+    private static class BoundedByteArrayOutputStream extends ByteArrayOutputStream {
+        private final int maxSize;
+
+        BoundedByteArrayOutputStream(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (count + 1 > maxSize) {
+                throw new SizeLimitExceededException();
+            }
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(@Nonnull byte[] b, int off, int len) {
+            if (count + len > maxSize) {
+                throw new SizeLimitExceededException();
+            }
+            super.write(b, off, len);
+        }
+    }
+
     /**
      * Deserialize a byte array of an object.
      *
@@ -19,11 +19,18 @@ package org.cripac.isee.util;
 
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The class Singleton manages singletons of any types.
+ * <p>
+ * Instances are kept in a {@link ConcurrentHashMap} keyed by class. Each class has its own lock,
+ * so creating an instance of one class (e.g. loading a model) never blocks getting or creating
+ * instances of other classes (e.g. the logger), and factories may get other singletons.
+ * Getting an existing instance takes no lock.
  *
  * @param <T> The type of the object.
  * @author Ken Yu, CRIPAC, 2016
@@ -33,9 +40,21 @@ public class Singleton<T> implements Serializable {
     private static final long serialVersionUID = -7565726994857167434L;
 
     /**
-     * Lazy-evaluated instance pool of all the classes.
+     * Holder of the instance of a class, which serves as the lock for creating the instance.
      */
-    private static volatile Map<Class<?>, Object> instancePool = null;
+    private static class Entry {
+        volatile Object instance = null;
+        volatile long initTimeMs = -1;
+    }
+
+    /**
+     * Instance pool of all the classes.
+     */
+    private static final Map<Class<?>, Entry> instancePool = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Singleton::closeAll, "singleton-closer"));
+    }
 
     /**
      * Factory for creating a new instance if there is not instance in the pool
@@ -61,37 +80,105 @@ public class Singleton<T> implements Serializable {
     }
 
     /**
-     * Check existence of the instance pool.
+     * Get an instance of class T.
+     *
+     * @return A singleton instance.
+     * @throws Exception On failure creating a new instance. The next call tries creating it again.
      */
-    private void checkPool() {
-        if (instancePool == null) {
-            synchronized (Singleton.class) {
-                if (instancePool == null) {
-                    instancePool = new HashMap<>();
+    public T getInst() throws Exception {
+        while (true) {
+            final Entry entry = instancePool.computeIfAbsent(type, k -> new Entry());
+            Object instance = entry.instance;
+            if (instance == null) {
+                synchronized (entry) {
+                    if (instancePool.get(type) != entry) {
+                        // The entry has been removed by reset() or close() while waiting for its lock.
+                        continue;
+                    }
+                    instance = entry.instance;
+                    if (instance == null) {
+                        final long startTime = System.currentTimeMillis();
+                        instance = objFactory.produce();
+                        entry.initTimeMs = System.currentTimeMillis() - startTime;
+                        entry.instance = instance;
+                    }
                 }
             }
+
+            //noinspection unchecked
+            return (T) instance;
         }
     }
 
     /**
-     * Get an instance of class T.
+     * Remove the entry of a class from the pool under its lock, so that no instance is created
+     * into the entry after it is removed.
      *
-     * @return A singleton instance.
-     * @throws Exception On failure creating a new instance.
+     * @return the entry removed, or null if there is none.
      */
-    public T getInst() throws Exception {
-        checkPool();
+    private static Entry remove(Class<?> type) {
+        final Entry entry = instancePool.get(type);
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            return instancePool.remove(type, entry) ? entry : null;
+        }
+    }
 
-        if (!instancePool.containsKey(type)) {
-            synchronized (Singleton.class) {
-                if (!instancePool.containsKey(type)) {
-                    System.out.println("Reinitializing instance of " + type.getName());
-                    instancePool.put(type, objFactory.produce());
-                }
+    /**
+     * Remove the instance of class T from the pool without closing it,
+     * so that the next {@link #getInst()} creates a new one.
+     */
+    public void reset() {
+        remove(type);
+    }
+
+    /**
+     * Remove the instance of class T from the pool,
+     * and close it if it is {@link AutoCloseable}.
+     */
+    public void close() {
+        close(type, remove(type));
+    }
+
+    private static void close(Class<?> type, Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        final Object instance = entry.instance;
+        if (instance instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) instance).close();
+            } catch (Exception e) {
+                // Loggers are singletons themselves, and may have been closed already.
+                new IllegalStateException("On closing instance of " + type.getName(), e).printStackTrace();
             }
         }
+    }
 
-        //noinspection unchecked
-        return (T) instancePool.get(type);
+    /**
+     * Remove all the instances from the pool, and close those that are {@link AutoCloseable}.
+     * This is called when the JVM shuts down.
+     */
+    public static void closeAll() {
+        for (Class<?> type : instancePool.keySet()) {
+            close(type, remove(type));
+        }
+    }
+
+    /**
+     * Get the time spent creating the instance of each class existing in the pool.
+     *
+     * @return a map from classes to initialization time in milliseconds.
+     */
+    public static Map<Class<?>, Long> getInitTimes() {
+        Map<Class<?>, Long> initTimes = new HashMap<>();
+        instancePool.forEach((type, entry) -> {
+            if (entry.initTimeMs >= 0) {
+                initTimes.put(type, entry.initTimeMs);
+            }
+        });
+        return Collections.unmodifiableMap(initTimes);
     }
 }
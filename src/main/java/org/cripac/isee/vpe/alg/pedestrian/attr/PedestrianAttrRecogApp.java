@@ -40,6 +40,8 @@ import java.net.InetAddress;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The PedestrianAttrRecogApp class is a Spark Streaming application which
@@ -89,6 +91,10 @@ public class PedestrianAttrRecogApp extends SparkStreamingApp {
         public InetAddress externAttrRecogServerAddr = InetAddress.getLocalHost();
         public int externAttrRecogServerPort = 0;
         public Algorithm algorithm = Algorithm.Fake;
+        /* Maximum number of samples waiting for recognition on the GPUs of an executor. */
+        public int recogQueueCapacity = 256;
+        /* Maximum number of samples recognized in a batch on a GPU. */
+        public int recogMaxBatchSize = 32;
 
         public AppPropertyCenter(@Nonnull String[] args)
                 throws URISyntaxException, ParserConfigurationException, SAXException, UnknownHostException {
@@ -105,6 +111,12 @@ public class PedestrianAttrRecogApp extends SparkStreamingApp {
                     case "vpe.ped.attr.alg":
                         algorithm = Algorithm.valueOf((String) entry.getValue());
                         break;
+                    case "vpe.ped.attr.queue.capacity":
+                        recogQueueCapacity = Integer.parseInt((String) entry.getValue());
+                        break;
+                    case "vpe.ped.attr.max.batch.size":
+                        recogMaxBatchSize = Integer.parseInt((String) entry.getValue());
+                        break;
                     default:
                         logger.warn("Unrecognized option: " + entry.getKey());
                         break;
@@ -167,9 +179,15 @@ public class PedestrianAttrRecogApp extends SparkStreamingApp {
 //                            DeepMARTF.class);
 //                    break;
                 case DeepMARCaffe2Native:
+                    // One network on each of the GPUs, sharing the samples to recognize.
                     recognizerSingleton = new Singleton<>(
-                            () -> new DeepMARCaffe2Native(propCenter.caffeGPU, loggerSingleton.getInst()),
-                            DeepMARCaffe2Native.class
+                            () -> new GPURecognizerPool(
+                                    propCenter.caffeGPU,
+                                    gpu -> new DeepMARCaffe2Native(String.valueOf(gpu), loggerSingleton.getInst()),
+                                    propCenter.recogQueueCapacity,
+                                    propCenter.recogMaxBatchSize,
+                                    loggerSingleton.getInst()),
+                            GPURecognizerPool.class
                     );
                     break;
                 case Fake:
@@ -183,6 +201,26 @@ public class PedestrianAttrRecogApp extends SparkStreamingApp {
             }
         }
 
+        /**
+         * Create the recognizer and recognize a blank image with it,
+         * which loads the models and initializes the GPUs.
+         *
+         * @throws Exception On failure creating the recognizer or recognizing.
+         */
+        @Override
+        public void warmUp() throws Exception {
+            super.warmUp();
+            final Tracklet.BoundingBox bbox = new Tracklet.BoundingBox();
+            bbox.width = 48;
+            bbox.height = 128;
+            bbox.patchData = new byte[bbox.width * bbox.height * 3];
+            final Tracklet tracklet = new Tracklet();
+            tracklet.locationSequence = new Tracklet.BoundingBox[]{bbox};
+            final long startTime = System.nanoTime();
+            recognizerSingleton.getInst().recognize(tracklet);
+            stageLatency("warm_up").recordSince(startTime);
+        }
+
         /**
          * Add streaming actions to the global {@link TaskData} stream.
          * This global stream contains pre-deserialized TaskData messages, so as to save time.
@@ -199,25 +237,29 @@ public class PedestrianAttrRecogApp extends SparkStreamingApp {
                     .foreachRDD(rdd -> rdd.glom().foreach(kvList -> {
                         Logger logger = loggerSingleton.getInst();
                         long startTime = System.currentTimeMillis();
-                        final long[] recognizerCostTime = {0};
-                        final int[] numSamples = {0};
-                        kvList.forEach(kv -> {
+                        final AtomicLong recognizerCostTime = new AtomicLong(0);
+                        final AtomicInteger numSamples = new AtomicInteger(0);
+                        // Tracklets are recognized concurrently, so the samples of several tracklets
+                        // can be recognized in the same batch.
+                        parallelExecutor().execute(kvList, kv -> {
                             try {
                                 final UUID taskID = kv._1();
                                 final TaskData taskData = kv._2();
-                                logger.debug("To recognize attributes for task " + taskID + "!");
+                                logger.debug(() -> "To recognize attributes for task " + taskID + "!");
                                 // Recognize attributes robustly.
                                 final Attributes attr = new RobustExecutor<>((Function<TrackletOrURL, Attributes>) tou -> {
                                     final Tracklet t = tou.getTracklet();
                                     long recogStartTime = System.currentTimeMillis();
+                                    final long inferenceStartTime = System.nanoTime();
                                     final Attributes a = recognizerSingleton.getInst().recognize(t);
+                                    stageLatency("inference", TRACKLET_PORT).recordSince(inferenceStartTime);
                                     long recogEndTime = System.currentTimeMillis();
-                                    recognizerCostTime[0] += recogEndTime - recogStartTime;
-                                    numSamples[0] += t.getSamples().size();
+                                    recognizerCostTime.addAndGet(recogEndTime - recogStartTime);
+                                    numSamples.addAndGet(t.getSamples().size());
                                     a.trackletID = t.id;
                                     return a;
                                 }).execute((TrackletOrURL) taskData.predecessorRes);
-                                logger.debug("Attributes retrieved for task " + taskID + "!");
+                                logger.debug(() -> "Attributes retrieved for task " + taskID + "!");
 
                                 // Find current node.
                                 final TaskData.ExecutionPlan.Node curNode = taskData.getDestNode(TRACKLET_PORT);
@@ -232,14 +274,19 @@ public class PedestrianAttrRecogApp extends SparkStreamingApp {
                                 logger.error("During processing attributes.", e);
                             }
                         });
+                        try {
+                            flushOutput();
+                        } catch (Exception e) {
+                            logger.error("During flushing attributes.", e);
+                        }
                         if (kvList.size() > 0) {
                             long endTime = System.currentTimeMillis();
                             logger.info("Overall speed=" + ((endTime - startTime) / kvList.size())
                                     + "ms per tracklet (totally " + kvList.size() + " tracklets)");
                         }
-                        if (numSamples[0] > 0) {
-                            logger.info("Recognizer speed=" + (recognizerCostTime[0] / numSamples[0])
-                                    + "ms per sample (totally " + numSamples[0] + " samples)");
+                        if (numSamples.get() > 0) {
+                            logger.info("Recognizer speed=" + (recognizerCostTime.get() / numSamples.get())
+                                    + "ms per sample (totally " + numSamples.get() + " samples)");
                         }
                     }));
         }
@@ -22,6 +22,8 @@ import org.apache.spark.api.java.function.Function0;
 import org.apache.spark.streaming.Durations;
 import org.apache.spark.streaming.api.java.JavaPairDStream;
 import org.cripac.isee.alg.pedestrian.attr.Attributes;
+import org.cripac.isee.alg.pedestrian.reid.BatchPedestrianReIDer;
+import org.cripac.isee.alg.pedestrian.reid.IDRank;
 import org.cripac.isee.alg.pedestrian.reid.PedestrianInfo;
 import org.cripac.isee.alg.pedestrian.reid.PedestrianReIDer;
 import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
@@ -125,6 +127,12 @@ public class PedestrianReIDUsingAttrApp extends SparkStreamingApp {
             reidSingleton = new Singleton<>(FakePedestrianReIDerWithAttr::new, FakePedestrianReIDerWithAttr.class);
         }
 
+        @Override
+        public void warmUp() throws Exception {
+            super.warmUp();
+            reidSingleton.getInst();
+        }
+
         /**
          * Add streaming actions to the global {@link TaskData} stream.
          * This global stream contains pre-deserialized TaskData messages, so as to save time.
@@ -214,34 +222,104 @@ public class PedestrianReIDUsingAttrApp extends SparkStreamingApp {
                             });
 
             // Union the two track with attribute streams and perform ReID.
+            // Queries in the same partition are searched against the gallery in one batch.
             integralTrackletAttrDStream.union(asmTrackletAttrDStream)
-                    .foreachRDD(rdd -> rdd.foreach(kv -> {
+                    .foreachRDD(rdd -> rdd.foreachPartition(kvIter -> {
                         final Logger logger = loggerSingleton.getInst();
-                        try {
-                            UUID taskID = kv._1();
-                            final TaskData taskData = kv._2();
-                            final PedestrianInfo trackletWithAttr = (PedestrianInfo) taskData.predecessorRes;
-
-                            // Perform ReID.
-                            final int[] idRank = new RobustExecutor<Void, int[]>(
-                                    (Function0<int[]>) () -> reidSingleton.getInst().reid(trackletWithAttr)
-                            ).execute();
 
-                            // Find current node.
-                            final TaskData.ExecutionPlan.Node curNode = taskData.getDestNode(getPorts());
-                            // Get ports to output to.
-                            final List<TaskData.ExecutionPlan.Node.Port> outputPorts = curNode.getOutputPorts();
-                            // Mark the current node as executed in advance.
-                            curNode.markExecuted();
+                        // Group the queries by task, so that results of the same task are sent together.
+                        final Map<UUID, List<TaskData>> taskMap = new LinkedHashMap<>();
+                        kvIter.forEachRemaining(kv ->
+                                taskMap.computeIfAbsent(kv._1(), taskID -> new ArrayList<>()).add(kv._2()));
+                        if (taskMap.isEmpty()) {
+                            return;
+                        }
 
-                            // Send to all the successor nodes.
-                            output(outputPorts, taskData.executionPlan, idRank, taskID);
+                        final List<UUID> taskIDs = new ArrayList<>();
+                        final List<TaskData> queries = new ArrayList<>();
+                        taskMap.forEach((taskID, taskDataList) -> taskDataList.forEach(taskData -> {
+                            taskIDs.add(taskID);
+                            queries.add(taskData);
+                        }));
+                        final PedestrianInfo[] pedestrians = queries.stream()
+                                .map(taskData -> (PedestrianInfo) taskData.predecessorRes)
+                                .toArray(PedestrianInfo[]::new);
+
+                        // Perform ReID.
+                        final int[][] idRanks;
+                        try {
+                            final long inferenceStartTime = System.nanoTime();
+                            idRanks = new RobustExecutor<Void, int[][]>(
+                                    (Function0<int[][]>) () -> reid(pedestrians)
+                            ).execute();
+                            stageLatency("inference").recordSince(inferenceStartTime);
                         } catch (Exception e) {
                             logger.error("During ReID", e);
+                            return;
+                        }
+
+                        for (int i = 0; i < queries.size(); ++i) {
+                            try {
+                                final TaskData taskData = queries.get(i);
+                                // Find current node.
+                                final TaskData.ExecutionPlan.Node curNode = taskData.getDestNode(getPorts());
+                                // Get ports to output to.
+                                final List<TaskData.ExecutionPlan.Node.Port> outputPorts = curNode.getOutputPorts();
+                                // Mark the current node as executed in advance.
+                                curNode.markExecuted();
+
+                                // Send to all the successor nodes.
+                                output(outputPorts, taskData.executionPlan,
+                                        new IDRank(getQueryID(pedestrians[i]), idRanks[i]), taskIDs.get(i));
+                            } catch (Exception e) {
+                                logger.error("During outputting ReID result", e);
+                            }
+                        }
+                        try {
+                            flushOutput();
+                        } catch (Exception e) {
+                            logger.error("During flushing ReID results", e);
                         }
+                        logger.debug("Performed ReID on " + queries.size()
+                                + " pedestrians from " + taskMap.size() + " tasks.");
                     }));
         }
 
+        /**
+         * Perform ReID on a batch of pedestrians. If the ReIDer supports batch searching,
+         * the batch is searched against the gallery at once. Otherwise, the pedestrians are
+         * searched one by one.
+         *
+         * @param pedestrians a batch of target pedestrians.
+         * @return ranks of possible IDs of the pedestrians, in the same order as the input.
+         * @throws Exception On failure getting the ReIDer or conducting ReID.
+         */
+        private int[][] reid(PedestrianInfo[] pedestrians) throws Exception {
+            final PedestrianReIDer reider = reidSingleton.getInst();
+            if (reider instanceof BatchPedestrianReIDer) {
+                return ((BatchPedestrianReIDer) reider).reid(pedestrians);
+            }
+            final int[][] idRanks = new int[pedestrians.length][];
+            for (int i = 0; i < pedestrians.length; ++i) {
+                idRanks[i] = reider.reid(pedestrians[i]);
+            }
+            return idRanks;
+        }
+
+        /**
+         * Get the ID of a query pedestrian, which is the ID of its tracklet.
+         *
+         * @param pedestrian the query pedestrian.
+         * @return the ID of the pedestrian.
+         * @throws Exception On failure retrieving the tracklet.
+         */
+        private static String getQueryID(PedestrianInfo pedestrian) throws Exception {
+            if (pedestrian.attr != null && pedestrian.attr.trackletID != null) {
+                return pedestrian.attr.trackletID.toString();
+            }
+            return pedestrian.trackletOrURL.getTracklet().id.toString();
+        }
+
         /**
          * Get input ports of the stream.
          *
@@ -20,31 +20,42 @@ package org.cripac.isee.vpe.alg.pedestrian.tracking;
 import kafka.common.FailedToSendMessageException;
 import kafka.common.MessageSizeTooLargeException;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.NotImplementedException;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.kafka.common.KafkaException;
 import org.apache.spark.TaskContext;
-import org.apache.spark.api.java.function.Function0;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
 import org.apache.spark.streaming.api.java.JavaPairDStream;
-import org.cripac.isee.alg.pedestrian.tracking.BasicTracker;
-import org.cripac.isee.alg.pedestrian.tracking.Tracker;
-import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.cripac.isee.alg.pedestrian.tracking.*;
 import org.cripac.isee.vpe.common.*;
 import org.cripac.isee.vpe.ctrl.SystemPropertyCenter;
 import org.cripac.isee.vpe.ctrl.TaskData;
 import org.cripac.isee.vpe.ctrl.TaskData.ExecutionPlan;
+import org.cripac.isee.util.CancellationToken;
+import org.cripac.isee.util.Factory;
 import org.cripac.isee.util.Singleton;
+import org.cripac.isee.vpe.data.WebCameraConnector;
+import org.cripac.isee.vpe.debug.FakePedestrianTracker;
+import org.cripac.isee.vpe.debug.FakeWebCameraConnector;
+import org.cripac.isee.vpe.debug.FileWebCameraConnector;
 import org.cripac.isee.vpe.util.hdfs.HDFSFactory;
 import org.cripac.isee.vpe.util.hdfs.HadoopHelper;
+import org.cripac.isee.vpe.util.hdfs.SeekableHDFSInputStream;
 import org.cripac.isee.vpe.util.logging.Logger;
 import org.xml.sax.SAXException;
+import scala.Tuple2;
 
 import javax.annotation.Nonnull;
 import javax.xml.parsers.ParserConfigurationException;
-import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 
 /**
  * The PedestrianTrackingApp class takes in video URLs from Kafka, then process
@@ -70,7 +81,9 @@ public class PedestrianTrackingApp extends SparkStreamingApp {
     public PedestrianTrackingApp(AppPropertyCenter propCenter) throws Exception {
         super(propCenter, APP_NAME);
 
-        registerStreams(Collections.singletonList(new HDFSVideoTrackingStream(propCenter)));
+        registerStreams(Arrays.asList(
+                new HDFSVideoTrackingStream(propCenter),
+                new RTVideoTrackingStream(propCenter)));
     }
 
     /**
@@ -88,11 +101,105 @@ public class PedestrianTrackingApp extends SparkStreamingApp {
         app.awaitTermination();
     }
 
+    /**
+     * Available algorithms of pedestrian tracking.
+     */
+    public enum Algorithm {
+        /**
+         * The native tracker of ISEE ({@link BasicTracker}).
+         */
+        Basic,
+        /**
+         * The pure-Java {@link ReferenceTracker}, which runs anywhere for profiling the pipeline.
+         */
+        Reference,
+        /**
+         * The {@link FakePedestrianTracker} generating random tracklets.
+         */
+        Fake
+    }
+
+    /**
+     * Available connectors to web cameras, named in lower case in the configuration.
+     */
+    public enum WebcamConnector {
+        /**
+         * The {@link FakeWebCameraConnector} generating random data.
+         */
+        FAKE,
+        /**
+         * The {@link FileWebCameraConnector} replaying a local video file on each connection.
+         */
+        FILE
+    }
+
+    /**
+     * Create a tracker of an algorithm, which supports a mode of tracking.
+     *
+     * @param algorithm    algorithm of the tracker.
+     * @param mode         interface of the mode of tracking, i.e. {@link Tracker}, {@link SegmentTracker}
+     *                     or {@link RealTimeTracker}.
+     * @param conf         bytes of the tracking configuration.
+     * @param logger       logger for the tracker.
+     * @param cancellation token of the task the tracker serves, which stops tracking on videos once cancelled.
+     *                     It is ignored by algorithms not supporting cancellation.
+     * @param <T>          type of the mode.
+     * @return a new tracker.
+     * @throws NotImplementedException if the algorithm does not support the mode.
+     */
+    @Nonnull
+    static <T> T createTracker(@Nonnull Algorithm algorithm,
+                               @Nonnull Class<T> mode,
+                               @Nonnull byte[] conf,
+                               @Nonnull Logger logger,
+                               @Nonnull CancellationToken cancellation) {
+        final Object tracker;
+        switch (algorithm) {
+            case Basic:
+                tracker = new BasicTracker(conf, logger, cancellation);
+                break;
+            case Reference:
+                tracker = new ReferenceTracker(conf, logger, cancellation);
+                break;
+            case Fake:
+                tracker = new FakePedestrianTracker();
+                break;
+            default:
+                throw new NotImplementedException("Pedestrian tracking algorithm "
+                        + algorithm + " is not implemented.");
+        }
+        if (!mode.isInstance(tracker)) {
+            throw new NotImplementedException("Pedestrian tracking algorithm "
+                    + algorithm + " does not support " + mode.getSimpleName() + ".");
+        }
+        return mode.cast(tracker);
+    }
+
     public static class AppPropertyCenter extends SystemPropertyCenter {
 
         private static final long serialVersionUID = -786439769732467646L;
 
+        /* Algorithm of pedestrian tracking. */
+        Algorithm algorithm = Algorithm.Basic;
         int numSamplesPerTracklet = -1;
+        /* Duration of each window of real-time tracking, which bounds the latency of the tracklets. */
+        long rtWindowMs = 10000;
+        /* Maximum interval between two attempts of reconnecting to a web camera. */
+        long rtMaxBackoffMs = 30000;
+        /* Type of connectors to web cameras. */
+        WebcamConnector webcamConnector = WebcamConnector.FAKE;
+        /* Local video file replayed by the "file" connector. */
+        String webcamStandInFile = null;
+        /* Number of bytes read from HDFS at a time when decoding a video. */
+        int readAheadSize = SeekableHDFSInputStream.DEFAULT_READ_AHEAD_SIZE;
+        /* Number of frames of each segment a video is split into for parallel tracking. 0 disables splitting. */
+        int segmentFrames = 0;
+        /* Number of frames consecutive segments overlap by, where their tracklets are stitched. */
+        int segmentOverlapFrames = 50;
+        /* Minimum mean IoU of two tracklets on their common frames to be stitched. */
+        double stitchMinIoU = 0.5;
+        /* Minimum color histogram intersection of two tracklets to be stitched. */
+        double stitchMinAppearanceSimilarity = 0.6;
 
         public AppPropertyCenter(@Nonnull String[] args)
                 throws SAXException, ParserConfigurationException, URISyntaxException {
@@ -100,14 +207,47 @@ public class PedestrianTrackingApp extends SparkStreamingApp {
             // Digest the settings.
             for (Map.Entry<Object, Object> entry : sysProps.entrySet()) {
                 switch ((String) entry.getKey()) {
+                    case "vpe.ped.tracking.alg":
+                        algorithm = Algorithm.valueOf((String) entry.getValue());
+                        break;
                     case "vpe.num.sample.per.tracklet":
                         numSamplesPerTracklet = Integer.valueOf((String) entry.getValue());
                         break;
+                    case "vpe.rt.window.ms":
+                        rtWindowMs = Long.parseLong((String) entry.getValue());
+                        break;
+                    case "vpe.rt.reconnect.max.backoff.ms":
+                        rtMaxBackoffMs = Long.parseLong((String) entry.getValue());
+                        break;
+                    case "vpe.rt.webcam.connector":
+                        webcamConnector = WebcamConnector.valueOf(((String) entry.getValue()).toUpperCase());
+                        break;
+                    case "vpe.rt.webcam.stand-in.file":
+                        webcamStandInFile = (String) entry.getValue();
+                        break;
+                    case "vpe.hdfs.read.ahead.size":
+                        readAheadSize = Integer.parseInt((String) entry.getValue());
+                        break;
+                    case "vpe.tracking.segment.frames":
+                        segmentFrames = Integer.parseInt((String) entry.getValue());
+                        break;
+                    case "vpe.tracking.segment.overlap.frames":
+                        segmentOverlapFrames = Integer.parseInt((String) entry.getValue());
+                        break;
+                    case "vpe.tracking.stitch.min.iou":
+                        stitchMinIoU = Double.parseDouble((String) entry.getValue());
+                        break;
+                    case "vpe.tracking.stitch.min.appearance":
+                        stitchMinAppearanceSimilarity = Double.parseDouble((String) entry.getValue());
+                        break;
                     default:
                         logger.warn("Unrecognized option: " + entry.getKey());
                         break;
                 }
             }
+            if (webcamConnector == WebcamConnector.FILE && webcamStandInFile == null) {
+                throw new IllegalArgumentException("vpe.rt.webcam.stand-in.file is not specified!");
+            }
         }
     }
 
@@ -128,17 +268,43 @@ public class PedestrianTrackingApp extends SparkStreamingApp {
         }
 
         private final Singleton<ConfCache> confCacheSingleton;
+        private final Algorithm algorithm;
         private final int numSamplesPerTracklet;
         private final String metadataDir;
+        private final int readAheadSize;
+        private final int segmentFrames;
+        private final int segmentOverlapFrames;
+        private final TrackletStitcher stitcher;
 
         public HDFSVideoTrackingStream(AppPropertyCenter propCenter) throws Exception {
             super(APP_NAME, propCenter);
 
+            algorithm = propCenter.algorithm;
             numSamplesPerTracklet = propCenter.numSamplesPerTracklet;
             metadataDir = propCenter.metadataDir;
+            readAheadSize = propCenter.readAheadSize;
+            segmentFrames = propCenter.segmentFrames;
+            segmentOverlapFrames = propCenter.segmentOverlapFrames;
+            stitcher = new TrackletStitcher(propCenter.stitchMinIoU, propCenter.stitchMinAppearanceSimilarity);
             confCacheSingleton = new Singleton<>(ConfCache::new, ConfCache.class);
         }
 
+        /**
+         * Load the native tracking library (if used) and FFmpeg, and connect to HDFS.
+         * Trackers themselves are created per video from the configuration in each task.
+         *
+         * @throws Exception On failure loading the libraries or connecting to HDFS.
+         */
+        @Override
+        public void warmUp() throws Exception {
+            super.warmUp();
+            confCacheSingleton.getInst();
+            if (algorithm == Algorithm.Basic) {
+                Class.forName(BasicTracker.class.getName());
+            }
+            HDFSFactory.newInstance().close();
+        }
+
         /**
          * Add streaming actions to the global {@link TaskData} stream.
          * This global stream contains pre-deserialized TaskData messages, so as to save time.
@@ -149,6 +315,10 @@ public class PedestrianTrackingApp extends SparkStreamingApp {
          */
         @Override
         public void addToGlobalStream(Map<DataType, JavaPairDStream<UUID, TaskData>> globalStreamMap) {
+            if (segmentFrames > 0) {
+                addSegmentedTracking(globalStreamMap);
+                return;
+            }
             this.filter(globalStreamMap, VIDEO_URL_PORT)
                     .foreachRDD(rdd -> rdd.glom().foreach(kvList -> {
                         final Logger logger = loggerSingleton.getInst();
@@ -160,97 +330,51 @@ public class PedestrianTrackingApp extends SparkStreamingApp {
 
                         long startTime = System.currentTimeMillis();
                         synchronized (HDFSVideoTrackingStream.class) {
-                            ParallelExecutor.execute(kvList, kv -> {
+                            parallelExecutor().execute(kvList, kv -> {
                                 try {
                                     final UUID taskID = kv._1();
                                     final TaskData taskData = kv._2();
 
                                     final String videoURL = (String) taskData.predecessorRes;
-                                    logger.debug("Received taskID=" + taskID + ", URL=" + videoURL);
+                                    logger.debug(() -> "Received taskID=" + taskID + ", URL=" + videoURL);
 
                                     final Path videoPath = new Path(videoURL);
-                                    String videoName = videoPath.getName();
-                                    videoName = videoName.substring(0, videoName.lastIndexOf('.'));
+                                    final String videoName = getVideoName(videoPath);
 
                                     // Find current node.
                                     final ExecutionPlan.Node curNode = taskData.getDestNode(VIDEO_URL_PORT);
-                                    // Get tracking configuration for this execution.
                                     assert curNode != null;
-                                    final String confFile = (String) curNode.getExecData();
-                                    if (confFile == null) {
-                                        throw new IllegalArgumentException(
-                                                "Tracking configuration file is not specified for this node!");
-                                    }
-
-                                    // Get ports to output to.
-                                    final List<ExecutionPlan.Node.Port> outputPorts = curNode.getOutputPorts();
-                                    // Mark the current node as executed in advance.
-                                    curNode.markExecuted();
-
-                                    // Load tracking configuration to create a tracker.
-                                    if (!confCacheSingleton.getInst().containsKey(confFile)) {
-                                        InputStream confStream = getClass().getResourceAsStream(
-                                                "/conf/" + APP_NAME + "/" + confFile);
-                                        if (confStream == null) {
-                                            throw new IllegalArgumentException(
-                                                    "Tracking configuration file not found in JAR!");
-                                        }
-                                        confCacheSingleton.getInst().put(confFile, IOUtils.toByteArray(confStream));
-                                    }
-                                    final byte[] confBytes = confCacheSingleton.getInst().get(confFile);
-                                    if (confBytes == null) {
-                                        logger.fatal("confPool contains key " + confFile + " but value is null!");
-                                        return;
-                                    }
-                                    final Tracker tracker = new BasicTracker(confBytes, logger);
+                                    final Tracker tracker = createTracker(algorithm, Tracker.class,
+                                            loadConf(curNode), logger, getCancellationToken(taskID));
 
                                     final FileSystem hdfs = HDFSFactory.newInstance();
 
                                     // Conduct tracking on video read from HDFS.
                                     logger.debug("Performing tracking on " + videoName);
+                                    final long trackStartTime = System.nanoTime();
                                     final Tracklet[] tracklets = new RobustExecutor<Void, Tracklet[]>(
-                                            (Function0<Tracklet[]>) () -> {
-                                                // This value is set according to resolution of DCI 4K.
-                                                final int BUFFER_SIZE = 4096 * 2160 * 3;
-                                                final InputStream videoStream =
-                                                        new BufferedInputStream(hdfs.open(videoPath), BUFFER_SIZE);
-                                                return tracker.track(videoStream);
-                                            }
+                                            (Function<Void, Tracklet[]>) ignored ->
+                                                    tracker.track(openVideo(hdfs, videoPath)),
+                                            Collections.singletonList(CancellationException.class)
                                     ).execute();
+                                    stageLatency("track", VIDEO_URL_PORT).recordSince(trackStartTime);
+                                    // Mark the current node as executed before outputting, so its trace span covers tracking.
+                                    curNode.markExecuted();
                                     logger.debug("Finished tracking on " + videoName);
 
-                                    // Set video IDs and Send tracklets.
-                                    for (Tracklet tracklet : tracklets) {
-                                        // Conduct sampling on the tracklets to save memory.
-                                        tracklet.sample(numSamplesPerTracklet);
-                                        tracklet.id.videoID = videoName;
-                                        try {
-                                            output(outputPorts, taskData.executionPlan,
-                                                    new TrackletOrURL(tracklet), taskID);
-                                        } catch (MessageSizeTooLargeException
-                                                | KafkaException
-                                                | FailedToSendMessageException e) {
-                                            // The tracklet's size exceeds the limit.
-                                            // Here we first store it into HDFS,
-                                            // then send its URL instead of the tracklet itself.
-                                            final String videoRoot = metadataDir + "/" + tracklet.id.videoID;
-                                            final String taskRoot = videoRoot + "/" + taskID;
-                                            final String storeDir = taskRoot + "/" + tracklet.id.serialNumber;
-                                            logger.debug("Tracklet " + tracklet.id
-                                                    + " is too long. Passing it through HDFS at \"" + storeDir + "\".");
-                                            HadoopHelper.storeTracklet(storeDir, tracklet, hdfs);
-                                            output(outputPorts,
-                                                    taskData.executionPlan,
-                                                    new TrackletOrURL(storeDir),
-                                                    taskID);
-                                        }
-                                    }
-
+                                    outputTracklets(tracklets, videoName, curNode, taskID, taskData, hdfs);
                                     hdfs.close();
+                                } catch (CancellationException e) {
+                                    logger.info("Task " + kv._1() + " is cancelled during tracking.");
                                 } catch (Throwable e) {
                                     logger.error("During tracking.", e);
                                 }
                             });
+                            try {
+                                flushOutput();
+                            } catch (Exception e) {
+                                logger.error("During flushing tracklets.", e);
+                            }
                         }
                         if (kvList.size() > 0) {
                             long endTime = System.currentTimeMillis();
@@ -259,6 +383,238 @@ public class PedestrianTrackingApp extends SparkStreamingApp {
                     }));
         }
 
+        /**
+         * A segment of a video to track.
+         */
+        private static class VideoSegment implements Serializable {
+            private static final long serialVersionUID = 3837620561739187640L;
+            final UUID taskID;
+            final TaskData taskData;
+            final int startFrame;
+            final int endFrame;
+
+            VideoSegment(UUID taskID, TaskData taskData, int startFrame, int endFrame) {
+                this.taskID = taskID;
+                this.taskData = taskData;
+                this.startFrame = startFrame;
+                this.endFrame = endFrame;
+            }
+        }
+
+        /**
+         * Split a video into overlapping segments according to its length.
+         * A video whose length is unknown is taken as a single segment.
+         */
+        private List<VideoSegment> split(UUID taskID, TaskData taskData) throws Exception {
+            final Logger logger = loggerSingleton.getInst();
+            final Path videoPath = new Path((String) taskData.predecessorRes);
+            final int numFrames;
+            final FileSystem hdfs = HDFSFactory.newInstance();
+            try {
+                final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(openVideo(hdfs, videoPath));
+                grabber.start();
+                numFrames = grabber.getLengthInFrames();
+                grabber.release();
+            } finally {
+                hdfs.close();
+            }
+            final List<VideoSegment> segments = new ArrayList<>();
+            if (numFrames <= 0) {
+                segments.add(new VideoSegment(taskID, taskData, 0, Integer.MAX_VALUE));
+            } else {
+                for (int start = 0; start < numFrames; start += segmentFrames) {
+                    segments.add(new VideoSegment(taskID, taskData, start,
+                            Math.min(start + segmentFrames + segmentOverlapFrames, numFrames)));
+                }
+            }
+            logger.info("Split " + videoPath.getName() + " of " + numFrames + " frames into "
+                    + segments.size() + " segments.");
+            return segments;
+        }
+
+        private TrackletStitcher.Segment trackSegment(VideoSegment segment) throws Exception {
+            final Logger logger = loggerSingleton.getInst();
+            final Path videoPath = new Path((String) segment.taskData.predecessorRes);
+            final ExecutionPlan.Node curNode = segment.taskData.getDestNode(VIDEO_URL_PORT);
+            assert curNode != null;
+            final SegmentTracker tracker = createTracker(algorithm, SegmentTracker.class,
+                    loadConf(curNode), logger, getCancellationToken(segment.taskID));
+            final FileSystem hdfs = HDFSFactory.newInstance();
+            try {
+                final long trackStartTime = System.nanoTime();
+                final Tracklet[] tracklets = new RobustExecutor<Void, Tracklet[]>(
+                        (Function<Void, Tracklet[]>) ignored -> tracker.track(openVideo(hdfs, videoPath),
+                                segment.startFrame, segment.endFrame),
+                        Collections.singletonList(CancellationException.class)
+                ).execute();
+                stageLatency("track_segment", VIDEO_URL_PORT).recordSince(trackStartTime);
+                logger.debug("Tracked " + tracklets.length + " tracklets in frames [" + segment.startFrame
+                        + ", " + segment.endFrame + ") of " + videoPath.getName());
+                return new TrackletStitcher.Segment(segment.startFrame, tracklets);
+            } finally {
+                hdfs.close();
+            }
+        }
+
+        /**
+         * Track long videos in parallel: each video is split into overlapping segments, which are spread over
+         * the executors for tracking, and the tracklets of the segments are stitched before being output.
+         */
+        private void addSegmentedTracking(Map<DataType, JavaPairDStream<UUID, TaskData>> globalStreamMap) {
+            this.filter(globalStreamMap, VIDEO_URL_PORT)
+                    .foreachRDD(rdd -> {
+                        // Segment descriptors are small, so they are collected to spread one segment per partition.
+                        final List<VideoSegment> segments = rdd.flatMap(kv -> {
+                            try {
+                                return split(kv._1(), kv._2()).iterator();
+                            } catch (Exception e) {
+                                loggerSingleton.getInst().error("On splitting video " + kv._2().predecessorRes, e);
+                                return Collections.emptyIterator();
+                            }
+                        }).collect();
+                        if (segments.isEmpty()) {
+                            return;
+                        }
+                        JavaSparkContext.fromSparkContext(rdd.context())
+                                .parallelize(segments, segments.size())
+                                .mapToPair(segment -> {
+                                    // A segment failing even after retries is marked by null,
+                                    // so as the whole task is dropped instead of output partially.
+                                    TrackletStitcher.Segment tracked;
+                                    try {
+                                        tracked = trackSegment(segment);
+                                    } catch (Exception e) {
+                                        loggerSingleton.getInst().error("On tracking frames [" + segment.startFrame
+                                                + ", " + segment.endFrame + ") of task " + segment.taskID, e);
+                                        tracked = null;
+                                    }
+                                    return new Tuple2<>(segment.taskID, new Tuple2<>(segment.taskData, tracked));
+                                })
+                                .groupByKey()
+                                .foreach(kv -> {
+                                    final Logger logger = loggerSingleton.getInst();
+                                    try {
+                                        final UUID taskID = kv._1();
+                                        if (getCancellationToken(taskID).isCancelled()) {
+                                            // Segments of a cancelled task may have been dropped.
+                                            logger.info("Task " + taskID + " is cancelled during tracking.");
+                                            return;
+                                        }
+                                        final List<TrackletStitcher.Segment> tracked = new ArrayList<>();
+                                        TaskData taskData = null;
+                                        int numFailed = 0;
+                                        for (Tuple2<TaskData, TrackletStitcher.Segment> segment : kv._2()) {
+                                            taskData = segment._1();
+                                            if (segment._2() == null) {
+                                                ++numFailed;
+                                            } else {
+                                                tracked.add(segment._2());
+                                            }
+                                        }
+                                        assert taskData != null;
+                                        if (numFailed > 0) {
+                                            logger.error("Task " + taskID + " failed: " + numFailed + " of "
+                                                    + (numFailed + tracked.size()) + " segments of "
+                                                    + taskData.predecessorRes + " could not be tracked."
+                                                    + " No tracklet is output for it.");
+                                            return;
+                                        }
+                                        final long stitchStartTime = System.nanoTime();
+                                        final Tracklet[] tracklets = stitcher.stitch(tracked);
+                                        stageLatency("stitch", VIDEO_URL_PORT).recordSince(stitchStartTime);
+
+                                        final ExecutionPlan.Node curNode = taskData.getDestNode(VIDEO_URL_PORT);
+                                        assert curNode != null;
+                                        curNode.markExecuted();
+                                        final String videoName = getVideoName(new Path((String) taskData.predecessorRes));
+                                        logger.info("Stitched " + tracklets.length + " tracklets of " + videoName
+                                                + " from " + tracked.size() + " segments.");
+                                        final FileSystem hdfs = HDFSFactory.newInstance();
+                                        outputTracklets(tracklets, videoName, curNode, taskID, taskData, hdfs);
+                                        hdfs.close();
+                                        flushOutput();
+                                    } catch (Throwable e) {
+                                        logger.error("During stitching.", e);
+                                    }
+                                });
+                    });
+        }
+
+        private static String getVideoName(Path videoPath) {
+            final String videoName = videoPath.getName();
+            return videoName.substring(0, videoName.lastIndexOf('.'));
+        }
+
+        private InputStream openVideo(FileSystem hdfs, Path videoPath) throws IOException {
+            return SeekableHDFSInputStream.open(hdfs, videoPath, readAheadSize);
+        }
+
+        /**
+         * Load the tracking configuration of a node from the JAR, caching it in the executor.
+         */
+        private byte[] loadConf(ExecutionPlan.Node curNode) throws Exception {
+            final String confFile = (String) curNode.getExecData();
+            if (confFile == null) {
+                throw new IllegalArgumentException(
+                        "Tracking configuration file is not specified for this node!");
+            }
+            final ConfCache confCache = confCacheSingleton.getInst();
+            synchronized (confCache) {
+                if (!confCache.containsKey(confFile)) {
+                    InputStream confStream = getClass().getResourceAsStream(
+                            "/conf/" + APP_NAME + "/" + confFile);
+                    if (confStream == null) {
+                        throw new IllegalArgumentException(
+                                "Tracking configuration file not found in JAR!");
+                    }
+                    confCache.put(confFile, IOUtils.toByteArray(confStream));
+                }
+                return confCache.get(confFile);
+            }
+        }
+
+        /**
+         * Sample the tracklets of a video and send them to the output ports of the current node.
+         */
+        private void outputTracklets(Tracklet[] tracklets,
+                                     String videoName,
+                                     ExecutionPlan.Node curNode,
+                                     UUID taskID,
+                                     TaskData taskData,
+                                     FileSystem hdfs) throws Exception {
+            final Logger logger = loggerSingleton.getInst();
+            // Get ports to output to.
+            final List<ExecutionPlan.Node.Port> outputPorts = curNode.getOutputPorts();
+            // Set video IDs and Send tracklets.
+            for (Tracklet tracklet : tracklets) {
+                // Conduct sampling on the tracklets to save memory.
+                tracklet.sample(numSamplesPerTracklet);
+                tracklet.id.videoID = videoName;
+                try {
+                    output(outputPorts, taskData.executionPlan,
+                            new TrackletOrURL(tracklet), taskID);
+                } catch (MessageSizeTooLargeException
+                        | KafkaException
+                        | FailedToSendMessageException e) {
+                    // The tracklet's size exceeds the limit.
+                    // Here we first store it into HDFS,
+                    // then send its URL instead of the tracklet itself.
+                    final String videoRoot = metadataDir + "/" + tracklet.id.videoID;
+                    final String taskRoot = videoRoot + "/" + taskID;
+                    final String storeDir = taskRoot + "/" + tracklet.id.serialNumber;
+                    logger.debug("Tracklet " + tracklet.id
+                            + " is too long. Passing it through HDFS at \"" + storeDir + "\".");
+                    final long storeStartTime = System.nanoTime();
+                    HadoopHelper.storeTracklet(storeDir, tracklet, hdfs);
+                    stageLatency("hdfs_write", VIDEO_URL_PORT).recordSince(storeStartTime);
+                    output(outputPorts,
+                            taskData.executionPlan,
+                            new TrackletOrURL(storeDir),
+                            taskID);
+                }
+            }
+        }
+
         @Override
         public List<Port> getPorts() {
             return Collections.singletonList(VIDEO_URL_PORT);
@@ -266,6 +622,182 @@ public class PedestrianTrackingApp extends SparkStreamingApp {
 
     }
 
+    /**
+     * The RTVideoTrackingStream tracks pedestrians on live streams of web cameras.
+     * On receiving the login parameters of a camera, it starts a {@link RealTimeTrackingSession}
+     * in the executor, which keeps tracking on the camera and outputs the tracklets of each window
+     * to the ports of the execution plan, until the executor stops.
+     */
+    public static class RTVideoTrackingStream extends Stream {
+
+        public static final String NAME = "rt-video-tracking";
+        public static final DataType OUTPUT_TYPE = DataType.TRACKLET;
+
+        /**
+         * Port to input login parameters of web cameras from Kafka.
+         */
+        public static final Port LOGIN_PARAM_PORT =
+                new Port("webcam-login-param-for-pedestrian-tracking", DataType.WEBCAM_LOGIN_PARAM);
+        private static final long serialVersionUID = 5034187236508834761L;
+
+        private final Algorithm algorithm;
+        private final int numSamplesPerTracklet;
+        private final long windowMs;
+        private final long maxBackoffMs;
+        private final WebcamConnector connectorType;
+        private final String standInFile;
+        /**
+         * Scheduler keeping each camera in one executor, which lives on the driver.
+         */
+        private final Singleton<StickyScheduler<Tuple2<UUID, TaskData>>> schedulerSingleton;
+
+        public RTVideoTrackingStream(AppPropertyCenter propCenter) throws Exception {
+            super(APP_NAME, propCenter);
+
+            algorithm = propCenter.algorithm;
+            numSamplesPerTracklet = propCenter.numSamplesPerTracklet;
+            windowMs = propCenter.rtWindowMs;
+            maxBackoffMs = propCenter.rtMaxBackoffMs;
+            connectorType = propCenter.webcamConnector;
+            standInFile = propCenter.webcamStandInFile;
+
+            final Singleton<Logger> loggerSingleton = this.loggerSingleton;
+            // Kept in the checkpoint directory of the application, so as it is recovered with the checkpoint,
+            // and cleared with it when the application starts afresh (see SparkStreamingApp#initialize).
+            // The scheduler is created on the first batch, after the directory has been prepared.
+            final String sourceFile = propCenter.checkpointRootDir + "/" + APP_NAME + "/rt-sources";
+            schedulerSingleton = new Singleton<>(
+                    () -> new StickyScheduler<>(loggerSingleton.getInst(), sourceFile),
+                    schedulerClass());
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<StickyScheduler<Tuple2<UUID, TaskData>>> schedulerClass() {
+            return (Class<StickyScheduler<Tuple2<UUID, TaskData>>>) (Class<?>) StickyScheduler.class;
+        }
+
+        private Factory<WebCameraConnector> createConnectorFactory(LoginParam loginParam) {
+            switch (connectorType) {
+                case FILE:
+                    return new FileWebCameraConnector.FileWebCameraConnectorFactory(loginParam, standInFile);
+                case FAKE:
+                default:
+                    return new FakeWebCameraConnector.FakeWebCameraConnectorFactory(loginParam);
+            }
+        }
+
+        /**
+         * Add streaming actions to the global {@link TaskData} stream.
+         * This global stream contains pre-deserialized TaskData messages, so as to save time.
+         *
+         * @param globalStreamMap A map of streams. The key of an entry is the topic name,
+         *                        which must be one of the {@link DataType}.
+         *                        The value is a filtered stream.
+         */
+        @Override
+        public void addToGlobalStream(Map<DataType, JavaPairDStream<UUID, TaskData>> globalStreamMap) {
+            this.filter(globalStreamMap, LOGIN_PARAM_PORT)
+                    .foreachRDD(rdd -> {
+                        // Login parameters are few, so they are collected to the driver for scheduling.
+                        final StickyScheduler<Tuple2<UUID, TaskData>> scheduler = schedulerSingleton.getInst();
+                        for (Tuple2<UUID, TaskData> kv : rdd.collect()) {
+                            final LoginParam loginParam = (LoginParam) kv._2().predecessorRes;
+                            scheduler.submit(RealTimeTrackingSession.getCameraID(loginParam), kv);
+                        }
+                        // Cameras of terminated tasks are stopped on the following reconciliation.
+                        for (Map.Entry<String, Tuple2<UUID, TaskData>> source : scheduler.getSources().entrySet()) {
+                            if (getCancellationToken(source.getValue()._1()).isCancelled()) {
+                                loggerSingleton.getInst().info("Stopping tracking on camera " + source.getKey()
+                                        + " of terminated task " + source.getValue()._1());
+                                scheduler.release(source.getKey());
+                            }
+                        }
+                        scheduler.reconcile(rdd.context(), this::reconcileSessions);
+                    });
+        }
+
+        /**
+         * Make the tracking sessions in this executor exactly the ones assigned by the {@link StickyScheduler}.
+         * Sessions of cameras moved to other executors are stopped after emitting their current windows,
+         * and sessions of cameras newly assigned or with new tasks are started.
+         *
+         * @param assigned tasks of the cameras assigned to this executor, keyed by camera IDs.
+         */
+        private void reconcileSessions(Map<String, Tuple2<UUID, TaskData>> assigned) throws Exception {
+            final Logger logger = loggerSingleton.getInst();
+            RealTimeTrackingSession.getSessions().forEach((cameraID, session) -> {
+                if (!assigned.containsKey(cameraID)) {
+                    logger.info("Handing off camera " + cameraID + " to another executor.");
+                    session.shutdown();
+                }
+            });
+            assigned.forEach((cameraID, kv) -> {
+                final RealTimeTrackingSession session = RealTimeTrackingSession.getSessions().get(cameraID);
+                if (session == null || !session.getTaskID().equals(kv._1())) {
+                    try {
+                        if (getCancellationToken(kv._1()).isCancelled()) {
+                            // The driver releases the camera on its next batch.
+                            return;
+                        }
+                        launchSession(kv._1(), kv._2());
+                    } catch (Exception e) {
+                        logger.error("On starting real-time tracking on camera " + cameraID, e);
+                    }
+                }
+            });
+        }
+
+        private void launchSession(UUID taskID, TaskData taskData) throws Exception {
+            final Logger logger = loggerSingleton.getInst();
+            final LoginParam loginParam = (LoginParam) taskData.predecessorRes;
+
+            final ExecutionPlan.Node curNode = taskData.getDestNode(LOGIN_PARAM_PORT);
+            assert curNode != null;
+            final String confFile = (String) curNode.getExecData();
+            if (confFile == null) {
+                throw new IllegalArgumentException(
+                        "Tracking configuration file is not specified for this node!");
+            }
+            final InputStream confStream = getClass().getResourceAsStream(
+                    "/conf/" + APP_NAME + "/" + confFile);
+            if (confStream == null) {
+                throw new IllegalArgumentException("Tracking configuration file not found in JAR!");
+            }
+            final byte[] confBytes = IOUtils.toByteArray(confStream);
+            final List<ExecutionPlan.Node.Port> outputPorts = curNode.getOutputPorts();
+            curNode.markExecuted();
+
+            final CancellationToken cancellation = getCancellationToken(taskID);
+            RealTimeTrackingSession.launch(new RealTimeTrackingSession(
+                    taskID,
+                    loginParam,
+                    createConnectorFactory(loginParam),
+                    createTracker(algorithm, RealTimeTracker.class, confBytes, logger, cancellation),
+                    windowMs,
+                    maxBackoffMs,
+                    tracklets -> {
+                        for (Tracklet tracklet : tracklets) {
+                            // Conduct sampling on the tracklets to save memory.
+                            tracklet.sample(numSamplesPerTracklet);
+                            output(outputPorts, taskData.executionPlan,
+                                    new TrackletOrURL(tracklet), taskID);
+                        }
+                        flushOutput();
+                        logger.debug("Sent " + tracklets.length + " tracklets of camera "
+                                + RealTimeTrackingSession.getCameraID(loginParam));
+                    },
+                    cancellation,
+                    logger));
+            logger.info("Started tracking on camera " + RealTimeTrackingSession.getCameraID(loginParam)
+                    + " for task " + taskID);
+        }
+
+        @Override
+        public List<Port> getPorts() {
+            return Collections.singletonList(LOGIN_PARAM_PORT);
+        }
+    }
+
     @Override
     public void addToContext() throws Exception {
         // Do nothing.
@@ -0,0 +1,223 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.alg.pedestrian.tracking;
+
+import org.cripac.isee.alg.pedestrian.tracking.RealTimeTracker;
+import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
+import org.cripac.isee.util.CancellationToken;
+import org.cripac.isee.util.Factory;
+import org.cripac.isee.vpe.common.LoginParam;
+import org.cripac.isee.vpe.data.WebCameraConnector;
+import org.cripac.isee.vpe.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A RealTimeTrackingSession is a long-lived thread tracking pedestrians on the live stream of a web camera.
+ * It lives in the executor that received the login parameters of the camera,
+ * keeping the connection and decoder open across Spark batches.
+ * <p>
+ * Tracklets are emitted at the end of each window of the tracker, so their latency is bounded
+ * by the window duration. When the stream breaks, the session reconnects to the camera
+ * with exponential backoff, and continues emitting tracklets from the new connection.
+ * The session stops for good once its task is cancelled.
+ * <p>
+ * There is at most one session for each camera in a JVM. Launching a new session for a camera
+ * (e.g. on a repeated command) replaces the existing one.
+ */
+public class RealTimeTrackingSession extends Thread {
+
+    /**
+     * Receiver of the tracklets tracked in each window.
+     */
+    @FunctionalInterface
+    public interface TrackletSink {
+        /**
+         * @param tracklets tracklets in a window, whose video IDs are set to the camera and window.
+         * @throws Exception On failure emitting the tracklets.
+         */
+        void accept(@Nonnull Tracklet[] tracklets) throws Exception;
+    }
+
+    private static final long INITIAL_BACKOFF_MS = 500;
+
+    private static final Map<String, RealTimeTrackingSession> sessions = new ConcurrentHashMap<>();
+
+    private final UUID taskID;
+    private final String cameraID;
+    private final Factory<WebCameraConnector> connectorFactory;
+    private final RealTimeTracker tracker;
+    private final long windowMs;
+    private final long maxBackoffMs;
+    private final TrackletSink sink;
+    private final CancellationToken cancellation;
+    private final Logger logger;
+
+    private volatile boolean running = true;
+    private final AtomicInteger numConnections = new AtomicInteger(0);
+    private final AtomicInteger numWindows = new AtomicInteger(0);
+
+    /**
+     * Create a session. Call {@link #launch(RealTimeTrackingSession)} to start it.
+     *
+     * @param taskID           ID of the task the session serves.
+     * @param loginParam       login parameters of the camera.
+     * @param connectorFactory factory creating a connector to the camera on each connection.
+     * @param tracker          tracker to track on the stream of the camera.
+     * @param windowMs         duration of each window of tracking in milliseconds.
+     * @param maxBackoffMs     maximum interval between two attempts of reconnecting in milliseconds.
+     * @param sink             receiver of the tracklets.
+     * @param cancellation     token of the task, which stops the session once cancelled.
+     * @param logger           logger for reporting.
+     */
+    public RealTimeTrackingSession(@Nonnull UUID taskID,
+                                   @Nonnull LoginParam loginParam,
+                                   @Nonnull Factory<WebCameraConnector> connectorFactory,
+                                   @Nonnull RealTimeTracker tracker,
+                                   long windowMs,
+                                   long maxBackoffMs,
+                                   @Nonnull TrackletSink sink,
+                                   @Nonnull CancellationToken cancellation,
+                                   @Nonnull Logger logger) {
+        this.taskID = taskID;
+        this.cameraID = getCameraID(loginParam);
+        setName("rt-tracking-" + cameraID);
+        setDaemon(true);
+        this.connectorFactory = connectorFactory;
+        this.tracker = tracker;
+        this.windowMs = windowMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.sink = sink;
+        this.cancellation = cancellation;
+        this.logger = logger;
+    }
+
+    /**
+     * @param loginParam login parameters of a camera.
+     * @return identifier of the camera, made up of its address and port.
+     */
+    @Nonnull
+    public static String getCameraID(@Nonnull LoginParam loginParam) {
+        return loginParam.serverID.address.getHostAddress() + "_" + loginParam.serverID.port;
+    }
+
+    /**
+     * Start a session, replacing the existing session of the same camera in this JVM.
+     *
+     * @param session the session to start.
+     */
+    public static void launch(@Nonnull RealTimeTrackingSession session) {
+        final RealTimeTrackingSession old = sessions.put(session.cameraID, session);
+        if (old != null) {
+            session.logger.info("Replacing the tracking session of camera " + session.cameraID);
+            old.shutdown();
+        }
+        session.start();
+    }
+
+    /**
+     * @return sessions in this JVM, keyed by camera IDs.
+     */
+    @Nonnull
+    public static Map<String, RealTimeTrackingSession> getSessions() {
+        return Collections.unmodifiableMap(sessions);
+    }
+
+    /**
+     * Stop the session. Tracklets of the current window are emitted before the session ends.
+     */
+    public void shutdown() {
+        running = false;
+        sessions.remove(cameraID, this);
+    }
+
+    /**
+     * @return ID of the task the session serves.
+     */
+    @Nonnull
+    public UUID getTaskID() {
+        return taskID;
+    }
+
+    /**
+     * @return number of connections made to the camera so far, including reconnections.
+     */
+    public int getNumConnections() {
+        return numConnections.get();
+    }
+
+    /**
+     * @return number of windows whose tracklets have been emitted.
+     */
+    public int getNumWindows() {
+        return numWindows.get();
+    }
+
+    private boolean isRunning() {
+        return running && !cancellation.isCancelled();
+    }
+
+    @Override
+    public void run() {
+        // Modified by the tracklet consumer.
+        final long[] backoffMs = {INITIAL_BACKOFF_MS};
+        while (isRunning()) {
+            numConnections.incrementAndGet();
+            try (InputStream stream = connectorFactory.produce().getStream()) {
+                logger.info("Connected to camera " + cameraID + ".");
+                tracker.track(stream, windowMs, (windowStartTime, startFrameIndex, tracklets) -> {
+                    final String videoID = cameraID + "_" + windowStartTime;
+                    for (Tracklet tracklet : tracklets) {
+                        tracklet.id.videoID = videoID;
+                    }
+                    sink.accept(tracklets);
+                    numWindows.incrementAndGet();
+                    // The connection works, so reconnect quickly if it breaks later.
+                    backoffMs[0] = INITIAL_BACKOFF_MS;
+                }, this::isRunning);
+                logger.info("Stream of camera " + cameraID + " ended.");
+            } catch (Exception e) {
+                if (!cancellation.isCancelled()) {
+                    logger.error("On tracking on camera " + cameraID, e);
+                }
+            }
+            if (cancellation.isCancelled()) {
+                logger.info("Task " + taskID + " on camera " + cameraID + " is cancelled.");
+                break;
+            }
+            if (!running) {
+                break;
+            }
+            logger.info("Reconnecting to camera " + cameraID + " in " + backoffMs[0] + "ms...");
+            try {
+                Thread.sleep(backoffMs[0]);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoffMs[0] = Math.min(backoffMs[0] * 2, maxBackoffMs);
+        }
+        sessions.remove(cameraID, this);
+        logger.info("Tracking session of camera " + cameraID + " stopped.");
+    }
+}
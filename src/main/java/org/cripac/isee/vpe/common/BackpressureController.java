@@ -0,0 +1,182 @@
+/*
+ * This file is part of LaS-VPE-Platform.
+ *
+ * LaS-VPE-Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE-Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE-Platform. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.vpe.common;
+
+import org.apache.log4j.Level;
+import org.apache.spark.streaming.kafka010.OffsetRange;
+import org.apache.spark.streaming.scheduler.*;
+import org.cripac.isee.vpe.ctrl.SystemPropertyCenter;
+import org.cripac.isee.vpe.util.logging.Logger;
+import scala.Option;
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The BackpressureController adapts the number of partitions the input of an application is
+ * repartitioned to, according to the scheduling delay and processing time of each batch.
+ * <p>
+ * The load of a batch is measured as the sum of its scheduling delay and processing time over the batch duration.
+ * A PID controller drives the load towards a target utilization: the input is spread over more partitions
+ * when the batches fall behind, and over fewer partitions when the executors idle.
+ * The ingestion rate of each Kafka partition is controlled by the rate estimator of Spark
+ * (spark.streaming.backpressure.*), which is configured with the same gains by {@link SparkStreamingApp}.
+ * <p>
+ * The controller runs on the driver, registered as a {@link StreamingListener}.
+ */
+public class BackpressureController implements StreamingListener {
+
+    /**
+     * Bound of the integral term, which prevents it from winding up during long overloads.
+     */
+    private static final double INTEGRAL_LIMIT = 5;
+
+    private final Logger logger;
+    private final long batchDurationMs;
+    private final double targetUtilization;
+    private final double proportional;
+    private final double integral;
+    private final double derivative;
+    private final int initialPartitions;
+    private final int minPartitions;
+    private final int maxPartitionsConf;
+
+    private int maxPartitions;
+    private volatile int numPartitions = -1;
+    private double errorIntegral = 0;
+    private double lastError = 0;
+
+    public BackpressureController(@Nonnull SystemPropertyCenter propCenter,
+                                  @Nonnull Logger logger) {
+        this.logger = logger;
+        this.batchDurationMs = propCenter.batchDuration;
+        this.targetUtilization = propCenter.backpressureTargetUtilization;
+        this.proportional = propCenter.backpressureProportional;
+        this.integral = propCenter.backpressureIntegral;
+        this.derivative = propCenter.backpressureDerivative;
+        this.initialPartitions = propCenter.repartition;
+        this.minPartitions = Math.max(propCenter.backpressureMinPartitions, 1);
+        this.maxPartitionsConf = propCenter.backpressureMaxPartitions;
+    }
+
+    private int clamp(long partitions) {
+        return (int) Math.max(minPartitions, Math.min(maxPartitions, partitions));
+    }
+
+    /**
+     * Get the number of partitions to repartition the input of the next batch to.
+     *
+     * @param defaultParallelism default parallelism of Spark, used for the initial number of partitions
+     *                           and the ceiling when they are not configured.
+     * @return the number of partitions.
+     */
+    public synchronized int getNumPartitions(int defaultParallelism) {
+        if (numPartitions < 0) {
+            maxPartitions = Math.max(maxPartitionsConf > 0 ? maxPartitionsConf : defaultParallelism * 4,
+                    minPartitions);
+            numPartitions = clamp(initialPartitions > 0 ? initialPartitions : defaultParallelism);
+            logger.info("Backpressure starts with " + numPartitions + " partitions, bounded in ["
+                    + minPartitions + ", " + maxPartitions + "].");
+        }
+        return numPartitions;
+    }
+
+    private static long getOrZero(Option<Object> option) {
+        return option.isDefined() ? (Long) option.get() : 0;
+    }
+
+    /**
+     * Count the records of a batch received from each Kafka topic.
+     */
+    private static Map<String, Long> countRecordsPerTopic(BatchInfo batchInfo) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (StreamInputInfo inputInfo : JavaConversions.asJavaIterable(batchInfo.streamIdToInputInfo().values())) {
+            final Option<Object> offsets = inputInfo.metadata().get("offsets");
+            if (offsets.isDefined() && offsets.get() instanceof Seq) {
+                for (Object o : JavaConversions.seqAsJavaList((Seq<?>) offsets.get())) {
+                    if (o instanceof OffsetRange) {
+                        final OffsetRange range = (OffsetRange) o;
+                        counts.merge(range.topic(), range.count(), Long::sum);
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public void onBatchCompleted(StreamingListenerBatchCompleted batchCompleted) {
+        final BatchInfo batchInfo = batchCompleted.batchInfo();
+        final long schedulingDelay = getOrZero(batchInfo.schedulingDelay());
+        final long processingDelay = getOrZero(batchInfo.processingDelay());
+        final double load = (double) (schedulingDelay + processingDelay) / batchDurationMs;
+
+        synchronized (this) {
+            if (numPartitions < 0 || batchInfo.numRecords() == 0) {
+                // Nothing has been repartitioned, or the batch is empty.
+                return;
+            }
+            final double error = load - targetUtilization;
+            errorIntegral = Math.max(-INTEGRAL_LIMIT, Math.min(INTEGRAL_LIMIT, errorIntegral + error));
+            final double errorDerivative = error - lastError;
+            lastError = error;
+            final double adjustment = proportional * error + integral * errorIntegral + derivative * errorDerivative;
+
+            final int lastPartitions = numPartitions;
+            numPartitions = clamp(Math.round(lastPartitions * (1 + adjustment)));
+            if (numPartitions != lastPartitions || logger.isEnabled(Level.DEBUG)) {
+                logger.info("Batch " + batchInfo.batchTime() + ": " + batchInfo.numRecords() + " records "
+                        + countRecordsPerTopic(batchInfo)
+                        + ", scheduling delay " + schedulingDelay + "ms"
+                        + ", processing time " + processingDelay + "ms"
+                        + ", load " + String.format("%.2f", load)
+                        + " -> partitions " + lastPartitions + " => " + numPartitions);
+            }
+        }
+    }
+
+    @Override
+    public void onReceiverStarted(StreamingListenerReceiverStarted receiverStarted) {
+    }
+
+    @Override
+    public void onReceiverError(StreamingListenerReceiverError receiverError) {
+    }
+
+    @Override
+    public void onReceiverStopped(StreamingListenerReceiverStopped receiverStopped) {
+    }
+
+    @Override
+    public void onBatchSubmitted(StreamingListenerBatchSubmitted batchSubmitted) {
+    }
+
+    @Override
+    public void onBatchStarted(StreamingListenerBatchStarted batchStarted) {
+    }
+
+    @Override
+    public void onOutputOperationStarted(StreamingListenerOutputOperationStarted outputOperationStarted) {
+    }
+
+    @Override
+    public void onOutputOperationCompleted(StreamingListenerOutputOperationCompleted outputOperationCompleted) {
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * This file is part of LaS-VPE-Platform.
+ *
+ * LaS-VPE-Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE-Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE-Platform. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.vpe.common;
+
+import org.apache.spark.SparkEnv;
+
+import javax.annotation.Nonnull;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The class MetricRegistry keeps the metrics of an application in a JVM.
+ * Metrics are identified by their names and tags (e.g. app, stream, port),
+ * and are tagged with the host and executor automatically.
+ * Recording a metric is lock-free, so it can be done on the hot paths.
+ * <p>
+ * Get the registry of the JVM through a {@link org.cripac.isee.util.Singleton}
+ * with a {@link MetricRegistryFactory}, which also starts a {@link MetricsReporter}.
+ */
+public class MetricRegistry {
+
+    /**
+     * Tags attached to all the metrics in this registry.
+     */
+    private final Map<String, String> commonTags = new LinkedHashMap<>();
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    public MetricRegistry(@Nonnull String appName) {
+        commonTags.put("app", appName);
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        commonTags.put("host", host);
+        commonTags.put("executor", SparkEnv.get() == null ? "driver" : SparkEnv.get().executorId());
+    }
+
+    /**
+     * Get or create a counter, which counts a cumulative total.
+     *
+     * @param name name of the counter.
+     * @param tags tags of the counter, in pairs of key and value.
+     * @return the counter.
+     */
+    public Counter counter(@Nonnull String name, String... tags) {
+        return (Counter) metrics.computeIfAbsent(key(name, tags), k -> new Counter(name, toTagMap(tags)));
+    }
+
+    /**
+     * Get or create a meter, which measures the rate of events.
+     *
+     * @param name name of the meter.
+     * @param tags tags of the meter, in pairs of key and value.
+     * @return the meter.
+     */
+    public Meter meter(@Nonnull String name, String... tags) {
+        return (Meter) metrics.computeIfAbsent(key(name, tags), k -> new Meter(name, toTagMap(tags)));
+    }
+
+    /**
+     * Get or create a histogram, which measures the distribution of values, such as latencies.
+     *
+     * @param name name of the histogram.
+     * @param tags tags of the histogram, in pairs of key and value.
+     * @return the histogram.
+     */
+    public Histogram histogram(@Nonnull String name, String... tags) {
+        return (Histogram) metrics.computeIfAbsent(key(name, tags), k -> new Histogram(name, toTagMap(tags)));
+    }
+
+    private static String key(String name, String[] tags) {
+        StringBuilder builder = new StringBuilder(name);
+        for (String tag : tags) {
+            builder.append('|').append(tag);
+        }
+        return builder.toString();
+    }
+
+    private Map<String, String> toTagMap(String[] tags) {
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("Tags should be in pairs of key and value.");
+        }
+        Map<String, String> tagMap = new LinkedHashMap<>(commonTags);
+        for (int i = 0; i < tags.length; i += 2) {
+            tagMap.put(tags[i], tags[i + 1]);
+        }
+        return tagMap;
+    }
+
+    /**
+     * Take snapshots of all the metrics. Meters and histograms are reset,
+     * so each snapshot describes the interval since the last one,
+     * apart from the cumulative totals carried along.
+     *
+     * @return snapshots of the metrics.
+     */
+    public List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>(metrics.size());
+        for (Metric metric : metrics.values()) {
+            snapshots.add(metric.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Snapshot of a metric, which is serialized to JSON for publishing.
+     */
+    public static class Snapshot {
+        public String name;
+        public String type;
+        public Map<String, String> tags;
+        public long count;
+        /* For meters and histograms, cumulative since the metric is created. */
+        public Long totalCount;
+        /* For meters. */
+        public Double ratePerSec;
+        /* For histograms. */
+        public Long min;
+        public Long max;
+        public Double mean;
+        public Long p50;
+        public Long p90;
+        public Long p99;
+        public Long p999;
+        /* For histograms, cumulative since the metric is created. */
+        public Long totalSum;
+    }
+
+    private abstract static class Metric {
+        final String name;
+        final Map<String, String> tags;
+
+        Metric(String name, Map<String, String> tags) {
+            this.name = name;
+            this.tags = tags;
+        }
+
+        abstract Snapshot snapshot();
+
+        Snapshot newSnapshot(String type) {
+            Snapshot snapshot = new Snapshot();
+            snapshot.name = name;
+            snapshot.type = type;
+            snapshot.tags = tags;
+            return snapshot;
+        }
+    }
+
+    /**
+     * A counter counting a cumulative total.
+     */
+    public static class Counter extends Metric {
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name, Map<String, String> tags) {
+            super(name, tags);
+        }
+
+        public void inc() {
+            count.increment();
+        }
+
+        public void inc(long n) {
+            count.add(n);
+        }
+
+        @Override
+        Snapshot snapshot() {
+            Snapshot snapshot = newSnapshot("counter");
+            snapshot.count = count.sum();
+            return snapshot;
+        }
+    }
+
+    /**
+     * A meter measuring the rate of events in each interval between snapshots.
+     */
+    public static class Meter extends Metric {
+        private final LongAdder count = new LongAdder();
+        private long lastSnapshotTime = System.nanoTime();
+        private long totalCount = 0;
+
+        Meter(String name, Map<String, String> tags) {
+            super(name, tags);
+        }
+
+        public void mark() {
+            count.increment();
+        }
+
+        public void mark(long n) {
+            count.add(n);
+        }
+
+        @Override
+        synchronized Snapshot snapshot() {
+            final long now = System.nanoTime();
+            Snapshot snapshot = newSnapshot("meter");
+            snapshot.count = count.sumThenReset();
+            snapshot.ratePerSec = snapshot.count * 1e9 / Math.max(now - lastSnapshotTime, 1);
+            totalCount += snapshot.count;
+            snapshot.totalCount = totalCount;
+            lastSnapshotTime = now;
+            return snapshot;
+        }
+    }
+
+    /**
+     * A histogram with log-linear buckets in the manner of HDR histograms.
+     * Values are kept with a relative error below 1/64, within a fixed amount of memory.
+     */
+    public static class Histogram extends Metric {
+        /**
+         * Values below 2^SUB_BUCKET_BITS are counted exactly.
+         * Each power of 2 above is split into 2^(SUB_BUCKET_BITS - 1) buckets.
+         */
+        private static final int SUB_BUCKET_BITS = 7;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+        private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+        private static final int NUM_BUCKETS = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+        private long totalCount = 0;
+        private long totalSum = 0;
+
+        Histogram(String name, Map<String, String> tags) {
+            super(name, tags);
+        }
+
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKET_COUNT) {
+                return (int) Math.max(value, 0);
+            }
+            final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+            final int top = (int) (value >>> shift);
+            return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + (top - HALF_SUB_BUCKET_COUNT);
+        }
+
+        /**
+         * @return the highest value counted in the bucket.
+         */
+        static long bucketHighestValue(int index) {
+            if (index < SUB_BUCKET_COUNT) {
+                return index;
+            }
+            final int k = index - SUB_BUCKET_COUNT;
+            final int shift = k / HALF_SUB_BUCKET_COUNT + 1;
+            final long top = HALF_SUB_BUCKET_COUNT + k % HALF_SUB_BUCKET_COUNT;
+            return ((top + 1) << shift) - 1;
+        }
+
+        /**
+         * Record a value.
+         *
+         * @param value the value to record. Negative values are recorded as 0.
+         */
+        public void record(long value) {
+            // Clamped once, e.g. for waiting times measured across hosts whose clocks are skewed.
+            value = Math.max(value, 0);
+            buckets.incrementAndGet(bucketIndex(value));
+            sum.add(value);
+            min.accumulateAndGet(value, Math::min);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        /**
+         * Record the time elapsed since a start time, in microseconds.
+         *
+         * @param startNanoTime the start time got from {@link System#nanoTime()}.
+         */
+        public void recordSince(long startNanoTime) {
+            record((System.nanoTime() - startNanoTime) / 1000);
+        }
+
+        @Override
+        synchronized Snapshot snapshot() {
+            Snapshot snapshot = newSnapshot("histogram");
+            final long[] counts = new long[NUM_BUCKETS];
+            long total = 0;
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                counts[i] = buckets.getAndSet(i, 0);
+                total += counts[i];
+            }
+            final long valueSum = sum.sumThenReset();
+            final long minValue = min.getAndSet(Long.MAX_VALUE);
+            final long maxValue = max.getAndSet(Long.MIN_VALUE);
+            snapshot.count = total;
+            totalCount += total;
+            totalSum += valueSum;
+            snapshot.totalCount = totalCount;
+            snapshot.totalSum = totalSum;
+            if (total > 0) {
+                snapshot.min = minValue;
+                snapshot.max = maxValue;
+                snapshot.mean = (double) valueSum / total;
+                snapshot.p50 = percentile(counts, total, 0.5, maxValue);
+                snapshot.p90 = percentile(counts, total, 0.9, maxValue);
+                snapshot.p99 = percentile(counts, total, 0.99, maxValue);
+                snapshot.p999 = percentile(counts, total, 0.999, maxValue);
+            }
+            return snapshot;
+        }
+
+        private static long percentile(long[] counts, long total, double quantile, long maxValue) {
+            final long rank = Math.max((long) Math.ceil(quantile * total), 1);
+            long accumulated = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                accumulated += counts[i];
+                if (accumulated >= rank) {
+                    return Math.min(bucketHighestValue(i), maxValue);
+                }
+            }
+            return maxValue;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of LaS-VPE-Platform.
+ *
+ * LaS-VPE-Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE-Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE-Platform. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.vpe.common;
+
+import org.cripac.isee.util.Factory;
+import org.cripac.isee.util.Singleton;
+import org.cripac.isee.vpe.ctrl.SystemPropertyCenter;
+import org.cripac.isee.vpe.util.logging.SynthesizedLogger;
+import org.cripac.isee.vpe.util.logging.SynthesizedLoggerFactory;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Object factory of MetricRegistry. A {@link MetricsReporter} is started for each registry produced.
+ */
+public class MetricRegistryFactory implements Factory<MetricRegistry> {
+
+    private static final long serialVersionUID = -1436178226419542375L;
+    private final String appName;
+    private final SystemPropertyCenter propCenter;
+
+    /**
+     * @param appName    Name of the application the metrics belong to.
+     * @param propCenter Properties of the system.
+     */
+    public MetricRegistryFactory(@Nonnull String appName,
+                                 @Nonnull SystemPropertyCenter propCenter) {
+        this.appName = appName;
+        this.propCenter = propCenter;
+    }
+
+    @Nonnull
+    @Override
+    public MetricRegistry produce() throws Exception {
+        final MetricRegistry registry = new MetricRegistry(appName);
+        final SynthesizedLogger logger =
+                new Singleton<>(new SynthesizedLoggerFactory(appName, propCenter), SynthesizedLogger.class).getInst();
+        new MetricsReporter(registry, appName, logger, propCenter).start();
+        return registry;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of LaS-VPE-Platform.
+ *
+ * LaS-VPE-Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE-Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE-Platform. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.vpe.common;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.cripac.isee.vpe.ctrl.SystemPropertyCenter;
+import org.cripac.isee.vpe.util.kafka.KafkaHelper;
+import org.cripac.isee.vpe.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MetricsReporter thread periodically publishes snapshots of a {@link MetricRegistry}
+ * to Kafka in JSON, and optionally serves the latest snapshots in the Prometheus text format over HTTP.
+ */
+public class MetricsReporter extends Thread {
+
+    public static final String REPORT_TOPIC = "metrics-report";
+
+    private final MetricRegistry registry;
+    private final Logger logger;
+    private final KafkaProducer<String, String> reportProducer;
+    private final long reportIntervalMs;
+    private final String key;
+    private volatile String prometheusText = "";
+
+    public MetricsReporter(@Nonnull MetricRegistry registry,
+                           @Nonnull String appName,
+                           @Nonnull Logger logger,
+                           @Nonnull SystemPropertyCenter propCenter) {
+        super("metrics-reporter");
+        setDaemon(true);
+        this.registry = registry;
+        this.logger = logger;
+        this.reportIntervalMs = propCenter.metricsReportIntervalMs;
+        this.key = appName;
+        this.reportProducer = new KafkaProducer<>(propCenter.getKafkaProducerProp(true));
+
+        KafkaHelper.createTopic(propCenter.zkConn, propCenter.zkSessionTimeoutMs, propCenter.zkConnectionTimeoutMS,
+                REPORT_TOPIC,
+                propCenter.kafkaNumPartitions, propCenter.kafkaReplFactor);
+
+        if (propCenter.metricsPrometheusPort > 0) {
+            try {
+                HttpServer server = HttpServer.create(new InetSocketAddress(propCenter.metricsPrometheusPort), 0);
+                server.createContext("/metrics", exchange -> {
+                    final byte[] body = prometheusText.getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                server.start();
+                logger.info("Serving metrics at port " + propCenter.metricsPrometheusPort);
+            } catch (IOException e) {
+                // Another executor on the same host may have taken the port.
+                logger.warn("Cannot serve metrics at port " + propCenter.metricsPrometheusPort, e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        final Gson gson = new Gson();
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                sleep(reportIntervalMs);
+            } catch (InterruptedException ignored) {
+            }
+            try {
+                final List<MetricRegistry.Snapshot> snapshots = registry.snapshot();
+                if (snapshots.isEmpty()) {
+                    continue;
+                }
+                reportProducer.send(new ProducerRecord<>(REPORT_TOPIC, key, gson.toJson(snapshots)));
+                prometheusText = toPrometheusText(snapshots);
+            } catch (Exception e) {
+                logger.error("On reporting metrics", e);
+            }
+        }
+    }
+
+    /**
+     * Format snapshots in the Prometheus text exposition format.
+     * Meters are exposed as cumulative counters with their rates in the last interval as gauges.
+     * Histograms are exposed as summaries, whose quantiles are of the last interval
+     * while their sums and counts are cumulative, as Prometheus expects them to be monotonic.
+     *
+     * @param snapshots snapshots of metrics.
+     * @return text in the Prometheus format.
+     */
+    static String toPrometheusText(List<MetricRegistry.Snapshot> snapshots) {
+        StringBuilder builder = new StringBuilder();
+        for (MetricRegistry.Snapshot snapshot : snapshots) {
+            final String name = "vpe_" + snapshot.name.replaceAll("[^a-zA-Z0-9_]", "_");
+            switch (snapshot.type) {
+                case "counter":
+                    appendSample(builder, name + "_total", snapshot.tags, null, snapshot.count);
+                    break;
+                case "meter":
+                    appendSample(builder, name + "_total", snapshot.tags, null, snapshot.totalCount);
+                    appendSample(builder, name + "_rate", snapshot.tags, null, snapshot.ratePerSec);
+                    break;
+                case "histogram":
+                    if (snapshot.count > 0) {
+                        appendSample(builder, name, snapshot.tags, "0.5", snapshot.p50);
+                        appendSample(builder, name, snapshot.tags, "0.9", snapshot.p90);
+                        appendSample(builder, name, snapshot.tags, "0.99", snapshot.p99);
+                        appendSample(builder, name, snapshot.tags, "0.999", snapshot.p999);
+                    }
+                    appendSample(builder, name + "_sum", snapshot.tags, null, snapshot.totalSum);
+                    appendSample(builder, name + "_count", snapshot.tags, null, snapshot.totalCount);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendSample(StringBuilder builder,
+                                     String name,
+                                     Map<String, String> tags,
+                                     String quantile,
+                                     Number value) {
+        builder.append(name).append('{');
+        boolean first = true;
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            builder.append(tag.getKey()).append("=\"")
+                    .append(tag.getValue().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        if (quantile != null) {
+            builder.append(first ? "" : ",").append("quantile=\"").append(quantile).append('"');
+        }
+        builder.append("} ").append(value).append('\n');
+    }
+}
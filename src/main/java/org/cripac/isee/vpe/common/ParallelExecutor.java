@@ -17,39 +17,118 @@ package org.cripac.isee.vpe.common;/*
  * Created by ken.yu on 17-3-10.
  */
 
-import java.util.ArrayList;
+import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
+/**
+ * The ParallelExecutor processes items from an iterator in parallel on a dedicated work-stealing pool.
+ * <p>
+ * Items are pulled from the iterator continuously: a new item is submitted as soon as any in-flight item
+ * finishes, so one slow item (e.g. a long video) does not hold back the others. The number of items
+ * in flight is bounded by a window, so the iterator is never drained far ahead of the processing.
+ * <p>
+ * Each name gets its own pool per JVM, which is not shared with the ForkJoin common pool
+ * or other executors. Do not call {@link #execute(Iterator, Consumer)} from inside the consumer
+ * of the same executor, since the outer call may occupy the workers the inner call waits for.
+ */
 public class ParallelExecutor {
-    public static <T> void execute(Collection<T> items, Consumer<T> consumer) {
-        execute(items.iterator(), consumer);
+
+    private static final Map<String, ParallelExecutor> executors = new ConcurrentHashMap<>();
+
+    private final ForkJoinPool pool;
+    private final int window;
+
+    private ParallelExecutor(@Nonnull String name, int parallelism, int window) {
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName(name + "-worker-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+        this.window = window;
     }
 
-    public static <T> void execute(Collection<T> items, int parallelism, Consumer<T> consumer) {
-        execute(items.iterator(), parallelism, consumer);
+    /**
+     * Get the executor of the given name in this JVM, creating it on the first call.
+     * The parallelism and window of an existing executor are not changed.
+     *
+     * @param name        name of the executor, e.g. the name of the stream using it.
+     * @param parallelism number of worker threads. Non-positive values mean the number of processors.
+     * @param window      maximum number of items in flight. Non-positive values mean twice the parallelism.
+     * @return the executor.
+     */
+    @Nonnull
+    public static ParallelExecutor get(@Nonnull String name, int parallelism, int window) {
+        return executors.computeIfAbsent(name, k -> {
+            final int numThreads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+            return new ParallelExecutor(name, numThreads, window > 0 ? window : numThreads * 2);
+        });
     }
 
-    public static <T> void execute(Iterator<T> items, Consumer<T> consumer) {
-        execute(items, Runtime.getRuntime().availableProcessors(), consumer);
+    /**
+     * Get the executor of the given name in this JVM, with one worker per processor by default.
+     *
+     * @param name name of the executor.
+     * @return the executor.
+     */
+    @Nonnull
+    public static ParallelExecutor get(@Nonnull String name) {
+        return get(name, 0, 0);
     }
 
-    public static <T> void execute(Iterator<T> items, int parallelism, Consumer<T> consumer) {
-        assert parallelism >= 1;
-        ArrayList<T> dataBuf = new ArrayList<>(parallelism);
-        if (items.hasNext()) {
-            for (int i = 0; i < parallelism && items.hasNext(); ++i) {
-                dataBuf.add(items.next());
+    public <T> void execute(@Nonnull Collection<T> items, @Nonnull Consumer<T> consumer) {
+        execute(items.iterator(), consumer);
+    }
+
+    /**
+     * Process all the items with the consumer in parallel, and return after all of them are finished.
+     * <p>
+     * If the consumer throws on an item, no more items are pulled from the iterator,
+     * and the first exception is rethrown after the items in flight are finished.
+     *
+     * @param items    items to process.
+     * @param consumer function processing an item.
+     * @param <T>      type of the items.
+     */
+    public <T> void execute(@Nonnull Iterator<T> items, @Nonnull Consumer<T> consumer) {
+        final Semaphore inFlight = new Semaphore(window);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        while (failure.get() == null) {
+            inFlight.acquireUninterruptibly();
+            if (failure.get() != null || !items.hasNext()) {
+                inFlight.release();
+                break;
             }
-            dataBuf.parallelStream().forEach(consumer);
+            final T item = items.next();
+            pool.execute(() -> {
+                try {
+                    consumer.accept(item);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    inFlight.release();
+                }
+            });
         }
-        while (items.hasNext()) {
-            for (int i = 0; i < parallelism; ++i) {
-                dataBuf.set(i, items.hasNext() ? items.next() : null);
-            }
-            dataBuf.parallelStream().filter(Objects::nonNull).forEach(consumer);
+        // Wait for all the items in flight.
+        inFlight.acquireUninterruptibly(window);
+        inFlight.release(window);
+
+        final Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
         }
     }
 }
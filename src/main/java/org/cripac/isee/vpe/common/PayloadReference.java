@@ -0,0 +1,71 @@
+/*
+ * This file is part of LaS-VPE-Platform.
+ *
+ * LaS-VPE-Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE-Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE-Platform. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.vpe.common;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.cripac.isee.vpe.util.hdfs.HadoopHelper;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+/**
+ * The class PayloadReference refers to a result stored in a {@link PayloadStore}.
+ * It is sent through Kafka in place of results too large to be sent directly,
+ * and resolved back to the result on receiving. A payload may be resolved more than once,
+ * e.g. when a Spark task is retried, so it is kept until {@link PayloadStore#sweep(long)} removes it.
+ */
+public class PayloadReference implements Serializable {
+
+    private static final long serialVersionUID = -4860981424237367418L;
+
+    static final String PAYLOAD_FILE = "payload";
+
+    /**
+     * URI of the directory storing the payload.
+     */
+    public final String dir;
+
+    PayloadReference(@Nonnull String dir) {
+        this.dir = dir;
+    }
+
+    private FileSystem getFileSystem() throws IOException {
+        return new Path(dir).getFileSystem(HadoopHelper.getDefaultConf());
+    }
+
+    /**
+     * Load the payload referred to.
+     *
+     * @return the payload.
+     * @throws IOException            On failure reading the payload.
+     * @throws ClassNotFoundException On failure finding the class of the payload.
+     */
+    @Nonnull
+    public Serializable load() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(getFileSystem().open(new Path(dir, PAYLOAD_FILE)))) {
+            return (Serializable) in.readObject();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return dir;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of LaS-VPE-Platform.
+ *
+ * LaS-VPE-Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE-Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE-Platform. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.vpe.common;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.cripac.isee.vpe.util.hdfs.HadoopHelper;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * The class PayloadStore stores results too large to be sent through Kafka.
+ * The store can be any directory accessible from all the executors through the Hadoop file system API,
+ * e.g. a directory on HDFS or a shared local directory (file:///...).
+ * Payloads are kept for a time-to-live and then removed by {@link #sweep(long)}.
+ */
+public class PayloadStore {
+
+    private final Path rootDir;
+    private final FileSystem fs;
+
+    /**
+     * Create a payload store on a directory.
+     *
+     * @param rootDir URI of the root directory of the store.
+     * @throws IOException On failure accessing the file system.
+     */
+    public PayloadStore(@Nonnull String rootDir) throws IOException {
+        this.rootDir = new Path(rootDir);
+        this.fs = this.rootDir.getFileSystem(HadoopHelper.getDefaultConf());
+    }
+
+    /**
+     * Store a payload. The payload is serialized directly into the store without buffering it in memory.
+     *
+     * @param taskID  ID of the task the payload belongs to.
+     * @param payload the payload to store.
+     * @return a reference to the stored payload.
+     * @throws IOException On failure writing the payload.
+     */
+    @Nonnull
+    public PayloadReference store(@Nonnull UUID taskID,
+                                  @Nonnull Serializable payload) throws IOException {
+        final Path dir = fs.makeQualified(new Path(new Path(rootDir, taskID.toString()), UUID.randomUUID().toString()));
+        try (ObjectOutputStream out = new ObjectOutputStream(fs.create(new Path(dir, PayloadReference.PAYLOAD_FILE)))) {
+            out.writeObject(payload);
+        }
+        return new PayloadReference(dir.toString());
+    }
+
+    /**
+     * Remove the payloads stored longer than a time-to-live, and the directories of tasks left empty.
+     * Several applications may sweep the same store at the same time.
+     *
+     * @param ttl time-to-live of the payloads in milliseconds.
+     * @return number of payloads removed.
+     * @throws IOException On failure accessing the store.
+     */
+    public int sweep(long ttl) throws IOException {
+        if (!fs.exists(rootDir)) {
+            return 0;
+        }
+        final long deadline = System.currentTimeMillis() - ttl;
+        int numRemoved = 0;
+        for (FileStatus taskDir : fs.listStatus(rootDir)) {
+            if (!taskDir.isDirectory()) {
+                continue;
+            }
+            final FileStatus[] payloadDirs = fs.listStatus(taskDir.getPath());
+            int numLeft = payloadDirs.length;
+            for (FileStatus payloadDir : payloadDirs) {
+                if (payloadDir.getModificationTime() < deadline && fs.delete(payloadDir.getPath(), true)) {
+                    ++numRemoved;
+                    --numLeft;
+                }
+            }
+            if (numLeft == 0 && taskDir.getModificationTime() < deadline) {
+                fs.delete(taskDir.getPath(), false);
+            }
+        }
+        return numRemoved;
+    }
+}
@@ -22,6 +22,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.spark.SparkConf;
+import org.apache.spark.SparkEnv;
 import org.apache.spark.SparkException;
 import org.apache.spark.TaskContext;
 import org.apache.spark.api.java.JavaSparkContext;
@@ -34,6 +35,7 @@ import org.cripac.isee.vpe.ctrl.MonitorThread;
 import org.cripac.isee.vpe.ctrl.SystemPropertyCenter;
 import org.cripac.isee.vpe.ctrl.TaskController;
 import org.cripac.isee.vpe.ctrl.TaskData;
+import org.cripac.isee.vpe.ctrl.TaskTrace;
 import org.cripac.isee.util.Singleton;
 import org.cripac.isee.vpe.util.kafka.KafkaHelper;
 import org.cripac.isee.vpe.util.logging.Logger;
@@ -47,6 +49,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.cripac.isee.util.SerializationHelper.deserialize;
@@ -82,11 +87,19 @@ public abstract class SparkStreamingApp implements Serializable {
         this.loggerSingleton = new Singleton<>(
                 new SynthesizedLoggerFactory(appName, propCenter),
                 SynthesizedLogger.class);
+        this.metricsSingleton = new Singleton<>(
+                new MetricRegistryFactory(appName, propCenter),
+                MetricRegistry.class);
         this.monitorSingleton = new Singleton<>(() -> {
             MonitorThread monitorThread = new MonitorThread(loggerSingleton.getInst(), propCenter);
             monitorThread.start();
             return monitorThread;
         }, MonitorThread.class);
+        if (propCenter.backpressureEnable) {
+            this.backpressureSingleton = new Singleton<>(
+                    () -> new BackpressureController(propCenter, loggerSingleton.getInst()),
+                    BackpressureController.class);
+        }
         if (propCenter.taskControllerEnable) {
             this.taskController = new Singleton<>(() -> {
                 TaskController taskController = new TaskController(propCenter, loggerSingleton.getInst());
@@ -104,6 +117,9 @@ public abstract class SparkStreamingApp implements Serializable {
     @Nonnull
     protected final Singleton<Logger> loggerSingleton;
 
+    @Nonnull
+    protected final Singleton<MetricRegistry> metricsSingleton;
+
     @Nonnull
     private final List<Stream> streams = new ArrayList<>();
 
@@ -113,6 +129,18 @@ public abstract class SparkStreamingApp implements Serializable {
     @Nullable
     private Singleton<TaskController> taskController = null;
 
+    /**
+     * Sweeper of the payload store, which lives on the driver. Null if the store is not used.
+     */
+    @Nullable
+    private transient ScheduledExecutorService payloadSweeper = null;
+
+    /**
+     * Controller of the number of partitions, which lives on the driver. Null if backpressure is disabled.
+     */
+    @Nullable
+    private Singleton<BackpressureController> backpressureSingleton = null;
+
     protected void registerStreams(Collection<Stream> streams) {
         this.streams.addAll(streams);
     }
@@ -178,10 +206,23 @@ public abstract class SparkStreamingApp implements Serializable {
                     }
                     return rdd;
                 })
-                .mapToPair(rec -> new Tuple2<>(DataType.valueOf(rec.topic()),
-                        new Tuple2<>(rec.key(), rec.value())));
-
-        if (repartition >= 0) {
+                .mapToPair(rec -> {
+                    // Time the message has waited in Kafka, measured with the timestamp set by the producer.
+                    if (rec.timestamp() >= 0) {
+                        metricsSingleton.getInst()
+                                .histogram("stage_latency_us", "topic", rec.topic(), "stage", "queue_wait")
+                                .record((System.currentTimeMillis() - rec.timestamp()) * 1000);
+                    }
+                    return new Tuple2<>(DataType.valueOf(rec.topic()),
+                            new Tuple2<>(rec.key(), rec.value()));
+                });
+
+        if (backpressureSingleton != null) {
+            // Repartition the records of each batch to the number of partitions decided by the controller.
+            // The function is called on the driver, where the controller listens to the batches.
+            stream = stream.transformToPair(rdd -> rdd.repartition(
+                    backpressureSingleton.getInst().getNumPartitions(rdd.context().defaultParallelism())));
+        } else if (repartition >= 0) {
             // Repartition the records.
             stream = stream.repartition(repartition == 0 ? jssc.sparkContext().defaultParallelism() : repartition);
         }
@@ -220,6 +261,14 @@ public abstract class SparkStreamingApp implements Serializable {
                 propCenter.zkConnectionTimeoutMS,
                 propCenter.kafkaNumPartitions,
                 propCenter.kafkaReplFactor);
+        if (propCenter.traceEnable) {
+            KafkaHelper.createTopic(propCenter.zkConn,
+                    propCenter.zkSessionTimeoutMs,
+                    propCenter.zkConnectionTimeoutMS,
+                    TaskTrace.TOPIC,
+                    propCenter.kafkaNumPartitions,
+                    propCenter.kafkaReplFactor);
+        }
 
         final Collection<DataType> acceptingTypes = streams.stream()
                 .flatMap(stream -> stream.getPorts().stream().map(port -> port.inputType))
@@ -239,6 +288,16 @@ public abstract class SparkStreamingApp implements Serializable {
                 sparkConf = sparkConf
                         .set("spark.streaming.kafka.maxRatePerPartition", "" + propCenter.maxRatePerPartition);
             }
+            if (backpressureSingleton != null) {
+                // Let the rate estimator of Spark control the ingestion rate of each Kafka partition,
+                // bounded by the maxRatePerPartition above.
+                sparkConf = sparkConf
+                        .set("spark.streaming.backpressure.enabled", "true")
+                        .set("spark.streaming.backpressure.pid.proportional", "" + propCenter.backpressureProportional)
+                        .set("spark.streaming.backpressure.pid.integral", "" + propCenter.backpressureIntegral)
+                        .set("spark.streaming.backpressure.pid.derived", "" + propCenter.backpressureDerivative)
+                        .set("spark.streaming.backpressure.pid.minRate", "" + propCenter.backpressureMinRate);
+            }
             // Create contexts.
             JavaSparkContext jsc = new JavaSparkContext(sparkConf);
             jsc.setLocalProperty("spark.scheduler.pool", "vpe");
@@ -252,13 +311,23 @@ public abstract class SparkStreamingApp implements Serializable {
                                 .mapValues(tuple -> new Tuple2<>(UUID.fromString(tuple._1()), tuple._2()));
                 if (taskController != null) {
                     inputStream = inputStream.filter(kv ->
-                            (Boolean) !taskController.getInst().termSigPool.contains(kv._2()._1()));
+                            (Boolean) !taskController.getInst().isTerminated(kv._2()._1()));
                 }
                 Map<DataType, JavaPairDStream<UUID, TaskData>> streamMap = new HashMap<>();
                 for (DataType type : acceptingTypes) {
                     streamMap.put(type,
                             inputStream.filter(rec -> (Boolean) (Objects.equals(rec._1(), type)))
-                                    .mapToPair(rec -> new Tuple2<>(rec._2()._1(), deserialize(rec._2()._2()))));
+                                    .mapToPair(rec -> {
+                                        final MetricRegistry metrics = metricsSingleton.getInst();
+                                        final long startTime = System.nanoTime();
+                                        final TaskData taskData = deserialize(rec._2()._2());
+                                        taskData.destPorts.values()
+                                                .forEach(port -> port.getNode().getSpan().markDequeued());
+                                        metrics.histogram("stage_latency_us", "topic", type.name(),
+                                                "stage", "deserialize").recordSince(startTime);
+                                        return new Tuple2<>(rec._2()._1(),
+                                                resolvePayload(taskData, metrics));
+                                    }));
                 }
                 streams.forEach(stream -> stream.addToGlobalStream(streamMap));
             }
@@ -282,19 +351,182 @@ public abstract class SparkStreamingApp implements Serializable {
             }
             return jssc;
         }, new Configuration(), true);
+
+        if (backpressureSingleton != null) {
+            try {
+                jssc.addStreamingListener(backpressureSingleton.getInst());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
-     * Start the application.
+     * Replace the reference to a result stored in a {@link PayloadStore} with the result itself.
+     * The stored result is not removed here, as the RDD may be recomputed or the Spark task retried.
+     * It is removed by the sweeper of the store after its time-to-live instead.
+     *
+     * @param taskData the TaskData received, whose result may be a {@link PayloadReference}.
+     * @param metrics  registry to record the latency of loading the result.
+     * @return the TaskData with the real result.
+     * @throws Exception On failure loading the result.
+     */
+    private static TaskData resolvePayload(TaskData taskData,
+                                           MetricRegistry metrics) throws Exception {
+        if (!(taskData.predecessorRes instanceof PayloadReference)) {
+            return taskData;
+        }
+        final PayloadReference ref = (PayloadReference) taskData.predecessorRes;
+        final long startTime = System.nanoTime();
+        final Serializable payload = ref.load();
+        metrics.histogram("stage_latency_us", "stage", "hdfs_read").recordSince(startTime);
+        return new TaskData(taskData.destPorts.values(), taskData.executionPlan, payload);
+    }
+
+    /**
+     * Whether the current JVM has been warmed up.
+     */
+    private static boolean warmedUp = false;
+
+    /**
+     * Initialize the singletons of the application and its streams in the current executor,
+     * once per JVM. Tasks arriving while another task is warming up wait for it to finish.
+     *
+     * @return a report of the executor in the form of "executorID\telapsedMs\terror".
+     */
+    private String warmUpExecutor() {
+        final String executorID = SparkEnv.get().executorId();
+        synchronized (SparkStreamingApp.class) {
+            if (warmedUp) {
+                return executorID + "\t0\t";
+            }
+            final long startTime = System.currentTimeMillis();
+            try {
+                loggerSingleton.getInst().info("Warming up executor " + executorID + "...");
+                metricsSingleton.getInst();
+                monitorSingleton.getInst();
+                for (Stream stream : streams) {
+                    stream.warmUp();
+                }
+                warmedUp = true;
+                final long elapsed = System.currentTimeMillis() - startTime;
+                loggerSingleton.getInst().info("Executor " + executorID + " warmed up in " + elapsed + "ms. "
+                        + "Initialization time of singletons (ms): " + Singleton.getInitTimes().entrySet().stream()
+                        .map(e -> e.getKey().getSimpleName() + "=" + e.getValue())
+                        .collect(Collectors.joining(", ")));
+                return executorID + "\t" + elapsed + "\t";
+            } catch (Throwable t) {
+                try {
+                    loggerSingleton.getInst().error("On warming up executor " + executorID, t);
+                } catch (Exception ignored) {
+                }
+                return executorID + "\t" + (System.currentTimeMillis() - startTime) + "\t" + t;
+            }
+        }
+    }
+
+    private static long countReady(Map<String, String> reports) {
+        return reports.values().stream().filter(report -> report.startsWith("ready")).count();
+    }
+
+    /**
+     * Run warm-up jobs until all the executors have reported ready, or the rounds run out.
+     * Each job runs several tasks per executor, so that every executor is likely to get one.
+     */
+    private void warmUp() throws Exception {
+        final Logger logger = loggerSingleton.getInst();
+        final JavaSparkContext jsc = jssc.sparkContext();
+        final int numExecutors = propCenter.sparkMaster.contains("local") ? 1 : propCenter.numExecutors;
+        final Map<String, String> reports = new TreeMap<>();
+        final long startTime = System.currentTimeMillis();
+        for (int round = 0; round < propCenter.warmUpMaxRounds && countReady(reports) < numExecutors; ++round) {
+            final int numTasks = Math.max(jsc.defaultParallelism(), numExecutors) * 2;
+            final List<Integer> dummy = new ArrayList<>(numTasks);
+            for (int i = 0; i < numTasks; ++i) {
+                dummy.add(i);
+            }
+            jsc.parallelize(dummy, numTasks)
+                    .mapPartitions(iter -> Collections.singletonList(warmUpExecutor()).iterator())
+                    .collect()
+                    .forEach(report -> {
+                        final String[] fields = report.split("\t", 3);
+                        // Keep the report of the task that actually warmed up the executor.
+                        if (!fields[2].isEmpty() || !fields[1].equals("0") || !reports.containsKey(fields[0])) {
+                            reports.put(fields[0], fields[2].isEmpty()
+                                    ? "ready in " + fields[1] + "ms" : "failed: " + fields[2]);
+                        }
+                    });
+        }
+        reports.forEach((executorID, report) -> logger.info("Executor " + executorID + " " + report));
+        if (countReady(reports) < numExecutors) {
+            logger.warn("Only " + countReady(reports) + " of " + numExecutors + " executors have been warmed up. "
+                    + "The others initialize on their first batch.");
+        }
+        logger.info("Warm-up finished in " + (System.currentTimeMillis() - startTime) + "ms. Start consuming Kafka.");
+    }
+
+    /**
+     * Start the application. If warm-up is enabled, the executors are initialized
+     * before the application starts consuming Kafka.
+     *
+     * @throws IllegalStateException if warm-up is enabled and fails, in which case Kafka is not consumed.
      */
     public void start() {
+        if (propCenter.warmUpEnable) {
+            try {
+                warmUp();
+            } catch (Exception e) {
+                try {
+                    loggerSingleton.getInst().error("On warming up executors", e);
+                } catch (Exception loggerException) {
+                    e.printStackTrace();
+                }
+                throw new IllegalStateException("Warm-up failed. The application does not start consuming Kafka.",
+                        e);
+            }
+        }
+        startPayloadSweeper();
         jssc.start();
     }
 
+    /**
+     * Periodically remove the expired results in the payload store from the driver, if the store is used.
+     */
+    private void startPayloadSweeper() {
+        final String payloadStoreDir = propCenter.payloadStoreDir;
+        if (payloadStoreDir == null || payloadStoreDir.isEmpty()) {
+            return;
+        }
+        final long ttl = propCenter.payloadStoreTTL;
+        final long interval = Math.max(60000, ttl / 4);
+        payloadSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "payload-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        payloadSweeper.scheduleWithFixedDelay(() -> {
+            try {
+                final int numRemoved = new PayloadStore(payloadStoreDir).sweep(ttl);
+                if (numRemoved > 0) {
+                    loggerSingleton.getInst().info("Removed " + numRemoved + " expired payloads.");
+                }
+            } catch (Exception e) {
+                try {
+                    loggerSingleton.getInst().error("On sweeping payload store", e);
+                } catch (Exception loggerException) {
+                    e.printStackTrace();
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Stop the application.
      */
     public void stop() {
+        if (payloadSweeper != null) {
+            payloadSweeper.shutdownNow();
+        }
         jssc.stop();
     }
 
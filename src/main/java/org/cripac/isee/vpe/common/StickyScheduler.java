@@ -0,0 +1,354 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.common;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.SparkContext;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.scheduler.SparkListener;
+import org.apache.spark.scheduler.SparkListenerExecutorAdded;
+import org.apache.spark.scheduler.SparkListenerExecutorRemoved;
+import org.cripac.isee.util.ConsistentHashRing;
+import org.cripac.isee.vpe.util.hdfs.HadoopHelper;
+import org.cripac.isee.vpe.util.logging.Logger;
+import scala.Tuple2;
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+import scala.reflect.ClassTag;
+import scala.reflect.ClassTag$;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The StickyScheduler assigns stateful sources (e.g. live cameras) to executors,
+ * so that the state of each source (e.g. a connection and a native tracker) stays resident in one executor
+ * across batches, instead of following the independent scheduling of each batch by Spark.
+ * <p>
+ * The scheduler lives on the driver. Sources are assigned to executors by consistent hashing of their keys
+ * over the IDs of live executors, which are tracked by a {@link SparkListener}. Each time the sources
+ * or executors change, the scheduler reconciles the executors with a job running one task on each executor,
+ * which is pinned to it by its preferred location. The task hands the full set of sources assigned to the
+ * executor to a {@link Handler}, which starts the sources newly assigned and stops those moved away.
+ * <p>
+ * When an executor is lost, its sources move to the following executors on the ring and are restarted there
+ * from the payload they were submitted with. When an executor joins, only the sources moving to it are
+ * stopped on their old executors and restarted. A task falling back to another executor
+ * (see spark.locality.wait) does nothing, and the reconciliation is retried on the next call.
+ * <p>
+ * The scheduler may save the submitted sources to a file through the Hadoop file system API
+ * on every change. A scheduler created with the same file, e.g. by a driver restarted or recovered
+ * from a checkpoint, loads the sources and schedules them again on its first reconciliation.
+ *
+ * @param <T> type of the payloads describing how to start the sources.
+ */
+public class StickyScheduler<T extends Serializable> {
+
+    /**
+     * Handler of the sources assigned to an executor, called in the executor.
+     *
+     * @param <T> type of the payloads describing how to start the sources.
+     */
+    @FunctionalInterface
+    public interface Handler<T> extends Serializable {
+        /**
+         * Make the sources running in this executor exactly the assigned ones.
+         *
+         * @param assigned payloads of the sources assigned to this executor, keyed by the keys of the sources.
+         * @throws Exception On failure starting or stopping sources.
+         */
+        void reconcile(@Nonnull Map<String, T> assigned) throws Exception;
+    }
+
+    /**
+     * Number of points of each executor on the hash ring.
+     */
+    private static final int NUM_VIRTUAL_NODES = 64;
+
+    private final Logger logger;
+    private final ConsistentHashRing<String> ring = new ConsistentHashRing<>(NUM_VIRTUAL_NODES);
+    private final Map<String, String> executorHosts = new HashMap<>();
+    private final Map<String, T> sources = new HashMap<>();
+    private final Map<String, String> owners = new HashMap<>();
+    private volatile SparkContext sc = null;
+    private boolean dirty = false;
+    @Nullable
+    private final Path sourceFile;
+
+    public StickyScheduler(@Nonnull Logger logger) {
+        this(logger, null);
+    }
+
+    /**
+     * Create a scheduler saving its sources to a file, and load the sources saved there before.
+     *
+     * @param logger     logger of the scheduler.
+     * @param sourceFile URI of the file to save the sources to, or null not to save them.
+     */
+    public StickyScheduler(@Nonnull Logger logger, @Nullable String sourceFile) {
+        this.logger = logger;
+        this.sourceFile = sourceFile == null ? null : new Path(sourceFile);
+        loadSources();
+    }
+
+    private void loadSources() {
+        if (sourceFile == null) {
+            return;
+        }
+        try {
+            final FileSystem fs = sourceFile.getFileSystem(HadoopHelper.getDefaultConf());
+            if (!fs.exists(sourceFile)) {
+                return;
+            }
+            try (ObjectInputStream in = new ObjectInputStream(fs.open(sourceFile))) {
+                @SuppressWarnings("unchecked")
+                final Map<String, T> saved = (Map<String, T>) in.readObject();
+                sources.putAll(saved);
+            }
+            dirty = !sources.isEmpty();
+            logger.info("Loaded " + sources.size() + " sources to schedule from " + sourceFile);
+        } catch (IOException | ClassNotFoundException e) {
+            logger.error("On loading sources to schedule from " + sourceFile, e);
+        }
+    }
+
+    /**
+     * Save the sources, replacing the file atomically so as a crash never leaves it partially written.
+     * A failure is only logged, since the sources are still scheduled by this scheduler.
+     */
+    private synchronized void saveSources() {
+        if (sourceFile == null) {
+            return;
+        }
+        final Path tmpFile = sourceFile.suffix("." + UUID.randomUUID() + ".tmp");
+        try {
+            final FileSystem fs = sourceFile.getFileSystem(HadoopHelper.getDefaultConf());
+            try (ObjectOutputStream out = new ObjectOutputStream(fs.create(tmpFile, true))) {
+                out.writeObject(new HashMap<>(sources));
+            }
+            fs.delete(sourceFile, false);
+            if (!fs.rename(tmpFile, sourceFile)) {
+                throw new IOException("Cannot rename " + tmpFile + " to " + sourceFile);
+            }
+        } catch (IOException e) {
+            logger.error("On saving sources to schedule to " + sourceFile, e);
+        }
+    }
+
+    private synchronized void addExecutor(String executorID, String host) {
+        if (!executorHosts.containsKey(executorID)) {
+            executorHosts.put(executorID, host);
+            ring.add(executorID);
+            dirty = true;
+            logger.info("Executor " + executorID + " on " + host + " joins the sticky scheduler.");
+        }
+    }
+
+    private synchronized void removeExecutor(String executorID) {
+        if (executorHosts.remove(executorID) != null) {
+            ring.remove(executorID);
+            owners.values().removeIf(executorID::equals);
+            dirty = true;
+            logger.info("Executor " + executorID + " leaves the sticky scheduler.");
+        }
+    }
+
+    private static String probeExecutor() {
+        final SparkEnv env = SparkEnv.get();
+        return env.executorId() + "\t" + env.blockManager().blockManagerId().host();
+    }
+
+    /**
+     * Start tracking the executors of a Spark context. Executors registered before this call
+     * are found by a probing job.
+     */
+    private synchronized void attach(SparkContext sc) {
+        if (this.sc != null) {
+            return;
+        }
+        this.sc = sc;
+        sc.addSparkListener(new SparkListener() {
+            @Override
+            public void onExecutorAdded(SparkListenerExecutorAdded executorAdded) {
+                addExecutor(executorAdded.executorId(), executorAdded.executorInfo().executorHost());
+            }
+
+            @Override
+            public void onExecutorRemoved(SparkListenerExecutorRemoved executorRemoved) {
+                removeExecutor(executorRemoved.executorId());
+            }
+        });
+        final JavaSparkContext jsc = JavaSparkContext.fromSparkContext(sc);
+        final int numTasks = jsc.defaultParallelism() * 2;
+        final List<Integer> dummy = new ArrayList<>(numTasks);
+        for (int i = 0; i < numTasks; ++i) {
+            dummy.add(i);
+        }
+        jsc.parallelize(dummy, numTasks)
+                .mapPartitions(iter -> Collections.singletonList(probeExecutor()).iterator())
+                .collect()
+                .forEach(report -> {
+                    final String[] fields = report.split("\t", 2);
+                    addExecutor(fields[0], fields[1]);
+                });
+    }
+
+    /**
+     * Submit a source to schedule. Submitting an existing key replaces the payload of the source,
+     * which is then restarted with the new payload.
+     *
+     * @param key     key of the source.
+     * @param payload payload describing how to start the source.
+     */
+    public synchronized void submit(@Nonnull String key, @Nonnull T payload) {
+        sources.put(key, payload);
+        owners.remove(key);
+        dirty = true;
+        saveSources();
+    }
+
+    /**
+     * Stop scheduling a source. It is stopped on the next reconciliation.
+     *
+     * @param key key of the source.
+     */
+    public synchronized void release(@Nonnull String key) {
+        if (sources.remove(key) != null) {
+            dirty = true;
+            saveSources();
+        }
+    }
+
+    /**
+     * @return executors currently running each source, as confirmed by the last reconciliation.
+     */
+    @Nonnull
+    public synchronized Map<String, String> getOwners() {
+        return new HashMap<>(owners);
+    }
+
+    /**
+     * @return payloads of the sources submitted and not released, keyed by the keys of the sources.
+     */
+    @Nonnull
+    public synchronized Map<String, T> getSources() {
+        return new HashMap<>(sources);
+    }
+
+    /**
+     * Assign each source to an executor by consistent hashing.
+     *
+     * @return payloads of the sources assigned to each live executor. Every live executor has an entry.
+     */
+    @Nonnull
+    synchronized Map<String, Map<String, T>> assign() {
+        final Map<String, Map<String, T>> assignments = new HashMap<>();
+        ring.getNodes().forEach(executorID -> assignments.put(executorID, new HashMap<>()));
+        sources.forEach((key, payload) -> {
+            final String executorID = ring.get(key);
+            if (executorID != null) {
+                assignments.get(executorID).put(key, payload);
+            }
+        });
+        return assignments;
+    }
+
+    private static <T> String reconcileExecutor(String executorID,
+                                                Map<String, T> assigned,
+                                                Handler<T> handler) throws Exception {
+        if (!SparkEnv.get().executorId().equals(executorID)) {
+            // Spark has scheduled the task to another executor.
+            return null;
+        }
+        handler.reconcile(assigned);
+        return executorID;
+    }
+
+    /**
+     * Reconcile the executors with the assignments, if the sources or executors have changed
+     * or the last reconciliation has not completed. Call this on the driver, e.g. in foreachRDD.
+     *
+     * @param sc      the Spark context to run the reconciliation in.
+     * @param handler handler of the sources assigned to each executor.
+     */
+    public void reconcile(@Nonnull SparkContext sc, @Nonnull Handler<T> handler) {
+        if (this.sc == null) {
+            attach(sc);
+        }
+        final Map<String, Map<String, T>> assignments;
+        final Map<String, String> hosts;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            if (executorHosts.isEmpty()) {
+                logger.warn("No executors to schedule " + sources.size() + " sources to.");
+                return;
+            }
+            dirty = false;
+            assignments = assign();
+            hosts = new HashMap<>(executorHosts);
+        }
+
+        // One partition for each executor, preferring the executor by the "executor_<host>_<id>" location.
+        final List<Tuple2<Tuple2<String, Map<String, T>>, Seq<String>>> partitions = new ArrayList<>();
+        assignments.forEach((executorID, assigned) -> partitions.add(new Tuple2<>(
+                new Tuple2<>(executorID, assigned),
+                JavaConversions.asScalaBuffer(Collections.singletonList(
+                        "executor_" + hosts.get(executorID) + "_" + executorID)).toSeq())));
+        @SuppressWarnings("unchecked")
+        final ClassTag<Tuple2<String, Map<String, T>>> tag =
+                (ClassTag<Tuple2<String, Map<String, T>>>) (ClassTag<?>) ClassTag$.MODULE$.apply(Tuple2.class);
+        final List<String> reconciled;
+        try {
+            reconciled = new JavaRDD<>(sc.makeRDD(JavaConversions.asScalaBuffer(partitions).toSeq(), tag), tag)
+                    .map(assignment -> reconcileExecutor(assignment._1(), assignment._2(), handler))
+                    .collect();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            for (String executorID : reconciled) {
+                if (executorID != null) {
+                    assignments.get(executorID).keySet().forEach(key -> owners.put(key, executorID));
+                }
+            }
+            owners.keySet().retainAll(sources.keySet());
+            final long numMissed = reconciled.stream().filter(Objects::isNull).count();
+            if (numMissed > 0) {
+                logger.warn(numMissed + " of " + reconciled.size()
+                        + " executors have not been reconciled. Retrying on the next call.");
+                dirty = true;
+            }
+            logger.info("Sticky scheduling: " + owners.size() + " of " + sources.size()
+                    + " sources placed on " + assignments.size() + " executors.");
+        }
+    }
+}
@@ -20,8 +20,11 @@ import kafka.common.FailedToSendMessageException;
 import kafka.common.MessageSizeTooLargeException;
 import org.apache.kafka.common.KafkaException;
 import org.apache.spark.streaming.api.java.JavaPairDStream;
+import org.cripac.isee.util.CancellationToken;
 import org.cripac.isee.vpe.ctrl.SystemPropertyCenter;
+import org.cripac.isee.vpe.ctrl.TaskController;
 import org.cripac.isee.vpe.ctrl.TaskData;
+import org.cripac.isee.vpe.ctrl.TaskTrace;
 import org.cripac.isee.util.Singleton;
 import org.cripac.isee.vpe.util.kafka.ByteArrayProducer;
 import org.cripac.isee.vpe.util.kafka.ByteArrayProducerFactory;
@@ -31,8 +34,13 @@ import org.cripac.isee.vpe.util.logging.SynthesizedLogger;
 import org.cripac.isee.vpe.util.logging.SynthesizedLoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.cripac.isee.util.SerializationHelper.serialize;
 
 /**
  * A Stream is a flow of DStreams. Each stream outputs at most one type of data.
@@ -43,25 +51,107 @@ public abstract class Stream implements Serializable {
     private static final long serialVersionUID = 7965952554107861881L;
     private final Singleton<ByteArrayProducer> producerSingleton;
     private final boolean verbose;
+    /**
+     * Messages larger than this are not sent to Kafka.
+     * Some bytes are reserved for the overhead of a Kafka record.
+     */
+    private final int maxMessageSize;
+    private static final int KAFKA_RECORD_OVERHEAD_RESERVED = 1024;
+    /**
+     * Results larger than this are passed through the payload store, if there is one.
+     */
+    private final int payloadThreshold;
+    private final boolean traceEnable;
+    private final int parallelism;
+    private final int parallelWindow;
+    @Nullable
+    private final Singleton<PayloadStore> payloadStoreSingleton;
+    /**
+     * The task controller shared with the application in the executor. Null if it is disabled.
+     */
+    @Nullable
+    private final Singleton<TaskController> taskControllerSingleton;
 
+    /**
+     * The first failure reported by the asynchronous sending since the last flush.
+     * It is transient so that each deserialized copy of the stream,
+     * which serves one Spark task, only tracks its own output.
+     */
+    private transient AtomicReference<Exception> sendingFailure;
+
+    private synchronized AtomicReference<Exception> getSendingFailure() {
+        if (sendingFailure == null) {
+            sendingFailure = new AtomicReference<>();
+        }
+        return sendingFailure;
+    }
+
+    /**
+     * Output a result to Kafka asynchronously. The message may be batched
+     * with later ones in the producer, so call {@link #flushOutput()} at the
+     * end of each partition to send out all the messages and check for
+     * failures reported asynchronously.
+     *
+     * @param outputPorts   Ports to output to.
+     * @param executionPlan The execution plan carried with the result.
+     * @param result        The result to output.
+     * @param taskID        ID of the task.
+     * @throws MessageSizeTooLargeException If the result is too large to be sent through Kafka
+     *                                      and there is no payload store.
+     * @throws Exception                    On failure serializing or sending the result.
+     */
     protected void
     output(Collection<TaskData.ExecutionPlan.Node.Port> outputPorts,
            TaskData.ExecutionPlan executionPlan,
            Serializable result,
            UUID taskID) throws Exception {
+        outputPorts.forEach(port -> port.getNode().getSpan().markEnqueued());
+        TaskData taskData = new TaskData(outputPorts, executionPlan, result);
+        // Serialization stops early once the threshold is exceeded,
+        // so oversized results are detected without being fully serialized.
+        byte[] bytes = serialize(taskData, payloadThreshold);
+        if (bytes == null) {
+            if (payloadStoreSingleton == null) {
+                throw new MessageSizeTooLargeException("Result of task " + taskID
+                        + " exceeds the limit of " + maxMessageSize + " bytes.");
+            }
+            // Store the result aside and only send a reference to it.
+            final long storeStartTime = System.nanoTime();
+            final PayloadReference ref = payloadStoreSingleton.getInst().store(taskID, result);
+            stageLatency("hdfs_write").recordSince(storeStartTime);
+            if (verbose) {
+                loggerSingleton.getInst().debug("Passing result of task " + taskID + " through " + ref);
+            }
+            taskData = new TaskData(outputPorts, executionPlan, ref);
+            bytes = serialize(taskData);
+        }
+        final byte[] message = bytes;
+
+        final AtomicReference<Exception> failure = getSendingFailure();
+        final String topic = taskData.outputType.name();
+        final String key = taskID.toString();
+        final MetricRegistry metrics = metricsSingleton.getInst();
+        final String streamName = getClass().getSimpleName();
+        final MetricRegistry.Histogram sendLatency = stageLatency("kafka_send");
+        final MetricRegistry.Counter sentBytes = metrics.counter("kafka_sent_bytes", "stream", streamName);
+        final MetricRegistry.Meter sentMessages = metrics.meter("kafka_sent_messages", "stream", streamName);
+        final long sendStartTime = System.nanoTime();
         new RobustExecutor<Void, Void>(
-                () -> {
-                    if (verbose) {
-                        KafkaHelper.sendWithLog(taskID.toString(),
-                                new TaskData(outputPorts, executionPlan, result),
-                                producerSingleton.getInst(),
-                                loggerSingleton.getInst());
-                    } else {
-                        KafkaHelper.send(taskID.toString(),
-                                new TaskData(outputPorts, executionPlan, result),
-                                producerSingleton.getInst());
-                    }
-                },
+                () -> KafkaHelper.sendAsync(topic, key, message, producerSingleton.getInst(),
+                        (recMeta, e) -> {
+                            if (e != null) {
+                                failure.compareAndSet(null, e);
+                                logSendingResult("Failed to send to Kafka <" + topic + ">\t" + key, e);
+                                return;
+                            }
+                            sendLatency.recordSince(sendStartTime);
+                            sentBytes.inc(message.length);
+                            sentMessages.mark();
+                            if (verbose) {
+                                logSendingResult("Sent to Kafka <" + recMeta.topic() + "-"
+                                        + recMeta.partition() + "-" + recMeta.offset() + ">\t" + key, null);
+                            }
+                        }),
                 Arrays.asList(
                         MessageSizeTooLargeException.class,
                         KafkaException.class,
@@ -69,14 +159,128 @@ public abstract class Stream implements Serializable {
         ).execute();
     }
 
+    /**
+     * Mark the node of a task at a port as executed, and report the trace spans of the task
+     * to {@link TaskTrace#TOPIC}. Streams executing terminal nodes, which output nothing,
+     * should call this when they finish the task.
+     *
+     * @param taskID   ID of the task.
+     * @param taskData the TaskData received.
+     * @param port     the port the task is received at.
+     * @throws Exception On failure getting the producer.
+     */
+    protected void finishTask(UUID taskID,
+                              TaskData taskData,
+                              Port port) throws Exception {
+        taskData.getDestNode(port).markExecuted();
+        if (!traceEnable) {
+            return;
+        }
+        final String key = taskID.toString();
+        final byte[] message = new TaskTrace(taskID, taskData.executionPlan.getTraceSpans()).toString()
+                .getBytes(StandardCharsets.UTF_8);
+        KafkaHelper.sendAsync(TaskTrace.TOPIC, key, message, producerSingleton.getInst(),
+                (recMeta, e) -> {
+                    if (e != null) {
+                        logSendingResult("Failed to send trace of task " + key, e);
+                    }
+                });
+    }
+
+    private void logSendingResult(String msg, Exception e) {
+        try {
+            if (e != null) {
+                loggerSingleton.getInst().error(msg, e);
+            } else {
+                loggerSingleton.getInst().debug(msg);
+            }
+        } catch (Exception ignored) {
+            // Callbacks run in the IO thread of the producer, which must not be broken.
+        }
+    }
+
+    /**
+     * Flush all the messages output by this stream so far to Kafka.
+     * Calling this once at the end of a partition lets the producer
+     * batch the messages output within the partition.
+     *
+     * @throws Exception On failure getting the producer,
+     *                   or the first failure sending the messages output since the last flush.
+     */
+    protected void flushOutput() throws Exception {
+        producerSingleton.getInst().flush();
+        final Exception e = getSendingFailure().getAndSet(null);
+        if (e != null) {
+            throw e;
+        }
+    }
+
     protected JavaPairDStream<UUID, TaskData>
     filter(Map<DataType, JavaPairDStream<UUID, TaskData>> streamMap, Port port) {
         return streamMap.get(port.inputType)
-                .filter(rec -> (Boolean) rec._2().destPorts.containsKey(port));
+                .filter(rec -> (Boolean) rec._2().destPorts.containsKey(port))
+                .mapValues(taskData -> {
+                    // Records are pulled lazily by the stream, so this is when it starts processing the task.
+                    taskData.getDestNode(port).getSpan().markStarted(port.name);
+                    return taskData;
+                });
+    }
+
+    /**
+     * Get the executor dedicated to this stream in the current JVM,
+     * for processing the records of a partition in parallel.
+     *
+     * @return the executor.
+     */
+    protected ParallelExecutor parallelExecutor() {
+        return ParallelExecutor.get(getClass().getSimpleName(), parallelism, parallelWindow);
+    }
+
+    /**
+     * Get a token for long-running work of a task to check whether the task has been terminated,
+     * so that it stops early and frees the resources (e.g. GPUs) it holds.
+     *
+     * @param taskID ID of the task.
+     * @return a token cancelled once a termination signal of the task is received,
+     * or {@link CancellationToken#NONE} if the task controller is disabled.
+     * @throws Exception On failure creating the task controller.
+     */
+    @Nonnull
+    protected CancellationToken getCancellationToken(@Nonnull UUID taskID) throws Exception {
+        return taskControllerSingleton == null ? CancellationToken.NONE
+                : taskControllerSingleton.getInst().getToken(taskID);
     }
 
     protected final Singleton<Logger> loggerSingleton;
 
+    protected final Singleton<MetricRegistry> metricsSingleton;
+
+    /**
+     * Get the histogram of latencies of a processing stage in this stream, in microseconds.
+     *
+     * @param stage name of the stage, e.g. decode, inference, db_write.
+     * @return the histogram.
+     * @throws Exception On failure creating the metric registry.
+     */
+    protected MetricRegistry.Histogram stageLatency(@Nonnull String stage) throws Exception {
+        return metricsSingleton.getInst().histogram("stage_latency_us",
+                "stream", getClass().getSimpleName(), "stage", stage);
+    }
+
+    /**
+     * Get the histogram of latencies of a processing stage on an input port of this stream, in microseconds.
+     *
+     * @param stage name of the stage, e.g. decode, inference, db_write.
+     * @param port  the input port.
+     * @return the histogram.
+     * @throws Exception On failure creating the metric registry.
+     */
+    protected MetricRegistry.Histogram stageLatency(@Nonnull String stage,
+                                                    @Nonnull Port port) throws Exception {
+        return metricsSingleton.getInst().histogram("stage_latency_us",
+                "stream", getClass().getSimpleName(), "port", port.name, "stage", stage);
+    }
+
     /**
      * Initialize necessary components of a Stream object.
      *
@@ -86,11 +290,51 @@ public abstract class Stream implements Serializable {
      */
     public Stream(String appName, SystemPropertyCenter propCenter) throws Exception {
         this.verbose = propCenter.verbose;
+        this.traceEnable = propCenter.traceEnable;
+        this.parallelism = propCenter.parallelExecutorParallelism;
+        this.parallelWindow = propCenter.parallelExecutorWindow;
+        this.maxMessageSize = propCenter.kafkaSendMaxSize - KAFKA_RECORD_OVERHEAD_RESERVED;
+        final String payloadStoreDir = propCenter.payloadStoreDir;
+        if (payloadStoreDir != null && !payloadStoreDir.isEmpty()) {
+            this.payloadThreshold = Math.min(propCenter.payloadStoreThreshold, maxMessageSize);
+            this.payloadStoreSingleton = new Singleton<>(() -> new PayloadStore(payloadStoreDir), PayloadStore.class);
+        } else {
+            this.payloadThreshold = maxMessageSize;
+            this.payloadStoreSingleton = null;
+        }
 
         this.loggerSingleton = new Singleton<>(new SynthesizedLoggerFactory(appName, propCenter), SynthesizedLogger.class);
+        this.metricsSingleton = new Singleton<>(new MetricRegistryFactory(appName, propCenter), MetricRegistry.class);
 
         Properties producerProp = propCenter.getKafkaProducerProp(false);
         producerSingleton = new Singleton<>(new ByteArrayProducerFactory(producerProp), ByteArrayProducer.class);
+
+        if (propCenter.taskControllerEnable) {
+            this.taskControllerSingleton = new Singleton<>(() -> {
+                TaskController taskController = new TaskController(propCenter, loggerSingleton.getInst());
+                taskController.start();
+                return taskController;
+            }, TaskController.class);
+        } else {
+            this.taskControllerSingleton = null;
+        }
+    }
+
+    /**
+     * Initialize the singletons of the stream in the current executor, so that the first batch
+     * does not pay for creating them. Streams with models should override this to also create the models
+     * and run a dummy input through them, calling this method of the super class.
+     * It is called at most once in each executor, before the application starts consuming Kafka.
+     *
+     * @throws Exception On failure initializing the stream.
+     */
+    public void warmUp() throws Exception {
+        loggerSingleton.getInst();
+        metricsSingleton.getInst();
+        producerSingleton.getInst();
+        if (payloadStoreSingleton != null) {
+            payloadStoreSingleton.getInst();
+        }
     }
 
     /**
@@ -0,0 +1,169 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import org.cripac.isee.vpe.alg.pedestrian.attr.PedestrianAttrRecogApp;
+import org.cripac.isee.vpe.alg.pedestrian.reid.PedestrianReIDUsingAttrApp;
+import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp.HDFSVideoTrackingStream;
+import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp.RTVideoTrackingStream;
+import org.cripac.isee.vpe.common.DataType;
+import org.cripac.isee.vpe.common.Stream;
+import org.cripac.isee.vpe.ctrl.MessageHandlingApp.CommandType;
+import org.cripac.isee.vpe.ctrl.MessageHandlingApp.Parameter;
+import org.cripac.isee.vpe.ctrl.TaskData.ExecutionPlan;
+import org.cripac.isee.vpe.data.DataManagingApp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The BuiltinPlanTemplates class defines the {@link ExecutionPlanTemplate}s of the commands of
+ * {@link MessageHandlingApp}, each identified by the name of its command.
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+final class BuiltinPlanTemplates {
+
+    private BuiltinPlanTemplates() {
+    }
+
+    /**
+     * Nodes of the modules, which a template is built from.
+     */
+    private static class Nodes {
+        final ExecutionPlan plan = new ExecutionPlan();
+        final Map<ExecutionPlan.Node, String> parameters = new HashMap<>();
+
+        ExecutionPlan.Node tracking(DataType outputType) {
+            final ExecutionPlan.Node node = plan.addNode(outputType);
+            parameters.put(node, Parameter.TRACKING_CONF_FILE);
+            return node;
+        }
+
+        ExecutionPlan.Node add(DataType outputType) {
+            return plan.addNode(outputType);
+        }
+
+        void link(ExecutionPlan.Node from, ExecutionPlan.Node to, Stream.Port port) {
+            from.outputTo(to.createInputPort(port));
+        }
+
+        void register(String cmd, ExecutionPlan.Node.Port... entryPorts) {
+            ExecutionPlanTemplate.register(new ExecutionPlanTemplate(cmd, 1, plan,
+                    Arrays.asList(entryPorts), parameters));
+        }
+    }
+
+    /**
+     * Add the nodes of attribute recognition, ReID and saving their results to a plan.
+     *
+     * @return the attribute recognition node and the ReID node.
+     */
+    private static ExecutionPlan.Node[] addAttrRecogReID(Nodes nodes) {
+        final ExecutionPlan.Node attrRecogNode = nodes.add(PedestrianAttrRecogApp.RecogStream.OUTPUT_TYPE);
+        final ExecutionPlan.Node reidNode = nodes.add(PedestrianReIDUsingAttrApp.ReIDStream.OUTPUT_TYPE);
+        final ExecutionPlan.Node attrSavingNode = nodes.add(DataManagingApp.AttrSavingStream.OUTPUT_TYPE);
+        final ExecutionPlan.Node idRankSavingNode = nodes.add(DataManagingApp.IDRankSavingStream.OUTPUT_TYPE);
+        nodes.link(attrRecogNode, reidNode, PedestrianReIDUsingAttrApp.ReIDStream.ATTR_PORT);
+        nodes.link(attrRecogNode, attrSavingNode, DataManagingApp.AttrSavingStream.PED_ATTR_SAVING_PORT);
+        nodes.link(reidNode, idRankSavingNode, DataManagingApp.IDRankSavingStream.PED_IDRANK_SAVING_PORT);
+        return new ExecutionPlan.Node[]{attrRecogNode, reidNode};
+    }
+
+    static void registerAll() {
+        {
+            final Nodes nodes = new Nodes();
+            final ExecutionPlan.Node trackingNode = nodes.tracking(HDFSVideoTrackingStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node trackletSavingNode = nodes.add(DataManagingApp.TrackletSavingStream.OUTPUT_TYPE);
+            nodes.link(trackingNode, trackletSavingNode,
+                    DataManagingApp.TrackletSavingStream.PED_TRACKLET_SAVING_PORT);
+            nodes.register(CommandType.TRACK_ONLY,
+                    trackingNode.createInputPort(HDFSVideoTrackingStream.VIDEO_URL_PORT));
+        }
+        {
+            final Nodes nodes = new Nodes();
+            final ExecutionPlan.Node trackingNode = nodes.tracking(HDFSVideoTrackingStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node attrRecogNode = nodes.add(PedestrianAttrRecogApp.RecogStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node trackletSavingNode = nodes.add(DataManagingApp.TrackletSavingStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node attrSavingNode = nodes.add(DataManagingApp.AttrSavingStream.OUTPUT_TYPE);
+            nodes.link(trackingNode, attrRecogNode, PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT);
+            nodes.link(trackingNode, trackletSavingNode,
+                    DataManagingApp.TrackletSavingStream.PED_TRACKLET_SAVING_PORT);
+            nodes.link(attrRecogNode, attrSavingNode, DataManagingApp.AttrSavingStream.PED_ATTR_SAVING_PORT);
+            nodes.register(CommandType.TRACK_ATTRRECOG,
+                    trackingNode.createInputPort(HDFSVideoTrackingStream.VIDEO_URL_PORT));
+        }
+        {
+            final Nodes nodes = new Nodes();
+            final ExecutionPlan.Node trackingNode = nodes.tracking(HDFSVideoTrackingStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node[] attrRecogReID = addAttrRecogReID(nodes);
+            final ExecutionPlan.Node trackletSavingNode = nodes.add(DataManagingApp.TrackletSavingStream.OUTPUT_TYPE);
+            nodes.link(trackingNode, attrRecogReID[0], PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT);
+            nodes.link(trackingNode, attrRecogReID[1], PedestrianReIDUsingAttrApp.ReIDStream.TRACKLET_PORT);
+            nodes.link(trackingNode, trackletSavingNode,
+                    DataManagingApp.TrackletSavingStream.PED_TRACKLET_SAVING_PORT);
+            nodes.register(CommandType.TRACK_ATTRRECOG_REID,
+                    trackingNode.createInputPort(HDFSVideoTrackingStream.VIDEO_URL_PORT));
+        }
+        {
+            final Nodes nodes = new Nodes();
+            final ExecutionPlan.Node attrRecogNode = nodes.add(PedestrianAttrRecogApp.RecogStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node attrSavingNode = nodes.add(DataManagingApp.AttrSavingStream.OUTPUT_TYPE);
+            nodes.link(attrRecogNode, attrSavingNode, DataManagingApp.AttrSavingStream.PED_ATTR_SAVING_PORT);
+            nodes.register(CommandType.ATTRRECOG_ONLY,
+                    attrRecogNode.createInputPort(PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT));
+        }
+        {
+            final Nodes nodes = new Nodes();
+            final ExecutionPlan.Node[] attrRecogReID = addAttrRecogReID(nodes);
+            nodes.register(CommandType.ATTRRECOG_REID,
+                    attrRecogReID[0].createInputPort(PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT),
+                    attrRecogReID[1].createInputPort(PedestrianReIDUsingAttrApp.ReIDStream.TRACKLET_PORT));
+        }
+        {
+            final Nodes nodes = new Nodes();
+            final ExecutionPlan.Node reidNode = nodes.add(PedestrianReIDUsingAttrApp.ReIDStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node idRankSavingNode = nodes.add(DataManagingApp.IDRankSavingStream.OUTPUT_TYPE);
+            nodes.link(reidNode, idRankSavingNode, DataManagingApp.IDRankSavingStream.PED_IDRANK_SAVING_PORT);
+            nodes.register(CommandType.REID_ONLY,
+                    reidNode.createInputPort(PedestrianReIDUsingAttrApp.ReIDStream.TRACKLET_ATTR_PORT));
+        }
+        {
+            final Nodes nodes = new Nodes();
+            final ExecutionPlan.Node trackingNode = nodes.tracking(RTVideoTrackingStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node trackletSavingNode = nodes.add(DataManagingApp.TrackletSavingStream.OUTPUT_TYPE);
+            nodes.link(trackingNode, trackletSavingNode,
+                    DataManagingApp.TrackletSavingStream.PED_TRACKLET_SAVING_PORT);
+            nodes.register(CommandType.RT_TRACK_ONLY,
+                    trackingNode.createInputPort(RTVideoTrackingStream.LOGIN_PARAM_PORT));
+        }
+        {
+            final Nodes nodes = new Nodes();
+            final ExecutionPlan.Node trackingNode = nodes.tracking(RTVideoTrackingStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node trackletSavingNode = nodes.add(DataManagingApp.TrackletSavingStream.OUTPUT_TYPE);
+            final ExecutionPlan.Node[] attrRecogReID = addAttrRecogReID(nodes);
+            nodes.link(trackingNode, trackletSavingNode,
+                    DataManagingApp.TrackletSavingStream.PED_TRACKLET_SAVING_PORT);
+            nodes.link(trackingNode, attrRecogReID[0], PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT);
+            nodes.link(trackingNode, attrRecogReID[1], PedestrianReIDUsingAttrApp.ReIDStream.TRACKLET_PORT);
+            nodes.register(CommandType.RT_TRACK_ATTRRECOG_REID,
+                    trackingNode.createInputPort(RTVideoTrackingStream.LOGIN_PARAM_PORT));
+        }
+    }
+}
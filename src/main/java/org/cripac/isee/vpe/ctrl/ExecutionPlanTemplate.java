@@ -0,0 +1,232 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import org.cripac.isee.vpe.common.DataType;
+import org.cripac.isee.vpe.ctrl.TaskData.ExecutionPlan;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ExecutionPlanTemplate class is an immutable execution plan identified by an ID and a version,
+ * from which the plans of tasks are instantiated. Templates are registered in every application,
+ * so a plan of a template travels between the applications as the ID and version of the template
+ * with the state of its nodes only (see {@link ExecutionPlan}).
+ * <p>
+ * The templates of the commands of {@link MessageHandlingApp} are registered on loading this class.
+ * Templates compiled from a {@link PipelineSpec} carry their spec instead, so applications not having
+ * registered such a template compile it from the spec on receiving a plan of it.
+ * A template must not change once released. Change its graph in a new version instead,
+ * keeping the old version registered until no task of it is in flight.
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+public final class ExecutionPlanTemplate {
+
+    private static final Map<String, ExecutionPlanTemplate> REGISTRY = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> LATEST_VERSIONS = new ConcurrentHashMap<>();
+
+    static {
+        BuiltinPlanTemplates.registerAll();
+    }
+
+    /**
+     * ID of the template, e.g. the name of a command.
+     */
+    public final String id;
+    public final int version;
+    private final ExecutionPlan prototype;
+    private final List<ExecutionPlan.Node.Port> entryPorts;
+    private final Map<Integer, String> parameters;
+    private final String spec;
+
+    /**
+     * Create a template from a plan. The plan is copied, so changing it afterwards does not affect the template.
+     *
+     * @param id         ID of the template.
+     * @param version    version of the template.
+     * @param prototype  a plan built ad hoc, which has not been executed.
+     * @param entryPorts ports of nodes in the prototype, to which the tasks of the plan are sent first.
+     * @param parameters names of the parameters of the task, whose values are the execution data of the nodes.
+     */
+    public ExecutionPlanTemplate(@Nonnull String id,
+                                 int version,
+                                 @Nonnull ExecutionPlan prototype,
+                                 @Nonnull Collection<ExecutionPlan.Node.Port> entryPorts,
+                                 @Nonnull Map<ExecutionPlan.Node, String> parameters) {
+        this(id, version, prototype, entryPorts, parameters, null);
+    }
+
+    /**
+     * Create a template from a plan. The plan is copied, so changing it afterwards does not affect the template.
+     *
+     * @param id         ID of the template.
+     * @param version    version of the template.
+     * @param prototype  a plan built ad hoc, which has not been executed.
+     * @param entryPorts ports of nodes in the prototype, to which the tasks of the plan are sent first.
+     *                   They must be of the same input data type.
+     * @param parameters names of the parameters of the task, whose values are the execution data of the nodes.
+     * @param spec       the {@link PipelineSpec} in JSON the template is compiled from, or null.
+     */
+    ExecutionPlanTemplate(@Nonnull String id,
+                          int version,
+                          @Nonnull ExecutionPlan prototype,
+                          @Nonnull Collection<ExecutionPlan.Node.Port> entryPorts,
+                          @Nonnull Map<ExecutionPlan.Node, String> parameters,
+                          @Nullable String spec) {
+        if (entryPorts.isEmpty()) {
+            throw new IllegalArgumentException("Template " + id + " has no entry port.");
+        }
+        if (entryPorts.stream().map(port -> port.prototype.inputType).distinct().count() > 1) {
+            throw new IllegalArgumentException("Entry ports of template " + id + " differ in input data types.");
+        }
+        this.id = id;
+        this.version = version;
+        this.prototype = new ExecutionPlan(prototype, null, 0);
+        final List<ExecutionPlan.Node.Port> ports = new ArrayList<>();
+        entryPorts.forEach(port -> {
+            if (prototype.getNode(port.getNode().getID()) != port.getNode()) {
+                throw new IllegalArgumentException("Entry port " + port.getName() + " is not of the prototype.");
+            }
+            ports.add(this.prototype.getNode(port.getNode().getID()).createInputPort(port.prototype));
+        });
+        this.entryPorts = Collections.unmodifiableList(ports);
+        final Map<Integer, String> params = new HashMap<>();
+        parameters.forEach((node, name) -> params.put(node.getID(), name));
+        this.parameters = Collections.unmodifiableMap(params);
+        this.spec = spec;
+    }
+
+    /**
+     * Instantiate a plan for tasks.
+     *
+     * @param param parameters of the tasks, among which those named in the template
+     *              become the execution data of their nodes.
+     * @return a new plan of this template.
+     */
+    @Nonnull
+    public ExecutionPlan instantiate(@Nonnull Map<String, ? extends Serializable> param) {
+        final ExecutionPlan plan = new ExecutionPlan(prototype, id, version);
+        parameters.forEach((nodeID, name) -> {
+            if (param.containsKey(name)) {
+                final ExecutionPlan.Node node = plan.getNode(nodeID);
+                assert node != null;
+                node.setExecData(param.get(name));
+            }
+        });
+        return plan;
+    }
+
+    /**
+     * @param plan a plan instantiated from this template.
+     * @return the entry ports of the plan, to which the tasks of the plan are sent first.
+     */
+    @Nonnull
+    public List<ExecutionPlan.Node.Port> getEntryPorts(@Nonnull ExecutionPlan plan) {
+        final List<ExecutionPlan.Node.Port> ports = new ArrayList<>(entryPorts.size());
+        entryPorts.forEach(port -> {
+            final ExecutionPlan.Node node = plan.getNode(port.getNode().getID());
+            if (node == null) {
+                throw new IllegalArgumentException("The plan is not of template " + id + ".");
+            }
+            ports.add(node.createInputPort(port.prototype));
+        });
+        return ports;
+    }
+
+    /**
+     * @return input data type of the entry ports, i.e. the type of the data the tasks start with.
+     */
+    @Nonnull
+    public DataType getEntryType() {
+        return entryPorts.get(0).prototype.inputType;
+    }
+
+    /**
+     * @return the {@link PipelineSpec} in JSON this template is compiled from, or null for built-in templates.
+     */
+    @Nullable
+    public String getSpec() {
+        return spec;
+    }
+
+    /**
+     * @param nodeID ID of a node.
+     * @return execution data of the node in the template.
+     */
+    @Nullable
+    Serializable getExecData(int nodeID) {
+        final ExecutionPlan.Node node = prototype.getNode(nodeID);
+        return node == null ? null : node.getExecData();
+    }
+
+    /**
+     * Register a template, so that plans of it can be serialized and deserialized.
+     * Applications must register the same templates.
+     * Registering a template compiled from the same spec as a registered one has no effect.
+     * Templates compiled from specs are not looked up by {@link #get(String)}, so they never take over
+     * the commands of the built-in templates, whose IDs they must not take.
+     *
+     * @param template the template to register.
+     * @return the template registered of the same ID and version.
+     * @throws IllegalStateException if another template of the same ID and version has been registered,
+     *                               or a template compiled from a spec takes the ID of a built-in template.
+     */
+    @Nonnull
+    public static ExecutionPlanTemplate register(@Nonnull ExecutionPlanTemplate template) {
+        if (template.spec != null && LATEST_VERSIONS.containsKey(template.id)) {
+            throw new IllegalStateException("Pipeline " + template.id + " takes the name of a built-in command.");
+        }
+        final ExecutionPlanTemplate existing = REGISTRY.putIfAbsent(template.id + "@" + template.version, template);
+        if (existing != null && existing != template) {
+            if (existing.spec != null && existing.spec.equals(template.spec)) {
+                return existing;
+            }
+            throw new IllegalStateException("Template " + template.id + " of version " + template.version
+                    + " has been registered.");
+        }
+        if (template.spec == null) {
+            LATEST_VERSIONS.merge(template.id, template.version, Math::max);
+        }
+        return template;
+    }
+
+    /**
+     * @param id      ID of a template.
+     * @param version version of the template.
+     * @return the template registered, or null if there is not.
+     */
+    @Nullable
+    public static ExecutionPlanTemplate get(@Nonnull String id, int version) {
+        return REGISTRY.get(id + "@" + version);
+    }
+
+    /**
+     * @param id ID of a built-in template.
+     * @return the latest version of the template registered, or null if there is not.
+     */
+    @Nullable
+    public static ExecutionPlanTemplate get(@Nonnull String id) {
+        final Integer version = LATEST_VERSIONS.get(id);
+        return version == null ? null : get(id, version);
+    }
+}
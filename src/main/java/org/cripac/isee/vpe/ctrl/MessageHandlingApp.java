@@ -17,7 +17,7 @@
 
 package org.cripac.isee.vpe.ctrl;
 
-import org.apache.commons.lang.NotImplementedException;
+import com.google.gson.Gson;
 import org.apache.hadoop.fs.Path;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.spark.SparkException;
@@ -25,28 +25,29 @@ import org.apache.spark.api.java.function.Function0;
 import org.cripac.isee.alg.pedestrian.attr.Attributes;
 import org.cripac.isee.alg.pedestrian.reid.PedestrianInfo;
 import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
-import org.cripac.isee.vpe.alg.pedestrian.attr.PedestrianAttrRecogApp;
-import org.cripac.isee.vpe.alg.pedestrian.reid.PedestrianReIDUsingAttrApp;
-import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp;
-import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp.HDFSVideoTrackingStream;
+import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp.RTVideoTrackingStream;
 import org.cripac.isee.vpe.alg.pedestrian.tracking.TrackletOrURL;
 import org.cripac.isee.vpe.common.DataType;
+import org.cripac.isee.vpe.common.LoginParam;
 import org.cripac.isee.vpe.common.RobustExecutor;
 import org.cripac.isee.vpe.common.SparkStreamingApp;
 import org.cripac.isee.vpe.ctrl.TaskData.ExecutionPlan;
-import org.cripac.isee.vpe.data.DataManagingApp;
 import org.cripac.isee.vpe.data.GraphDatabaseConnector;
 import org.cripac.isee.vpe.data.HDFSReader;
 import org.cripac.isee.vpe.debug.FakeDatabaseConnector;
 import org.cripac.isee.util.Singleton;
 import org.cripac.isee.vpe.util.kafka.ByteArrayProducer;
 import org.cripac.isee.vpe.util.kafka.ByteArrayProducerFactory;
+import org.cripac.isee.vpe.util.kafka.KafkaHelper;
 import org.cripac.isee.vpe.util.logging.Logger;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.cripac.isee.util.SerializationHelper.deserialize;
+import static org.cripac.isee.util.SerializationHelper.serialize;
 import static org.cripac.isee.vpe.util.kafka.KafkaHelper.sendWithLog;
 
 /**
@@ -100,6 +101,10 @@ public class MessageHandlingApp extends SparkStreamingApp {
         public final static String TRACKING_CONF_FILE = "tracking-conf-file";
         public final static String TRACKLET_INDEX = "tracklet-serial-num";
         public final static String WEBCAM_LOGIN_PARAM = "webcam-login-param";
+        /**
+         * A {@link PipelineSpec} in JSON, defining the execution plan of a {@link CommandType#PIPELINE} command.
+         */
+        public final static String PIPELINE_SPEC = "pipeline-spec";
 
         private Parameter() {
         }
@@ -119,6 +124,10 @@ public class MessageHandlingApp extends SparkStreamingApp {
         public final static String TRACK_ATTRRECOG_REID = "track-attrrecog-reid";
         public final static String RT_TRACK_ONLY = "rttrack";
         public final static String RT_TRACK_ATTRRECOG_REID = "rt-track-attrrecog-reid";
+        /**
+         * Execute the plan defined by the {@link Parameter#PIPELINE_SPEC} parameter.
+         */
+        public final static String PIPELINE = "pipeline";
 
         private CommandType() {
         }
@@ -141,13 +150,12 @@ public class MessageHandlingApp extends SparkStreamingApp {
                         logger.debug("Received command: " + cmd);
 
                         final HashMap<String, Serializable> param = deserialize(rec._2()._2());
+                        final ExecutionPlanTemplate template = getTemplate(cmd, param);
 
-                        if (cmd.equals(CommandType.RT_TRACK_ONLY)
-                                || cmd.equals(CommandType.RT_TRACK_ATTRRECOG_REID)) {
-                            // TODO: After finishing real time processing function, implement here.
-                            throw new NotImplementedException();
+                        if (template.getEntryType() == DataType.WEBCAM_LOGIN_PARAM) {
+                            new RobustExecutor<Void, Void>(() -> handleRealTime(template, param)).execute();
                         } else {
-                            new RobustExecutor<Void, Void>(() -> handle(cmd, param)).execute();
+                            new RobustExecutor<Void, Void>(() -> handle(template, param)).execute();
                         }
                     } catch (Exception e) {
                         logger.error("During msg handling", e);
@@ -155,164 +163,167 @@ public class MessageHandlingApp extends SparkStreamingApp {
                 }));
     }
 
-    private void handle(String cmd, Map<String, Serializable> param) throws Exception {
+    /**
+     * Start real-time processing on a web camera. The login parameters of the camera are sent to
+     * the {@link RTVideoTrackingStream}, which keeps tracking on the camera and feeds the tracklets
+     * to the rest of the execution plan.
+     *
+     * @param template template of the plan of a real-time command.
+     * @param param    parameters of the command, including the login parameters of the camera
+     *                 (either a {@link LoginParam} or its JSON) and the tracking configuration file.
+     * @throws Exception On failure sending the task.
+     */
+    private void handleRealTime(ExecutionPlanTemplate template, Map<String, Serializable> param) throws Exception {
         final KafkaProducer<String, byte[]> producer = producerSingleton.getInst();
         final Logger logger = loggerSingleton.getInst();
-        final ExecutionPlan plan = new ExecutionPlan();
-        // Process stored videos.
-        final List<Path> videoPaths = hdfsReaderSingleton.getInst().listSubfiles(
-                new Path((String) param.get(Parameter.VIDEO_URL)));
+        final ExecutionPlan plan = template.instantiate(param);
 
-        switch (cmd) {
-            case CommandType.TRACK_ONLY: {
-                // Perform tracking only.
-                ExecutionPlan.Node trackingNode = plan.addNode(
-                        HDFSVideoTrackingStream.OUTPUT_TYPE,
-                        param.get(Parameter.TRACKING_CONF_FILE));
-                ExecutionPlan.Node trackletSavingNode = plan.addNode(DataManagingApp.TrackletSavingStream.OUTPUT_TYPE);
+        final Serializable rawLoginParam = param.get(Parameter.WEBCAM_LOGIN_PARAM);
+        final LoginParam loginParam = rawLoginParam instanceof LoginParam
+                ? (LoginParam) rawLoginParam
+                : new Gson().fromJson((String) rawLoginParam, LoginParam.class);
 
-                // The letNodeOutputTo method will automatically add the DataManagingApp node.
-                trackingNode.outputTo(trackletSavingNode.createInputPort(
-                        DataManagingApp.TrackletSavingStream.PED_TRACKLET_SAVING_PORT));
+        final String taskID = UUID.randomUUID().toString();
+        final TaskData taskData = new TaskData(template.getEntryPorts(plan), plan, loginParam);
+        sendWithLog(taskID, taskData, producer, logger);
+    }
 
-                videoPaths.forEach(path -> {
-                    final String taskID = UUID.randomUUID().toString();
-                    final TaskData taskData = new TaskData(
-                            trackingNode.createInputPort(HDFSVideoTrackingStream.VIDEO_URL_PORT),
-                            plan,
-                            path.toString());
-                    sendWithLog(taskID, taskData, producer, logger);
-                });
-                break;
+    /**
+     * Get the template of the execution plan of a command.
+     *
+     * @param cmd   a command.
+     * @param param parameters of the command.
+     * @return the template compiled from the spec in the parameters for {@link CommandType#PIPELINE} commands,
+     * or the latest version of the template of the command.
+     * @throws UnsupportedCommandException if no template is registered for the command.
+     */
+    static ExecutionPlanTemplate getTemplate(String cmd, Map<String, Serializable> param)
+            throws UnsupportedCommandException {
+        if (cmd.equals(CommandType.PIPELINE)) {
+            final String spec = (String) param.get(Parameter.PIPELINE_SPEC);
+            if (spec == null) {
+                throw new IllegalArgumentException("Pipeline spec is not specified for the command!");
             }
-            case CommandType.TRACK_ATTRRECOG: {
-                // Do tracking, then output to attr recog module.
-                ExecutionPlan.Node trackingNode = plan.addNode(
-                        PedestrianTrackingApp.HDFSVideoTrackingStream.OUTPUT_TYPE,
-                        param.get(Parameter.TRACKING_CONF_FILE));
-                ExecutionPlan.Node attrRecogNode = plan.addNode(PedestrianAttrRecogApp.RecogStream.OUTPUT_TYPE);
-                ExecutionPlan.Node trackletSavingNode = plan.addNode(DataManagingApp.TrackletSavingStream.OUTPUT_TYPE);
-                ExecutionPlan.Node attrSavingNode = plan.addNode(DataManagingApp.AttrSavingStream.OUTPUT_TYPE);
+            return ExecutionPlanTemplate.register(PipelineSpec.compile(spec));
+        }
+        final ExecutionPlanTemplate template = ExecutionPlanTemplate.get(cmd);
+        if (template == null) {
+            throw new UnsupportedCommandException();
+        }
+        return template;
+    }
 
-                trackingNode.outputTo(attrRecogNode.createInputPort(
-                        PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT));
-                trackingNode.outputTo(trackletSavingNode.createInputPort(
-                        DataManagingApp.TrackletSavingStream.PED_TRACKLET_SAVING_PORT));
-                attrRecogNode.outputTo(attrSavingNode.createInputPort(
-                        DataManagingApp.AttrSavingStream.PED_ATTR_SAVING_PORT));
+    /**
+     * The TaskDispatcher class sends the tasks of a command to Kafka asynchronously,
+     * so the producer batches them instead of waiting for the acknowledgement of each one,
+     * and reports the progress of dispatching periodically.
+     */
+    private static class TaskDispatcher {
+        /**
+         * Interval of reporting the progress in milliseconds.
+         */
+        private static final long REPORT_INTERVAL = 5000;
+
+        private final KafkaProducer<String, byte[]> producer;
+        private final Logger logger;
+        private final String command;
+        private final AtomicLong numAcked = new AtomicLong(0);
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private final long startTime = System.currentTimeMillis();
+        private long lastReportTime = startTime;
+        private long numSent = 0;
+
+        TaskDispatcher(KafkaProducer<String, byte[]> producer, Logger logger, String command) {
+            this.producer = producer;
+            this.logger = logger;
+            this.command = command;
+        }
 
-                videoPaths.forEach(path -> {
-                    final String taskID = UUID.randomUUID().toString();
-                    final TaskData taskData = new TaskData(
-                            trackingNode.createInputPort(HDFSVideoTrackingStream.VIDEO_URL_PORT),
-                            plan,
-                            path.toString());
-                    sendWithLog(taskID, taskData, producer, logger);
-                });
-                break;
+        /**
+         * Send a task asynchronously.
+         *
+         * @param taskData data of the task.
+         * @throws Exception On failure serializing the task, or any failure sending previous tasks,
+         *                   which stops dispatching early.
+         */
+        void dispatch(TaskData taskData) throws Exception {
+            final Exception e = failure.get();
+            if (e != null) {
+                throw e;
             }
-            case CommandType.TRACK_ATTRRECOG_REID: {
-                ExecutionPlan.Node trackingNode = plan.addNode(
-                        HDFSVideoTrackingStream.OUTPUT_TYPE,
-                        param.get(Parameter.TRACKING_CONF_FILE));
-                ExecutionPlan.Node attrRecogNode = plan.addNode(PedestrianAttrRecogApp.RecogStream.OUTPUT_TYPE);
-                ExecutionPlan.Node reidNode = plan.addNode(PedestrianReIDUsingAttrApp.ReIDStream.OUTPUT_TYPE);
-                ExecutionPlan.Node trackletSavingNode = plan.addNode(DataManagingApp.TrackletSavingStream.OUTPUT_TYPE);
-                ExecutionPlan.Node attrSavingNode = plan.addNode(DataManagingApp.AttrSavingStream.OUTPUT_TYPE);
-                ExecutionPlan.Node idRankSavingNode = plan.addNode(DataManagingApp.IDRankSavingStream.OUTPUT_TYPE);
-
-                trackingNode.outputTo(attrRecogNode.createInputPort(
-                        PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT));
-                trackingNode.outputTo(reidNode.createInputPort(
-                        PedestrianReIDUsingAttrApp.ReIDStream.TRACKLET_PORT));
-                attrRecogNode.outputTo(reidNode.createInputPort(
-                        PedestrianReIDUsingAttrApp.ReIDStream.ATTR_PORT));
-                trackingNode.outputTo(trackletSavingNode.createInputPort(
-                        DataManagingApp.TrackletSavingStream.PED_TRACKLET_SAVING_PORT));
-                attrRecogNode.outputTo(attrSavingNode.createInputPort(
-                        DataManagingApp.AttrSavingStream.PED_ATTR_SAVING_PORT));
-                reidNode.outputTo(idRankSavingNode.createInputPort(
-                        DataManagingApp.IDRankSavingStream.PED_IDRANK_SAVING_PORT));
-
-                videoPaths.forEach(path -> {
-                    final String taskID = UUID.randomUUID().toString();
-                    final TaskData taskData = new TaskData(
-                            trackingNode.createInputPort(HDFSVideoTrackingStream.VIDEO_URL_PORT),
-                            plan,
-                            path.toString());
-                    sendWithLog(taskID, taskData, producer, logger);
-                });
-                break;
+            final String taskID = UUID.randomUUID().toString();
+            final String topic = taskData.outputType.name();
+            // Blocks only if the buffer of the producer is full.
+            KafkaHelper.sendAsync(topic, taskID, serialize(taskData), producer, (recMeta, sendingException) -> {
+                if (sendingException != null) {
+                    failure.compareAndSet(null, sendingException);
+                } else {
+                    numAcked.incrementAndGet();
+                }
+            });
+            ++numSent;
+            final long now = System.currentTimeMillis();
+            if (now - lastReportTime >= REPORT_INTERVAL) {
+                lastReportTime = now;
+                logger.info("Dispatching command " + command + ": " + numSent + " tasks sent, "
+                        + numAcked.get() + " acknowledged in " + (now - startTime) + "ms.");
             }
-            case CommandType.ATTRRECOG_ONLY: {
-                ExecutionPlan.Node attrRecogNode = plan.addNode(PedestrianAttrRecogApp.RecogStream.OUTPUT_TYPE);
-                ExecutionPlan.Node attrSavingNode = plan.addNode(DataManagingApp.AttrSavingStream.OUTPUT_TYPE);
-
-                attrRecogNode.outputTo(attrSavingNode.createInputPort(
-                        DataManagingApp.AttrSavingStream.PED_ATTR_SAVING_PORT));
+        }
 
-                String trackletIdx = (String) param.get(Parameter.TRACKLET_INDEX);
-                final GraphDatabaseConnector dbConnector = new FakeDatabaseConnector();
-                videoPaths.forEach(path -> {
-                    final String taskID = UUID.randomUUID().toString();
-                    final Tracklet.Identifier id = new Tracklet.Identifier(
-                            path.getName().substring(0, path.getName().lastIndexOf('.')),
-                            Integer.valueOf(trackletIdx));
-                    final TrackletOrURL url = new TrackletOrURL(dbConnector.getTrackletSavingDir(id.videoID)
-                            + "/" + id.serialNumber);
-                    final TaskData taskData = new TaskData(
-                            attrRecogNode.createInputPort(PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT),
-                            plan,
-                            url);
-                    sendWithLog(taskID, taskData, producer, logger);
-                });
-                break;
+        /**
+         * Send out all the tasks dispatched and wait for their acknowledgements.
+         *
+         * @throws Exception The first failure sending the tasks.
+         */
+        void finish() throws Exception {
+            producer.flush();
+            final Exception e = failure.get();
+            if (e != null) {
+                throw e;
             }
-            case CommandType.ATTRRECOG_REID: {
-                ExecutionPlan.Node attrRecogNode = plan.addNode(PedestrianAttrRecogApp.RecogStream.OUTPUT_TYPE);
-                ExecutionPlan.Node reidNode = plan.addNode(PedestrianReIDUsingAttrApp.ReIDStream.OUTPUT_TYPE);
-                ExecutionPlan.Node attrSavingNode = plan.addNode(DataManagingApp.AttrSavingStream.OUTPUT_TYPE);
-                ExecutionPlan.Node idRankSavingNode = plan.addNode(DataManagingApp.IDRankSavingStream.OUTPUT_TYPE);
-
-                attrRecogNode.outputTo(reidNode.createInputPort(
-                        PedestrianReIDUsingAttrApp.ReIDStream.ATTR_PORT));
-                attrRecogNode.outputTo(attrSavingNode.createInputPort(
-                        DataManagingApp.AttrSavingStream.PED_ATTR_SAVING_PORT));
-                reidNode.outputTo(idRankSavingNode.createInputPort(
-                        DataManagingApp.IDRankSavingStream.PED_IDRANK_SAVING_PORT));
+            logger.info("Dispatched command " + command + ": " + numSent + " tasks in "
+                    + (System.currentTimeMillis() - startTime) + "ms.");
+        }
+    }
 
+    private void handle(ExecutionPlanTemplate template, Map<String, Serializable> param) throws Exception {
+        final Logger logger = loggerSingleton.getInst();
+        final TaskDispatcher dispatcher = new TaskDispatcher(producerSingleton.getInst(), logger, template.id);
+        // The plan is instantiated from a template shared by all the commands of the same type,
+        // so messages carry only the ID of the template and the state of the plan.
+        final ExecutionPlan plan = template.instantiate(param);
+        final List<ExecutionPlan.Node.Port> entryPorts = template.getEntryPorts(plan);
+        // Process stored videos. Tasks are dispatched while the directory is being listed,
+        // so the first videos are processed without waiting for a large archive to be listed completely.
+        final Path videoURL = new Path((String) param.get(Parameter.VIDEO_URL));
+        final HDFSReader hdfsReader = hdfsReaderSingleton.getInst();
+
+        // The tasks start with the data of the entry ports of the plan.
+        switch (template.getEntryType()) {
+            case URL:
+                // Do tracking first, then output to the rest of the plan.
+                hdfsReader.forEachSubfile(videoURL, path ->
+                        dispatcher.dispatch(new TaskData(entryPorts, plan, path.toString())));
+                break;
+            case TRACKLET: {
                 String trackletIdx = (String) param.get(Parameter.TRACKLET_INDEX);
                 final GraphDatabaseConnector dbConnector = new FakeDatabaseConnector();
-                videoPaths.forEach(path -> {
-                    final String taskID = UUID.randomUUID().toString();
+                hdfsReader.forEachSubfile(videoURL, path -> {
                     final Tracklet.Identifier id = new Tracklet.Identifier(
                             path.getName().substring(0, path.getName().lastIndexOf('.')),
                             Integer.valueOf(trackletIdx));
                     final TrackletOrURL url = new TrackletOrURL(dbConnector.getTrackletSavingDir(id.videoID)
                             + "/" + id.serialNumber);
-                    final TaskData taskData = new TaskData(
-                            Arrays.asList(
-                                    attrRecogNode.createInputPort(PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT),
-                                    reidNode.createInputPort(PedestrianReIDUsingAttrApp.ReIDStream.TRACKLET_PORT)),
-                            plan,
-                            url);
-                    sendWithLog(taskID, taskData, producer, logger);
+                    dispatcher.dispatch(new TaskData(entryPorts, plan, url));
                 });
                 break;
             }
-            case CommandType.REID_ONLY: {
+            case TRACKLET_ATTR: {
                 // Retrieve track and attr data integrally, then feed them to ReID
                 // module.
-                ExecutionPlan.Node reidNode = plan.addNode(PedestrianReIDUsingAttrApp.ReIDStream.OUTPUT_TYPE);
-                ExecutionPlan.Node idRankSavingNode = plan.addNode(DataManagingApp.IDRankSavingStream.OUTPUT_TYPE);
-
-                reidNode.outputTo(idRankSavingNode.createInputPort(
-                        DataManagingApp.IDRankSavingStream.PED_IDRANK_SAVING_PORT));
-
                 String trackletIdx = (String) param.get(Parameter.TRACKLET_INDEX);
                 final GraphDatabaseConnector dbConnector = new FakeDatabaseConnector();
-                videoPaths.forEach(path -> {
-                    final String taskID = UUID.randomUUID().toString();
+                hdfsReader.forEachSubfile(videoURL, path -> {
                     final Tracklet.Identifier id = new Tracklet.Identifier(
                             path.getName().substring(0, path.getName().lastIndexOf('.')),
                             Integer.valueOf(trackletIdx));
@@ -328,16 +339,13 @@ public class MessageHandlingApp extends SparkStreamingApp {
                         return;
                     }
                     final PedestrianInfo info = new PedestrianInfo(url, attr);
-                    final TaskData taskData = new TaskData(
-                            reidNode.createInputPort(PedestrianReIDUsingAttrApp.ReIDStream.TRACKLET_ATTR_PORT),
-                            plan,
-                            info);
-                    sendWithLog(taskID, taskData, producer, logger);
+                    dispatcher.dispatch(new TaskData(entryPorts, plan, info));
                 });
                 break;
             }
             default:
                 throw new UnsupportedCommandException();
         }
+        dispatcher.finish();
     }
 }
@@ -20,22 +20,50 @@ package org.cripac.isee.vpe.ctrl;
 
 import com.google.gson.Gson;
 import com.sun.management.OperatingSystemMXBean;
+import com.sun.management.ThreadMXBean;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.bytedeco.javacpp.Pointer;
 import org.cripac.isee.vpe.util.kafka.KafkaHelper;
 import org.cripac.isee.vpe.util.logging.Logger;
 
-import javax.management.InstanceNotFoundException;
+import javax.annotation.Nullable;
+import javax.management.MBeanServer;
 import javax.management.MalformedObjectNameException;
-import javax.management.ReflectionException;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The MonitorThread periodically samples the resource usage of the JVM and the host,
+ * and reports them to the {@link #REPORT_TOPIC} in JSON, keyed by the host name.
+ * <p>
+ * Optionally, the reports are sent to the {@link #COMPACT_REPORT_TOPIC} instead to keep them small.
+ * Each compact report is a binary encoding of the differences of the values from the previous report
+ * of the same JVM, with a full report (key frame) once in a while. Several JVMs may run on the same host,
+ * so the reports are keyed by the host name and the JVM, and carry a random ID of the JVM.
+ * Use a {@link ReportDecoder} for each key to decode the reports. The values are listed
+ * in {@link #FIELD_NAMES}, followed by {@link #DEV_FIELD_NAMES} for each GPU.
+ * <p>
+ * GPU information is read through NVML with the native library CudaMonitor4j.
+ * On hosts without the library or NVML, the monitor works without GPU information.
+ */
 public class MonitorThread extends Thread {
 
     public static final String REPORT_TOPIC = "monitor-report";
+    public static final String COMPACT_REPORT_TOPIC = "monitor-report-compact";
 
+    /**
+     * Report in JSON, whose fields are kept for existing consumers of the {@link #REPORT_TOPIC}.
+     * Memory sizes of the JVM and the host are in MB, while those of the GPUs are in bytes.
+     */
     private static class Report {
         long usedMem;
         long jvmMaxMem;
@@ -43,6 +71,18 @@ public class MonitorThread extends Thread {
         long physicTotalMem;
         int procCpuLoad;
         int sysCpuLoad;
+        long gcCount;
+        long gcTimeMs;
+        long allocRateKBps;
+        long directMem;
+        long mappedMem;
+        long javacppMem;
+        long physicalMem;
+        long threadCount;
+        long daemonThreadCount;
+        long peakThreadCount;
+        long consumerRecordsLagMax;
+        long producerRecordQueueTimeMs;
         DevInfo[] devInfos;
 
         private static class DevInfo {
@@ -58,12 +98,61 @@ public class MonitorThread extends Thread {
         }
     }
 
+    /**
+     * Names of the values in a report, in the order of encoding. Memory sizes are in MB.
+     */
+    public static final String[] FIELD_NAMES = {
+            "usedMem", "jvmMaxMem", "jvmTotalMem", "physicTotalMem",
+            "procCpuLoad", "sysCpuLoad",
+            "gcCount", "gcTimeMs", "allocRateKBps",
+            "directMem", "mappedMem", "javacppMem", "physicalMem",
+            "threadCount", "daemonThreadCount", "peakThreadCount",
+            "consumerRecordsLagMax", "producerRecordQueueTimeMs"
+    };
+    /**
+     * Names of the values of each GPU in a report, following the values in {@link #FIELD_NAMES}.
+     */
+    public static final String[] DEV_FIELD_NAMES = {
+            "fanSpeed", "utilRate", "usedMem", "totalMem",
+            "temp", "slowDownTemp", "shutdownTemp", "powerUsage", "powerLimit"
+    };
+    /**
+     * A full report is sent every such number of reports, so that new consumers can catch up.
+     */
+    private static final int KEY_FRAME_INTERVAL = 30;
+    /**
+     * Version of the compact format, in the high bits of the first byte of a compact report.
+     */
+    private static final int COMPACT_FORMAT_VERSION = 1;
+    private static final int MB = 1024 * 1024;
+
     private final Logger logger;
-    private final KafkaProducer<String, String> reportProducer;
+    private final KafkaProducer<String, byte[]> reportProducer;
     private final Runtime runtime = Runtime.getRuntime();
     private final OperatingSystemMXBean osBean = ManagementFactory.getPlatformMXBean(OperatingSystemMXBean.class);
+    private final ThreadMXBean threadBean = ManagementFactory.getPlatformMXBean(ThreadMXBean.class);
+    private final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+    private final List<BufferPoolMXBean> bufferPoolBeans =
+            ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName kafkaConsumerMetrics;
+    private final ObjectName kafkaProducerMetrics;
+    private final long intervalMs;
     private final int deviceCount;
     private final String nodeName;
+    private final boolean compactReport;
+    /**
+     * Key of the compact reports, which tells JVMs on the same host apart.
+     */
+    private final String streamKey;
+    /**
+     * Random ID of the compact report stream of this JVM, so that decoders never apply
+     * the delta reports of one JVM to the values of another one.
+     */
+    private final long streamID = new Random().nextLong() & Long.MAX_VALUE;
+    private boolean javacppPhysicalBytesAvailable = true;
+
+    private static final boolean NVML_LIBRARY_LOADED;
 
     private native int initNVML();
 
@@ -89,10 +178,15 @@ public class MonitorThread extends Thread {
 
     private native int getPowerUsage(int index);
 
-    public MonitorThread(Logger logger, SystemPropertyCenter propCenter)
-            throws MalformedObjectNameException, ReflectionException, InstanceNotFoundException {
+    public MonitorThread(Logger logger, SystemPropertyCenter propCenter) throws MalformedObjectNameException {
+        super("monitor");
+        setDaemon(true);
         this.logger = logger;
-        this.reportProducer = new KafkaProducer<>(propCenter.getKafkaProducerProp(true));
+        this.reportProducer = new KafkaProducer<>(propCenter.getKafkaProducerProp(false));
+        this.intervalMs = propCenter.monitorIntervalMs;
+        this.compactReport = propCenter.monitorCompactReport;
+        this.kafkaConsumerMetrics = new ObjectName("kafka.consumer:type=consumer-fetch-manager-metrics,client-id=*");
+        this.kafkaProducerMetrics = new ObjectName("kafka.producer:type=producer-metrics,client-id=*");
 
         String nodeName1;
         try {
@@ -101,96 +195,338 @@ public class MonitorThread extends Thread {
             nodeName1 = "Unknown host";
         }
         nodeName = nodeName1;
+        // The name of the runtime is in the form of pid@host.
+        streamKey = nodeName + "/" + ManagementFactory.getRuntimeMXBean().getName();
 
         KafkaHelper.createTopic(propCenter.zkConn, propCenter.zkSessionTimeoutMs, propCenter.zkConnectionTimeoutMS,
-                REPORT_TOPIC,
+                compactReport ? COMPACT_REPORT_TOPIC : REPORT_TOPIC,
                 propCenter.kafkaNumPartitions, propCenter.kafkaReplFactor);
 
         logger.info("Running with " + osBean.getAvailableProcessors() + " " + osBean.getArch() + " processors");
 
-        int nvmlInitRet = initNVML();
-        if (nvmlInitRet == 0) {
-            this.deviceCount = getDeviceCount();
-            logger.info("Running with " + this.deviceCount + " GPUs.");
+        int numDevices = 0;
+        if (NVML_LIBRARY_LOADED) {
+            int nvmlInitRet = initNVML();
+            if (nvmlInitRet == 0) {
+                numDevices = getDeviceCount();
+                logger.info("Running with " + numDevices + " GPUs.");
+            } else {
+                logger.info("Cannot initialize NVML: " + nvmlInitRet);
+            }
         } else {
-            this.deviceCount = 0;
-            logger.info("Cannot initialize NVML: " + nvmlInitRet);
+            logger.info("Running without GPU information since CudaMonitor4j is not loaded.");
+        }
+        this.deviceCount = numDevices;
+    }
+
+    /**
+     * Get the maximum of an attribute among Kafka clients registered in this JVM.
+     *
+     * @return the maximum, or 0 if no client has a valid value.
+     */
+    private long maxOfKafkaMetric(ObjectName pattern, String attribute) {
+        double max = 0;
+        for (ObjectName name : mBeanServer.queryNames(pattern, null)) {
+            try {
+                final Object value = mBeanServer.getAttribute(name, attribute);
+                if (value instanceof Number) {
+                    final double v = ((Number) value).doubleValue();
+                    if (!Double.isNaN(v) && !Double.isInfinite(v)) {
+                        max = Math.max(max, v);
+                    }
+                }
+            } catch (Exception ignored) {
+                // The client may have been closed.
+            }
+        }
+        return (long) max;
+    }
+
+    private long totalAllocatedBytes() {
+        long total = 0;
+        for (long allocated : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    private long javacppPhysicalBytes() {
+        if (javacppPhysicalBytesAvailable) {
+            try {
+                return Pointer.physicalBytes();
+            } catch (Throwable t) {
+                javacppPhysicalBytesAvailable = false;
+                logger.info("Cannot get physical memory usage from JavaCPP: " + t);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sample the values to report.
+     *
+     * @param values          array to store the values in, in the order of {@link #FIELD_NAMES}
+     *                        and {@link #DEV_FIELD_NAMES}.
+     * @param allocatedBytes  total bytes allocated by the threads at the last sampling.
+     * @param elapsedMs       time since the last sampling.
+     * @return total bytes allocated by the threads at this sampling.
+     */
+    private long sample(long[] values, long allocatedBytes, long elapsedMs) {
+        int i = 0;
+        values[i++] = (runtime.totalMemory() - runtime.freeMemory()) / MB;
+        values[i++] = runtime.maxMemory() / MB;
+        values[i++] = runtime.totalMemory() / MB;
+        values[i++] = osBean.getTotalPhysicalMemorySize() / MB;
+        values[i++] = (long) (osBean.getProcessCpuLoad() * 100);
+        values[i++] = (long) (osBean.getSystemCpuLoad() * 100);
+
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            gcCount += Math.max(gcBean.getCollectionCount(), 0);
+            gcTime += Math.max(gcBean.getCollectionTime(), 0);
+        }
+        values[i++] = gcCount;
+        values[i++] = gcTime;
+        final long newAllocatedBytes = totalAllocatedBytes();
+        // Bytes allocated by threads terminated during the interval are not counted.
+        values[i++] = Math.max(newAllocatedBytes - allocatedBytes, 0) / Math.max(elapsedMs, 1) * 1000 / 1024;
+
+        long directMem = 0;
+        long mappedMem = 0;
+        for (BufferPoolMXBean poolBean : bufferPoolBeans) {
+            if ("direct".equals(poolBean.getName())) {
+                directMem = poolBean.getMemoryUsed();
+            } else if ("mapped".equals(poolBean.getName())) {
+                mappedMem = poolBean.getMemoryUsed();
+            }
+        }
+        values[i++] = directMem / MB;
+        values[i++] = mappedMem / MB;
+        values[i++] = Pointer.totalBytes() / MB;
+        values[i++] = javacppPhysicalBytes() / MB;
+
+        values[i++] = threadBean.getThreadCount();
+        values[i++] = threadBean.getDaemonThreadCount();
+        values[i++] = threadBean.getPeakThreadCount();
+
+        values[i++] = maxOfKafkaMetric(kafkaConsumerMetrics, "records-lag-max");
+        values[i++] = maxOfKafkaMetric(kafkaProducerMetrics, "record-queue-time-avg");
+
+        for (int dev = 0; dev < deviceCount; ++dev) {
+            values[i++] = getFanSpeed(dev);
+            values[i++] = getUtilizationRate(dev);
+            values[i++] = getUsedMemory(dev) / MB;
+            values[i++] = getTotalMemory(dev) / MB;
+            values[i++] = getTemperature(dev);
+            values[i++] = getSlowDownTemperatureThreshold(dev);
+            values[i++] = getShutdownTemperatureThreshold(dev);
+            values[i++] = getPowerUsage(dev);
+            values[i++] = getPowerLimit(dev);
+        }
+        return newAllocatedBytes;
+    }
+
+    private String describe(long[] values) {
+        StringBuilder builder = new StringBuilder("Resource usage:");
+        for (int i = 0; i < FIELD_NAMES.length; ++i) {
+            builder.append(' ').append(FIELD_NAMES[i]).append('=').append(values[i]);
+        }
+        for (int dev = 0; dev < deviceCount; ++dev) {
+            builder.append("\n|GPU ").append(dev);
+            for (int j = 0; j < DEV_FIELD_NAMES.length; ++j) {
+                builder.append(' ').append(DEV_FIELD_NAMES[j]).append('=')
+                        .append(values[FIELD_NAMES.length + dev * DEV_FIELD_NAMES.length + j]);
+            }
         }
+        return builder.toString();
     }
 
     @Override
     public void run() {
-        Report report = new Report();
-        report.devInfos = new Report.DevInfo[deviceCount];
-        for (int i = 0; i < deviceCount; ++i) {
-            report.devInfos[i] = new Report.DevInfo();
-        }
+        final int numValues = FIELD_NAMES.length + deviceCount * DEV_FIELD_NAMES.length;
+        long[] values = new long[numValues];
+        long[] lastValues = new long[numValues];
+        long allocatedBytes = totalAllocatedBytes();
+        long lastSampleTime = System.currentTimeMillis();
+        int numReports = 0;
 
         logger.debug("Starting monitoring!");
         //noinspection InfiniteLoopStatement
         while (true) {
-            report.usedMem = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
-            report.jvmMaxMem = runtime.maxMemory() / (1024 * 1024);
-            report.jvmTotalMem = runtime.totalMemory() / (1024 * 1024);
-            report.physicTotalMem = osBean.getTotalPhysicalMemorySize() / (1024 * 1024);
-            logger.info("Memory consumption: "
-                    + report.usedMem + "/"
-                    + report.jvmMaxMem + "/"
-                    + report.jvmTotalMem + "/"
-                    + report.physicTotalMem + "M");
-
-            report.procCpuLoad = (int) (osBean.getProcessCpuLoad() * 100);
-            report.sysCpuLoad = (int) (osBean.getSystemCpuLoad() * 100);
-            logger.info("CPU load: " + report.procCpuLoad + "/" + report.sysCpuLoad + "%");
-
-            StringBuilder stringBuilder = new StringBuilder("GPU Usage:");
-            for (int i = 0; i < deviceCount; ++i) {
-                Report.DevInfo info = report.devInfos[i];
-                info.fanSpeed = getFanSpeed(i);
-                info.utilRate = getUtilizationRate(i);
-                info.usedMem = getUsedMemory(i);
-                info.totalMem = getTotalMemory(i);
-                info.temp = getTemperature(i);
-                info.slowDownTemp = getSlowDownTemperatureThreshold(i);
-                info.shutdownTemp = getShutdownTemperatureThreshold(i);
-                info.powerUsage = getPowerUsage(i);
-                info.powerLimit = getPowerLimit(i);
-
-                stringBuilder.append("\n|Index\t|Fan\t|Util\t|Mem(MB)\t|Temp(C)\t|Pow");
-                stringBuilder.append("\n|").append(i)
-                        .append("\t|")
-                        .append(info.fanSpeed)
-                        .append("\t|")
-                        .append(String.format("%3d", info.utilRate)).append('%')
-                        .append("\t|")
-                        .append(String.format("%5d", info.usedMem / (1024 * 1024)))
-                        .append("/").append(String.format("%5d", info.totalMem / (1024 * 1024)))
-                        .append("\t|")
-                        .append(info.temp).append("/").append(info.slowDownTemp).append("/").append(info.shutdownTemp)
-                        .append("\t|")
-                        .append(info.powerUsage).append("/").append(info.powerLimit);
+            try {
+                sleep(intervalMs);
+            } catch (InterruptedException ignored) {
             }
-            logger.info(stringBuilder.toString());
-
-            this.reportProducer.send(new ProducerRecord<>(REPORT_TOPIC, nodeName, new Gson().toJson(report)));
 
             try {
-                sleep(10000);
-            } catch (InterruptedException ignored) {
+                final long now = System.currentTimeMillis();
+                allocatedBytes = sample(values, allocatedBytes, now - lastSampleTime);
+                lastSampleTime = now;
+                final long[] sampled = values;
+                logger.debug(() -> describe(sampled));
+
+                if (compactReport) {
+                    final boolean keyFrame = numReports++ % KEY_FRAME_INTERVAL == 0;
+                    reportProducer.send(new ProducerRecord<>(COMPACT_REPORT_TOPIC, streamKey,
+                            encode(streamID, values, keyFrame ? null : lastValues)));
+                } else {
+                    reportProducer.send(new ProducerRecord<>(REPORT_TOPIC, nodeName,
+                            new Gson().toJson(toReport(values)).getBytes(StandardCharsets.UTF_8)));
+                }
+
+                final long[] tmp = lastValues;
+                lastValues = values;
+                values = tmp;
+            } catch (Exception e) {
+                logger.error("On monitoring", e);
+            }
+        }
+    }
+
+    private Report toReport(long[] values) {
+        final Report report = new Report();
+        int i = 0;
+        report.usedMem = values[i++];
+        report.jvmMaxMem = values[i++];
+        report.jvmTotalMem = values[i++];
+        report.physicTotalMem = values[i++];
+        report.procCpuLoad = (int) values[i++];
+        report.sysCpuLoad = (int) values[i++];
+        report.gcCount = values[i++];
+        report.gcTimeMs = values[i++];
+        report.allocRateKBps = values[i++];
+        report.directMem = values[i++];
+        report.mappedMem = values[i++];
+        report.javacppMem = values[i++];
+        report.physicalMem = values[i++];
+        report.threadCount = values[i++];
+        report.daemonThreadCount = values[i++];
+        report.peakThreadCount = values[i++];
+        report.consumerRecordsLagMax = values[i++];
+        report.producerRecordQueueTimeMs = values[i++];
+        report.devInfos = new Report.DevInfo[deviceCount];
+        for (int dev = 0; dev < deviceCount; ++dev) {
+            final Report.DevInfo info = new Report.DevInfo();
+            info.fanSpeed = (int) values[i++];
+            info.utilRate = (int) values[i++];
+            info.usedMem = values[i++] * MB;
+            info.totalMem = values[i++] * MB;
+            info.temp = (int) values[i++];
+            info.slowDownTemp = (int) values[i++];
+            info.shutdownTemp = (int) values[i++];
+            info.powerUsage = (int) values[i++];
+            info.powerLimit = (int) values[i++];
+            report.devInfos[dev] = info;
+        }
+        return report;
+    }
+
+    /**
+     * Encode a compact report.
+     * The format is a flag byte (the format version shifted left by 1, plus 1 for a key frame),
+     * the ID of the report stream and the number of values in varints, followed by the differences
+     * of each value from that in the previous report, or the values themselves in a key frame, in zigzag varints.
+     *
+     * @param streamID   non-negative ID of the report stream of the JVM.
+     * @param values     values to report.
+     * @param lastValues values in the previous report, or null for encoding a key frame.
+     * @return the encoded report.
+     */
+    static byte[] encode(long streamID, long[] values, @Nullable long[] lastValues) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(values.length * 2 + 16);
+        byteStream.write(COMPACT_FORMAT_VERSION << 1 | (lastValues == null ? 1 : 0));
+        writeVarLong(byteStream, streamID);
+        writeVarLong(byteStream, values.length);
+        for (int i = 0; i < values.length; ++i) {
+            final long delta = values[i] - (lastValues == null ? 0 : lastValues[i]);
+            writeVarLong(byteStream, (delta << 1) ^ (delta >> 63));
+        }
+        return byteStream.toByteArray();
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Report is truncated.");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in report.");
+    }
+
+    /**
+     * The ReportDecoder decodes the compact reports of one key, which must be fed in order.
+     */
+    public static class ReportDecoder {
+        private long streamID = -1;
+        private long[] lastValues = null;
+
+        /**
+         * Decode a compact report.
+         *
+         * @param report the encoded report.
+         * @return the values in the report, or null if it is a delta frame not following a key frame
+         * of the same report stream, e.g. when the JVM has been restarted.
+         * @throws IOException On malformed reports or reports of unknown versions.
+         */
+        @Nullable
+        public long[] decode(byte[] report) throws IOException {
+            ByteArrayInputStream in = new ByteArrayInputStream(report);
+            final int flag = in.read();
+            if (flag < 0 || flag >> 1 != COMPACT_FORMAT_VERSION) {
+                throw new IOException("Unknown version of report: " + (flag >> 1));
+            }
+            final boolean keyFrame = (flag & 1) == 1;
+            final long reportStreamID = readVarLong(in);
+            final int numValues = (int) readVarLong(in);
+            if (!keyFrame && (reportStreamID != streamID || lastValues == null || lastValues.length != numValues)) {
+                // Wait for the next key frame of the new stream.
+                streamID = -1;
+                lastValues = null;
+                return null;
+            }
+            streamID = reportStreamID;
+            long[] values = new long[numValues];
+            for (int i = 0; i < numValues; ++i) {
+                final long zigzag = readVarLong(in);
+                final long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+                values[i] = keyFrame ? delta : lastValues[i] + delta;
             }
+            lastValues = values;
+            return values.clone();
         }
     }
 
     static {
         org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(MonitorThread.class);
+        boolean loaded;
         try {
             logger.info("Loading native libraries for MonitorThread from "
                     + System.getProperty("java.library.path"));
             System.loadLibrary("CudaMonitor4j");
-            logger.info("Native libraries for BasicTracker successfully loaded!");
+            logger.info("Native libraries for MonitorThread successfully loaded!");
+            loaded = true;
         } catch (Throwable t) {
-            logger.error("Failed to load native library for MonitorThread", t);
-            throw t;
+            // Hosts without GPUs are still monitored.
+            logger.warn("Failed to load native library for MonitorThread. GPUs will not be monitored.", t);
+            loaded = false;
         }
+        NVML_LIBRARY_LOADED = loaded;
     }
 }
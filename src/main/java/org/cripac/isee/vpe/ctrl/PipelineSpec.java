@@ -0,0 +1,267 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.cripac.isee.vpe.alg.pedestrian.attr.PedestrianAttrRecogApp.RecogStream;
+import org.cripac.isee.vpe.alg.pedestrian.reid.PedestrianReIDUsingAttrApp.ReIDStream;
+import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp.HDFSVideoTrackingStream;
+import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp.RTVideoTrackingStream;
+import org.cripac.isee.vpe.common.DataType;
+import org.cripac.isee.vpe.common.Stream;
+import org.cripac.isee.vpe.ctrl.TaskData.ExecutionPlan;
+import org.cripac.isee.vpe.data.DataManagingApp.AttrSavingStream;
+import org.cripac.isee.vpe.data.DataManagingApp.IDRankSavingStream;
+import org.cripac.isee.vpe.data.DataManagingApp.TrackletSavingStream;
+import org.cripac.isee.vpe.data.DataManagingApp.VideoCuttingStream;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * The PipelineSpec class is a declarative specification of an execution plan in JSON,
+ * which is compiled to an {@link ExecutionPlanTemplate}. Streams and ports are referred to by their names,
+ * e.g. the following spec recognizes attributes of tracklets and re-identifies them, without saving the attributes:
+ * <pre>
+ * {
+ *   "name": "attrrecog-reid-nosave",
+ *   "version": 1,
+ *   "nodes": [
+ *     {"id": "attr", "stream": "recog"},
+ *     {"id": "reid", "stream": "PedestrianReIDUsingAttr"},
+ *     {"id": "save", "stream": "idrank-saving"}
+ *   ],
+ *   "links": [
+ *     {"from": "attr", "to": "reid", "port": "pedestrian-attr-for-reid-using-attr"},
+ *     {"from": "reid", "to": "save", "port": "pedestrian-idrank-saving"}
+ *   ],
+ *   "entries": [
+ *     {"node": "attr", "port": "pedestrian-tracklet-for-attr-recog"},
+ *     {"node": "reid", "port": "pedestrian-tracklet-for-reid-using-attr"}
+ *   ]
+ * }
+ * </pre>
+ * A node may take a parameter of the command as its execution data, e.g. <code>"param": "tracking-conf-file"</code>
+ * for tracking nodes.
+ * Links must connect the output of a stream to a port of the same data type, and must not form a cycle.
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+public class PipelineSpec {
+
+    /**
+     * A stream which nodes may execute.
+     */
+    private static class StreamEntry {
+        final DataType outputType;
+        final Map<String, Stream.Port> ports = new HashMap<>();
+
+        StreamEntry(DataType outputType, Stream.Port... ports) {
+            this.outputType = outputType;
+            for (Stream.Port port : ports) {
+                this.ports.put(port.name, port);
+            }
+        }
+    }
+
+    private static final Map<String, StreamEntry> STREAMS = new HashMap<>();
+
+    static {
+        STREAMS.put(HDFSVideoTrackingStream.NAME, new StreamEntry(HDFSVideoTrackingStream.OUTPUT_TYPE,
+                HDFSVideoTrackingStream.VIDEO_URL_PORT));
+        STREAMS.put(RTVideoTrackingStream.NAME, new StreamEntry(RTVideoTrackingStream.OUTPUT_TYPE,
+                RTVideoTrackingStream.LOGIN_PARAM_PORT));
+        STREAMS.put(RecogStream.NAME, new StreamEntry(RecogStream.OUTPUT_TYPE,
+                RecogStream.TRACKLET_PORT));
+        STREAMS.put(ReIDStream.NAME, new StreamEntry(ReIDStream.OUTPUT_TYPE,
+                ReIDStream.TRACKLET_PORT, ReIDStream.ATTR_PORT, ReIDStream.TRACKLET_ATTR_PORT));
+        STREAMS.put(VideoCuttingStream.NAME, new StreamEntry(VideoCuttingStream.OUTPUT_TYPE,
+                VideoCuttingStream.VIDEO_URL_PORT));
+        STREAMS.put(TrackletSavingStream.NAME, new StreamEntry(TrackletSavingStream.OUTPUT_TYPE,
+                TrackletSavingStream.PED_TRACKLET_SAVING_PORT));
+        STREAMS.put(AttrSavingStream.NAME, new StreamEntry(AttrSavingStream.OUTPUT_TYPE,
+                AttrSavingStream.PED_ATTR_SAVING_PORT));
+        STREAMS.put(IDRankSavingStream.NAME, new StreamEntry(IDRankSavingStream.OUTPUT_TYPE,
+                IDRankSavingStream.PED_IDRANK_SAVING_PORT));
+    }
+
+    public static class NodeSpec {
+        public String id;
+        public String stream;
+        /**
+         * Name of the parameter of the command used as the execution data of the node.
+         */
+        public String param;
+    }
+
+    public static class LinkSpec {
+        public String from;
+        public String to;
+        public String port;
+    }
+
+    public static class EntrySpec {
+        public String node;
+        public String port;
+    }
+
+    public String name;
+    public int version = 1;
+    public List<NodeSpec> nodes = new ArrayList<>();
+    public List<LinkSpec> links = new ArrayList<>();
+    public List<EntrySpec> entries = new ArrayList<>();
+
+    /**
+     * Parse a spec.
+     *
+     * @param json the spec in JSON.
+     * @return the spec parsed.
+     * @throws IllegalArgumentException if the JSON is malformed.
+     */
+    @Nonnull
+    public static PipelineSpec parse(@Nonnull String json) {
+        final PipelineSpec spec;
+        try {
+            spec = new Gson().fromJson(json, PipelineSpec.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Malformed pipeline spec: " + e.getMessage(), e);
+        }
+        if (spec == null) {
+            throw new IllegalArgumentException("Empty pipeline spec.");
+        }
+        return spec;
+    }
+
+    /**
+     * Compile a spec in JSON to a template.
+     *
+     * @param json the spec in JSON.
+     * @return the template, which carries the spec for other applications to compile it again.
+     * @throws IllegalArgumentException if the spec is malformed or invalid.
+     */
+    @Nonnull
+    public static ExecutionPlanTemplate compile(@Nonnull String json) {
+        return parse(json).compile();
+    }
+
+    private static <T> T require(T value, String what) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + what + " in pipeline spec.");
+        }
+        return value;
+    }
+
+    private Stream.Port getPort(NodeSpec node, String portName) {
+        final Stream.Port port = STREAMS.get(node.stream).ports.get(require(portName, "port"));
+        if (port == null) {
+            throw new IllegalArgumentException("Stream " + node.stream + " of node " + node.id
+                    + " has no port " + portName + ". Available ports: " + STREAMS.get(node.stream).ports.keySet());
+        }
+        return port;
+    }
+
+    /**
+     * Validate this spec and compile it to a template.
+     *
+     * @return the template.
+     * @throws IllegalArgumentException if the spec is invalid.
+     */
+    @Nonnull
+    public ExecutionPlanTemplate compile() {
+        require(name, "name");
+        final ExecutionPlan plan = new ExecutionPlan();
+        final Map<String, NodeSpec> nodeSpecs = new HashMap<>();
+        final Map<String, ExecutionPlan.Node> planNodes = new HashMap<>();
+        final Map<ExecutionPlan.Node, String> parameters = new HashMap<>();
+        for (NodeSpec nodeSpec : require(nodes, "nodes")) {
+            require(nodeSpec.id, "node ID");
+            if (nodeSpecs.put(nodeSpec.id, nodeSpec) != null) {
+                throw new IllegalArgumentException("Duplicate node " + nodeSpec.id + " in pipeline spec.");
+            }
+            final StreamEntry stream = STREAMS.get(require(nodeSpec.stream, "stream of node " + nodeSpec.id));
+            if (stream == null) {
+                throw new IllegalArgumentException("Unknown stream " + nodeSpec.stream + " of node " + nodeSpec.id
+                        + ". Available streams: " + STREAMS.keySet());
+            }
+            final ExecutionPlan.Node node = plan.addNode(stream.outputType);
+            planNodes.put(nodeSpec.id, node);
+            if (nodeSpec.param != null) {
+                parameters.put(node, nodeSpec.param);
+            }
+        }
+
+        final Map<String, Set<String>> successors = new HashMap<>();
+        for (LinkSpec link : require(links, "links")) {
+            final NodeSpec from = nodeSpecs.get(require(link.from, "source of link"));
+            final NodeSpec to = nodeSpecs.get(require(link.to, "destination of link"));
+            if (from == null || to == null) {
+                throw new IllegalArgumentException("Link " + link.from + " -> " + link.to
+                        + " refers to an undefined node.");
+            }
+            final Stream.Port port = getPort(to, link.port);
+            final DataType outputType = STREAMS.get(from.stream).outputType;
+            if (port.inputType != outputType) {
+                throw new IllegalArgumentException("Link " + link.from + " -> " + link.to + " connects output of "
+                        + outputType + " to port " + port.name + " of " + port.inputType + ".");
+            }
+            successors.computeIfAbsent(link.from, k -> new HashSet<>()).add(link.to);
+            planNodes.get(link.from).outputTo(planNodes.get(link.to).createInputPort(port));
+        }
+        checkAcyclic(successors);
+
+        final List<ExecutionPlan.Node.Port> entryPorts = new ArrayList<>();
+        for (EntrySpec entry : require(entries, "entries")) {
+            final NodeSpec node = nodeSpecs.get(require(entry.node, "node of entry"));
+            if (node == null) {
+                throw new IllegalArgumentException("Entry refers to undefined node " + entry.node + ".");
+            }
+            entryPorts.add(planNodes.get(entry.node).createInputPort(getPort(node, entry.port)));
+        }
+
+        return new ExecutionPlanTemplate(name, version, plan, entryPorts, parameters, new Gson().toJson(this));
+    }
+
+    /**
+     * Check that the links do not form a cycle, by depth-first search.
+     */
+    private static void checkAcyclic(Map<String, Set<String>> successors) {
+        final Set<String> finished = new HashSet<>();
+        final Set<String> visiting = new HashSet<>();
+        for (String node : successors.keySet()) {
+            visit(node, successors, visiting, finished);
+        }
+    }
+
+    private static void visit(String node,
+                              Map<String, Set<String>> successors,
+                              Set<String> visiting,
+                              Set<String> finished) {
+        if (finished.contains(node)) {
+            return;
+        }
+        if (!visiting.add(node)) {
+            throw new IllegalArgumentException("Links form a cycle through node " + node + ".");
+        }
+        for (String next : successors.getOrDefault(node, Collections.emptySet())) {
+            visit(next, successors, visiting, finished);
+        }
+        visiting.remove(node);
+        finished.add(node);
+    }
+}
@@ -72,6 +72,13 @@ public class SystemPropertyCenter implements Serializable {
     private int kafkaRequestTimeoutMs = 60000;
     private int kafkaFetchTimeoutMs = 60000;
     public String kafkaLocationStrategy = "PreferBrokers";
+    /* Time for the producer to wait for more messages to batch together. */
+    private int kafkaLingerMs = 10;
+    /* Upper bound of the bytes batched for one partition in one request. */
+    private int kafkaBatchSize = 262144;
+    /* Total bytes the producer may use to buffer messages waiting to be sent. */
+    private long kafkaBufferMemory = 33554432;
+    private String kafkaCompressionType = "lz4";
     /* The maximum number of messages per second that each partition will
      * accept in the direct Kafka input stream. 0 or null means not limited.
      */
@@ -80,6 +87,28 @@ public class SystemPropertyCenter implements Serializable {
     /* Spark properties */
     public String checkpointRootDir = "checkpoint";
     public String metadataDir = "/metadata";
+    /* Directory of the store of results too large to be sent through Kafka directly.
+     * Null means not using the store. */
+    @Nullable
+    public String payloadStoreDir = null;
+    /* Results whose serialized size exceed this are passed through the payload store. */
+    public int payloadStoreThreshold = 262144;
+    /* Time in milliseconds results are kept in the payload store before being removed. */
+    public long payloadStoreTTL = 24 * 3600 * 1000;
+    /* Interval between two reports of metrics. */
+    public long metricsReportIntervalMs = 10000;
+    /* Port to serve metrics in the Prometheus text format. 0 means not serving. */
+    public int metricsPrometheusPort = 0;
+    /* Interval between two samplings of the resource usage by the MonitorThread. */
+    public long monitorIntervalMs = 10000;
+    /* Whether the MonitorThread reports in the compact binary format instead of JSON. */
+    public boolean monitorCompactReport = false;
+    /* Whether to report trace spans of finished tasks to the task-trace topic. */
+    public boolean traceEnable = true;
+    /* Whether to initialize the streams on each executor before consuming Kafka. */
+    public boolean warmUpEnable = true;
+    /* Maximum rounds of warm-up jobs for reaching all the executors. */
+    public int warmUpMaxRounds = 3;
     public String sparkMaster = "local[*]";
     public String sparkDeployMode = "client";
     String[] appsToStart = null;
@@ -126,10 +155,34 @@ public class SystemPropertyCenter implements Serializable {
      * -1 means do not do repartition. 0 means using default parallelism of Spark.
      */
     public int repartition = -1;
+    /* Whether to adapt the ingestion rate and the number of partitions to the load at runtime.
+     * When enabled, repartition decides the initial number of partitions. */
+    public boolean backpressureEnable = false;
+    /* Bounds of the number of partitions adapted by backpressure. 0 for the maximum means 4 times
+     * the default parallelism of Spark. */
+    public int backpressureMinPartitions = 1;
+    public int backpressureMaxPartitions = 0;
+    /* Minimum ingestion rate (records per second) of each input stream under backpressure. */
+    public int backpressureMinRate = 1;
+    /* Ratio of the batch duration that a batch is expected to take, including its scheduling delay. */
+    public double backpressureTargetUtilization = 0.8;
+    /* Gains of the PID controller of backpressure. */
+    public double backpressureProportional = 1.0;
+    public double backpressureIntegral = 0.2;
+    public double backpressureDerivative = 0.0;
+    /* Number of threads of the executor processing the records of a partition in each stream.
+     * 0 means the number of processors. */
+    public int parallelExecutorParallelism = 0;
+    /* Maximum number of records in flight in the executor of each stream. 0 means twice the parallelism. */
+    public int parallelExecutorWindow = 0;
     /* Whether to print verbose running information */
     public boolean verbose = false;
     /* Whether to enable task controller. */
     public boolean taskControllerEnable = true;
+    /* Time in milliseconds a termination signal stays effective after it is sent. */
+    public long taskControllerTTL = 24 * 3600 * 1000;
+    /* Maximum number of termination signals kept effective. The oldest ones are dropped beyond it. */
+    public int taskControllerCapacity = 100000;
 
     /* Subclasses can continue to analyze this property storage */
     protected Properties sysProps = new Properties();
@@ -315,6 +368,42 @@ public class SystemPropertyCenter implements Serializable {
                 case "vpe.metadata.dir":
                     metadataDir = (String) entry.getValue();
                     break;
+                case "vpe.payload.store.dir":
+                    payloadStoreDir = (String) entry.getValue();
+                    break;
+                case "vpe.payload.store.threshold":
+                    payloadStoreThreshold = Integer.parseInt((String) entry.getValue());
+                    break;
+                case "vpe.payload.store.ttl":
+                    payloadStoreTTL = Long.parseLong((String) entry.getValue());
+                    break;
+                case "vpe.metrics.report.interval.ms":
+                    metricsReportIntervalMs = Long.parseLong((String) entry.getValue());
+                    break;
+                case "vpe.metrics.prometheus.port":
+                    metricsPrometheusPort = Integer.parseInt((String) entry.getValue());
+                    break;
+                case "vpe.monitor.interval.ms":
+                    monitorIntervalMs = Long.parseLong((String) entry.getValue());
+                    break;
+                case "vpe.monitor.compact.report":
+                    monitorCompactReport = Boolean.parseBoolean((String) entry.getValue());
+                    break;
+                case "vpe.trace.enable":
+                    traceEnable = Boolean.parseBoolean((String) entry.getValue());
+                    break;
+                case "vpe.parallel.executor.parallelism":
+                    parallelExecutorParallelism = Integer.parseInt((String) entry.getValue());
+                    break;
+                case "vpe.parallel.executor.window":
+                    parallelExecutorWindow = Integer.parseInt((String) entry.getValue());
+                    break;
+                case "vpe.warmup.enable":
+                    warmUpEnable = Boolean.parseBoolean((String) entry.getValue());
+                    break;
+                case "vpe.warmup.max.rounds":
+                    warmUpMaxRounds = Integer.parseInt((String) entry.getValue());
+                    break;
                 case "spark.master":
                     sparkMaster = (String) entry.getValue();
                     break;
@@ -368,6 +457,18 @@ public class SystemPropertyCenter implements Serializable {
                 case "kafka.fetch.timeout.ms":
                     kafkaFetchTimeoutMs = Integer.parseInt((String) entry.getValue());
                     break;
+                case "kafka.linger.ms":
+                    kafkaLingerMs = Integer.parseInt((String) entry.getValue());
+                    break;
+                case "kafka.batch.size":
+                    kafkaBatchSize = Integer.parseInt((String) entry.getValue());
+                    break;
+                case "kafka.buffer.memory":
+                    kafkaBufferMemory = Long.parseLong((String) entry.getValue());
+                    break;
+                case "kafka.compression.type":
+                    kafkaCompressionType = (String) entry.getValue();
+                    break;
                 case "caffe.gpu":
                     caffeGPU = (String) entry.getValue();
                     break;
@@ -377,9 +478,39 @@ public class SystemPropertyCenter implements Serializable {
                 case "vpe.repartition":
                     repartition = Integer.parseInt((String) entry.getValue());
                     break;
+                case "vpe.backpressure.enable":
+                    backpressureEnable = Boolean.parseBoolean((String) entry.getValue());
+                    break;
+                case "vpe.backpressure.min.partitions":
+                    backpressureMinPartitions = Integer.parseInt((String) entry.getValue());
+                    break;
+                case "vpe.backpressure.max.partitions":
+                    backpressureMaxPartitions = Integer.parseInt((String) entry.getValue());
+                    break;
+                case "vpe.backpressure.min.rate":
+                    backpressureMinRate = Integer.parseInt((String) entry.getValue());
+                    break;
+                case "vpe.backpressure.target.utilization":
+                    backpressureTargetUtilization = Double.parseDouble((String) entry.getValue());
+                    break;
+                case "vpe.backpressure.pid.proportional":
+                    backpressureProportional = Double.parseDouble((String) entry.getValue());
+                    break;
+                case "vpe.backpressure.pid.integral":
+                    backpressureIntegral = Double.parseDouble((String) entry.getValue());
+                    break;
+                case "vpe.backpressure.pid.derivative":
+                    backpressureDerivative = Double.parseDouble((String) entry.getValue());
+                    break;
                 case "vpe.task.controller.enable":
                     taskControllerEnable = Boolean.parseBoolean((String) entry.getValue());
                     break;
+                case "vpe.task.controller.ttl":
+                    taskControllerTTL = Long.parseLong((String) entry.getValue());
+                    break;
+                case "vpe.task.controller.capacity":
+                    taskControllerCapacity = Integer.parseInt((String) entry.getValue());
+                    break;
             }
             sysProps.remove(entry);
         }
@@ -488,9 +619,12 @@ public class SystemPropertyCenter implements Serializable {
         producerProp.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         producerProp.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
                 isStringValue ? StringSerializer.class : ByteArraySerializer.class);
-        producerProp.put(ProducerConfig.BUFFER_MEMORY_CONFIG, kafkaSendMaxSize);
+        // The buffer must be able to hold at least one message of the largest size.
+        producerProp.put(ProducerConfig.BUFFER_MEMORY_CONFIG, Math.max(kafkaBufferMemory, kafkaSendMaxSize));
         producerProp.put(ProducerConfig.REQUEST_TIMEOUT_MS_CONFIG, kafkaRequestTimeoutMs);
-        producerProp.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        producerProp.put(ProducerConfig.LINGER_MS_CONFIG, kafkaLingerMs);
+        producerProp.put(ProducerConfig.BATCH_SIZE_CONFIG, kafkaBatchSize);
+        producerProp.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, kafkaCompressionType);
         producerProp.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, EvenlyDistributingPartitioner.class);
         return producerProp;
     }
@@ -20,31 +20,114 @@ package org.cripac.isee.vpe.ctrl;
 
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
 import org.apache.kafka.common.TopicPartition;
+import org.cripac.isee.util.CancellationToken;
 import org.cripac.isee.vpe.util.logging.Logger;
 
+import javax.annotation.Nonnull;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static org.cripac.isee.vpe.common.DataType.TERM_SIG;
 
 /**
- * The TaskController retrieves the latest 100 termination signals from Kafka and store in a pool.
- * A terminal signal is a task UUID sent to the TERM_SIG topic.
+ * The TaskController retrieves termination signals from Kafka and keeps them effective for a limited time.
+ * A terminal signal is a task UUID sent as the key of a message to the TERM_SIG topic,
+ * which is compacted, so that a signal sent again replaces the previous one,
+ * and a message with null value (a tombstone) revokes the signal of the task.
+ * <p>
+ * The signals are kept in a concurrent map, so Spark tasks may check them at any time,
+ * either once per record with {@link #isTerminated(UUID)},
+ * or periodically during long-running work with a {@link CancellationToken} from {@link #getToken(UUID)}.
+ * Signals expire after a time-to-live, and the oldest ones are dropped beyond a capacity.
  * TODO: Provide interface for selecting tasks to terminal, so that users do not need to know the exact task UUIDs.
  */
 public class TaskController extends Thread {
 
-    public final Set<UUID> termSigPool = new HashSet<>();
-    private final LinkedList<UUID> termSigQueue = new LinkedList<>();
+    /**
+     * Interval of expiring signals in milliseconds.
+     */
+    private static final long EXPIRING_INTERVAL = 10000;
+
+    /**
+     * Timestamps of the signals of the terminated tasks.
+     */
+    private final Map<UUID, Long> termSigs = new ConcurrentHashMap<>();
+    private final long ttl;
+    private final int capacity;
     private final KafkaConsumer<String, byte[]> consumer;
     private final Logger logger;
 
     public TaskController(SystemPropertyCenter propCenter, Logger logger) {
+        this(new KafkaConsumer<>(propCenter.getKafkaConsumerProp(UUID.randomUUID().toString(), false)),
+                propCenter.taskControllerTTL, propCenter.taskControllerCapacity, logger);
+    }
+
+    TaskController(KafkaConsumer<String, byte[]> consumer, long ttl, int capacity, Logger logger) {
         logger.debug("Constructing TaskController.");
-        Properties consumerProp = propCenter.getKafkaConsumerProp(UUID.randomUUID().toString(), false);
-        consumer = new KafkaConsumer<>(consumerProp);
+        this.consumer = consumer;
+        this.ttl = ttl;
+        this.capacity = capacity;
         this.logger = logger;
+        setDaemon(true);
+    }
+
+    /**
+     * @param taskID ID of a task.
+     * @return whether a termination signal of the task is effective.
+     */
+    public boolean isTerminated(@Nonnull UUID taskID) {
+        return termSigs.containsKey(taskID);
+    }
+
+    /**
+     * Get a token telling whether a task has been terminated, which is as cheap to check as a map lookup.
+     *
+     * @param taskID ID of a task.
+     * @return a token cancelled once a termination signal of the task is received.
+     */
+    @Nonnull
+    public CancellationToken getToken(@Nonnull UUID taskID) {
+        return () -> termSigs.containsKey(taskID);
+    }
+
+    /**
+     * Make a termination signal of a task effective.
+     *
+     * @param taskID    ID of the task.
+     * @param timestamp time the signal is sent.
+     */
+    void terminate(@Nonnull UUID taskID, long timestamp) {
+        termSigs.put(taskID, timestamp);
+    }
+
+    /**
+     * Revoke the termination signal of a task.
+     *
+     * @param taskID ID of the task.
+     */
+    void revoke(@Nonnull UUID taskID) {
+        termSigs.remove(taskID);
+    }
+
+    /**
+     * Drop the signals which have lived longer than the time-to-live, then the oldest ones beyond the capacity.
+     *
+     * @param now current time.
+     */
+    void expire(long now) {
+        termSigs.values().removeIf(timestamp -> now - timestamp > ttl);
+        final int excess = termSigs.size() - capacity;
+        if (excess > 0) {
+            termSigs.entrySet().stream()
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(excess)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList())
+                    .forEach(termSigs::remove);
+        }
     }
 
     @Override
@@ -56,29 +139,41 @@ public class TaskController extends Thread {
                 .collect(Collectors.toList());
         logger.debug("TaskController retrieved partitions.");
 
-        final Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(topicPartitions);
-        logger.debug("TaskController retrieved beginning offsets.");
+        // Only signals sent within the time-to-live are still effective.
+        final Map<TopicPartition, Long> startTimes = new HashMap<>();
+        topicPartitions.forEach(tp -> startTimes.put(tp, System.currentTimeMillis() - ttl));
+        final Map<TopicPartition, OffsetAndTimestamp> startOffsets = consumer.offsetsForTimes(startTimes);
+        logger.debug("TaskController retrieved start offsets.");
         final Map<TopicPartition, Long> endOffsets = consumer.endOffsets(topicPartitions);
         logger.debug("TaskController retrieved end offsets.");
         consumer.assign(topicPartitions);
-        endOffsets.forEach((tp, offset) -> consumer.seek(tp, Math.max(offset - 100, beginningOffsets.get(tp))));
+        topicPartitions.forEach(tp -> {
+            final OffsetAndTimestamp startOffset = startOffsets.get(tp);
+            consumer.seek(tp, startOffset == null ? endOffsets.get(tp) : startOffset.offset());
+        });
 
         logger.debug("Starting TaskController.");
 
+        long lastExpiringTime = System.currentTimeMillis();
         //noinspection InfiniteLoopStatement
         while (true) {
             try {
                 ConsumerRecords<String, byte[]> sigs = consumer.poll(1000);
                 sigs.forEach(rec -> {
                     UUID taskID = UUID.fromString(rec.key());
-                    termSigPool.add(taskID);
-                    termSigQueue.add(taskID);
-                    logger.info("Received term sig for task " + taskID);
+                    if (rec.value() == null) {
+                        revoke(taskID);
+                        logger.info("Revoked term sig for task " + taskID);
+                    } else {
+                        terminate(taskID, rec.timestamp() < 0 ? System.currentTimeMillis() : rec.timestamp());
+                        logger.info("Received term sig for task " + taskID);
+                    }
                 });
-                while (termSigQueue.size() > 100) {
-                    termSigPool.remove(termSigQueue.pollFirst());
+                final long now = System.currentTimeMillis();
+                if (now - lastExpiringTime >= EXPIRING_INTERVAL || termSigs.size() > capacity) {
+                    expire(now);
+                    lastExpiringTime = now;
                 }
-                consumer.commitSync();
             } catch (Exception e) {
                 logger.error("During processing termination signals", e);
             }
@@ -23,8 +23,11 @@ import org.cripac.isee.vpe.common.Stream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * The TaskData class contains a global execution plan and the execution result
@@ -151,11 +154,62 @@ public class TaskData implements Serializable, Cloneable {
         return new Gson().toJson(this);
     }
 
+    /**
+     * Serialize through a {@link SerializedForm}, which refers to the destination nodes by their IDs,
+     * instead of dragging the nodes out of the execution plan.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(this);
+    }
+
+    /**
+     * Serialized form of a {@link TaskData}.
+     */
+    private static class SerializedForm implements Serializable {
+        private static final long serialVersionUID = -3146926417371519628L;
+
+        private final int[] destNodeIDs;
+        private final Stream.Port[] destPortPrototypes;
+        private final ExecutionPlan executionPlan;
+        private final Serializable predecessorRes;
+
+        SerializedForm(TaskData taskData) {
+            destNodeIDs = new int[taskData.destPorts.size()];
+            destPortPrototypes = new Stream.Port[taskData.destPorts.size()];
+            int i = 0;
+            for (ExecutionPlan.Node.Port port : taskData.destPorts.values()) {
+                destNodeIDs[i] = port.getNode().getID();
+                destPortPrototypes[i] = port.prototype;
+                ++i;
+            }
+            executionPlan = taskData.executionPlan;
+            predecessorRes = taskData.predecessorRes;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            final List<ExecutionPlan.Node.Port> destPorts = new ArrayList<>(destNodeIDs.length);
+            for (int i = 0; i < destNodeIDs.length; ++i) {
+                final ExecutionPlan.Node node = executionPlan.getNode(destNodeIDs[i]);
+                if (node == null) {
+                    throw new InvalidObjectException("Destination node " + destNodeIDs[i]
+                            + " is not in the execution plan.");
+                }
+                destPorts.add(node.createInputPort(destPortPrototypes[i]));
+            }
+            return new TaskData(destPorts, executionPlan, predecessorRes);
+        }
+    }
+
     /**
      * The ExecutionPlan class represents a directed acyclic graph of the
      * execution flows of modules. Each node is an execution of a module. Each
      * link represents that an execution should output to a next execution node.
      * One module may exist multiple times in a graph.
+     * <p>
+     * A plan instantiated from an {@link ExecutionPlanTemplate} is serialized as the ID and version of the template,
+     * with only the state of its nodes (which are executed, execution data differing from the template,
+     * and trace spans), and rebuilt from the template registered in the receiving application.
+     * Plans built ad hoc are serialized with the whole graph.
      *
      * @author Ken Yu, CRIPAC, 2016
      */
@@ -169,6 +223,149 @@ public class TaskData implements Serializable, Cloneable {
 
         private int nodeIDCounter = 0;
 
+        /**
+         * ID of the template this plan is instantiated from, or null if the plan is built ad hoc.
+         */
+        private String templateID = null;
+        private int templateVersion = 0;
+
+        /**
+         * Create an empty plan, to which nodes are added ad hoc.
+         */
+        public ExecutionPlan() {
+        }
+
+        /**
+         * Copy the graph of a plan which has not been executed.
+         *
+         * @param source          the plan to copy.
+         * @param templateID      ID of the template the copy is instantiated from, or null.
+         * @param templateVersion version of the template.
+         */
+        ExecutionPlan(@Nonnull ExecutionPlan source,
+                      @Nullable String templateID,
+                      int templateVersion) {
+            source.nodes.values().forEach(node ->
+                    nodes.put(node.id, new Node(node.id, node.outputType, node.execData)));
+            source.nodes.values().forEach(node -> {
+                if (node.isExecuted()) {
+                    throw new IllegalArgumentException("Node " + node.id + " has been executed.");
+                }
+                final Node copy = nodes.get(node.id);
+                node.outputPorts.forEach(port ->
+                        copy.outputPorts.add(nodes.get(port.getNode().id).createInputPort(port.prototype)));
+            });
+            this.nodeIDCounter = source.nodeIDCounter;
+            this.templateID = templateID;
+            this.templateVersion = templateVersion;
+        }
+
+        /**
+         * @param id ID of a node.
+         * @return the node of the ID in this plan, or null if there is not.
+         */
+        @Nullable
+        public Node getNode(int id) {
+            return nodes.get(id);
+        }
+
+        /**
+         * @return IDs of all the nodes in this plan.
+         */
+        @Nonnull
+        Set<Integer> getNodeIDs() {
+            return nodes.keySet();
+        }
+
+        /**
+         * Serialize plans of templates through a {@link CompactForm}.
+         */
+        private Object writeReplace() throws ObjectStreamException {
+            if (templateID == null) {
+                return this;
+            }
+            final ExecutionPlanTemplate template = ExecutionPlanTemplate.get(templateID, templateVersion);
+            if (template == null) {
+                throw new InvalidObjectException("Template " + templateID + " of version " + templateVersion
+                        + " is not registered.");
+            }
+            return new CompactForm(this, template);
+        }
+
+        /**
+         * Serialized form of a plan instantiated from a template.
+         */
+        private static class CompactForm implements Serializable {
+            private static final long serialVersionUID = 5024417012985498296L;
+
+            private final String templateID;
+            private final int templateVersion;
+            /**
+             * Spec of the template if it is compiled from a {@link PipelineSpec}, for receivers not having it.
+             */
+            private final String spec;
+            /**
+             * Bits of the IDs of the nodes executed.
+             */
+            private final BitSet executed = new BitSet();
+            /**
+             * Execution data of the nodes not executed, which differs from that in the template.
+             */
+            private final Map<Integer, Serializable> execData = new HashMap<>();
+            /**
+             * Trace spans recorded.
+             */
+            private final List<TraceSpan> spans = new ArrayList<>();
+
+            CompactForm(ExecutionPlan plan, ExecutionPlanTemplate template) {
+                templateID = plan.templateID;
+                templateVersion = plan.templateVersion;
+                spec = template.getSpec();
+                plan.nodes.values().forEach(node -> {
+                    if (node.isExecuted()) {
+                        executed.set(node.id);
+                    } else if (!Objects.equals(node.execData, template.getExecData(node.id))) {
+                        execData.put(node.id, node.execData);
+                    }
+                    if (node.span.isRecorded()) {
+                        spans.add(node.span);
+                    }
+                });
+            }
+
+            private Object readResolve() throws ObjectStreamException {
+                ExecutionPlanTemplate template = ExecutionPlanTemplate.get(templateID, templateVersion);
+                if (template == null && spec != null) {
+                    try {
+                        template = ExecutionPlanTemplate.register(PipelineSpec.compile(spec));
+                    } catch (RuntimeException e) {
+                        final InvalidObjectException exception = new InvalidObjectException(
+                                "Cannot compile template " + templateID + ": " + e.getMessage());
+                        exception.initCause(e);
+                        throw exception;
+                    }
+                }
+                if (template == null) {
+                    throw new InvalidObjectException("Template " + templateID + " of version " + templateVersion
+                            + " is not registered.");
+                }
+                if (!Objects.equals(template.getSpec(), spec)) {
+                    // The graph of the plan may differ from that of the template registered here.
+                    throw new InvalidObjectException("Template " + templateID + " of version " + templateVersion
+                            + " registered differs from the one the plan is of.");
+                }
+                final ExecutionPlan plan = template.instantiate(Collections.emptyMap());
+                for (int id = executed.nextSetBit(0); id >= 0; id = executed.nextSetBit(id + 1)) {
+                    final Node node = plan.nodes.get(id);
+                    node.executed = true;
+                    node.makeEmpty();
+                }
+                execData.forEach((id, data) -> plan.nodes.get(id).execData = data);
+                spans.forEach(span -> plan.nodes.get(span.nodeID).span = span);
+                return plan;
+            }
+        }
+
         /**
          * Combine two execution plans. If a node is marked executed in either
          * plan, the corresponding node in the combined plan is also marked
@@ -177,6 +374,7 @@ public class TaskData implements Serializable, Cloneable {
          * @param planToCombine Another plan to combine on this plan.
          */
         public void combine(@Nonnull ExecutionPlan planToCombine) {
+            assert Objects.equals(templateID, planToCombine.templateID);
             planToCombine.nodes.values().stream()
                     .filter(Node::isExecuted)
                     .forEach(node -> this.nodes.get(node.id).markExecuted());
@@ -213,11 +411,27 @@ public class TaskData implements Serializable, Cloneable {
          */
         Node addNode(@Nonnull DataType outputType,
                      @Nullable Serializable execData) {
+            if (templateID != null) {
+                throw new IllegalStateException("Plans of template " + templateID + " are immutable.");
+            }
             Node node = new Node(nodeIDCounter++, outputType, execData);
             nodes.put(node.id, node);
             return node;
         }
 
+        /**
+         * Get the trace spans of the nodes which have been executed in this plan.
+         *
+         * @return trace spans ordered by the IDs of the nodes.
+         */
+        public List<TraceSpan> getTraceSpans() {
+            return nodes.values().stream()
+                    .map(node -> node.span)
+                    .filter(TraceSpan::isComplete)
+                    .sorted(Comparator.comparingInt(span -> span.nodeID))
+                    .collect(Collectors.toList());
+        }
+
         @Override
         protected void finalize() throws Throwable {
             // In case the nodes form a loop and cause memory leak.
@@ -285,6 +499,11 @@ public class TaskData implements Serializable, Cloneable {
              */
             private Serializable execData = null;
 
+            /**
+             * Timing of the execution of this node.
+             */
+            private TraceSpan span;
+
             /**
              * @param execData The data for execution, which is a serializable
              */
@@ -294,6 +513,21 @@ public class TaskData implements Serializable, Cloneable {
                 this.id = id;
                 this.outputType = outputType;
                 this.execData = execData;
+                this.span = new TraceSpan(id);
+            }
+
+            /**
+             * @return ID of this node, unique in its execution plan.
+             */
+            public int getID() {
+                return id;
+            }
+
+            /**
+             * @return Trace span recording the timing of the execution of this node.
+             */
+            public TraceSpan getSpan() {
+                return span;
             }
 
             /**
@@ -310,6 +544,13 @@ public class TaskData implements Serializable, Cloneable {
                 return execData;
             }
 
+            /**
+             * @param execData Execution data of this node.
+             */
+            void setExecData(@Nullable Serializable execData) {
+                this.execData = execData;
+            }
+
             /**
              * @return Whether the node has been executed in this execution plan.
              */
@@ -327,11 +568,12 @@ public class TaskData implements Serializable, Cloneable {
 
             /**
              * Mark the stream as executed in the execution plan and
-             * clear its data.
+             * clear its data. The end of its trace span is also recorded.
              */
             public void markExecuted() {
                 if (!executed) {
                     executed = true;
+                    span.markEnded();
                     makeEmpty();
                 }
             }
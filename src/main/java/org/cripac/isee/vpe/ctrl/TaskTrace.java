@@ -0,0 +1,52 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import com.google.gson.Gson;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The TaskTrace class is the message reported to the {@link #TOPIC} when a terminal node of a task finishes.
+ * It contains the trace spans of the nodes executed along the path to the terminal node.
+ */
+public class TaskTrace {
+
+    public static final String TOPIC = "task-trace";
+
+    public final String taskID;
+    public final List<TraceSpan> spans;
+
+    public TaskTrace(@Nonnull UUID taskID,
+                     @Nonnull List<TraceSpan> spans) {
+        this.taskID = taskID.toString();
+        this.spans = spans;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return new Gson().toJson(this);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import com.google.gson.Gson;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.cripac.isee.vpe.common.MetricRegistry;
+
+import javax.annotation.Nonnull;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The TraceAggregator is a command line tool consuming the {@link TaskTrace} messages reported by
+ * the applications, and printing the p50/p99 latencies of each stage periodically:
+ * <p>
+ * queue: from the predecessor sending the input to the input being received (time spent in Kafka).
+ * wait: from the input being received to the stream starting processing it.
+ * process: from the stream starting processing the input to the node being marked executed.
+ * <p>
+ * A long queue time suggests more Kafka partitions or executors are needed,
+ * while a long process time suggests the stage itself (e.g. GPUs) is the bottleneck.
+ * Note that latencies across hosts are subject to clock skew.
+ */
+public class TraceAggregator {
+
+    private static final String[] PHASES = {"queue", "wait", "process"};
+
+    private final MetricRegistry registry = new MetricRegistry("trace-aggregator");
+
+    /**
+     * Add the spans in a trace to the statistics.
+     *
+     * @param trace trace of a finished task.
+     */
+    public void add(@Nonnull TaskTrace trace) {
+        long taskStartTime = Long.MAX_VALUE;
+        long taskEndTime = Long.MIN_VALUE;
+        for (TraceSpan span : trace.spans) {
+            final String stage = span.stage == null ? "node-" + span.nodeID : span.stage;
+            if (span.enqueueTime >= 0 && span.dequeueTime >= 0) {
+                registry.histogram("latency_ms", "stage", stage, "phase", PHASES[0])
+                        .record(span.dequeueTime - span.enqueueTime);
+            }
+            if (span.dequeueTime >= 0) {
+                registry.histogram("latency_ms", "stage", stage, "phase", PHASES[1])
+                        .record(span.startTime - span.dequeueTime);
+            }
+            registry.histogram("latency_ms", "stage", stage, "phase", PHASES[2])
+                    .record(span.endTime - span.startTime);
+            taskStartTime = Math.min(taskStartTime, span.enqueueTime >= 0 ? span.enqueueTime : span.startTime);
+            taskEndTime = Math.max(taskEndTime, span.endTime);
+        }
+        if (!trace.spans.isEmpty()) {
+            registry.histogram("latency_ms", "stage", "(end-to-end)", "phase", "total")
+                    .record(taskEndTime - taskStartTime);
+        }
+    }
+
+    /**
+     * Print the statistics since the last report, and reset them.
+     *
+     * @param out stream to print to.
+     */
+    public void report(@Nonnull PrintStream out) {
+        final List<MetricRegistry.Snapshot> snapshots = registry.snapshot();
+        snapshots.removeIf(snapshot -> snapshot.count == 0);
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        Collections.sort(snapshots, Comparator
+                .comparing((MetricRegistry.Snapshot snapshot) -> snapshot.tags.get("stage"))
+                .thenComparing(snapshot -> snapshot.tags.get("phase")));
+        out.println(String.format("%-48s %-8s %8s %10s %10s %10s",
+                "stage", "phase", "count", "p50(ms)", "p99(ms)", "max(ms)"));
+        for (MetricRegistry.Snapshot snapshot : snapshots) {
+            out.println(String.format("%-48s %-8s %8d %10d %10d %10d",
+                    snapshot.tags.get("stage"), snapshot.tags.get("phase"),
+                    snapshot.count, snapshot.p50, snapshot.p99, snapshot.max));
+        }
+        out.println();
+    }
+
+    public static void main(String[] args) throws Exception {
+        SystemPropertyCenter propCenter = new SystemPropertyCenter(args);
+        TraceAggregator aggregator = new TraceAggregator();
+        Gson gson = new Gson();
+
+        KafkaConsumer<String, String> consumer =
+                new KafkaConsumer<>(propCenter.getKafkaConsumerProp("trace-aggregator", true));
+        consumer.subscribe(Collections.singletonList(TaskTrace.TOPIC));
+
+        long lastReportTime = System.currentTimeMillis();
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            ConsumerRecords<String, String> records = consumer.poll(1000);
+            for (ConsumerRecord<String, String> record : records) {
+                aggregator.add(gson.fromJson(record.value(), TaskTrace.class));
+            }
+            if (System.currentTimeMillis() - lastReportTime >= propCenter.metricsReportIntervalMs) {
+                aggregator.report(System.out);
+                lastReportTime = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import com.google.gson.Gson;
+import org.apache.spark.SparkEnv;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+
+/**
+ * The TraceSpan class records the timing of the execution of a node in an {@link TaskData.ExecutionPlan}.
+ * Times are wall-clock milliseconds of the hosts recording them, and are -1 until recorded.
+ * <p>
+ * enqueueTime: the predecessor sent the input to Kafka.
+ * dequeueTime: the input was received and deserialized by the application of the node.
+ * startTime: the stream of the node started processing the input.
+ * endTime: the node was marked executed.
+ */
+public class TraceSpan implements Serializable {
+
+    private static final long serialVersionUID = -2893207496253418561L;
+
+    public final int nodeID;
+    /**
+     * Name of the port the node is executed at.
+     */
+    public String stage = null;
+    /**
+     * ID of the Spark executor the node is executed on.
+     */
+    public String executorID = null;
+    public long enqueueTime = -1;
+    public long dequeueTime = -1;
+    public long startTime = -1;
+    public long endTime = -1;
+
+    TraceSpan(int nodeID) {
+        this.nodeID = nodeID;
+    }
+
+    public void markEnqueued() {
+        enqueueTime = System.currentTimeMillis();
+    }
+
+    public void markDequeued() {
+        dequeueTime = System.currentTimeMillis();
+    }
+
+    public void markStarted(@Nonnull String stage) {
+        this.stage = stage;
+        this.executorID = SparkEnv.get() == null ? "driver" : SparkEnv.get().executorId();
+        startTime = System.currentTimeMillis();
+    }
+
+    void markEnded() {
+        if (startTime >= 0 && endTime < 0) {
+            endTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return whether any time has been recorded.
+     */
+    boolean isRecorded() {
+        return enqueueTime >= 0 || dequeueTime >= 0 || startTime >= 0 || endTime >= 0;
+    }
+
+    /**
+     * @return whether the node has started and ended.
+     */
+    public boolean isComplete() {
+        return startTime >= 0 && endTime >= 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return new Gson().toJson(this);
+    }
+}
@@ -32,6 +32,7 @@ import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
 import org.cripac.isee.alg.pedestrian.attr.Attributes;
+import org.cripac.isee.alg.pedestrian.reid.IDRank;
 import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
 import org.cripac.isee.vpe.alg.pedestrian.tracking.TrackletOrURL;
 import org.cripac.isee.vpe.common.*;
@@ -39,10 +40,12 @@ import org.cripac.isee.vpe.ctrl.SystemPropertyCenter;
 import org.cripac.isee.vpe.ctrl.TaskData;
 import org.cripac.isee.vpe.ctrl.TaskData.ExecutionPlan;
 import org.cripac.isee.vpe.debug.FakeDatabaseConnector;
+import org.cripac.isee.util.CancellationToken;
 import org.cripac.isee.util.SerializationHelper;
 import org.cripac.isee.util.Singleton;
 import org.cripac.isee.vpe.util.hdfs.HDFSFactory;
 import org.cripac.isee.vpe.util.hdfs.HadoopHelper;
+import org.cripac.isee.vpe.util.hdfs.SeekableHDFSInputStream;
 import org.cripac.isee.vpe.util.kafka.ByteArrayProducer;
 import org.cripac.isee.vpe.util.kafka.ByteArrayProducerFactory;
 import org.cripac.isee.vpe.util.kafka.KafkaHelper;
@@ -57,6 +60,7 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.cripac.isee.util.SerializationHelper.serialize;
@@ -95,6 +99,10 @@ public class DataManagingApp extends SparkStreamingApp {
         private static final long serialVersionUID = -786439769732467646L;
 
         int maxFramePerFragment = 1000;
+        /**
+         * Maximum number of similarity links saved for each ReID query.
+         */
+        int maxLinksPerQuery = 10;
 
         public AppPropertyCenter(@Nonnull String[] args)
                 throws URISyntaxException, ParserConfigurationException, SAXException, UnknownHostException {
@@ -105,6 +113,9 @@ public class DataManagingApp extends SparkStreamingApp {
                     case "vpe.max.frame.per.fragment":
                         maxFramePerFragment = Integer.parseInt((String) entry.getValue());
                         break;
+                    case "vpe.reid.max.links.per.query":
+                        maxLinksPerQuery = Integer.parseInt((String) entry.getValue());
+                        break;
                     default:
                         logger.warn("Unrecognized option: " + entry.getKey());
                         break;
@@ -131,6 +142,7 @@ public class DataManagingApp extends SparkStreamingApp {
 
     public static class VideoCuttingStream extends Stream {
 
+        public static final String NAME = "video-cutting";
         public final static Port VIDEO_URL_PORT = new Port("video-url-for-cutting", DataType.URL);
         private static final long serialVersionUID = -6187153660239066646L;
         public static final DataType OUTPUT_TYPE = DataType.FRAME_ARRAY;
@@ -162,16 +174,20 @@ public class DataManagingApp extends SparkStreamingApp {
                     .foreachRDD(rdd -> rdd.foreachPartition(kvIter -> {
                         synchronized (VideoCuttingStream.class) {
                             final Logger logger = loggerSingleton.getInst();
-                            ParallelExecutor.execute(kvIter, kv -> {
+                            parallelExecutor().execute(kvIter, kv -> {
                                 try {
                                     new RobustExecutor<Void, Void>(() -> {
                                         final UUID taskID = kv._1();
                                         final TaskData taskData = kv._2();
+                                        final CancellationToken cancellation = getCancellationToken(taskID);
 
                                         final FileSystem hdfs = HDFSFactory.newInstance();
                                         FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(
-                                                hdfs.open(new Path((String) taskData.predecessorRes))
+                                                SeekableHDFSInputStream.open(hdfs,
+                                                        new Path((String) taskData.predecessorRes),
+                                                        SeekableHDFSInputStream.DEFAULT_READ_AHEAD_SIZE)
                                         );
+                                        frameGrabber.start();
 
                                         Frame[] fragments = new Frame[maxFramePerFragment];
                                         int cnt = 0;
@@ -179,39 +195,53 @@ public class DataManagingApp extends SparkStreamingApp {
                                         assert curNode != null;
                                         final List<ExecutionPlan.Node.Port> outputPorts = curNode.getOutputPorts();
                                         curNode.markExecuted();
-                                        while (true) {
-                                            Frame frame;
-                                            try {
-                                                frame = frameGrabber.grabImage();
-                                            } catch (FrameGrabber.Exception e) {
-                                                logger.error("On grabImage: " + e);
-                                                if (cnt > 0) {
-                                                    Frame[] lastFragments = new Frame[cnt];
-                                                    System.arraycopy(fragments, 0, lastFragments, 0, cnt);
-                                                    output(outputPorts, taskData.executionPlan, lastFragments, taskID);
+                                        try {
+                                            while (true) {
+                                                // Stop decoding as soon as the task is cancelled.
+                                                cancellation.throwIfCancelled();
+                                                Frame frame;
+                                                try {
+                                                    frame = frameGrabber.grabImage();
+                                                } catch (FrameGrabber.Exception e) {
+                                                    logger.error("On grabImage: " + e);
+                                                    if (cnt > 0) {
+                                                        Frame[] lastFragments = new Frame[cnt];
+                                                        System.arraycopy(fragments, 0, lastFragments, 0, cnt);
+                                                        output(outputPorts, taskData.executionPlan, lastFragments, taskID);
+                                                    }
+                                                    break;
                                                 }
-                                                break;
-                                            }
-                                            if (frame == null) {
-                                                if (cnt > 0) {
-                                                    Frame[] lastFragments = new Frame[cnt];
-                                                    System.arraycopy(fragments, 0, lastFragments, 0, cnt);
-                                                    output(outputPorts, taskData.executionPlan, lastFragments, taskID);
+                                                if (frame == null) {
+                                                    if (cnt > 0) {
+                                                        Frame[] lastFragments = new Frame[cnt];
+                                                        System.arraycopy(fragments, 0, lastFragments, 0, cnt);
+                                                        output(outputPorts, taskData.executionPlan, lastFragments, taskID);
+                                                    }
+                                                    break;
                                                 }
-                                                break;
-                                            }
 
-                                            fragments[cnt++] = frame;
-                                            if (cnt >= maxFramePerFragment) {
-                                                output(outputPorts, taskData.executionPlan, fragments, taskID);
-                                                cnt = 0;
+                                                fragments[cnt++] = frame;
+                                                if (cnt >= maxFramePerFragment) {
+                                                    output(outputPorts, taskData.executionPlan, fragments, taskID);
+                                                    cnt = 0;
+                                                }
                                             }
+                                        } finally {
+                                            frameGrabber.release();
+                                            hdfs.close();
                                         }
-                                    }).execute();
+                                    }, Collections.singletonList(CancellationException.class)).execute();
+                                } catch (CancellationException e) {
+                                    logger.info("Task " + kv._1() + " is cancelled during cutting video.");
                                 } catch (Throwable t) {
                                     logger.error("On cutting video", t);
                                 }
                             });
+                            try {
+                                flushOutput();
+                            } catch (Exception e) {
+                                logger.error("On flushing video fragments", e);
+                            }
                         }
                     }));
         }
@@ -243,6 +273,8 @@ public class DataManagingApp extends SparkStreamingApp {
         final GraphDatabaseConnector dbConnector;
         private final static int MAX_POLL_INTERVAL_MS = 300000;
         private int maxPollRecords = 500;
+        //TODO(Ken Yu): Find the best parallelism.
+        private final ParallelExecutor packingExecutor = ParallelExecutor.get("tracklet-packing", 4, 4);
 
         TrackletPackingThread(AppPropertyCenter propCenter, AtomicReference<Boolean> running) {
             consumerProperties = propCenter.getKafkaConsumerProp("tracklet-packing", false);
@@ -280,8 +312,7 @@ public class DataManagingApp extends SparkStreamingApp {
                         final long start = System.currentTimeMillis();
                         logger.info("Packing thread received " + taskMap.keySet().size() + " jobs.");
                         //TODO(Ken Yu): Make sure whether executing HAR packing in parallel is faster.
-                        //TODO(Ken Yu): Find the best parallelism.
-                        ParallelExecutor.execute(taskMap.entrySet(), 4, kv -> {
+                        packingExecutor.execute(taskMap.entrySet(), kv -> {
                             try {
                                 final String taskID = kv.getKey();
                                 final byte[] value = kv.getValue();
@@ -411,6 +442,13 @@ public class DataManagingApp extends SparkStreamingApp {
                     ByteArrayProducer.class);
         }
 
+        @Override
+        public void warmUp() throws Exception {
+            super.warmUp();
+            packingJobProducerSingleton.getInst();
+            HDFSFactory.newInstance().close();
+        }
+
         /**
          * Add streaming actions to the global {@link TaskData} stream.
          * This global stream contains pre-deserialized TaskData messages, so as to save time.
@@ -426,7 +464,7 @@ public class DataManagingApp extends SparkStreamingApp {
                     .foreachRDD(rdd -> rdd.foreachPartition(kvIter -> {
                         synchronized (TrackletSavingStream.class) {
                             final Logger logger = loggerSingleton.getInst();
-                            ParallelExecutor.execute(kvIter, kv -> {
+                            parallelExecutor().execute(kvIter, kv -> {
                                 try {
                                     final FileSystem hdfs = HDFSFactory.newInstance();
                                     final UUID taskID = kv._1();
@@ -463,6 +501,7 @@ public class DataManagingApp extends SparkStreamingApp {
                                                     packingJobProducerSingleton.getInst(),
                                                     logger)
                                     ).execute();
+                                    finishTask(taskID, taskData, PED_TRACKLET_SAVING_PORT);
                                     hdfs.close();
                                 } catch (Exception e) {
                                     logger.error("During storing tracklets.", e);
@@ -492,6 +531,12 @@ public class DataManagingApp extends SparkStreamingApp {
             dbConnSingleton = new Singleton<>(FakeDatabaseConnector::new, FakeDatabaseConnector.class);
         }
 
+        @Override
+        public void warmUp() throws Exception {
+            super.warmUp();
+            dbConnSingleton.getInst();
+        }
+
         /**
          * Add streaming actions to the global {@link TaskData} stream.
          * This global stream contains pre-deserialized TaskData messages, so as to save time.
@@ -508,18 +553,21 @@ public class DataManagingApp extends SparkStreamingApp {
                     .foreachRDD(rdd -> rdd.foreachPartition(kvIter -> {
                         synchronized (AttrSavingStream.class) {
                             final Logger logger = loggerSingleton.getInst();
-                            ParallelExecutor.execute(kvIter, res -> {
+                            parallelExecutor().execute(kvIter, res -> {
                                 try {
                                     final TaskData taskData = res._2();
                                     final Attributes attr = (Attributes) taskData.predecessorRes;
 
-                                    logger.debug("Received " + res._1() + ": " + attr);
+                                    logger.debug(() -> "Received " + res._1() + ": " + attr);
 
+                                    final long writeStartTime = System.nanoTime();
                                     new RobustExecutor<Void, Void>(() ->
                                             dbConnSingleton.getInst().setPedestrianAttributes(attr.trackletID.toString(), attr)
                                     ).execute();
+                                    stageLatency("db_write").recordSince(writeStartTime);
+                                    finishTask(res._1(), taskData, PED_ATTR_SAVING_PORT);
 
-                                    logger.debug("Saved " + res._1() + ": " + attr);
+                                    logger.debug(() -> "Saved " + res._1() + ": " + attr);
                                 } catch (Exception e) {
                                     logger.error("When decompressing attributes", e);
                                 }
@@ -540,9 +588,25 @@ public class DataManagingApp extends SparkStreamingApp {
         public static final Port PED_IDRANK_SAVING_PORT =
                 new Port("pedestrian-idrank-saving", DataType.IDRANK);
         private static final long serialVersionUID = -6469177153696762040L;
+        private final int maxLinksPerQuery;
+        private final Singleton<GraphDatabaseConnector> dbConnSingleton;
 
         public IDRankSavingStream(@Nonnull AppPropertyCenter propCenter) throws Exception {
             super(APP_NAME, propCenter);
+
+            maxLinksPerQuery = propCenter.maxLinksPerQuery;
+            dbConnSingleton = new Singleton<>(Neo4jConnector::new, Neo4jConnector.class);
+        }
+
+        /**
+         * Create the Neo4j driver, which loads the driver classes and resolves the server address.
+         *
+         * @throws Exception On failure creating the driver.
+         */
+        @Override
+        public void warmUp() throws Exception {
+            super.warmUp();
+            dbConnSingleton.getInst();
         }
 
         /**
@@ -555,27 +619,45 @@ public class DataManagingApp extends SparkStreamingApp {
          */
         @Override
         public void addToGlobalStream(Map<DataType, JavaPairDStream<UUID, TaskData>> globalStreamMap) {
-            // Display the id ranks.
-            // TODO Modify the streaming steps from here to store the meta data.
+            // Save the top of the id ranks as similarity links.
+            // Links of a whole partition are written to the database at once.
             this.filter(globalStreamMap, PED_IDRANK_SAVING_PORT)
                     .foreachRDD(rdd -> rdd.foreachPartition(kvIter -> {
-                        synchronized (IDRankSavingStream.class) {
-                            final Logger logger = loggerSingleton.getInst();
-                            ParallelExecutor.execute(kvIter, kv -> {
-                                try {
-                                    final TaskData taskData = kv._2();
-                                    final int[] idRank = (int[]) taskData.predecessorRes;
-                                    String rankStr = "";
-                                    for (int id : idRank) {
-                                        rankStr = rankStr + id + " ";
-                                    }
-                                    logger.info("Metadata saver received: " + kv._1()
-                                            + ": Pedestrian IDRANK rank: " + rankStr);
-                                    //TODO(Ken Yu): Save IDs to database.
-                                } catch (Exception e) {
-                                    logger.error("When decompressing IDRANK", e);
+                        final Logger logger = loggerSingleton.getInst();
+                        final List<GraphDatabaseConnector.Link> links = new ArrayList<>();
+                        final List<Tuple2<UUID, TaskData>> tasks = new ArrayList<>();
+                        while (kvIter.hasNext()) {
+                            final Tuple2<UUID, TaskData> kv = kvIter.next();
+                            try {
+                                final IDRank idRank = (IDRank) kv._2().predecessorRes;
+                                logger.debug(() -> "Received " + kv._1() + ": Pedestrian IDRANK rank of "
+                                        + idRank.queryID + ": " + Arrays.toString(idRank.ids));
+                                // Bound the fan-out of each query, so the graph grows linearly.
+                                final int numLinks = Math.min(idRank.ids.length, maxLinksPerQuery);
+                                for (int i = 0; i < numLinks; ++i) {
+                                    links.add(new GraphDatabaseConnector.Link(
+                                            idRank.queryID, String.valueOf(idRank.ids[i]), idRank.similarities[i]));
                                 }
-                            });
+                                tasks.add(kv);
+                            } catch (Exception e) {
+                                logger.error("When decompressing IDRANK", e);
+                            }
+                        }
+                        if (links.isEmpty()) {
+                            return;
+                        }
+                        try {
+                            final long writeStartTime = System.nanoTime();
+                            new RobustExecutor<Void, Void>(() ->
+                                    dbConnSingleton.getInst().setPedestrianSimilarities(links)
+                            ).execute();
+                            stageLatency("db_write").recordSince(writeStartTime);
+                            logger.debug("Saved " + links.size() + " similarity links.");
+                            for (Tuple2<UUID, TaskData> task : tasks) {
+                                finishTask(task._1(), task._2(), PED_IDRANK_SAVING_PORT);
+                            }
+                        } catch (Exception e) {
+                            logger.error("When saving IDRANK", e);
                         }
                     }));
         }
@@ -20,6 +20,10 @@ package org.cripac.isee.vpe.data;
 import org.cripac.isee.alg.pedestrian.attr.Attributes;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -30,6 +34,11 @@ import java.util.NoSuchElementException;
  */
 public abstract class GraphDatabaseConnector {
 
+    /**
+     * Number of links to retrieve in each round when getting all the links of a pedestrian.
+     */
+    private static final int LINK_PAGE_SIZE = 100;
+
     /**
      * Set the path of the directory saving the tracklet of a pedestrian.
      *
@@ -59,6 +68,19 @@ public abstract class GraphDatabaseConnector {
                                                  @Nonnull String idB,
                                                  float similarity);
 
+    /**
+     * Set the similarities between pairs of pedestrians in batch.
+     * Connectors to databases supporting bulk writes should override this method,
+     * so that the links are written in a single round trip.
+     *
+     * @param links the links, each of which contains the IDs of two pedestrians and the similarity between them.
+     */
+    public void setPedestrianSimilarities(@Nonnull Collection<Link> links) {
+        for (Link link : links) {
+            setPedestrianSimilarity(link.nodeA, link.nodeB, link.similarity);
+        }
+    }
+
     /**
      * Get the similarity between two pedestrians.
      *
@@ -93,10 +115,49 @@ public abstract class GraphDatabaseConnector {
      * Get relations: (nodA)-[SIMILARITY]-(nodeB)
      *
      * @param nodeID the ID of the pedestrian.
-     * @return the relationships related to the input pedestrian.
+     * @return the relationships related to the input pedestrian,
+     * sorted in descending order of similarity.
      * @throws NoSuchElementException On failure finding the pedestrian.
      */
-    public abstract Link[] getLinkedPedestrians(@Nonnull String nodeID) throws NoSuchElementException;
+    public Link[] getLinkedPedestrians(@Nonnull String nodeID) throws NoSuchElementException {
+        List<Link> links = new ArrayList<>();
+        Link cursor = null;
+        while (true) {
+            List<Link> page = getLinkedPedestrians(nodeID, cursor, LINK_PAGE_SIZE);
+            for (Link link : page) {
+                // Links not following the cursor have been retrieved in previous pages.
+                if (cursor == null || link.follows(cursor)) {
+                    links.add(link);
+                }
+            }
+            if (page.size() < LINK_PAGE_SIZE) {
+                break;
+            }
+            final Link last = page.get(page.size() - 1);
+            if (cursor != null && !last.follows(cursor)) {
+                // The page makes no progress, so stop rather than getting the same page forever.
+                break;
+            }
+            cursor = last;
+        }
+        return links.toArray(new Link[links.size()]);
+    }
+
+    /**
+     * Get a page of relations: (nodA)-[SIMILARITY]-(nodeB), sorted in descending order of similarity,
+     * then in ascending order of the ID of nodeB. To get the top K linked pedestrians,
+     * call this method with no cursor and a limit of K.
+     *
+     * @param nodeID the ID of the pedestrian.
+     * @param cursor the last link of the previous page, or null to get the first page.
+     * @param limit  the maximum number of links to get.
+     * @return at most the given number of relationships related to the input pedestrian,
+     * following the cursor. An empty list means no more links.
+     * @throws NoSuchElementException On failure finding the pedestrian.
+     */
+    public abstract List<Link> getLinkedPedestrians(@Nonnull String nodeID,
+                                                    @Nullable Link cursor,
+                                                    int limit) throws NoSuchElementException;
 
     /**
      * The class Link represents a link from one node to another in the graph
@@ -108,6 +169,11 @@ public abstract class GraphDatabaseConnector {
         public String nodeA;
         public String nodeB;
         public float similarity;
+        /**
+         * The similarity exactly as stored in the database, which may be more precise than the float one.
+         * Pages of links are ordered by it. NaN if it is unknown.
+         */
+        transient double storedSimilarity = Double.NaN;
 
         public Link() {
         }
@@ -119,5 +185,29 @@ public abstract class GraphDatabaseConnector {
             this.nodeB = nodeB;
             this.similarity = similarity;
         }
+
+        Link(@Nonnull String nodeA,
+             @Nonnull String nodeB,
+             double storedSimilarity) {
+            this(nodeA, nodeB, (float) storedSimilarity);
+            this.storedSimilarity = storedSimilarity;
+        }
+
+        /**
+         * @return the similarity to page links by.
+         */
+        double getSortKey() {
+            return Double.isNaN(storedSimilarity) ? similarity : storedSimilarity;
+        }
+
+        /**
+         * @param other another link.
+         * @return whether this link strictly follows the other one in descending order of similarity,
+         * then in ascending order of the ID of nodeB.
+         */
+        boolean follows(@Nonnull Link other) {
+            final int bySimilarity = Double.compare(other.getSortKey(), getSortKey());
+            return bySimilarity != 0 ? bySimilarity > 0 : nodeB.compareTo(other.nodeB) > 0;
+        }
     }
 }
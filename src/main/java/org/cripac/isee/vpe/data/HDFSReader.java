@@ -18,10 +18,11 @@
 package org.cripac.isee.vpe.data;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.spark.api.java.function.VoidFunction;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
@@ -60,20 +61,32 @@ public class HDFSReader {
      * @throws IOException On error reading files in Hadoop Filesystem.
      */
     public List<Path> listSubfiles(@Nonnull Path path) throws IOException {
-        FileStatus[] fileStatus = hdfs.listStatus(path);
-        Path[] listPath = FileUtil.stat2Paths(fileStatus);
         ArrayList<Path> subfilePaths = new ArrayList<>();
-        ArrayList<Path> subdirPaths = new ArrayList<>();
-        for (int i = 0; i < fileStatus.length; ++i) {
-            if (fileStatus[i].isDirectory()) {
-                subdirPaths.add(listPath[i]);
-            } else {
-                subfilePaths.add(listPath[i]);
-            }
-        }
-        for (Path sdp : subdirPaths) {
-            subfilePaths.addAll(listSubfiles(sdp));
+        RemoteIterator<LocatedFileStatus> iterator = hdfs.listFiles(path, true);
+        while (iterator.hasNext()) {
+            subfilePaths.add(iterator.next().getPath());
         }
         return subfilePaths;
     }
+
+    /**
+     * Walk through all the sub-files in a directory recursively, or the path itself if it specifies a file.
+     * Unlike {@link #listSubfiles(Path)}, the paths are passed to the consumer as soon as they are listed,
+     * so processing of the first files does not wait for a large directory to be listed completely.
+     *
+     * @param path     The path of a directory or a file.
+     * @param consumer The consumer of the paths of the sub-files.
+     * @return Number of sub-files walked through.
+     * @throws Exception On error reading files in Hadoop Filesystem, or any exception thrown by the consumer.
+     */
+    public long forEachSubfile(@Nonnull Path path, @Nonnull VoidFunction<Path> consumer) throws Exception {
+        long numSubfiles = 0;
+        // The file system lists the directories in batches on demand.
+        RemoteIterator<LocatedFileStatus> iterator = hdfs.listFiles(path, true);
+        while (iterator.hasNext()) {
+            consumer.call(iterator.next().getPath());
+            ++numSubfiles;
+        }
+        return numSubfiles;
+    }
 }
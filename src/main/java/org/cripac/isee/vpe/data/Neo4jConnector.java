@@ -15,7 +15,8 @@ import org.neo4j.driver.v1.*;
 import com.google.gson.*;
 
 import javax.annotation.Nonnull;
-import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+import java.util.*;
 import java.io.IOException;
 import java.net.URISyntaxException;
 
@@ -201,6 +202,29 @@ public class Neo4jConnector extends GraphDatabaseConnector {
         session.close();
     }
 
+    @Override
+    public void setPedestrianSimilarities(@Nonnull Collection<Link> links) {
+        if (links.isEmpty()) {
+            return;
+        }
+        // Write all the relationships in one statement instead of one round trip per link.
+        List<Object> linkParams = new ArrayList<>(links.size());
+        for (Link link : links) {
+            Map<String, Object> linkParam = new HashMap<>();
+            linkParam.put("id1", link.nodeA);
+            linkParam.put("id2", link.nodeB);
+            linkParam.put("sim", (double) link.similarity);
+            linkParams.add(linkParam);
+        }
+        Session session = driver.session();
+        session.run("UNWIND {links} AS link " +
+                        "MATCH (p1:Person {id: link.id1}), (p2:Person {id: link.id2}) " +
+                        "MERGE (p1)-[s:Similar]->(p2) " +
+                        "SET s.similarity=link.sim;",
+                Values.parameters("links", linkParams));
+        session.close();
+    }
+
     @Override
     public float getPedestrianSimilarity(@Nonnull String idA, @Nonnull String idB) throws NoSuchElementException {
         // Match the whole pattern and return the similarity, if the pattern exists.
@@ -749,31 +773,37 @@ public class Neo4jConnector extends GraphDatabaseConnector {
     }
 
     @Override
-    public Link[] getLinkedPedestrians(@Nonnull String nodeID) throws NoSuchElementException {
-        // Match the whole pattern and, return the number of matches.
-        Session session = driver.session();
-        StatementResult result = session.run("MATCH (p1:Person {id: {id}})-[s:Similar]->(p2:Person) RETURN count(*) AS num;", Values.parameters("id", nodeID));
-        session.close();
-
-        int num = 0;
-        if (result.hasNext()) {
-            Record record = result.next();
-            num = record.get("num").asInt();
-        }
-        Link[] links = new Link[num];
-        if (num == 0) {
-            return links;
+    public List<Link> getLinkedPedestrians(@Nonnull String nodeID,
+                                           @Nullable Link cursor,
+                                           int limit) throws NoSuchElementException {
+        // Match the whole pattern and, return the other node and the similarity for each match.
+        // Results are sorted in descending order, and only the requested page is returned.
+        final String query;
+        final Value params;
+        if (cursor == null) {
+            query = "MATCH (p1:Person {id: {id}})-[s:Similar]->(p2:Person) " +
+                    "RETURN s.similarity AS sim, p2.id AS id2 " +
+                    "ORDER BY sim DESC, id2 ASC LIMIT {limit};";
+            params = Values.parameters("id", nodeID, "limit", limit);
+        } else {
+            // Continue from the last link of the previous page,
+            // comparing with the similarity exactly as stored, so that the page does not start over.
+            query = "MATCH (p1:Person {id: {id}})-[s:Similar]->(p2:Person) " +
+                    "WHERE s.similarity < {sim} OR (s.similarity = {sim} AND p2.id > {id2}) " +
+                    "RETURN s.similarity AS sim, p2.id AS id2 " +
+                    "ORDER BY sim DESC, id2 ASC LIMIT {limit};";
+            params = Values.parameters("id", nodeID, "limit", limit,
+                    "sim", cursor.getSortKey(), "id2", cursor.nodeB);
         }
 
-        // Match the whole pattern and, return the other node and the similarity for each match.
-        // Results are sorted in descending order.
-        result = session.run("MATCH (p1:Person {id: {id}})-[s:Similar]->(p2:Person) " +
-                        "WITH s.similarity AS sim, p2.id AS id2 ORDER BY sim DESC RETURN sim, id2;",
-                Values.parameters("id", nodeID));
-        int i = 0;
-        while (result.hasNext()) {
-            Record record = result.next();
-            links[i++] = new Link(nodeID, record.get("id2").asString(), record.get("sim").asFloat());
+        // The results must be consumed before the session is closed.
+        List<Link> links = new ArrayList<>();
+        try (Session session = driver.session()) {
+            StatementResult result = session.run(query, params);
+            while (result.hasNext()) {
+                Record record = result.next();
+                links.add(new Link(nodeID, record.get("id2").asString(), record.get("sim").asDouble()));
+            }
         }
         return links;
     }
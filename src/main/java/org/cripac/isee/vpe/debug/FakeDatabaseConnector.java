@@ -21,6 +21,9 @@ import org.cripac.isee.alg.pedestrian.attr.Attributes;
 import org.cripac.isee.vpe.data.GraphDatabaseConnector;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -104,7 +107,9 @@ public class FakeDatabaseConnector extends GraphDatabaseConnector {
     }
 
     @Override
-    public Link[] getLinkedPedestrians(@Nonnull String nodeID) throws NoSuchElementException {
-        return null;
+    public List<Link> getLinkedPedestrians(@Nonnull String nodeID,
+                                           @Nullable Link cursor,
+                                           int limit) throws NoSuchElementException {
+        return Collections.emptyList();
     }
 }
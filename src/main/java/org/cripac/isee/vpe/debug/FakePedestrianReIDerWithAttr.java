@@ -17,6 +17,7 @@
 
 package org.cripac.isee.vpe.debug;
 
+import org.cripac.isee.alg.pedestrian.reid.BatchPedestrianReIDer;
 import org.cripac.isee.alg.pedestrian.reid.PedestrianInfo;
 import org.cripac.isee.alg.pedestrian.reid.PedestrianReIDer;
 
@@ -27,7 +28,7 @@ import java.util.Random;
 /**
  * @author Ken Yu, CRIPAC, 2016
  */
-public class FakePedestrianReIDerWithAttr implements PedestrianReIDer {
+public class FakePedestrianReIDerWithAttr implements PedestrianReIDer, BatchPedestrianReIDer {
 
     private Random rand = new Random();
 
@@ -48,4 +49,14 @@ public class FakePedestrianReIDerWithAttr implements PedestrianReIDer {
         return rank;
     }
 
+    @Nonnull
+    @Override
+    public int[][] reid(@Nonnull PedestrianInfo[] targets) throws IOException {
+        int[][] ranks = new int[targets.length][];
+        for (int i = 0; i < targets.length; ++i) {
+            ranks[i] = reid(targets[i]);
+        }
+        return ranks;
+    }
+
 }
@@ -17,15 +17,19 @@
 
 package org.cripac.isee.vpe.debug;
 
+import org.cripac.isee.alg.pedestrian.tracking.RealTimeTracker;
+import org.cripac.isee.alg.pedestrian.tracking.SegmentTracker;
 import org.cripac.isee.alg.pedestrian.tracking.Tracker;
 import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
 import org.cripac.isee.alg.pedestrian.tracking.Tracklet.BoundingBox;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Random;
+import java.util.function.BooleanSupplier;
 
-public class FakePedestrianTracker implements Tracker {
+public class FakePedestrianTracker implements Tracker, SegmentTracker, RealTimeTracker {
 
     private Random random = new Random();
 
@@ -76,4 +80,42 @@ public class FakePedestrianTracker implements Tracker {
         }
         return generateRandomTrackSet();
     }
+
+    @Nonnull
+    @Override
+    public Tracklet[] track(@Nonnull InputStream videoStream, int startFrame, int endFrame) {
+        return track(videoStream);
+    }
+
+    /**
+     * Consume the live stream, and generate a random set of tracklets for each window.
+     * Like real trackers, the tracklets of the current window are reported before a failure of the stream is thrown.
+     */
+    @Override
+    public void track(@Nonnull InputStream liveStream,
+                      long windowMs,
+                      @Nonnull WindowConsumer consumer,
+                      @Nonnull BooleanSupplier running) throws Exception {
+        final byte[] buf = new byte[4096];
+        int frameIndex = 0;
+        boolean ended = false;
+        while (!ended && running.getAsBoolean()) {
+            final long windowStartTime = System.currentTimeMillis();
+            final int windowStartFrame = frameIndex;
+            try {
+                while (System.currentTimeMillis() - windowStartTime < windowMs && running.getAsBoolean()) {
+                    // Take every read as a frame.
+                    if (liveStream.read(buf) < 0) {
+                        ended = true;
+                        break;
+                    }
+                    ++frameIndex;
+                }
+            } catch (IOException e) {
+                consumer.accept(windowStartTime, windowStartFrame, generateRandomTrackSet());
+                throw e;
+            }
+            consumer.accept(windowStartTime, windowStartFrame, generateRandomTrackSet());
+        }
+    }
 }
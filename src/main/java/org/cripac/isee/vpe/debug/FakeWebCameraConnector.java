@@ -112,6 +112,7 @@ public class FakeWebCameraConnector extends WebCameraConnector {
                     fakeDataGeneratingThreadState = ThreadState.TERMINATED;
                 }
             });
+            fakeDataGeneratingThread.setDaemon(true);
             fakeDataGeneratingThread.start();
         }
     }
@@ -137,13 +138,15 @@ public class FakeWebCameraConnector extends WebCameraConnector {
 
     /**
      * Get the real-time video raw-bit stream from the camera.
-     * Subclasses are encouraged to ensure users from different threads
-     * can getTracklet correct video stream individually.
+     * Like a real camera, which streams once connected, it starts generating fake data.
+     * The stream can only be got once from each connector.
      *
      * @return Real-time video raw-bit stream from the connected web camera.
      */
     @Override
     public InputStream getStream() throws IOException {
-        return new PipedInputStream(outputStream);
+        final InputStream stream = new PipedInputStream(outputStream);
+        startGeneratingFakeData();
+        return stream;
     }
 }
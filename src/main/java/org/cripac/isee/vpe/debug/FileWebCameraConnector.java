@@ -0,0 +1,73 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cripac.isee.vpe.debug;
+
+import org.cripac.isee.util.Factory;
+import org.cripac.isee.vpe.common.LoginParam;
+import org.cripac.isee.vpe.data.WebCameraConnector;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The FileWebCameraConnector stands in for a web camera with a local video file,
+ * for testing real-time processing without cameras.
+ * Each connection replays the file from its beginning, and the stream ends with the file,
+ * which looks like a disconnection to the users.
+ */
+public class FileWebCameraConnector extends WebCameraConnector {
+
+    public static class FileWebCameraConnectorFactory implements Factory<WebCameraConnector> {
+        private static final long serialVersionUID = 2419536253498203547L;
+        private final LoginParam loginParam;
+        private final String path;
+
+        public FileWebCameraConnectorFactory(@Nonnull LoginParam loginParam,
+                                             @Nonnull String path) {
+            this.loginParam = loginParam;
+            this.path = path;
+        }
+
+        @Nonnull
+        @Override
+        public WebCameraConnector produce() {
+            return new FileWebCameraConnector(loginParam, path);
+        }
+    }
+
+    private final String path;
+
+    /**
+     * Create a connector standing in for a web camera.
+     *
+     * @param loginParam parameters for login of the camera stood in for.
+     * @param path       path of the local video file to replay.
+     */
+    public FileWebCameraConnector(@Nonnull LoginParam loginParam,
+                                  @Nonnull String path) {
+        super(loginParam);
+        this.path = path;
+    }
+
+    @Override
+    public InputStream getStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(path));
+    }
+}
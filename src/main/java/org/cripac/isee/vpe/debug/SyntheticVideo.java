@@ -0,0 +1,209 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.debug;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.bytedeco.javacpp.avcodec.AV_CODEC_ID_MPEG4;
+import static org.bytedeco.javacpp.opencv_core.CV_8UC3;
+
+/**
+ * The SyntheticVideo class renders videos of pedestrians walking across a static noisy background,
+ * where each pedestrian is a solid rectangle moving at a constant velocity.
+ * The ground truth of the video is known, so it can feed tracking anywhere for testing and benchmarking,
+ * without real surveillance videos. To write a video to a file:
+ * <pre>
+ * java -cp ... org.cripac.isee.vpe.debug.SyntheticVideo [output.avi] [frames] [pedestrians]
+ * </pre>
+ *
+ * @author Ken Yu, CRIPAC, 2017
+ */
+public class SyntheticVideo {
+
+    /**
+     * Ground truth of a pedestrian, i.e. its bounding box in the frame it appears, and its velocity.
+     */
+    public static class Pedestrian {
+        public final int startFrame;
+        public final int endFrame;
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+        public final int dx;
+        public final int dy;
+        final byte[] color;
+
+        Pedestrian(int startFrame, int endFrame, int x, int y, int width, int height, int dx, int dy, byte[] color) {
+            this.startFrame = startFrame;
+            this.endFrame = endFrame;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.dx = dx;
+            this.dy = dy;
+            this.color = color;
+        }
+
+        /**
+         * @param frame index of a frame in [startFrame, endFrame).
+         * @return the bounding box of the pedestrian in the frame.
+         */
+        @Nonnull
+        public Tracklet.BoundingBox getLocation(int frame) {
+            final Tracklet.BoundingBox bbox = new Tracklet.BoundingBox();
+            bbox.x = x + dx * (frame - startFrame);
+            bbox.y = y + dy * (frame - startFrame);
+            bbox.width = width;
+            bbox.height = height;
+            return bbox;
+        }
+    }
+
+    public final int width;
+    public final int height;
+    public final int numFrames;
+    public final Pedestrian[] pedestrians;
+    private final byte[] background;
+
+    /**
+     * Generate a video. Pedestrians enter the scene one after another, and walk horizontally across it
+     * before leaving, so they stay within the frames. The first frames show the background only.
+     *
+     * @param width          width of the frames.
+     * @param height         height of the frames.
+     * @param numFrames      number of frames.
+     * @param numPedestrians number of pedestrians.
+     * @param seed           seed of the random generator, so that a video can be reproduced.
+     */
+    public SyntheticVideo(int width, int height, int numFrames, int numPedestrians, long seed) {
+        this.width = width;
+        this.height = height;
+        this.numFrames = numFrames;
+        final Random random = new Random(seed);
+
+        background = new byte[width * height * 3];
+        for (int i = 0; i < background.length; ++i) {
+            background[i] = (byte) (32 + random.nextInt(32));
+        }
+
+        pedestrians = new Pedestrian[numPedestrians];
+        final int pedHeight = height / 4;
+        final int pedWidth = pedHeight / 2;
+        final int lead = Math.min(10, numFrames / 10);
+        for (int i = 0; i < numPedestrians; ++i) {
+            final int speed = 2 + random.nextInt(4);
+            final int duration = Math.min(numFrames - lead, (width - pedWidth) / speed);
+            final int startFrame = lead + (numPedestrians == 1 ? 0
+                    : i * (numFrames - lead - duration) / (numPedestrians - 1));
+            final boolean rightward = random.nextBoolean();
+            // Pedestrians are spread over lanes, so that few of them occlude each other.
+            final int lanes = Math.max(1, height / pedHeight - 1);
+            final int y = (i % lanes) * (height - pedHeight) / Math.max(1, lanes - 1);
+            // Bright colors stand out from the dark background.
+            final byte[] color = {(byte) random.nextInt(64), (byte) (192 + random.nextInt(64)),
+                    (byte) (128 + random.nextInt(128))};
+            pedestrians[i] = new Pedestrian(startFrame, startFrame + duration,
+                    rightward ? 0 : width - pedWidth, y, pedWidth, pedHeight,
+                    rightward ? speed : -speed, 0, color);
+        }
+    }
+
+    /**
+     * Render a frame.
+     *
+     * @param frame index of the frame.
+     * @return BGR bytes of the frame.
+     */
+    @Nonnull
+    public byte[] render(int frame) {
+        final byte[] bgr = background.clone();
+        for (Pedestrian ped : pedestrians) {
+            if (frame < ped.startFrame || frame >= ped.endFrame) {
+                continue;
+            }
+            final Tracklet.BoundingBox bbox = ped.getLocation(frame);
+            for (int row = Math.max(0, bbox.y); row < Math.min(height, bbox.y + bbox.height); ++row) {
+                for (int col = Math.max(0, bbox.x); col < Math.min(width, bbox.x + bbox.width); ++col) {
+                    System.arraycopy(ped.color, 0, bgr, (row * width + col) * 3, 3);
+                }
+            }
+        }
+        return bgr;
+    }
+
+    /**
+     * Encode the video in MPEG-4 Part 2 in an AVI container, which FFmpeg always supports.
+     *
+     * @param out stream to write the video into. It is not closed.
+     * @throws Exception On failure encoding.
+     */
+    public void encode(@Nonnull OutputStream out) throws Exception {
+        final FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(out, width, height);
+        recorder.setFormat("avi");
+        recorder.setVideoCodec(AV_CODEC_ID_MPEG4);
+        recorder.setFrameRate(25);
+        recorder.setVideoQuality(1);
+        recorder.start();
+        final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+        final opencv_core.Mat mat = new opencv_core.Mat(height, width, CV_8UC3);
+        try {
+            for (int i = 0; i < numFrames; ++i) {
+                mat.data().put(render(i));
+                final Frame frame = converter.convert(mat);
+                recorder.record(frame);
+            }
+        } finally {
+            recorder.stop();
+            recorder.release();
+            mat.release();
+        }
+    }
+
+    /**
+     * @return bytes of the encoded video.
+     * @throws Exception On failure encoding.
+     * @see #encode(OutputStream)
+     */
+    @Nonnull
+    public byte[] encode() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encode(out);
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String path = args.length > 0 ? args[0] : "synthetic.avi";
+        final int numFrames = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        final int numPedestrians = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        try (OutputStream out = new FileOutputStream(path)) {
+            new SyntheticVideo(640, 480, numFrames, numPedestrians, 0).encode(out);
+        }
+    }
+}
@@ -63,7 +63,12 @@ public class HadoopHelper {
         String hadoopHome = System.getenv("HADOOP_HOME");
         hadoopConf.addResource(new Path(hadoopHome + "/etc/hadoop/core-site.xml"));
         hadoopConf.addResource(new Path(hadoopHome + "/etc/hadoop/yarn-site.xml"));
+        hadoopConf.addResource(new Path(hadoopHome + "/etc/hadoop/hdfs-site.xml"));
         hadoopConf.setBoolean("dfs.support.append", true);
+        // Read blocks on the local DataNode directly from the disk, if the DataNodes are set up for it.
+        if (hadoopConf.get("dfs.domain.socket.path") != null) {
+            hadoopConf.setBoolean("dfs.client.read.shortcircuit", true);
+        }
         hadoopConf.set("fs.hdfs.impl", DistributedFileSystem.class.getName(), "LaS-VPE Platform");
         hadoopConf.set("fs.file.impl", LocalFileSystem.class.getName(), "LaS-VPE Platform");
         return hadoopConf;
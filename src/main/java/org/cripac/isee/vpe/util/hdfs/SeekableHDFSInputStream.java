@@ -0,0 +1,195 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.util.hdfs;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The SeekableHDFSInputStream presents a file on HDFS (or any other Hadoop file system)
+ * as a seekable stream to FFmpeg, through the mark/reset/skip protocol of
+ * {@link org.bytedeco.javacv.FFmpegFrameGrabber}.
+ * <p>
+ * The grabber marks the stream at its start and implements seeking by {@link #reset()} and {@link #skip(long)}.
+ * A stream not supporting marks is wrapped by the grabber in a {@link java.io.BufferedInputStream} as large as
+ * the part it may seek back over, which keeps the whole header (or more) of a video in memory.
+ * Instead, this stream supports marks by remembering positions, and seeks in the file on demand,
+ * so only a small read-ahead buffer is kept however far FFmpeg seeks
+ * (e.g. to the moov atom at the end of an MP4 file, or to a segment in the middle of a video).
+ * <p>
+ * Unlike {@link InputStream#skip(long)}, {@link #skip(long)} accepts negative numbers to seek backwards,
+ * as FFmpeg requires for relative seeks.
+ */
+public class SeekableHDFSInputStream extends InputStream {
+
+    public static final int DEFAULT_READ_AHEAD_SIZE = 1024 * 1024;
+
+    private final FSDataInputStream in;
+    private final long length;
+    private final byte[] buffer;
+    /**
+     * Position in the file of the first byte in the buffer.
+     */
+    private long bufferStart = 0;
+    private int bufferLength = 0;
+    private long position = 0;
+    private long markPosition = 0;
+
+    /**
+     * @param in            an opened file.
+     * @param length        length of the file in bytes.
+     * @param readAheadSize number of bytes to read from the file at a time.
+     */
+    public SeekableHDFSInputStream(@Nonnull FSDataInputStream in, long length, int readAheadSize) {
+        this.in = in;
+        this.length = length;
+        this.buffer = new byte[readAheadSize];
+    }
+
+    /**
+     * Open a file as a seekable stream.
+     *
+     * @param fs            the file system the file is on.
+     * @param path          path of the file.
+     * @param readAheadSize number of bytes to read from the file at a time.
+     * @return the stream of the file.
+     * @throws IOException On failure opening the file.
+     */
+    @Nonnull
+    public static SeekableHDFSInputStream open(@Nonnull FileSystem fs,
+                                               @Nonnull Path path,
+                                               int readAheadSize) throws IOException {
+        return new SeekableHDFSInputStream(fs.open(path), fs.getFileStatus(path).getLen(), readAheadSize);
+    }
+
+    /**
+     * Make the current position available in the buffer.
+     *
+     * @return false if the position is at or beyond the end of the file.
+     */
+    private boolean fill() throws IOException {
+        if (position >= bufferStart && position < bufferStart + bufferLength) {
+            return true;
+        }
+        if (position >= length) {
+            return false;
+        }
+        if (in.getPos() != position) {
+            in.seek(position);
+        }
+        final int n = in.read(buffer, 0, (int) Math.min(buffer.length, length - position));
+        if (n <= 0) {
+            return false;
+        }
+        bufferStart = position;
+        bufferLength = n;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer[(int) (position++ - bufferStart)] & 0xFF;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = (int) Math.min(len, bufferStart + bufferLength - position);
+        System.arraycopy(buffer, (int) (position - bufferStart), b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * Move the position by some bytes, within the bounds of the file. No data is read.
+     *
+     * @param n number of bytes to move by, which is negative for moving backwards.
+     * @return number of bytes actually moved by.
+     */
+    @Override
+    public long skip(long n) {
+        final long target = Math.max(0, Math.min(length, position + n));
+        final long moved = target - position;
+        position = target;
+        return moved;
+    }
+
+    /**
+     * Move to a position in the file.
+     *
+     * @param pos the position.
+     */
+    public void seek(long pos) {
+        position = Math.max(0, Math.min(length, pos));
+    }
+
+    /**
+     * @return the current position in the file.
+     */
+    public long getPos() {
+        return position;
+    }
+
+    /**
+     * @return length of the file in bytes.
+     */
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * Remember the current position. Since the file is seekable, the read limit is ignored.
+     */
+    @Override
+    public void mark(int readLimit) {
+        markPosition = position;
+    }
+
+    @Override
+    public void reset() {
+        position = markPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
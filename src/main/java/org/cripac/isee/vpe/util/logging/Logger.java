@@ -20,6 +20,7 @@ import org.apache.log4j.Level;
 import javax.annotation.Nonnull;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.function.Supplier;
 
 /**
  * Created by ken.yu on 16-10-24.
@@ -45,6 +46,38 @@ public abstract class Logger {
         this.level = level;
     }
 
+    /**
+     * @param level the level to check.
+     * @return whether messages of the level are logged.
+     */
+    public boolean isEnabled(@Nonnull Level level) {
+        return level.isGreaterOrEqual(this.level);
+    }
+
+    /**
+     * Log a debug message built lazily, so the cost of building it is
+     * saved when debug messages are not logged.
+     *
+     * @param messageSupplier supplier building the message.
+     */
+    public void debug(@Nonnull Supplier<?> messageSupplier) {
+        if (isEnabled(Level.DEBUG)) {
+            debug(messageSupplier.get());
+        }
+    }
+
+    /**
+     * Log an info message built lazily, so the cost of building it is
+     * saved when info messages are not logged.
+     *
+     * @param messageSupplier supplier building the message.
+     */
+    public void info(@Nonnull Supplier<?> messageSupplier) {
+        if (isEnabled(Level.INFO)) {
+            info(messageSupplier.get());
+        }
+    }
+
     public abstract void debug(@Nonnull Object message);
 
     public abstract void debug(@Nonnull Object message,
@@ -20,7 +20,6 @@ package org.cripac.isee.vpe.util.logging;
 import kafka.utils.ZkUtils;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.PropertyConfigurator;
@@ -30,20 +29,41 @@ import org.cripac.isee.vpe.ctrl.SystemPropertyCenter;
 import org.cripac.isee.vpe.util.kafka.KafkaHelper;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Properties;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The SynthesizedLogger class synthesizes various logging methods, like log4j,
  * raw console, Kafka... It welcomes modification by developers with their own
  * demands.
+ * <p>
+ * Reports to Kafka are queued in a bounded lock-free buffer and shipped in batches by a background thread,
+ * so logging never waits for Kafka. When the buffer is full, new reports are dropped and counted,
+ * and the number of dropped reports is reported in the next batch.
+ * Reports still buffered are sent on {@link #close()}, which is also called when the JVM shuts down.
  *
  * @author Ken Yu, CRIPAC, 2016
  */
-public class SynthesizedLogger extends Logger {
+public class SynthesizedLogger extends Logger implements AutoCloseable {
+
+    /**
+     * Maximum number of reports waiting to be sent.
+     */
+    private static final int BUFFER_CAPACITY = 4096;
+    /**
+     * Maximum number of reports sent in one Kafka message.
+     */
+    private static final int MAX_REPORTS_PER_BATCH = 256;
+    /**
+     * Interval between two rounds of sending when there are no more reports to send.
+     */
+    private static final long SENDING_INTERVAL_MS = 100;
 
     private final String username;
     private final String reportTopic;
@@ -51,12 +71,49 @@ public class SynthesizedLogger extends Logger {
     private ConsoleLogger consoleLogger;
     private final KafkaProducer<String, String> producer;
 
-    private final static SimpleDateFormat ft = new SimpleDateFormat("yy.MM.dd HH:mm:ss");
+    private final Queue<Report> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferedCnt = new AtomicInteger(0);
+    private final AtomicLong droppedCnt = new AtomicLong(0);
+    private final Thread senderThread;
+    private final Thread shutdownHook;
+    private volatile boolean running = true;
+
+    /**
+     * Only accessed by the sender thread, since SimpleDateFormat is not thread-safe.
+     */
+    private final SimpleDateFormat ft = new SimpleDateFormat("yy.MM.dd HH:mm:ss");
+
+    /**
+     * A log message waiting to be sent. Formatting is left to the sender thread.
+     */
+    private static class Report {
+        final String levelTag;
+        final long timestamp = System.currentTimeMillis();
+        final String message;
+        @Nullable
+        final Throwable t;
+
+        Report(String levelTag, String message, @Nullable Throwable t) {
+            this.levelTag = levelTag;
+            this.message = message;
+            this.t = t;
+        }
+    }
 
-    private String wrapMsg(Object msg) {
+    private void format(Report report, StringBuilder builder) {
         final String executorID = SparkEnv.get() == null ? "driver" : SparkEnv.get().executorId();
         final String identity = executorID.equals("driver") ? "Driver" : "Executor " + executorID;
-        return ft.format(new Date()) + " " + localName + "\t" + username + " (" + identity + "):\t" + msg;
+        builder.append(report.levelTag).append('\t')
+                .append(ft.format(new Date(report.timestamp))).append(' ')
+                .append(localName).append('\t')
+                .append(username).append(" (").append(identity).append("):\t")
+                .append(report.message);
+        if (report.t != null) {
+            builder.append(": ").append(report.t).append('\n');
+            for (StackTraceElement element : report.t.getStackTrace()) {
+                builder.append('\t').append(element).append('\n');
+            }
+        }
     }
 
     private void checkTopic(String topic, SystemPropertyCenter propCenter) {
@@ -100,27 +157,100 @@ public class SynthesizedLogger extends Logger {
         checkTopic(reportTopic, propCenter);
         Properties producerProp = propCenter.getKafkaProducerProp(true);
         producer = new KafkaProducer<>(producerProp);
+
+        senderThread = new Thread(this::sendBufferedReports, "report-sender-" + username);
+        senderThread.setDaemon(true);
+        senderThread.start();
+
+        shutdownHook = new Thread(this::close, "report-drainer-" + username);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
 
+    /**
+     * Send the reports still buffered and release the Kafka producer.
+     * Reports logged afterwards are only printed and passed to Log4j. Closing more than once has no effect.
+     */
     @Override
-    protected void finalize() throws Throwable {
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // The JVM is already shutting down.
+            }
+        }
+        senderThread.interrupt();
+        try {
+            senderThread.join(SENDING_INTERVAL_MS * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         producer.close();
-        super.finalize();
     }
 
-    private void send(@Nonnull String message) {
-        try {
-            new RobustExecutor<Void, Void>(() -> {
-                synchronized (producer) {
-                    Future<RecordMetadata> metadataFuture =
-                            producer.send(new ProducerRecord<>(reportTopic, username, message));
-                    RecordMetadata recordMetadata = metadataFuture.get(5, TimeUnit.SECONDS);
-                    consoleLogger.debug("Report sent to "
-                            + recordMetadata.topic() + ":" + recordMetadata.partition() + "-" + recordMetadata.offset());
+    /**
+     * Queue a report to be sent. Never blocks.
+     */
+    private void send(@Nonnull String levelTag,
+                      @Nonnull Object message,
+                      @Nullable Throwable t) {
+        if (!running) {
+            return;
+        }
+        if (bufferedCnt.incrementAndGet() > BUFFER_CAPACITY) {
+            bufferedCnt.decrementAndGet();
+            droppedCnt.incrementAndGet();
+            return;
+        }
+        buffer.offer(new Report(levelTag, String.valueOf(message), t));
+    }
+
+    /**
+     * Body of the sender thread, which ships the buffered reports in batches.
+     */
+    private void sendBufferedReports() {
+        final StringBuilder builder = new StringBuilder();
+        while (running || !buffer.isEmpty()) {
+            builder.setLength(0);
+            int numReports = 0;
+            final long numDropped = droppedCnt.getAndSet(0);
+            if (numDropped > 0) {
+                format(new Report("[WARNING]", numDropped + " reports dropped since the buffer was full.", null),
+                        builder);
+                ++numReports;
+            }
+            Report report;
+            while (numReports < MAX_REPORTS_PER_BATCH && (report = buffer.poll()) != null) {
+                bufferedCnt.decrementAndGet();
+                if (numReports > 0) {
+                    builder.append('\n');
                 }
-            }).execute();
-        } catch (Exception e) {
-            consoleLogger.error("Error on sending report", e);
+                format(report, builder);
+                ++numReports;
+            }
+            if (numReports > 0) {
+                try {
+                    producer.send(new ProducerRecord<>(reportTopic, username, builder.toString()),
+                            (recordMetadata, e) -> {
+                                if (e != null) {
+                                    consoleLogger.error("Error on sending report", e);
+                                }
+                            });
+                } catch (Exception e) {
+                    consoleLogger.error("Error on sending report", e);
+                }
+            }
+            if (numReports < MAX_REPORTS_PER_BATCH && running) {
+                try {
+                    Thread.sleep(SENDING_INTERVAL_MS);
+                } catch (InterruptedException ignored) {
+                    // Woken up to stop. Send the remaining reports before exiting.
+                }
+            }
         }
     }
 
@@ -128,8 +258,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.DEBUG.isGreaterOrEqual(level)) {
             log4jLogger.debug(message);
             consoleLogger.debug(message);
-            String richMsg = "[DEBUG]\t" + wrapMsg(message);
-            send(richMsg);
+            send("[DEBUG]", message, null);
         }
     }
 
@@ -138,16 +267,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.DEBUG.isGreaterOrEqual(level)) {
             log4jLogger.debug(message, t);
             consoleLogger.debug(message, t);
-
-            String richMsg = "[DEBUG]\t" + wrapMsg(message) + ": " + t;
-            send(richMsg);
-
-            StringBuilder stackTraceMsg = new StringBuilder();
-            StackTraceElement[] stackTrace = t.getStackTrace();
-            for (StackTraceElement element : stackTrace) {
-                stackTraceMsg.append("\t").append(element.toString()).append("\n");
-            }
-            send(stackTraceMsg.toString());
+            send("[DEBUG]", message, t);
         }
     }
 
@@ -155,8 +275,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.INFO.isGreaterOrEqual(level)) {
             log4jLogger.info(message);
             consoleLogger.info(message);
-            String richMsg = "[INFO]\t" + wrapMsg(message);
-            send(richMsg);
+            send("[INFO]", message, null);
         }
     }
 
@@ -165,14 +284,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.INFO.isGreaterOrEqual(level)) {
             log4jLogger.info(message, t);
             consoleLogger.info(message, t);
-            String richMsg = "[INFO]\t" + wrapMsg(message) + ": " + t;
-            send(richMsg);
-            String stackTraceMsg = "";
-            StackTraceElement[] stackTrace = t.getStackTrace();
-            for (StackTraceElement element : stackTrace) {
-                stackTraceMsg = stackTraceMsg + "\t" + element.toString() + "\n";
-            }
-            send(stackTraceMsg);
+            send("[INFO]", message, t);
         }
     }
 
@@ -180,8 +292,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.WARN.isGreaterOrEqual(level)) {
             log4jLogger.warn(message);
             consoleLogger.warn(message);
-            String richMsg = "[WARNING]\t" + wrapMsg(message);
-            send(richMsg);
+            send("[WARNING]", message, null);
         }
     }
 
@@ -190,16 +301,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.WARN.isGreaterOrEqual(level)) {
             log4jLogger.warn(message, t);
             consoleLogger.warn(message, t);
-
-            String richMsg = "[WARNING]\t" + wrapMsg(message) + ": " + t;
-            send(richMsg);
-
-            String stackTraceMsg = "";
-            StackTraceElement[] stackTrace = t.getStackTrace();
-            for (StackTraceElement element : stackTrace) {
-                stackTraceMsg = stackTraceMsg + "\t" + element.toString() + "\n";
-            }
-            send(stackTraceMsg);
+            send("[WARNING]", message, t);
         }
     }
 
@@ -207,8 +309,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.ERROR.isGreaterOrEqual(level)) {
             log4jLogger.error(message);
             consoleLogger.error(message);
-            String richMsg = "[ERROR]\t" + wrapMsg(message);
-            send(richMsg);
+            send("[ERROR]", message, null);
         }
     }
 
@@ -217,16 +318,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.ERROR.isGreaterOrEqual(level)) {
             log4jLogger.error(message, t);
             consoleLogger.error(message, t);
-
-            String richMsg = "[ERROR]\t" + wrapMsg(message) + "\t" + t;
-            send(richMsg);
-
-            String stackTraceMsg = "";
-            StackTraceElement[] stackTrace = t.getStackTrace();
-            for (StackTraceElement element : stackTrace) {
-                stackTraceMsg = stackTraceMsg + "\t" + element.toString() + "\n";
-            }
-            send(stackTraceMsg);
+            send("[ERROR]", message, t);
         }
     }
 
@@ -234,8 +326,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.FATAL.isGreaterOrEqual(level)) {
             log4jLogger.fatal(message);
             consoleLogger.fatal(message);
-            String richMsg = "[FATAL]\t" + wrapMsg(message);
-            send(richMsg);
+            send("[FATAL]", message, null);
         }
     }
 
@@ -244,15 +335,7 @@ public class SynthesizedLogger extends Logger {
         if (Level.FATAL.isGreaterOrEqual(level)) {
             log4jLogger.fatal(message, t);
             consoleLogger.fatal(message, t);
-            String richMsg = "[FATAL]\t" + wrapMsg(message) + ": " + t;
-            send(richMsg);
-
-            String stackTraceMsg = "";
-            StackTraceElement[] stackTrace = t.getStackTrace();
-            for (StackTraceElement element : stackTrace) {
-                stackTraceMsg = stackTraceMsg + "\t" + element.toString() + "\n";
-            }
-            send(stackTraceMsg);
+            send("[FATAL]", message, t);
         }
     }
 }
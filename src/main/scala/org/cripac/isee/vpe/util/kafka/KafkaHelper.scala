@@ -17,14 +17,14 @@
 package org.cripac.isee.vpe.util.kafka
 
 import java.util.Properties
-import java.util.concurrent.{CancellationException, ExecutionException}
+import java.util.concurrent.{CancellationException, ExecutionException, Future}
 import java.{lang => jl, util => ju}
 import javax.annotation.{Nonnull, Nullable}
 
 import kafka.admin.{AdminUtils, RackAwareMode}
 import kafka.common.Topic
 import kafka.utils.ZkUtils
-import org.apache.kafka.clients.producer.{KafkaProducer, ProducerRecord}
+import org.apache.kafka.clients.producer.{Callback, KafkaProducer, ProducerRecord, RecordMetadata}
 import org.apache.kafka.common.errors.TopicExistsException
 import org.apache.kafka.common.security.JaasUtils
 import org.cripac.isee.util.SerializationHelper
@@ -62,6 +62,30 @@ object KafkaHelper {
     producer send new ProducerRecord[K, V](topic, key, value)
   }
 
+  /**
+    * Send a message to Kafka asynchronously with provided producer.
+    * The message may stay in the buffer of the producer to be batched with later messages,
+    * until the linger time is up or the producer is flushed.
+    *
+    * @param topic    the Kafka topic to send to.
+    * @param key      key of the message.
+    * @param value    value of the message.
+    * @param producer the Kafka producer to use to send the message.
+    * @param callback the callback invoked when the sending is acknowledged or fails.
+    * @tparam K type of the key.
+    * @tparam V type of the value.
+    * @return the future of the sending report.
+    */
+  def sendAsync[K, V](
+                       @Nonnull topic: String,
+                       @Nonnull key: K,
+                       @Nonnull value: V,
+                       @Nonnull producer: KafkaProducer[K, V],
+                       @Nullable callback: Callback
+                     ): Future[RecordMetadata] = {
+    producer send(new ProducerRecord[K, V](topic, key, value), callback)
+  }
+
   /**
     * Send a message to Kafka with provided producer. Debug info is output to given logger.
     *
@@ -152,6 +176,22 @@ object KafkaHelper {
     new ZkUtils(zkClient, zkConn, JaasUtils.isZkSecurityEnabled)
   }
 
+  /**
+    * Get the configurations of the topic of a data type.
+    * The topic of termination signals is compacted, so that it keeps the latest signal of each task
+    * however long ago it is sent, while a signal with null value revokes the previous one.
+    *
+    * @param dataType the data type.
+    * @return configurations of the topic.
+    */
+  def topicConfigs(@Nonnull dataType: DataType): Properties = {
+    val configs = new Properties
+    if (dataType == DataType.TERM_SIG) {
+      configs.put("cleanup.policy", "compact")
+    }
+    configs
+  }
+
   /**
     * Create topics corresponding to all data types.
     *
@@ -169,10 +209,11 @@ object KafkaHelper {
                    replicas: Int
                  ): Unit = {
     DataType.values().foreach(dataType =>
-      createTopic(zkServers,
-        sessionTimeout, connectionTimeout,
+      createTopic(createZkUtils(zkServers, sessionTimeout, connectionTimeout),
         dataType.name(),
-        partitions, replicas))
+        partitions, replicas,
+        ifNotExist = false,
+        topicConfigs(dataType)))
   }
 
   /**
@@ -261,8 +302,30 @@ object KafkaHelper {
                    partitions: Int,
                    replicas: Int,
                    ifNotExist: Boolean
+                 ): Unit = {
+    createTopic(zkUtils, topic, partitions, replicas, ifNotExist, new Properties)
+  }
+
+  /**
+    * Create a Kafka topic with configurations.
+    *
+    * @param zkUtils    Zookeeper utilities for managing topics in Zookeeper.
+    * @param topic      name of the topic to be created.
+    * @param partitions partitions of the topic to be created.
+    * @param replicas   replicas of the topic to be created.
+    * @param ifNotExist whether only to create the topic if it does not exist.
+    * @param configs    configurations of the topic, e.g. cleanup.policy.
+    * @throws TopicExistsException when a topic with the same name already exists
+    *                              and ifNotExist is true.
+    */
+  def createTopic(
+                   zkUtils: ZkUtils,
+                   topic: String,
+                   partitions: Int,
+                   replicas: Int,
+                   ifNotExist: Boolean,
+                   configs: Properties
                  ) {
-    val configs = new Properties
     if (Topic.hasCollisionChars(topic))
       println("WARNING: Due to limitations in metric names, topics with a period ('.') or underscore ('_') could collide. To avoid issues it is best to use either, but not both.")
     try {
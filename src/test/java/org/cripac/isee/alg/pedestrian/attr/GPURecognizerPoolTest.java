@@ -0,0 +1,61 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.attr;
+
+import org.apache.log4j.Level;
+import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
+import org.cripac.isee.vpe.util.logging.ConsoleLogger;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class GPURecognizerPoolTest {
+    @Test
+    public void recognizeOnAllGPUs() throws Exception {
+        // Each fake recognizer marks its results with the index of its GPU.
+        GPURecognizerPool pool = new GPURecognizerPool("0,1", gpu -> bboxes -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ignored) {
+            }
+            Attributes[] results = new Attributes[bboxes.length];
+            for (int i = 0; i < bboxes.length; ++i) {
+                results[i] = new Attributes();
+                results[i].genderMale = bboxes[i].x + gpu * 1000;
+            }
+            return results;
+        }, 8, 4, new ConsoleLogger(Level.INFO));
+
+        Tracklet.BoundingBox[] bboxes = new Tracklet.BoundingBox[64];
+        for (int i = 0; i < bboxes.length; ++i) {
+            bboxes[i] = new Tracklet.BoundingBox();
+            bboxes[i].x = i;
+        }
+        Attributes[] results = pool.recognize(bboxes);
+
+        // Results are in the order of the inputs.
+        for (int i = 0; i < bboxes.length; ++i) {
+            assert ((int) results[i].genderMale) % 1000 == i;
+        }
+        // Both GPUs take part.
+        long[] numRecognized = pool.getNumRecognized();
+        assert numRecognized.length == 2;
+        assert Arrays.stream(numRecognized).sum() == bboxes.length;
+        assert Arrays.stream(numRecognized).allMatch(n -> n > 0);
+    }
+}
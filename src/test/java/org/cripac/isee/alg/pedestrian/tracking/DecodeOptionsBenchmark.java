@@ -0,0 +1,118 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.tracking;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Level;
+import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp;
+import org.cripac.isee.vpe.util.logging.ConsoleLogger;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmark of the throughput against the accuracy of tracking with {@link DecodeOptions}.
+ * It needs the native tracking library, so it is run by hand rather than as a unit test:
+ * <pre>
+ * java -cp ... org.cripac.isee.alg.pedestrian.tracking.DecodeOptionsBenchmark [video] [conf]
+ * </pre>
+ * Each setting is compared with tracking every frame at full resolution. A tracklet of the latter is recalled
+ * if a tracklet of the setting has a mean IoU of at least 0.5 with it over its frames.
+ */
+public class DecodeOptionsBenchmark {
+
+    private static final String[][] SETTINGS = {
+            {"full", "iFrameStride=1\nbKeyFrameOnly=0\ndDownScale=1.00"},
+            {"stride 2", "iFrameStride=2\nbKeyFrameOnly=0\ndDownScale=1.00"},
+            {"stride 4", "iFrameStride=4\nbKeyFrameOnly=0\ndDownScale=1.00"},
+            {"scale 0.5", "iFrameStride=1\nbKeyFrameOnly=0\ndDownScale=0.50"},
+            {"stride 2, scale 0.5", "iFrameStride=2\nbKeyFrameOnly=0\ndDownScale=0.50"},
+            {"key frames", "iFrameStride=1\nbKeyFrameOnly=1\ndDownScale=1.00"},
+    };
+
+    private static double iou(Tracklet.BoundingBox a, Tracklet.BoundingBox b) {
+        final long w = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        final long h = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if (w <= 0 || h <= 0) {
+            return 0;
+        }
+        final long intersection = w * h;
+        return (double) intersection / ((long) a.width * a.height + (long) b.width * b.height - intersection);
+    }
+
+    /**
+     * Mean IoU of a candidate with a reference tracklet over the frames of the reference.
+     */
+    private static double meanIoU(Tracklet reference, Tracklet candidate) {
+        double sum = 0;
+        for (int i = 0; i < reference.locationSequence.length; ++i) {
+            final int j = reference.startFrameIndex + i - candidate.startFrameIndex;
+            if (j >= 0 && j < candidate.locationSequence.length) {
+                sum += iou(reference.locationSequence[i], candidate.locationSequence[j]);
+            }
+        }
+        return sum / reference.locationSequence.length;
+    }
+
+    private static double recall(Tracklet[] reference, Tracklet[] candidates) {
+        int numRecalled = 0;
+        for (Tracklet ref : reference) {
+            for (Tracklet candidate : candidates) {
+                if (meanIoU(ref, candidate) >= 0.5) {
+                    ++numRecalled;
+                    break;
+                }
+            }
+        }
+        return reference.length == 0 ? 1 : (double) numRecalled / reference.length;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String videoPath = args.length > 0 ? args[0] : "src/test/resources/20131220184349-20131220184937.h264";
+        final String confPath = args.length > 1 ? args[1]
+                : "conf/" + PedestrianTrackingApp.APP_NAME + "/isee-basic/CAM01_0.conf";
+        String baseConf = new String(IOUtils.toByteArray(new FileInputStream(confPath)), StandardCharsets.UTF_8);
+        final int decodeSection = baseConf.indexOf("[DECODE]");
+        if (decodeSection >= 0) {
+            baseConf = baseConf.substring(0, decodeSection);
+        }
+
+        Tracklet[] reference = null;
+        long referenceTime = 0;
+        System.out.println(String.format("%-20s %10s %8s %10s %8s",
+                "setting", "time(ms)", "speedup", "tracklets", "recall"));
+        for (String[] setting : SETTINGS) {
+            final byte[] conf = (baseConf + "[DECODE]\n" + setting[1] + "\n").getBytes(StandardCharsets.UTF_8);
+            final BasicTracker tracker = new BasicTracker(conf, new ConsoleLogger(Level.INFO));
+            final long startTime = System.currentTimeMillis();
+            final Tracklet[] tracklets;
+            try (InputStream videoStream = new BufferedInputStream(new FileInputStream(videoPath))) {
+                tracklets = tracker.track(videoStream);
+            }
+            final long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+            if (reference == null) {
+                reference = tracklets;
+                referenceTime = elapsed;
+            }
+            System.out.println(String.format("%-20s %10d %8.2f %10d %8.3f", setting[0], elapsed,
+                    (double) referenceTime / elapsed, tracklets.length, recall(reference, tracklets)));
+        }
+    }
+}
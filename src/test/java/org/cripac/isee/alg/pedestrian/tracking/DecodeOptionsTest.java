@@ -0,0 +1,107 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.tracking;
+
+import org.apache.commons.io.IOUtils;
+import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+
+public class DecodeOptionsTest {
+    @Test
+    public void parse() throws Exception {
+        DecodeOptions defaults = DecodeOptions.parse(IOUtils.toByteArray(new FileInputStream(
+                "conf/" + PedestrianTrackingApp.APP_NAME + "/isee-basic/CAM01_0.conf")));
+        assert defaults.isFullFidelity();
+
+        DecodeOptions options = DecodeOptions.parse(("[F20]\niDownScale=2\n"
+                + "[DECODE]\niFrameStride=3\nbKeyFrameOnly=1\ndDownScale=0.5\n"
+                + "[F30]\niFrameStride=5\n").getBytes(StandardCharsets.UTF_8));
+        assert options.frameStride == 3;
+        assert options.keyFrameOnly;
+        assert options.downScale == 0.5;
+    }
+
+    @Test
+    public void restore() {
+        // Every third frame from frame 100 is tracked at half resolution.
+        int[] fedIndices = new int[10];
+        for (int i = 0; i < fedIndices.length; ++i) {
+            fedIndices[i] = 100 + i * 3;
+        }
+        Tracklet tracklet = new Tracklet();
+        tracklet.startFrameIndex = 2;
+        tracklet.locationSequence = new Tracklet.BoundingBox[3];
+        for (int j = 0; j < 3; ++j) {
+            Tracklet.BoundingBox bbox = new Tracklet.BoundingBox();
+            bbox.x = 10 + j * 3;
+            bbox.y = 20;
+            bbox.width = 10;
+            bbox.height = 20;
+            bbox.patchData = new byte[10 * 20 * 3];
+            tracklet.locationSequence[j] = bbox;
+        }
+
+        DecodeOptions.restore(tracklet, fedIndices, 2, 2);
+        assert tracklet.startFrameIndex == 106;
+        assert tracklet.locationSequence.length == 7;
+        for (int k = 0; k < 7; ++k) {
+            Tracklet.BoundingBox bbox = tracklet.locationSequence[k];
+            // The pedestrian moves right by 2 pixels per frame in the source resolution.
+            assert bbox.x == 20 + k * 2;
+            assert bbox.y == 40 && bbox.width == 20 && bbox.height == 40;
+            // Only tracked frames have pixels, at the source resolution.
+            if (k % 3 == 0) {
+                assert bbox.patchData != null && bbox.patchData.length == 20 * 40 * 3;
+            } else {
+                assert bbox.patchData == null;
+            }
+        }
+    }
+
+    @Test
+    public void sampleRestoredWithStride() {
+        // A 27-frame tracklet tracked on every second frame, so only even positions have pixels.
+        int[] fedIndices = new int[14];
+        for (int i = 0; i < fedIndices.length; ++i) {
+            fedIndices[i] = i * 2;
+        }
+        Tracklet tracklet = new Tracklet();
+        tracklet.startFrameIndex = 0;
+        tracklet.locationSequence = new Tracklet.BoundingBox[14];
+        for (int j = 0; j < 14; ++j) {
+            Tracklet.BoundingBox bbox = new Tracklet.BoundingBox();
+            bbox.x = j;
+            bbox.width = 10;
+            bbox.height = 20;
+            bbox.patchData = new byte[10 * 20 * 3];
+            tracklet.locationSequence[j] = bbox;
+        }
+        DecodeOptions.restore(tracklet, fedIndices, 1, 1);
+        assert tracklet.locationSequence.length == 27;
+
+        tracklet.sample(6);
+        int numSamples = tracklet.getSamples().size();
+        assert numSamples >= 6 && numSamples < 14 : numSamples;
+        for (int k = 1; k < 27; k += 2) {
+            assert tracklet.locationSequence[k].patchData == null;
+        }
+    }
+}
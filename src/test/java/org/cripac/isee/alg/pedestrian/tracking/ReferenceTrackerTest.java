@@ -0,0 +1,118 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.tracking;
+
+import org.cripac.isee.vpe.debug.SyntheticVideo;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReferenceTrackerTest {
+
+    private static double iou(Tracklet.BoundingBox a, Tracklet.BoundingBox b) {
+        final long w = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        final long h = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if (w <= 0 || h <= 0) {
+            return 0;
+        }
+        final long intersection = w * h;
+        return (double) intersection / ((long) a.width * a.height + (long) b.width * b.height - intersection);
+    }
+
+    /**
+     * Check that each pedestrian is tracked by one tracklet over most of the frames it appears in.
+     * Pedestrians already in the first frame tracked are skipped, as the background model is initialized with it.
+     */
+    private static void checkRecall(SyntheticVideo video, Tracklet[] tracklets, int startFrame, int endFrame) {
+        for (SyntheticVideo.Pedestrian ped : video.pedestrians) {
+            final int first = ped.startFrame;
+            final int last = Math.min(ped.endFrame, endFrame);
+            if (first < startFrame || last - first < 10) {
+                continue;
+            }
+            double best = 0;
+            for (Tracklet tracklet : tracklets) {
+                double sum = 0;
+                for (int f = first; f < last; ++f) {
+                    final int i = f - tracklet.startFrameIndex;
+                    if (i >= 0 && i < tracklet.locationSequence.length) {
+                        sum += iou(ped.getLocation(f), tracklet.locationSequence[i]);
+                    }
+                }
+                best = Math.max(best, sum / (last - first));
+            }
+            assert best > 0.8 : "Pedestrian from frame " + ped.startFrame + " is tracked with mean IoU " + best;
+        }
+    }
+
+    @Test
+    public void trackFrames() {
+        final SyntheticVideo video = new SyntheticVideo(320, 240, 200, 3, 0);
+        final ReferenceTracker.Session session = new ReferenceTracker(new byte[0], null)
+                .createSession(video.width, video.height);
+        for (int i = 0; i < video.numFrames; ++i) {
+            session.feed(video.render(i));
+        }
+        final Tracklet[] tracklets = session.finish();
+        assert tracklets.length == video.pedestrians.length;
+        checkRecall(video, tracklets, 0, video.numFrames);
+        for (Tracklet tracklet : tracklets) {
+            final Tracklet.BoundingBox bbox = tracklet.locationSequence[0];
+            assert bbox.patchData.length == bbox.width * bbox.height * 3;
+        }
+    }
+
+    @Test
+    public void trackEncodedVideo() throws Exception {
+        final SyntheticVideo video = new SyntheticVideo(320, 240, 200, 3, 1);
+        final byte[] bytes = video.encode();
+        final ReferenceTracker tracker = new ReferenceTracker("[REFERENCE]\niMinLength=10\n".getBytes(), null);
+
+        checkRecall(video, tracker.track(new ByteArrayInputStream(bytes)), 0, video.numFrames);
+        checkRecall(video, tracker.track(new ByteArrayInputStream(bytes), 50, 160), 50, 160);
+
+        final List<Tracklet> windowed = new ArrayList<>();
+        tracker.track(new ByteArrayInputStream(bytes), Long.MAX_VALUE,
+                (windowStartTime, windowStartFrame, tracklets) -> {
+                    for (Tracklet tracklet : tracklets) {
+                        tracklet.startFrameIndex += windowStartFrame;
+                        windowed.add(tracklet);
+                    }
+                }, () -> true);
+        checkRecall(video, windowed.toArray(new Tracklet[windowed.size()]), 0, video.numFrames);
+    }
+
+    @Test
+    public void cancelTracking() throws Exception {
+        final byte[] bytes = new SyntheticVideo(160, 120, 100, 1, 2).encode();
+        // The token is checked once per frame, and cancelled after some frames.
+        final AtomicInteger numChecks = new AtomicInteger(0);
+        final ReferenceTracker tracker = new ReferenceTracker(new byte[0], null,
+                () -> numChecks.incrementAndGet() > 10);
+        try {
+            tracker.track(new ByteArrayInputStream(bytes));
+            assert false : "Tracking is not cancelled.";
+        } catch (CancellationException ignored) {
+        }
+        assert numChecks.get() == 11;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.alg.pedestrian.tracking;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TrackletStitcherTest {
+    /**
+     * Create a tracklet moving right by one pixel per frame from x0 at frame 0.
+     */
+    private static Tracklet walk(int startFrame, int endFrame, int x0, int y, byte color) {
+        Tracklet tracklet = new Tracklet();
+        tracklet.startFrameIndex = startFrame;
+        tracklet.locationSequence = new Tracklet.BoundingBox[endFrame - startFrame];
+        for (int f = startFrame; f < endFrame; ++f) {
+            Tracklet.BoundingBox bbox = new Tracklet.BoundingBox();
+            bbox.x = x0 + f;
+            bbox.y = y;
+            bbox.width = 20;
+            bbox.height = 40;
+            bbox.patchData = new byte[20 * 40 * 3];
+            Arrays.fill(bbox.patchData, color);
+            tracklet.locationSequence[f - startFrame] = bbox;
+        }
+        return tracklet;
+    }
+
+    @Test
+    public void stitchAcrossSegments() {
+        TrackletStitcher stitcher = new TrackletStitcher(0.5, 0.6);
+        // Segments of 100 frames overlapping by 10 frames.
+        // Pedestrian A walks through all three segments; B walks by A with different clothes in the second;
+        // C appears at a far place in the overlap of the first two segments, but only the second segment tracks it.
+        TrackletStitcher.Segment s0 = new TrackletStitcher.Segment(0, new Tracklet[]{
+                walk(10, 110, 0, 0, (byte) 10)});
+        TrackletStitcher.Segment s1 = new TrackletStitcher.Segment(100, new Tracklet[]{
+                walk(100, 210, 0, 0, (byte) 10),
+                walk(100, 150, 2, 0, (byte) 200),
+                walk(105, 180, 500, 300, (byte) 10)});
+        TrackletStitcher.Segment s2 = new TrackletStitcher.Segment(200, new Tracklet[]{
+                walk(200, 250, 0, 0, (byte) 10)});
+
+        Tracklet[] tracklets = stitcher.stitch(Arrays.asList(s2, s0, s1));
+        assert tracklets.length == 3;
+
+        // A is stitched from three tracklets, keeping one bounding box per frame.
+        Tracklet a = tracklets[0];
+        assert a.startFrameIndex == 10;
+        assert a.locationSequence.length == 240;
+        for (int i = 0; i < a.locationSequence.length; ++i) {
+            assert a.locationSequence[i].x == 10 + i;
+        }
+        // Serial numbers are assigned in the order of start frames.
+        for (int i = 0; i < tracklets.length; ++i) {
+            assert tracklets[i].id.serialNumber == i;
+            assert tracklets[i].numTracklets == 3;
+        }
+        assert tracklets[1].startFrameIndex == 100 && tracklets[1].locationSequence[0].patchData[0] == (byte) 200;
+        assert tracklets[2].startFrameIndex == 105;
+    }
+}
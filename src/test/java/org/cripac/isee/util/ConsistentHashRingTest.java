@@ -0,0 +1,68 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ConsistentHashRingTest {
+    private static Map<String, String> assign(ConsistentHashRing<String> ring, int numKeys) {
+        Map<String, String> assignment = new HashMap<>();
+        for (int i = 0; i < numKeys; ++i) {
+            assignment.put("camera-" + i, ring.get("camera-" + i));
+        }
+        return assignment;
+    }
+
+    @Test
+    public void moveFewKeysOnMembershipChange() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(64);
+        assert ring.get("camera-0") == null;
+        for (int i = 0; i < 4; ++i) {
+            ring.add("executor-" + i);
+        }
+        final int numKeys = 1000;
+        final Map<String, String> before = assign(ring, numKeys);
+        // Every executor gets a share.
+        for (int i = 0; i < 4; ++i) {
+            final String executor = "executor-" + i;
+            assert before.values().stream().filter(executor::equals).count() > numKeys / 8;
+        }
+
+        // Only the keys of the lost executor move.
+        ring.remove("executor-1");
+        final Map<String, String> afterRemoval = assign(ring, numKeys);
+        before.forEach((key, executor) -> {
+            if (!executor.equals("executor-1")) {
+                assert afterRemoval.get(key).equals(executor);
+            } else {
+                assert !afterRemoval.get(key).equals("executor-1");
+            }
+        });
+
+        // Only keys moving to the new executor move.
+        ring.add("executor-4");
+        final Map<String, String> afterAddition = assign(ring, numKeys);
+        afterRemoval.forEach((key, executor) -> {
+            final String now = afterAddition.get(key);
+            assert now.equals(executor) || now.equals("executor-4");
+        });
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+public class ResourceManagerTest {
+    @Test
+    public void extractOncePerContent() throws Exception {
+        final File workDir = Files.createTempDirectory("resource-manager-test").toFile();
+        try {
+            final byte[] content = new byte[100000];
+            for (int i = 0; i < content.length; ++i) {
+                content[i] = (byte) (i * 31);
+            }
+            final File jar = new File(workDir, "test.jar");
+            try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+                out.putNextEntry(new JarEntry("models/test/model.pb"));
+                out.write(content);
+                out.closeEntry();
+            }
+            final URL url = new URL("jar:" + jar.toURI() + "!/models/test/model.pb");
+            final File cacheDir = new File(workDir, "cache");
+
+            final File first = ResourceManager.extract(url, "model.pb", cacheDir);
+            assert Arrays.equals(Files.readAllBytes(first.toPath()), content);
+
+            // The second extraction reuses the cached file.
+            final long lastModified = first.lastModified();
+            assert first.setLastModified(lastModified - 10000);
+            final File second = ResourceManager.extract(url, "model.pb", cacheDir);
+            assert second.equals(first);
+            assert second.lastModified() == lastModified - 10000;
+
+            // No temporary files are left.
+            final File[] files = cacheDir.listFiles();
+            assert files != null && files.length == 1 && files[0].isDirectory();
+            assert PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheDir.toPath()))
+                    .equals("rwx------");
+
+            // A cached file of the same size but different content is extracted again.
+            final byte[] tampered = content.clone();
+            tampered[50000] ^= 1;
+            Files.write(first.toPath(), tampered);
+            final File third = ResourceManager.extract(url, "model.pb", cacheDir);
+            assert third.equals(first);
+            assert Arrays.equals(Files.readAllBytes(third.toPath()), content);
+        } finally {
+            FileUtils.deleteDirectory(workDir);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void refuseCacheDirAccessibleToOthers() throws Exception {
+        final File workDir = Files.createTempDirectory("resource-manager-test").toFile();
+        try {
+            final File jar = new File(workDir, "test.jar");
+            try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+                out.putNextEntry(new JarEntry("model.pb"));
+                out.write(new byte[10]);
+                out.closeEntry();
+            }
+            final File cacheDir = new File(workDir, "cache");
+            Files.createDirectory(cacheDir.toPath());
+            Files.setPosixFilePermissions(cacheDir.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+            ResourceManager.extract(new URL("jar:" + jar.toURI() + "!/model.pb"), "model.pb", cacheDir);
+        } finally {
+            FileUtils.deleteDirectory(workDir);
+        }
+    }
+}
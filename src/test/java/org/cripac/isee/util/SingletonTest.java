@@ -0,0 +1,120 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingletonTest {
+
+    private static class Slow {
+    }
+
+    private static class Fast implements AutoCloseable {
+        boolean closed = false;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class Resource extends Fast {
+    }
+
+    @Test
+    public void closeDuringCreationClosesTheCreatedInstance() throws Exception {
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final Singleton<Resource> singleton = new Singleton<>(() -> {
+            creating.countDown();
+            assert proceed.await(10, TimeUnit.SECONDS);
+            return new Resource();
+        }, Resource.class);
+
+        final Resource[] created = new Resource[1];
+        Thread creator = new Thread(() -> {
+            try {
+                created[0] = singleton.getInst();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        creator.start();
+        assert creating.await(10, TimeUnit.SECONDS);
+        Thread closer = new Thread(singleton::close);
+        closer.start();
+        // Let the closer wait for the lock of the entry being created.
+        while (closer.getState() != Thread.State.BLOCKED) {
+            Thread.sleep(1);
+        }
+        proceed.countDown();
+        creator.join();
+        closer.join();
+
+        // The instance is not left behind in a removed entry without being closed.
+        assert created[0] != null && created[0].closed;
+        assert singleton.getInst() != created[0];
+        singleton.reset();
+    }
+
+    @Test
+    public void slowInitializationDoesNotBlockOthers() throws Exception {
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        final Singleton<Slow> slow = new Singleton<>(() -> {
+            slowStarted.countDown();
+            // Wait until the other singleton has been created while this one is being created.
+            assert fastDone.await(10, TimeUnit.SECONDS);
+            return new Slow();
+        }, Slow.class);
+        final AtomicInteger numCreated = new AtomicInteger(0);
+        final Singleton<Fast> fast = new Singleton<>(() -> {
+            numCreated.incrementAndGet();
+            return new Fast();
+        }, Fast.class);
+
+        Thread thread = new Thread(() -> {
+            try {
+                slow.getInst();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        assert slowStarted.await(10, TimeUnit.SECONDS);
+        final Fast instance = fast.getInst();
+        fastDone.countDown();
+        thread.join();
+
+        assert fast.getInst() == instance;
+        assert numCreated.get() == 1;
+        assert Singleton.getInitTimes().containsKey(Slow.class);
+
+        // Closing removes the instance, so a new one is created next time.
+        fast.close();
+        assert instance.closed;
+        assert fast.getInst() != instance;
+        assert numCreated.get() == 2;
+        fast.reset();
+        slow.reset();
+    }
+}
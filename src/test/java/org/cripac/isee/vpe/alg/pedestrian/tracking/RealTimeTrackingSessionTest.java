@@ -0,0 +1,120 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.alg.pedestrian.tracking;
+
+import org.apache.log4j.Level;
+import org.cripac.isee.alg.pedestrian.tracking.Tracklet;
+import org.cripac.isee.util.CancellationToken;
+import org.cripac.isee.vpe.common.LoginParam;
+import org.cripac.isee.vpe.data.WebCameraConnector;
+import org.cripac.isee.vpe.debug.FakePedestrianTracker;
+import org.cripac.isee.vpe.debug.FakeWebCameraConnector;
+import org.cripac.isee.vpe.util.logging.ConsoleLogger;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RealTimeTrackingSessionTest {
+    @Test
+    public void trackContinuouslyAndReconnect() throws Exception {
+        final LoginParam loginParam = new LoginParam(InetAddress.getLoopbackAddress(), 554, "admin", "admin");
+        final String cameraID = RealTimeTrackingSession.getCameraID(loginParam);
+        final AtomicInteger numConnectors = new AtomicInteger(0);
+        final List<Tracklet[]> windows = new CopyOnWriteArrayList<>();
+
+        final RealTimeTrackingSession session = new RealTimeTrackingSession(
+                UUID.randomUUID(),
+                loginParam,
+                () -> {
+                    if (numConnectors.getAndIncrement() == 0) {
+                        // The first connection breaks soon.
+                        return new WebCameraConnector(loginParam) {
+                            @Override
+                            public InputStream getStream() {
+                                return new ByteArrayInputStream(new byte[100]);
+                            }
+                        };
+                    }
+                    return new FakeWebCameraConnector(loginParam);
+                },
+                new FakePedestrianTracker(),
+                100,
+                1000,
+                windows::add,
+                CancellationToken.NONE,
+                new ConsoleLogger(Level.INFO));
+        RealTimeTrackingSession.launch(session);
+        assert RealTimeTrackingSession.getSessions().get(cameraID) == session;
+
+        final long start = System.currentTimeMillis();
+        while (windows.size() < 5 && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+        session.shutdown();
+        session.join(5000);
+
+        assert !session.isAlive();
+        assert session.getNumConnections() >= 2;
+        assert windows.size() >= 5;
+        for (Tracklet[] tracklets : windows) {
+            for (Tracklet tracklet : tracklets) {
+                assert tracklet.id.videoID.startsWith(cameraID + "_");
+            }
+        }
+        assert !RealTimeTrackingSession.getSessions().containsKey(cameraID);
+    }
+
+    @Test
+    public void stopOnCancellation() throws Exception {
+        final LoginParam loginParam = new LoginParam(InetAddress.getLoopbackAddress(), 555, "admin", "admin");
+        final String cameraID = RealTimeTrackingSession.getCameraID(loginParam);
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final List<Tracklet[]> windows = new CopyOnWriteArrayList<>();
+
+        final RealTimeTrackingSession session = new RealTimeTrackingSession(
+                UUID.randomUUID(),
+                loginParam,
+                () -> new FakeWebCameraConnector(loginParam),
+                new FakePedestrianTracker(),
+                100,
+                1000,
+                windows::add,
+                cancelled::get,
+                new ConsoleLogger(Level.INFO));
+        RealTimeTrackingSession.launch(session);
+        final long start = System.currentTimeMillis();
+        while (windows.isEmpty() && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+        assert !windows.isEmpty();
+
+        // A termination signal stops the session without reconnecting, though it has not been shut down.
+        cancelled.set(true);
+        session.join(5000);
+        assert !session.isAlive();
+        assert session.getNumConnections() == 1;
+        assert !RealTimeTrackingSession.getSessions().containsKey(cameraID);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of LaS-VPE-Platform.
+ *
+ * LaS-VPE-Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE-Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE-Platform. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.common;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class MetricRegistryTest {
+
+    private static double sampleOf(String text, String name) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(name + "{")) {
+                return Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+            }
+        }
+        return Double.NaN;
+    }
+
+    @Test
+    public void histogramPercentiles() throws Exception {
+        MetricRegistry registry = new MetricRegistry("test");
+        MetricRegistry.Histogram histogram = registry.histogram("latency", "stage", "test");
+        assert histogram == registry.histogram("latency", "stage", "test");
+        for (long i = 1; i <= 10000; ++i) {
+            histogram.record(i);
+        }
+
+        List<MetricRegistry.Snapshot> snapshots = registry.snapshot();
+        assert snapshots.size() == 1;
+        MetricRegistry.Snapshot snapshot = snapshots.get(0);
+        assert snapshot.count == 10000;
+        assert snapshot.min == 1 && snapshot.max == 10000;
+        assert Math.abs(snapshot.p50 - 5000) <= 5000 / 64;
+        assert Math.abs(snapshot.p99 - 9900) <= 9900 / 64;
+
+        // Histograms are reset on snapshots, except for the cumulative totals.
+        histogram.record(1);
+        snapshot = registry.snapshot().get(0);
+        assert snapshot.count == 1;
+        assert snapshot.totalCount == 10001;
+        assert snapshot.totalSum == 10000L * 10001 / 2 + 1;
+    }
+
+    @Test
+    public void prometheusTotalsAreMonotonic() throws Exception {
+        MetricRegistry registry = new MetricRegistry("test");
+        registry.histogram("latency").record(100);
+        registry.meter("tracklets").mark(3);
+        final String first = MetricsReporter.toPrometheusText(registry.snapshot());
+        assert sampleOf(first, "vpe_latency_count") == 1 : first;
+        assert sampleOf(first, "vpe_latency_sum") == 100 : first;
+        assert sampleOf(first, "vpe_tracklets_total") == 3 : first;
+
+        // An idle interval keeps the totals instead of dropping them to zero.
+        final String idle = MetricsReporter.toPrometheusText(registry.snapshot());
+        assert sampleOf(idle, "vpe_latency_count") == 1 : idle;
+        assert sampleOf(idle, "vpe_latency_sum") == 100 : idle;
+        assert sampleOf(idle, "vpe_tracklets_total") == 3 : idle;
+        assert !idle.contains("quantile") : idle;
+    }
+
+    @Test
+    public void negativeValuesRecordedAsZero() throws Exception {
+        MetricRegistry registry = new MetricRegistry("test");
+        MetricRegistry.Histogram histogram = registry.histogram("queue_wait");
+        histogram.record(-500);
+        histogram.record(100);
+        MetricRegistry.Snapshot snapshot = registry.snapshot().get(0);
+        assert snapshot.min == 0;
+        assert snapshot.mean == 50;
+        assert snapshot.totalSum == 100;
+    }
+
+    @Test
+    public void bucketIndex() throws Exception {
+        for (long value = 0; value < 1L << 20; value += 7) {
+            final int index = MetricRegistry.Histogram.bucketIndex(value);
+            assert MetricRegistry.Histogram.bucketHighestValue(index) >= value;
+            assert index == 0 || MetricRegistry.Histogram.bucketHighestValue(index - 1) < value;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelExecutorTest {
+    @Test
+    public void slowItemDoesNotStallOthers() throws Exception {
+        final ParallelExecutor executor = ParallelExecutor.get("test-slow", 4, 8);
+        final List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            items.add(i);
+        }
+        final AtomicInteger numProcessed = new AtomicInteger(0);
+        final AtomicInteger inFlight = new AtomicInteger(0);
+        final AtomicInteger maxInFlight = new AtomicInteger(0);
+        final CountDownLatch othersDone = new CountDownLatch(items.size() - 1);
+        final AtomicBoolean othersDoneWhileBlocked = new AtomicBoolean(false);
+        executor.execute(items, item -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            if (item == 0) {
+                // Block the slow item until all the others have finished, which never happens
+                // if they are held back by it, e.g. by processing in chunks.
+                try {
+                    othersDoneWhileBlocked.set(othersDone.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException ignored) {
+                }
+            } else {
+                othersDone.countDown();
+            }
+            inFlight.decrementAndGet();
+            numProcessed.incrementAndGet();
+        });
+
+        assert numProcessed.get() == items.size();
+        assert maxInFlight.get() <= 4;
+        assert othersDoneWhileBlocked.get();
+    }
+
+    @Test
+    public void failurePropagates() throws Exception {
+        final ParallelExecutor executor = ParallelExecutor.get("test-failure", 2, 2);
+        final AtomicInteger numPulled = new AtomicInteger(0);
+        final Iterator<Integer> items = new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                return numPulled.incrementAndGet();
+            }
+        };
+        try {
+            executor.execute(items, item -> {
+                if (item == 5) {
+                    throw new IllegalStateException("failed on " + item);
+                }
+            });
+            assert false;
+        } catch (IllegalStateException e) {
+            assert e.getMessage().equals("failed on 5");
+        }
+        // Pulling stops soon after the failure.
+        assert numPulled.get() < 5 + 2 + 1;
+    }
+}
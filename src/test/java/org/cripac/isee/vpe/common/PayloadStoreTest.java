@@ -0,0 +1,49 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.common;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.UUID;
+
+public class PayloadStoreTest {
+
+    @Test
+    public void keepPayloadsUntilExpired() throws Exception {
+        final File root = Files.createTempDirectory("payload-store-test").toFile();
+        try {
+            final PayloadStore store = new PayloadStore(root.toURI().toString());
+            final PayloadReference ref = store.store(UUID.randomUUID(), "payload");
+
+            // A payload can be loaded again, e.g. by a retried task, until it expires.
+            assert ref.load().equals("payload");
+            assert store.sweep(3600000) == 0;
+            assert ref.load().equals("payload");
+
+            final int numRemoved = store.sweep(-1000);
+            assert numRemoved == 1;
+            final String[] left = root.list();
+            assert left != null && left.length == 0;
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+}
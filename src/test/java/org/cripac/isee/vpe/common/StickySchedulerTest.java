@@ -0,0 +1,102 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.common;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Level;
+import org.apache.spark.SparkConf;
+import org.apache.spark.SparkContext;
+import org.cripac.isee.vpe.util.logging.ConsoleLogger;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class StickySchedulerTest {
+
+    /**
+     * Sources reconciled in the executor, which is the driver in the local mode.
+     */
+    private static final List<Map<String, String>> reconciled = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void releasedSourceIsStopped() throws Exception {
+        final File root = Files.createTempDirectory("sticky-scheduler-test").toFile();
+        final SparkContext sc = new SparkContext(new SparkConf()
+                .setMaster("local[2]")
+                .setAppName("sticky-scheduler-test")
+                .set("spark.ui.enabled", "false"));
+        try {
+            final String sourceFile = new File(root, "sources").toURI().toString();
+            final StickyScheduler<String> scheduler = new StickyScheduler<>(new ConsoleLogger(Level.INFO), sourceFile);
+            scheduler.submit("cam1", "login1");
+            scheduler.submit("cam2", "login2");
+            scheduler.reconcile(sc, assigned -> reconciled.add(new HashMap<>(assigned)));
+            final Map<String, String> both = new HashMap<>();
+            both.put("cam1", "login1");
+            both.put("cam2", "login2");
+            assert reconciled.get(reconciled.size() - 1).equals(both) : reconciled;
+            assert scheduler.getOwners().keySet().equals(both.keySet());
+
+            scheduler.release("cam1");
+            scheduler.reconcile(sc, assigned -> reconciled.add(new HashMap<>(assigned)));
+            // The executor is told to run cam2 only, so it stops cam1.
+            assert reconciled.get(reconciled.size() - 1).equals(Collections.singletonMap("cam2", "login2"))
+                    : reconciled;
+            assert scheduler.getOwners().keySet().equals(Collections.singleton("cam2"));
+            // The released source is not brought back by a restarted driver.
+            assert new StickyScheduler<String>(new ConsoleLogger(Level.INFO), sourceFile).getSources()
+                    .equals(Collections.singletonMap("cam2", "login2"));
+        } finally {
+            sc.stop();
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void reloadSourcesAfterRestart() throws Exception {
+        final File root = Files.createTempDirectory("sticky-scheduler-test").toFile();
+        try {
+            final String sourceFile = new File(root, "sources").toURI().toString();
+            final StickyScheduler<String> scheduler = new StickyScheduler<>(new ConsoleLogger(Level.INFO), sourceFile);
+            scheduler.submit("cam1", "login1");
+            scheduler.submit("cam2", "login2");
+            scheduler.submit("cam3", "login3");
+            scheduler.release("cam2");
+
+            // A scheduler created by a restarted driver gets the sources still submitted.
+            final StickyScheduler<String> restarted =
+                    new StickyScheduler<>(new ConsoleLogger(Level.INFO), sourceFile);
+            restarted.submit("cam4", "login4");
+            final StickyScheduler<String> restartedAgain =
+                    new StickyScheduler<>(new ConsoleLogger(Level.INFO), sourceFile);
+            assert restartedAgain.getSources().keySet().equals(new HashSet<>(Arrays.asList("cam1", "cam3", "cam4")));
+            final String[] left = root.list((dir, name) -> name.endsWith(".tmp"));
+            assert left != null && left.length == 0;
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+}
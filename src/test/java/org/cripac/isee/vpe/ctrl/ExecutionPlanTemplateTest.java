@@ -0,0 +1,94 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import org.cripac.isee.vpe.alg.pedestrian.attr.PedestrianAttrRecogApp;
+import org.cripac.isee.vpe.alg.pedestrian.reid.PedestrianReIDUsingAttrApp;
+import org.cripac.isee.vpe.alg.pedestrian.tracking.PedestrianTrackingApp.HDFSVideoTrackingStream;
+import org.cripac.isee.vpe.ctrl.MessageHandlingApp.CommandType;
+import org.cripac.isee.vpe.ctrl.MessageHandlingApp.Parameter;
+import org.cripac.isee.vpe.ctrl.TaskData.ExecutionPlan;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.cripac.isee.util.SerializationHelper.deserialize;
+import static org.cripac.isee.util.SerializationHelper.serialize;
+
+public class ExecutionPlanTemplateTest {
+    @Test
+    public void serializeByTemplate() throws Exception {
+        final ExecutionPlanTemplate template = ExecutionPlanTemplate.get(CommandType.TRACK_ATTRRECOG_REID);
+        assert template != null;
+        final Map<String, Serializable> param = new HashMap<>();
+        param.put(Parameter.TRACKING_CONF_FILE, "isee-basic/CAM01_0.conf");
+        final ExecutionPlan plan = template.instantiate(param);
+        final TaskData taskData = new TaskData(template.getEntryPorts(plan), plan, "video.h264");
+
+        final TaskData received = deserialize(serialize(taskData));
+        final ExecutionPlan.Node trackingNode = received.getDestNode(HDFSVideoTrackingStream.VIDEO_URL_PORT);
+        assert trackingNode != null;
+        assert "isee-basic/CAM01_0.conf".equals(trackingNode.getExecData());
+        assert received.predecessorRes.equals("video.h264");
+
+        // Output to attribute recognition and ReID after tracking.
+        trackingNode.getSpan().markStarted(HDFSVideoTrackingStream.VIDEO_URL_PORT.name);
+        final List<ExecutionPlan.Node.Port> outputPorts = trackingNode.getOutputPorts();
+        trackingNode.markExecuted();
+        final TaskData tracked = deserialize(serialize(new TaskData(outputPorts.subList(0, 1),
+                received.executionPlan, "tracklet")));
+        final ExecutionPlan.Node attrRecogNode = tracked.getDestNode(PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT);
+        assert attrRecogNode != null;
+        assert attrRecogNode.getOutputPorts().size() == 2;
+        final ExecutionPlan.Node trackedNode = tracked.executionPlan.getNode(trackingNode.getID());
+        assert trackedNode != null && trackedNode.isExecuted() && trackedNode.getExecData() == null;
+        assert tracked.executionPlan.getTraceSpans().size() == 1;
+        assert tracked.executionPlan.getTraceSpans().get(0).stage.equals(HDFSVideoTrackingStream.VIDEO_URL_PORT.name);
+
+        // Plans are combined by the executed nodes.
+        attrRecogNode.markExecuted();
+        final ExecutionPlan another = template.instantiate(Collections.emptyMap());
+        another.combine(tracked.executionPlan);
+        assert another.getNode(attrRecogNode.getID()).isExecuted();
+        assert another.getNode(trackingNode.getID()).isExecuted();
+    }
+
+    @Test
+    public void compactMessages() throws Exception {
+        final ExecutionPlanTemplate template = ExecutionPlanTemplate.get(CommandType.ATTRRECOG_REID);
+        assert template != null;
+        final ExecutionPlan plan = template.instantiate(Collections.emptyMap());
+        final byte[] compact = serialize(new TaskData(template.getEntryPorts(plan), plan, "tracklet"));
+
+        // The same graph built ad hoc is serialized as a whole.
+        final ExecutionPlan adHoc = new ExecutionPlan();
+        final ExecutionPlan.Node attrRecogNode = adHoc.addNode(PedestrianAttrRecogApp.RecogStream.OUTPUT_TYPE);
+        final ExecutionPlan.Node reidNode = adHoc.addNode(PedestrianReIDUsingAttrApp.ReIDStream.OUTPUT_TYPE);
+        attrRecogNode.outputTo(reidNode.createInputPort(PedestrianReIDUsingAttrApp.ReIDStream.ATTR_PORT));
+        final byte[] full = serialize(new TaskData(
+                attrRecogNode.createInputPort(PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT), adHoc, "tracklet"));
+        assert compact.length < full.length : compact.length + " >= " + full.length;
+
+        final TaskData received = deserialize(full);
+        assert received.getDestNode(PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT).getOutputPorts().size() == 1;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class MonitorThreadTest {
+    @Test
+    public void encodeAndDecodeReports() throws Exception {
+        final long[] first = {1024, 0, -5, Long.MAX_VALUE, Long.MIN_VALUE, 42};
+        final long[] second = {1030, 0, 7, Long.MAX_VALUE - 1, Long.MIN_VALUE + 3, 40};
+
+        final byte[] keyFrame = MonitorThread.encode(7, first, null);
+        final byte[] deltaFrame = MonitorThread.encode(7, second, first);
+        // Small changes are encoded in few bytes.
+        assert deltaFrame.length < 3 + second.length * 2;
+
+        // Delta frames cannot be decoded before a key frame.
+        assert new MonitorThread.ReportDecoder().decode(deltaFrame) == null;
+
+        MonitorThread.ReportDecoder decoder = new MonitorThread.ReportDecoder();
+        assert Arrays.equals(decoder.decode(keyFrame), first);
+        assert Arrays.equals(decoder.decode(deltaFrame), second);
+    }
+
+    @Test
+    public void ignoreDeltasOfAnotherJVM() throws Exception {
+        final long[] values = {1, 2, 3};
+        final long[] others = {100, 200, 300};
+        final MonitorThread.ReportDecoder decoder = new MonitorThread.ReportDecoder();
+        assert Arrays.equals(decoder.decode(MonitorThread.encode(1, values, null)), values);
+        // A JVM restarted with the same key starts a new stream, whose deltas do not apply to the old one.
+        assert decoder.decode(MonitorThread.encode(2, others, values)) == null;
+        assert decoder.decode(MonitorThread.encode(1, values, values)) == null;
+        assert Arrays.equals(decoder.decode(MonitorThread.encode(2, others, null)), others);
+        assert Arrays.equals(decoder.decode(MonitorThread.encode(2, values, others)), values);
+    }
+}
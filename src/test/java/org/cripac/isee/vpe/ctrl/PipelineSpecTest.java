@@ -0,0 +1,105 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import org.cripac.isee.vpe.alg.pedestrian.attr.PedestrianAttrRecogApp;
+import org.cripac.isee.vpe.alg.pedestrian.reid.PedestrianReIDUsingAttrApp;
+import org.cripac.isee.vpe.common.DataType;
+import org.cripac.isee.vpe.ctrl.MessageHandlingApp.CommandType;
+import org.cripac.isee.vpe.ctrl.MessageHandlingApp.Parameter;
+import org.cripac.isee.vpe.ctrl.TaskData.ExecutionPlan;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.cripac.isee.util.SerializationHelper.deserialize;
+import static org.cripac.isee.util.SerializationHelper.serialize;
+
+public class PipelineSpecTest {
+
+    private static final String SPEC = "{\"name\": \"attrrecog-reid-nosave\", \"version\": 1,"
+            + " \"nodes\": [{\"id\": \"attr\", \"stream\": \"recog\"},"
+            + "   {\"id\": \"reid\", \"stream\": \"PedestrianReIDUsingAttr\"},"
+            + "   {\"id\": \"save\", \"stream\": \"idrank-saving\"}],"
+            + " \"links\": [{\"from\": \"attr\", \"to\": \"reid\", \"port\": \"pedestrian-attr-for-reid-using-attr\"},"
+            + "   {\"from\": \"reid\", \"to\": \"save\", \"port\": \"pedestrian-idrank-saving\"}],"
+            + " \"entries\": [{\"node\": \"attr\", \"port\": \"pedestrian-tracklet-for-attr-recog\"},"
+            + "   {\"node\": \"reid\", \"port\": \"pedestrian-tracklet-for-reid-using-attr\"}]}";
+
+    private static void assertInvalid(String spec) {
+        try {
+            PipelineSpec.compile(spec);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        assert false : "Invalid spec compiled: " + spec;
+    }
+
+    @Test
+    public void compile() throws Exception {
+        final Map<String, Serializable> param = new HashMap<>();
+        param.put(Parameter.PIPELINE_SPEC, SPEC);
+        final ExecutionPlanTemplate template = MessageHandlingApp.getTemplate(CommandType.PIPELINE, param);
+        assert template.id.equals("attrrecog-reid-nosave");
+        assert template.getEntryType() == DataType.TRACKLET;
+        // Compiling the same spec again gives the template registered.
+        assert MessageHandlingApp.getTemplate(CommandType.PIPELINE, param) == template;
+
+        final ExecutionPlan plan = template.instantiate(param);
+        final TaskData taskData = deserialize(serialize(new TaskData(template.getEntryPorts(plan), plan, "tracklet")));
+        final ExecutionPlan.Node attrRecogNode = taskData.getDestNode(PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT);
+        final ExecutionPlan.Node reidNode =
+                taskData.getDestNode(PedestrianReIDUsingAttrApp.ReIDStream.TRACKLET_PORT);
+        assert attrRecogNode != null && reidNode != null;
+        // The attributes are sent to ReID only, without being saved.
+        assert attrRecogNode.getOutputPorts().size() == 1;
+        assert attrRecogNode.getOutputPorts().get(0).getNode() == reidNode;
+    }
+
+    @Test
+    public void pipelineDoesNotTakeOverCommands() throws Exception {
+        final ExecutionPlanTemplate builtin = ExecutionPlanTemplate.get(CommandType.ATTRRECOG_REID);
+        assert builtin != null;
+        final Map<String, Serializable> param = new HashMap<>();
+        param.put(Parameter.PIPELINE_SPEC, SPEC.replace("\"attrrecog-reid-nosave\", \"version\": 1",
+                "\"" + CommandType.ATTRRECOG_REID + "\", \"version\": 99"));
+        try {
+            MessageHandlingApp.getTemplate(CommandType.PIPELINE, param);
+            assert false;
+        } catch (IllegalStateException ignored) {
+        }
+        assert MessageHandlingApp.getTemplate(CommandType.ATTRRECOG_REID, new HashMap<>()) == builtin;
+    }
+
+    @Test
+    public void validate() {
+        // Attributes cannot be sent to a port of tracklets.
+        assertInvalid(SPEC.replace("\"from\": \"attr\", \"to\": \"reid\", \"port\": \"pedestrian-attr-for-reid-using-attr\"",
+                "\"from\": \"attr\", \"to\": \"reid\", \"port\": \"pedestrian-tracklet-for-reid-using-attr\""));
+        // Unknown stream or port.
+        assertInvalid(SPEC.replace("\"stream\": \"recog\"", "\"stream\": \"recognition\""));
+        assertInvalid(SPEC.replace("pedestrian-idrank-saving", "pedestrian-attr-saving"));
+        // Entries of different types.
+        assertInvalid(SPEC.replace("pedestrian-tracklet-for-reid-using-attr", "pedestrian-track-attr-for-reid-using-attr"));
+        // No entry.
+        assertInvalid(SPEC.substring(0, SPEC.indexOf(", \"entries\"")) + "}");
+        assertInvalid("not json");
+    }
+}
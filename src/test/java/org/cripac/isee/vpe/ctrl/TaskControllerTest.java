@@ -0,0 +1,57 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.ctrl;
+
+import org.cripac.isee.util.CancellationToken;
+import org.cripac.isee.vpe.util.logging.ConsoleLogger;
+import org.junit.Test;
+
+import java.util.UUID;
+
+public class TaskControllerTest {
+
+    @Test
+    public void expireSignals() {
+        final TaskController controller = new TaskController(null, 1000, 2, new ConsoleLogger());
+        final UUID a = UUID.randomUUID();
+        final UUID b = UUID.randomUUID();
+        final UUID c = UUID.randomUUID();
+        final CancellationToken token = controller.getToken(a);
+        assert !token.isCancelled();
+
+        controller.terminate(a, 100);
+        assert token.isCancelled();
+        assert controller.isTerminated(a);
+
+        // Signals older than the time-to-live expire.
+        controller.expire(1200);
+        assert !token.isCancelled();
+
+        // The oldest signals are dropped beyond the capacity.
+        controller.terminate(a, 1000);
+        controller.terminate(b, 1100);
+        controller.terminate(c, 1050);
+        controller.expire(1200);
+        assert !controller.isTerminated(a);
+        assert controller.isTerminated(b);
+        assert controller.isTerminated(c);
+
+        controller.revoke(b);
+        assert !controller.isTerminated(b);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.data;
+
+import org.cripac.isee.vpe.debug.FakeDatabaseConnector;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class GraphDatabaseConnectorTest {
+
+    /**
+     * A connector storing similarities in double, which pages links like {@link Neo4jConnector}.
+     */
+    private static class DoubleStoringConnector extends FakeDatabaseConnector {
+        final Map<String, Double> similarities = new HashMap<>();
+
+        @Override
+        public List<Link> getLinkedPedestrians(@Nonnull String nodeID,
+                                               @Nullable Link cursor,
+                                               int limit) {
+            return similarities.entrySet().stream()
+                    .filter(e -> cursor == null || e.getValue() < cursor.getSortKey()
+                            || (e.getValue() == cursor.getSortKey() && e.getKey().compareTo(cursor.nodeB) > 0))
+                    .sorted(Comparator.<Map.Entry<String, Double>>comparingDouble(Map.Entry::getValue).reversed()
+                            .thenComparing(Map.Entry::getKey))
+                    .limit(limit)
+                    .map(e -> new Link(nodeID, e.getKey(), e.getValue()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void pageLinksStoredInDouble() {
+        final DoubleStoringConnector connector = new DoubleStoringConnector();
+        // Similarities not representable in float, many of which are equal.
+        for (int i = 0; i < 250; ++i) {
+            connector.similarities.put(String.format("p%03d", i), 0.1 + (i % 7) * 0.1);
+        }
+        final GraphDatabaseConnector.Link[] links = connector.getLinkedPedestrians("query");
+        assert links.length == 250 : links.length;
+        final Set<String> ids = new HashSet<>();
+        for (GraphDatabaseConnector.Link link : links) {
+            assert ids.add(link.nodeB) : "Duplicate link to " + link.nodeB;
+        }
+        for (int i = 1; i < links.length; ++i) {
+            assert links[i].follows(links[i - 1]);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.data;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class HDFSReaderTest {
+
+    @Test
+    public void walkSubfiles() throws Exception {
+        final File root = Files.createTempDirectory("hdfs-reader-test").toFile();
+        try {
+            final Set<String> expected = new HashSet<>();
+            for (String name : new String[]{"a.avi", "x/b.avi", "x/y/c.avi", "z/d.avi"}) {
+                final File file = new File(root, name);
+                Files.createDirectories(file.getParentFile().toPath());
+                Files.createFile(file.toPath());
+                expected.add(file.getCanonicalPath());
+            }
+            Files.createDirectory(new File(root, "empty").toPath());
+
+            final HDFSReader reader = new HDFSReader();
+            final Set<String> walked = new HashSet<>();
+            final long numSubfiles = reader.forEachSubfile(new Path(root.toURI()),
+                    path -> walked.add(new File(path.toUri()).getCanonicalPath()));
+            assert numSubfiles == expected.size();
+            assert walked.equals(expected) : walked;
+
+            final List<Path> listed = reader.listSubfiles(new Path(root.toURI()));
+            assert listed.size() == expected.size();
+
+            // A file is walked through as itself.
+            final Set<String> single = new HashSet<>();
+            reader.forEachSubfile(new Path(new File(root, "x/b.avi").toURI()),
+                    path -> single.add(new File(path.toUri()).getCanonicalPath()));
+            assert single.equals(Collections.singleton(new File(root, "x/b.avi").getCanonicalPath()));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.cripac.isee.vpe.debug.FakePedestrianTracker;
 import org.junit.Test;
 
 import java.io.FileInputStream;
+import java.util.Arrays;
 import java.util.Collections;
 
 public class SerializationHelperTest {
@@ -48,4 +49,19 @@ public class SerializationHelperTest {
             assert serialized.length == size;
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void serializeWithinLimit() throws Exception {
+        TaskData.ExecutionPlan executionPlan = new TaskData.ExecutionPlan();
+        TaskData.ExecutionPlan.Node attrNode = executionPlan.addNode(DataType.ATTRIBUTES);
+        Tracklet[] tracklets = new FakePedestrianTracker().track(new FileInputStream("pom.xml"));
+        TaskData taskData = new TaskData(
+                Collections.singletonList(attrNode.createInputPort(PedestrianAttrRecogApp.RecogStream.TRACKLET_PORT)),
+                executionPlan,
+                new TrackletOrURL(tracklets[0]));
+        byte[] serialized = SerializationHelper.serialize(taskData);
+        assert Arrays.equals(serialized, SerializationHelper.serialize(taskData, serialized.length));
+        assert SerializationHelper.serialize(taskData, serialized.length - 1) == null;
+        assert SerializationHelper.serialize(taskData, 16) == null;
+    }
+}
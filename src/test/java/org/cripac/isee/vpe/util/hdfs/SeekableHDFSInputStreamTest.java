@@ -0,0 +1,75 @@
+/*
+ * This file is part of LaS-VPE Platform.
+ *
+ * LaS-VPE Platform is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LaS-VPE Platform is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LaS-VPE Platform.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cripac.isee.vpe.util.hdfs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class SeekableHDFSInputStreamTest {
+    @Test
+    public void seekLikeFFmpeg() throws Exception {
+        final File file = File.createTempFile("seekable-hdfs-input-stream-test", ".bin");
+        try {
+            final byte[] content = new byte[10000];
+            for (int i = 0; i < content.length; ++i) {
+                content[i] = (byte) (i % 251);
+            }
+            Files.write(file.toPath(), content);
+
+            final FileSystem fs = FileSystem.getLocal(new Configuration());
+            try (SeekableHDFSInputStream in = SeekableHDFSInputStream.open(fs, new Path(file.getPath()), 1000)) {
+                assert in.length() == content.length;
+                assert in.markSupported();
+                // The grabber marks the start of the stream.
+                in.mark(Integer.MAX_VALUE);
+
+                // Reads across the read-ahead buffer.
+                final byte[] buf = new byte[1500];
+                int n = 0;
+                while (n < buf.length) {
+                    n += in.read(buf, n, buf.length - n);
+                }
+                for (int i = 0; i < buf.length; ++i) {
+                    assert buf[i] == content[i];
+                }
+
+                // Seek to the end (SEEK_SET), and back (SEEK_CUR with a negative offset).
+                in.reset();
+                assert in.skip(9990) == 9990;
+                assert in.read() == (content[9990] & 0xFF);
+                assert in.skip(-5000) == -5000;
+                assert in.getPos() == 4991;
+                assert in.read() == (content[4991] & 0xFF);
+
+                // Reading beyond the end.
+                in.seek(content.length - 1);
+                assert in.read() == (content[content.length - 1] & 0xFF);
+                assert in.read() == -1;
+                assert in.read(buf, 0, buf.length) == -1;
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+}